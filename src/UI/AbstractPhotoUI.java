@@ -1,5 +1,8 @@
 package UI;
 
+import java.awt.Rectangle;
+
+import javax.swing.JComponent;
 import javax.swing.plaf.ComponentUI;
 
 /**
@@ -9,4 +12,13 @@ public abstract class AbstractPhotoUI extends ComponentUI {
 	
 	// Identifier for this class.
 	public static final String UI_CLASS_ID = "AbstractPhotoUI";
+	
+	/**
+	 * Returns the region of Component c covered by a text block, 
+	 * including room for the next character.
+	 * @param c JComponent the component.
+	 * @param block int the index of the text block.
+	 * @return Rectangle the region of the text block.
+	 */
+	public abstract Rectangle getTextBounds(JComponent c, int block);
 }
@@ -2,30 +2,63 @@ package UI;
 
 import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Point;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
-import java.util.ArrayList;
+import java.awt.image.BufferedImage;
+import java.util.List;
 
 import javax.swing.JComponent;
 
+import cache.GlyphCache;
 import component.PhotoComponent;
+import loader.TiledImage;
+import model.PhotoModel;
+import model.StrokeStore;
+import model.TextBlock;
+import render.PhotoRenderer;
 
 /**
  * UI for the PhotoComponent.
- * Redraws the component.
+ * Redraws the component through a PhotoRenderer, and keeps what only matters 
+ * on screen: the ink layer, the tiles of big photos and the input of the user.
  */
 public class PhotoUI extends AbstractPhotoUI implements MouseListener, MouseMotionListener, KeyListener{
 	
-	// Number of lines in text blocks.
-	private int lines = 0; 
+	/*
+	 * Ink layer: the white canvas with the strokes drawn on it, kept between paints. 
+	 * New segments are drawn onto it as they come, so a paint while drawing 
+	 * only copies the layer instead of drawing every stroke again.
+	 */
+	private BufferedImage inkLayer;
+	
+	// Color the strokes of the ink layer are drawn in.
+	private Color inkColor;
+	
+	// Strokes on the ink layer, with their number of points and generation.
+	private StrokeStore inkStrokes;
+	private int inkPoints;
+	private int inkGeneration;
+	
+	// Photos over this many pixels get no ink layer, their strokes are drawn at each paint.
+	private static final long MAX_INK_PIXELS = 16L * 1024 * 1024;
+	
+	// Number of shaped lines of text kept for a photo.
+	private static final int GLYPH_CACHE_LINES = 1024;
+	
+	// Shaped lines of text of this photo, so components painted apart share nothing.
+	private final GlyphCache glyphs = new GlyphCache(GLYPH_CACHE_LINES);
+	
+	// Draws the photo and its annotations, with the text index and layouts of this photo.
+	private final PhotoRenderer renderer = new PhotoRenderer(glyphs);
 	
 	/*
      * ---------------------------------------------------------------------
@@ -47,20 +80,21 @@ public class PhotoUI extends AbstractPhotoUI implements MouseListener, MouseMoti
 	 * Sets up listeners, sizes and default color and font.
 	 */
 	public void installUI(JComponent c) {
+		PhotoModel model = ((PhotoComponent) c).getModel();
 		// Add listeners
 		((PhotoComponent) c).addMouseListener(this); 
 		((PhotoComponent) c).addMouseMotionListener(this); 
 		((PhotoComponent) c).addKeyListener(this);    
 		
 		// Set up sizes and listeners of the component.
-		int iconWidth = PhotoComponent.getIconWidth();
-		int iconHeight = PhotoComponent.getIconHeight();
-		((PhotoComponent) c).setSize(iconWidth, iconHeight);
-		((PhotoComponent) c).setPreferredSize(new Dimension(iconWidth, iconHeight));
+		int imageWidth = model.getImageWidth();
+		int imageHeight = model.getImageHeight();
+		((PhotoComponent) c).setSize(imageWidth, imageHeight);
+		((PhotoComponent) c).setPreferredSize(new Dimension(imageWidth, imageHeight));
     	
     	// Set default color and font.
-		PhotoComponent.setDrawColor(Color.black);
-    	PhotoComponent.setTextFont(new Font("Pristina", Font.PLAIN, 16));
+		model.setDrawColor(PhotoRenderer.DEFAULT_DRAW_COLOR);
+    	model.setTextFont(PhotoRenderer.DEFAULT_TEXT_FONT);
 	}
 	
 	/**
@@ -82,152 +116,182 @@ public class PhotoUI extends AbstractPhotoUI implements MouseListener, MouseMoti
 	 * Draws Component c with Graphics g.
 	 */
 	public void paint(Graphics g, JComponent c) {
+        PhotoModel model = ((PhotoComponent) c).getModel();
         Graphics2D g2 = (Graphics2D) g;
     
         // Draws image if it is not flipped, otherwise white canvas and components.
-        if (!PhotoComponent.isImageFlipped()) {
-        	drawImage(g); 
+        if (!model.isImageFlipped()) {
+        	if (((PhotoComponent) c).getTiledImage() != null) {
+        		drawTiles(g2, c);
+        	} else {
+        		renderer.drawImage(g2, model); 
+        	}
         } else {
-        	drawCanvas(g2);
+        	// Draw the canvas and strokes from the ink layer if there is one.
+        	if (!drawInkLayer(g2, c)) {
+        		renderer.drawCanvas(g2, model);
+        		renderer.setUpGraphics(g2, model);
+        		renderer.drawStrokes(g2, model);
+        	}
         	
         	// Draw text and font in the specified values.
-        	Color color = PhotoComponent.getDrawColor();
-        	Font font = PhotoComponent.getTextFont();
-        	g2.setPaint(color); 
-    		g2.setFont(font); 
-    		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-    		
-        	drawStrokes(g2, ((PhotoComponent) c));
-        	drawText(g2, PhotoComponent.getTextValue(), ((PhotoComponent) c));	
+        	renderer.setUpGraphics(g2, model);
+        	renderer.drawText(g2, model, c.getWidth());	
+        }
+        
+        if (!model.isImageFlipped()) {
+        	// Not needed until the photo is flipped again, nor are the strokes it was drawn from.
+        	inkLayer = null;
+        	inkStrokes = null;
         }
 	}
+	
+	/**
+	 * Brings the ink layer up to date and draws it.
+	 * Only the segments added since the last paint are drawn onto the layer. It is 
+	 * drawn again from scratch when the size or color changed, or strokes were removed.
+	 * @param g2 Graphics of this component.
+	 * @param c JComponent the component of this UI.
+	 * @return boolean false if the photo is too big for an ink layer, and nothing was drawn.
+	 */
+	private boolean drawInkLayer(Graphics2D g2, JComponent c) {
+		PhotoModel model = ((PhotoComponent) c).getModel();
+		int imageWidth = model.getImageWidth();
+		int imageHeight = model.getImageHeight();
+		if ((long) imageWidth * imageHeight > MAX_INK_PIXELS || imageWidth <= 0 || imageHeight <= 0) {
+			inkLayer = null;
+			return false;
+		}
+		
+		StrokeStore strokes = model.getStrokes();
+		boolean rebuild = inkLayer == null 
+				|| inkLayer.getWidth() != imageWidth || inkLayer.getHeight() != imageHeight
+				|| !model.getDrawColor().equals(inkColor)
+				|| strokes != inkStrokes
+				|| strokes.getGeneration() != inkGeneration 
+				|| strokes.getPointCount() < inkPoints;
+		
+		if (rebuild) {
+			if (inkLayer == null || inkLayer.getWidth() != imageWidth || inkLayer.getHeight() != imageHeight) {
+				inkLayer = createInkLayer(c, imageWidth, imageHeight);
+			}
+			Graphics2D ink = inkLayer.createGraphics();
+			renderer.drawCanvas(ink, model);
+			renderer.setUpGraphics(ink, model);
+			renderer.drawStrokes(ink, model);
+			ink.dispose();
+		} else if (strokes.getPointCount() > inkPoints) {
+			// Only the new segments.
+			Graphics2D ink = inkLayer.createGraphics();
+			renderer.setUpGraphics(ink, model);
+			renderer.drawStrokesFrom(ink, model, inkPoints);
+			ink.dispose();
+		}
+		inkColor = model.getDrawColor();
+		inkStrokes = strokes;
+		inkPoints = strokes.getPointCount();
+		inkGeneration = strokes.getGeneration();
+		
+		// Copy only the part in the clip.
+		Rectangle clip = g2.getClipBounds();
+		if (clip == null) {
+			g2.drawImage(inkLayer, 0, 0, null);
+		} else {
+			clip = clip.intersection(new Rectangle(0, 0, imageWidth, imageHeight));
+			if (!clip.isEmpty()) {
+				g2.drawImage(inkLayer, clip.x, clip.y, clip.x + clip.width, clip.y + clip.height, 
+						clip.x, clip.y, clip.x + clip.width, clip.y + clip.height, null);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Creates an opaque image for the ink layer, in the format of the screen if possible 
+	 * so that copying it to the screen needs no conversion.
+	 */
+	private BufferedImage createInkLayer(JComponent c, int width, int height) {
+		GraphicsConfiguration configuration = c.getGraphicsConfiguration();
+		if (configuration != null) {
+			return configuration.createCompatibleImage(width, height, Transparency.OPAQUE);
+		}
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
     
     /**
-     * Draws the photo image in the component.
-     * @param g Graphics of this component.
-     */
-    private void drawImage(Graphics g) {	
-    	g.setColor(Color.gray);          
-        g.drawImage(PhotoComponent.getImage(), 0, 0, null); 
-    }
-    
-    /**
-     * Draws the canvas where the user can add strokes and text.
+     * Draws the tiles of a photo that is too big to be decoded as a whole.
+     * Only the tiles in the visible part of the component are drawn, 
+     * missing tiles are requested and covered by the placeholder until they are decoded.
      * @param g2 Graphics of this component.
+     * @param c JComponent the component of this UI.
      */
-    private void drawCanvas(Graphics2D g2) {
-    	int iconWidth = PhotoComponent.getIconWidth();
-		int iconHeight = PhotoComponent.getIconHeight();
+    private void drawTiles(Graphics2D g2, JComponent c) {
+    	PhotoModel model = ((PhotoComponent) c).getModel();
+    	TiledImage tiledImage = ((PhotoComponent) c).getTiledImage();
+    	BufferedImage placeholder = model.getImage();
+    	int imageWidth = model.getImageWidth();
+		int imageHeight = model.getImageHeight();
+    	
+    	Rectangle visible = c.getVisibleRect();
+    	Rectangle clip = g2.getClipBounds();
+    	if (clip != null) {
+    		visible = visible.intersection(clip);
+    	}
+    	visible = visible.intersection(new Rectangle(0, 0, imageWidth, imageHeight));
+    	if (visible.isEmpty()) {
+    		return;
+    	}
+    	
+    	// Decode no more pixels than end up on the screen.
+    	int level = TiledImage.getLevel(g2.getTransform().getScaleX());
+    	int span = TiledImage.TILE_SIZE << level;
     	
-    	g2.setColor(Color.white);
-		g2.fillRect(0, 0, iconWidth, iconHeight);
+    	g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    	for (int row = visible.y / span; row <= (visible.y + visible.height - 1) / span; row++) {
+    		for (int col = visible.x / span; col <= (visible.x + visible.width - 1) / span; col++) {
+    			Rectangle bounds = tiledImage.getTileBounds(level, col, row);
+    			BufferedImage tile = tiledImage.getTile(level, col, row);
+    			
+    			if (tile != null) {
+    				g2.drawImage(tile, bounds.x, bounds.y, bounds.width, bounds.height, null);
+    			} else if (placeholder != null) {
+    				// Draw the matching region of the placeholder, scaled up.
+    				double sx = (double) placeholder.getWidth() / imageWidth;
+    				double sy = (double) placeholder.getHeight() / imageHeight;
+    				g2.drawImage(placeholder, 
+    						bounds.x, bounds.y, bounds.x + bounds.width, bounds.y + bounds.height, 
+    						(int) (bounds.x * sx), (int) (bounds.y * sy), 
+    						(int) Math.ceil((bounds.x + bounds.width) * sx), 
+    						(int) Math.ceil((bounds.y + bounds.height) * sy), null);
+    			} else {
+    				g2.setColor(Color.gray);
+    				g2.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
+    			}
+    		}
+    	}
     }
     
     /**
-     * Draws the users strokes.
-     * @param g2 Graphics of this component.
+     * Returns the cache of shaped lines of text of this photo, for its hit and miss counters.
      */
-    private void drawStrokes(Graphics2D g2, PhotoComponent c) {    	
-    	ArrayList<Point> drawnPoints = PhotoComponent.getDrawnPoints();
-		
-		for (int i = 0; i < drawnPoints.size() - 2; i++){
-	        if (drawnPoints.get(i) != null && drawnPoints.get(i+1) != null) {
-	        	Point p1 = drawnPoints.get(i);
-    	        Point p2 = drawnPoints.get(i + 1);
-    	        
-    	        g2.drawLine(p1.x, p1.y, p2.x, p2.y);
-	        }
-	    }
+    public GlyphCache getGlyphCache() {
+    	return glyphs;
     }
-    
-    /**
-     * Draws the users text with graphics g2,
-     * the recursive text string and a pointer to PhotoComponent c.
-     * @param g2 Graphics2D graphics.
-     * @param recText String recursive string with all the users text.
-     * @param c PhotoComponent the component of this UI.
-     */
-    private void drawText(Graphics2D g2, String recText, PhotoComponent c) {
-    	//Empty string, nothing needs to be done.
-		if (recText.length() == 0 || recText.equals("+")) {} 		
-		//Remove "+" at the end of the string and recursively draw remaining text.
-		else if (recText.contains("+") && recText.charAt(recText.length() - 1) == '+') {
-			drawText(g2, recText.substring(0, recText.length() - 1), c);
-		} 
-		//Draw last written string and recursively draw remaining text.
-		else if (recText.contains("+")) {			
-			int plusCount = 0;
-			int lastPlusPosition = -1;
-			
-			//Use position of plus to get the correct position of the text.
-			for (int i = 0; i < recText.length(); i++) {
-				if (recText.charAt(i) == '+') {
-					plusCount++;
-					lastPlusPosition = i;
-				}
-			}
-			
-			//Draw string.
-			String text = recText.substring(lastPlusPosition + 1, recText.length());
-			if (text.length() != 0) {
-				prepareForDrawing(g2, text, plusCount, c);
-			}
-			
-			drawText(g2, recText.substring(0, lastPlusPosition), c);
+	
+	/**
+	 * Returns the region covered by text block block: from its point to the right border, 
+	 * down to one line below its last line, for a character that wraps or a line that is deleted.
+	 */
+	@Override
+	public Rectangle getTextBounds(JComponent c, int block) {
+		PhotoModel model = ((PhotoComponent) c).getModel();
+		List<TextBlock> blocks = model.getTextBlocks();
+		if (block < 0 || block >= blocks.size()) {
+			return new Rectangle(0, 0, c.getWidth(), c.getHeight());
 		}
-    }
-    
-	private void prepareForDrawing(Graphics2D g2, String text, int plusCount, PhotoComponent c) {
-		
-		Point pointToDraw = PhotoComponent.getTextPoints().get(plusCount - 1);
 		
-		if (pointToDraw != null) {
-			// Get position of the text.
-			double textX = pointToDraw.getX();
-			double textY = pointToDraw.getY();
-			
-			// Add the value of the newly added text.
-			
-			// Calculate distance from first character of typed text to end of this component.
-			double photoComponentEnd = c.getX() + c.getWidth();
-			double distanceToBorder = photoComponentEnd - (c.getX() + textX);
-			
-			String textToDraw = "";
-			lines = 0;
-			
-			for (int i = 0; i < text.length(); i++) {
-				textToDraw = textToDraw + text.charAt(i);
-				
-				/* 
-				 * If next character ("c") will cross the photo border, put \n there.
-				 * Margin of 10px for wrapping.
-				 */
-				if (g2.getFontMetrics().stringWidth(text.substring(0, i) + text.charAt(i) + "c")
-						- ((distanceToBorder-10) * lines) > (distanceToBorder-10)) {
-					lines++;
-					textToDraw = textToDraw + "\n";
-				}
-			}
-			
-			drawString(g2, textToDraw, (int) textX, (int) textY);
-		}
+		return renderer.getTextBounds(model, c.getWidth(), block);
 	}
-
-    /**
-     * Draws a string. Could draw on multiple lines based on \n characters.
-     * @param g2 Graphics that are used to draw the string.
-     * @param text String that is drawn.
-     * @param x X position of drawn string.
-     * @param y Y position of drawn string.
-     */
-    private void drawString(Graphics2D g2, String text, int x, int y) { 	
-    	String[] textSplit = text.split("\n");	
-    	
-    	for (String line : textSplit) {
-    		// Adds a new line for every part of the text separated by \n.
-    		g2.drawString(line, x, y += g2.getFontMetrics().getHeight());
-        }
-    }
 	
     /*
      * ---------------------------------------------------------------------
@@ -239,48 +303,56 @@ public class PhotoUI extends AbstractPhotoUI implements MouseListener, MouseMoti
      * Resets variables that keep information on the users typed text to make it possible to 
      * type another text.
      */
-    private void resetTextVariables() {
-		lines = 0;
-		
-		// Put a "+" sign to show separation of words.
-		PhotoComponent.setTextValue(PhotoComponent.getTextValue() + "+");
+    private void resetTextVariables(PhotoModel model) {
+		// End the current text block, dropped if nothing was typed in it.
+		model.endTextBlock();
     }
     
 
     @Override
 	public void mousePressed(MouseEvent e) {	
+		PhotoComponent c = (PhotoComponent) e.getSource();
+		PhotoModel model = c.getModel();
+		
+		// The clicked photo gets the typed text, not another one on screen.
+		c.setFocusable(true);
+		c.requestFocusInWindow();
+		
 		// When component is double clicked, it is flipped.
 		if (e.getClickCount() == 2) {
-			PhotoComponent.setImageFlipped(!PhotoComponent.isImageFlipped());  
+			model.setImageFlipped(!model.isImageFlipped());  
         } else {
-        	if (PhotoComponent.isImageFlipped()) {
+        	if (model.isImageFlipped()) {
         		//Reset some variables when the user clicks on a new point.
-        		resetTextVariables();
+        		resetTextVariables(model);
         		
-        		// Update location of the first character of the current text.
-        		PhotoComponent.getTextPoints().add(e.getPoint());
+        		// Start a text block at the location of its first character.
+        		model.startTextBlock(e.getPoint());
         	}       	
         }
 	}
 
 	@Override
 	public void mouseReleased(MouseEvent e) {
-        if (PhotoComponent.isImageFlipped()) {
-        	// Add a null value to prevent connecting all points.
-        	PhotoComponent.addDrawnPoint(null);
+        PhotoModel model = ((PhotoComponent) e.getSource()).getModel();
+        if (model.isImageFlipped()) {
+        	// End the stroke to prevent connecting it to the next one.
+        	model.endStroke();
         }
 	}
 	
 	@Override
 	public void mouseDragged(MouseEvent e) {
-		if (PhotoComponent.isImageFlipped()) {
+		PhotoModel model = ((PhotoComponent) e.getSource()).getModel();
+		if (model.isImageFlipped()) {
 			//Add all drawn points to the array.
-			PhotoComponent.addDrawnPoint(e.getPoint());
+			model.addDrawnPoint(e.getX(), e.getY());
 		}
 	}
 
 	@Override
 	public void keyPressed(KeyEvent e) {
+		PhotoModel model = ((PhotoComponent) e.getSource()).getModel();
 		int keyCode =  e.getKeyCode();
 		char keyChar = e.getKeyChar();
 		
@@ -288,16 +360,47 @@ public class PhotoUI extends AbstractPhotoUI implements MouseListener, MouseMoti
 				keyCode == KeyEvent.CTRL_DOWN_MASK ||
 				keyCode == KeyEvent.ALT_GRAPH_DOWN_MASK ||
 				keyCode == KeyEvent.ALT_DOWN_MASK ||
-				keyCode == KeyEvent.VK_BACK_SPACE ||
-				keyCode == KeyEvent.VK_DELETE ||
 				keyCode == KeyEvent.VK_CAPS_LOCK) { 
 			// Do nothing
-		} else if (keyCode != KeyEvent.CHAR_UNDEFINED) {
-			// Update the current text and put on the string that represents a stack
-			PhotoComponent.setTextValue(PhotoComponent.getTextValue() + keyChar);	
+		} else if (keyCode == KeyEvent.VK_BACK_SPACE) {
+			model.deleteTextBackward();
+		} else if (keyCode == KeyEvent.VK_DELETE) {
+			model.deleteTextForward();
+		} else if (keyCode == KeyEvent.VK_LEFT || keyCode == KeyEvent.VK_RIGHT
+				|| keyCode == KeyEvent.VK_HOME || keyCode == KeyEvent.VK_END) {
+			moveCaret(model, keyCode);
+		} else if (keyChar != KeyEvent.CHAR_UNDEFINED 
+				&& (!Character.isISOControl(keyChar) || keyChar == '\n' || keyChar == '\t')) {
+			// Insert the character at the caret of the current text block, 
+			// control characters such as Ctrl+Z are left to the menu shortcuts.
+			model.insertText(keyChar);	
 		}		
 	}
 	
+	/**
+	 * Moves the caret of the current text block for an arrow, home or end key.
+	 */
+	private void moveCaret(PhotoModel model, int keyCode) {
+		int current = model.getCurrentTextBlock();
+		if (current < 0) {
+			return;
+		}
+		TextBlock block = model.getTextBlocks().get(current);
+		switch (keyCode) {
+		case KeyEvent.VK_LEFT:
+			model.setTextCaret(block.getCaret() - 1);
+			break;
+		case KeyEvent.VK_RIGHT:
+			model.setTextCaret(block.getCaret() + 1);
+			break;
+		case KeyEvent.VK_HOME:
+			model.setTextCaret(0);
+			break;
+		default:
+			model.setTextCaret(block.length());
+		}
+	}
+	
 	@Override
 	public void mouseMoved(MouseEvent e) {}
 	
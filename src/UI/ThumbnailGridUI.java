@@ -0,0 +1,252 @@
+package UI;
+
+import java.awt.Color;
+import java.awt.Container;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+
+import javax.swing.JComponent;
+import javax.swing.JViewport;
+import javax.swing.plaf.ComponentUI;
+
+import component.BrowserModel;
+import component.ThumbnailGrid;
+import loader.ThumbnailLoader;
+import model.PhotoList;
+
+/**
+ * UI for the ThumbnailGrid.
+ * Lays out the photos in rows of cells and draws only the rows that are in view.
+ */
+public class ThumbnailGridUI extends ComponentUI {
+	
+	// Identifier for this class.
+	public static final String UI_CLASS_ID = "ThumbnailGridUI";
+	
+	// Space around a thumbnail in its cell, and height of the name below it.
+	private static final int PADDING = 10;
+	private static final int NAME_HEIGHT = 16;
+	
+	private static final Color SELECTION_COLOR = new Color(90, 120, 170);
+	
+	// Handles selection and opening of photos.
+	private final MouseAdapter mouseHandler = new MouseAdapter() {
+		@Override
+		public void mousePressed(MouseEvent e) {
+			ThumbnailGrid grid = (ThumbnailGrid) e.getComponent();
+			grid.requestFocusInWindow();
+			
+			int index = getIndexAt(grid, e.getPoint());
+			if (index < 0) {
+				return;
+			}
+			
+			if (e.getClickCount() == 2) {
+				grid.fireOpen(index);
+			} else {
+				grid.getModel().setSelectedIndex(index);
+			}
+		}
+	};
+	
+	// Size of the thumbnails, set when installed.
+	private int thumbnailSize;
+	
+	/*
+     * ---------------------------------------------------------------------
+     * BOILERPLATE CODE FOR SETTING UP UI
+     * --------------------------------------------------------------------- 
+	 */
+	
+	/**
+	 * Creates new ThumbnailGridUI
+	 * @param c JComponent the ThumbnailGrid.
+	 * @return new ThumbnailGridUI.
+	 */
+	public static ThumbnailGridUI createUI(JComponent c) {
+		return new ThumbnailGridUI();
+	}
+	
+	/**
+	 * Installs this UI of ThumbnailGrid c. 
+	 */
+	public void installUI(JComponent c) {
+		thumbnailSize = ((ThumbnailGrid) c).getThumbnailLoader().getSize();
+		c.setOpaque(true);
+		c.setBackground(Color.gray);
+		c.addMouseListener(mouseHandler);
+	}
+	
+	/**
+	 * Removes listeners in this UI for ThumbnailGrid c.
+	 */
+	public void uninstallUI(JComponent c) {
+		c.removeMouseListener(mouseHandler);
+	}
+	
+	/*
+     * ---------------------------------------------------------------------
+     * LAYOUT
+     * --------------------------------------------------------------------- 
+	 */
+	
+	public int getCellWidth() {
+		return thumbnailSize + 2 * PADDING;
+	}
+	
+	public int getCellHeight() {
+		return thumbnailSize + 2 * PADDING + NAME_HEIGHT;
+	}
+	
+	/**
+	 * Returns the number of columns, which follows the width of the viewport.
+	 * @param c JComponent the ThumbnailGrid.
+	 * @return int the number of columns, at least 1.
+	 */
+	public int getColumnCount(JComponent c) {
+		Container parent = c.getParent();
+		int width = parent instanceof JViewport ? parent.getWidth() : c.getWidth();
+		return Math.max(1, width / getCellWidth());
+	}
+	
+	/**
+	 * Returns the size that fits all rows in the current number of columns.
+	 */
+	@Override
+	public Dimension getPreferredSize(JComponent c) {
+		int count = ((ThumbnailGrid) c).getModel().getPhotoCount();
+		int columns = getColumnCount(c);
+		int rows = (count + columns - 1) / columns;
+		return new Dimension(columns * getCellWidth(), rows * getCellHeight());
+	}
+	
+	/**
+	 * Returns the bounds of the cell of the photo at index.
+	 * @param c JComponent the ThumbnailGrid.
+	 * @param index int the index of the photo.
+	 * @return Rectangle the bounds of its cell.
+	 */
+	public Rectangle getCellBounds(JComponent c, int index) {
+		int columns = getColumnCount(c);
+		return new Rectangle((index % columns) * getCellWidth(), (index / columns) * getCellHeight(), 
+				getCellWidth(), getCellHeight());
+	}
+	
+	/**
+	 * Returns the index of the photo whose cell contains point p.
+	 * @param c JComponent the ThumbnailGrid.
+	 * @param p Point the point.
+	 * @return int the index of the photo, -1 if there is no photo at p.
+	 */
+	public int getIndexAt(JComponent c, Point p) {
+		int columns = getColumnCount(c);
+		int column = p.x / getCellWidth();
+		if (p.x < 0 || p.y < 0 || column >= columns) {
+			return -1;
+		}
+		int index = (p.y / getCellHeight()) * columns + column;
+		return index < ((ThumbnailGrid) c).getModel().getPhotoCount() ? index : -1;
+	}
+	
+	/*
+     * ---------------------------------------------------------------------
+     * DRAW COMPONENT
+     * --------------------------------------------------------------------- 
+	 */
+	
+	/**
+	 * Draws the cells of Component c that intersect the clip of g.
+	 * Cells outside it are never touched, whatever the number of photos.
+	 */
+	public void paint(Graphics g, JComponent c) {
+		ThumbnailGrid grid = (ThumbnailGrid) c;
+		BrowserModel model = grid.getModel();
+		PhotoList photos = model.getPhotos();
+		
+		Rectangle clip = g.getClipBounds();
+		if (clip == null) {
+			clip = c.getVisibleRect();
+		}
+		g.setColor(c.getBackground());
+		g.fillRect(clip.x, clip.y, clip.width, clip.height);
+		
+		int count = model.getPhotoCount();
+		if (count == 0) {
+			return;
+		}
+		
+		// Only the rows and columns that intersect the clip.
+		int columns = getColumnCount(c);
+		int firstRow = Math.max(0, clip.y / getCellHeight());
+		int lastRow = (clip.y + clip.height - 1) / getCellHeight();
+		int firstColumn = Math.max(0, clip.x / getCellWidth());
+		int lastColumn = Math.min(columns - 1, (clip.x + clip.width - 1) / getCellWidth());
+		
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				int index = row * columns + column;
+				if (index >= count) {
+					return;
+				}
+				drawCell(g, grid, photos, index, column * getCellWidth(), row * getCellHeight(), 
+						index == model.getSelectedIndex());
+			}
+		}
+	}
+	
+	/**
+	 * Draws the cell of the photo at index, with its top left corner at x, y.
+	 */
+	private void drawCell(Graphics g, ThumbnailGrid grid, PhotoList photos, int index, int x, int y, boolean selected) {
+		if (selected) {
+			g.setColor(SELECTION_COLOR);
+			g.fillRect(x + 2, y + 2, getCellWidth() - 4, getCellHeight() - 4);
+		}
+		
+		BufferedImage thumbnail = grid.getThumbnailLoader().getThumbnail(index, photos.getPath(index));
+		int areaX = x + PADDING;
+		int areaY = y + PADDING;
+		
+		if (thumbnail == null) {
+			// Not decoded yet.
+			g.setColor(Color.lightGray);
+			g.drawRect(areaX, areaY, thumbnailSize - 1, thumbnailSize - 1);
+		} else if (thumbnail == ThumbnailLoader.FAILED) {
+			// Could not be decoded.
+			g.setColor(Color.darkGray);
+			g.drawLine(areaX, areaY, areaX + thumbnailSize, areaY + thumbnailSize);
+			g.drawLine(areaX + thumbnailSize, areaY, areaX, areaY + thumbnailSize);
+		} else {
+			// Centered in the thumbnail area.
+			g.drawImage(thumbnail, areaX + (thumbnailSize - thumbnail.getWidth()) / 2, 
+					areaY + (thumbnailSize - thumbnail.getHeight()) / 2, null);
+		}
+		
+		drawName(g, photos.getName(index), x, areaY + thumbnailSize);
+	}
+	
+	/**
+	 * Draws name centered below a thumbnail, cut off with "..." when it does not fit the cell.
+	 */
+	private void drawName(Graphics g, String name, int x, int y) {
+		FontMetrics metrics = g.getFontMetrics();
+		int maxWidth = getCellWidth() - 4;
+		
+		if (metrics.stringWidth(name) > maxWidth) {
+			int end = name.length();
+			while (end > 0 && metrics.stringWidth(name.substring(0, end)) + metrics.stringWidth("...") > maxWidth) {
+				end--;
+			}
+			name = name.substring(0, end) + "...";
+		}
+		
+		g.setColor(Color.white);
+		g.drawString(name, x + (getCellWidth() - metrics.stringWidth(name)) / 2, y + metrics.getAscent() + 2);
+	}
+}
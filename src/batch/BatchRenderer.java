@@ -0,0 +1,358 @@
+package batch;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import cache.GlyphCache;
+import loader.PhotoLoader;
+import model.PhotoModel;
+import render.PhotoRenderer;
+import storage.AnnotationJournal;
+import storage.Annotations;
+import util.NamedThreadFactory;
+
+/**
+ * Burns the annotations of the photos of a folder into copies of them, headless,
+ * from the command line.
+ *
+ * Photos go through a pipeline of three stages, each with its own workers: decode
+ * reads a photo and its annotations, render draws the annotations over the photo with
+ * a PhotoRenderer, without Swing, and encode writes the result. The stages are joined by
+ * bounded queues, so a fast stage waits for a slow one instead of filling the memory
+ * with decoded photos. Photos without annotations are skipped before they are decoded.
+ *
+ * Usage: java batch.BatchRenderer input-folder output-folder [workers-per-stage]
+ */
+public class BatchRenderer {
+	
+	// Photos waiting between two stages, each one is a decoded photo in memory.
+	public static final int DEFAULT_QUEUE_CAPACITY = 4;
+	
+	private static final float JPEG_QUALITY = 0.92f;
+	
+	// Lines of text shaped by a render worker, kept for the next photos.
+	private static final int GLYPH_CACHE_LINES = 1024;
+	
+	private final int decodeWorkers;
+	private final int renderWorkers;
+	private final int encodeWorkers;
+	private final int queueCapacity;
+	
+	/**
+	 * A photo going through the pipeline.
+	 */
+	private static class Job {
+		final File photo;
+		final File output;
+		Annotations annotations;
+		BufferedImage image;
+	
+		// Time the job was put in the queue of its stage.
+		long queuedNanos;
+	
+		Job(File photo, File output) {
+			this.photo = photo;
+			this.output = output;
+		}
+	}
+	
+	// Marks the end of the photos in a queue, one for each worker.
+	private static final Job END = new Job(null, null);
+	
+	/**
+	 * Workers that take photos from a bounded queue and pass them to the next stage.
+	 */
+	private abstract static class Stage implements Runnable {
+		private final String name;
+		private final BlockingQueue<Job> queue;
+		private final Thread[] workers;
+		private final AtomicInteger running;
+		private final BatchReport.StageStats stats;
+		private final BatchReport report;
+	
+		// Stage the photos go to, null for the last one.
+		private Stage next;
+	
+		Stage(String name, int workers, int queueCapacity, BatchReport.StageStats stats, BatchReport report) {
+			this.name = name;
+			this.queue = new ArrayBlockingQueue<Job>(queueCapacity);
+			this.workers = new Thread[workers];
+			this.running = new AtomicInteger(workers);
+			this.stats = stats;
+			this.report = report;
+		}
+	
+		/**
+		 * Works on a photo.
+		 * @return boolean true to pass it to the next stage, false if it is done with.
+		 */
+		abstract boolean process(Job job) throws IOException;
+	
+		void start(Stage next) {
+			this.next = next;
+			NamedThreadFactory factory = new NamedThreadFactory("batch-" + name, Thread.NORM_PRIORITY);
+			for (int i = 0; i < workers.length; i++) {
+				workers[i] = factory.newThread(this);
+				workers[i].start();
+			}
+		}
+	
+		/**
+		 * Queues a photo, waiting while the queue is full.
+		 */
+		void put(Job job) throws InterruptedException {
+			job.queuedNanos = System.nanoTime();
+			queue.put(job);
+		}
+	
+		/**
+		 * Lets the workers end once the photos queued so far are done.
+		 */
+		void finish() throws InterruptedException {
+			for (int i = 0; i < workers.length; i++) {
+				queue.put(END);
+			}
+		}
+	
+		void join() throws InterruptedException {
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		}
+	
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					Job job = queue.take();
+					if (job == END) {
+						break;
+					}
+					long start = System.nanoTime();
+					boolean passed;
+					try {
+						passed = process(job);
+					} catch (IOException | RuntimeException e) {
+						System.err.println(job.photo + " could not be exported: " + e);
+						report.addFailed();
+						passed = false;
+					}
+					stats.add(start - job.queuedNanos, System.nanoTime() - start);
+					if (passed) {
+						if (next != null) {
+							next.put(job);
+						} else {
+							report.addRendered();
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				// The last worker of the stage ends the next one.
+				if (running.decrementAndGet() == 0 && next != null) {
+					try {
+						next.finish();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Constructor.
+	 * @param decodeWorkers int the number of photos decoded at once.
+	 * @param renderWorkers int the number of photos rendered at once.
+	 * @param encodeWorkers int the number of photos encoded at once.
+	 * @param queueCapacity int the number of photos that may wait between two stages.
+	 */
+	public BatchRenderer(int decodeWorkers, int renderWorkers, int encodeWorkers, int queueCapacity) {
+		this.decodeWorkers = decodeWorkers;
+		this.renderWorkers = renderWorkers;
+		this.encodeWorkers = encodeWorkers;
+		this.queueCapacity = queueCapacity;
+	}
+	
+	/**
+	 * Writes the photos of folder input that have annotations, with their annotations
+	 * drawn over them, to folder output. JPEG photos are written as JPEG, others as PNG, see getOutput.
+	 * @param input File the folder of the photos.
+	 * @param output File the folder written to, created if needed.
+	 * @return BatchReport the counts, throughput and timings of each stage.
+	 * @throws IOException if a folder can not be read or created.
+	 * @throws InterruptedException if interrupted while waiting for the workers.
+	 */
+	public BatchReport render(File input, File output) throws IOException, InterruptedException {
+		File[] files = input.listFiles();
+		if (files == null) {
+			throw new IOException("The folder " + input + " can not be read");
+		}
+		if (input.getCanonicalFile().equals(output.getCanonicalFile())) {
+			throw new IOException("The photos would be written over themselves in " + output);
+		}
+		if (!output.isDirectory() && !output.mkdirs()) {
+			throw new IOException("The folder " + output + " can not be created");
+		}
+		Arrays.sort(files);
+	
+		final BatchReport report = new BatchReport();
+		Stage decode = new Stage("decode", decodeWorkers, queueCapacity, report.getDecode(), report) {
+			@Override
+			boolean process(Job job) throws IOException {
+				job.annotations = AnnotationJournal.read(job.photo);
+				if (job.annotations == null || job.annotations.isEmpty()) {
+					report.addSkipped();
+					return false;
+				}
+				job.image = PhotoLoader.load(job.photo);
+				return true;
+			}
+		};
+		Stage render = new Stage("render", renderWorkers, queueCapacity, report.getRender(), report) {
+			private final ThreadLocal<GlyphCache> glyphs = new ThreadLocal<GlyphCache>() {
+				@Override
+				protected GlyphCache initialValue() {
+					return new GlyphCache(GLYPH_CACHE_LINES);
+				}
+			};
+	
+			@Override
+			boolean process(Job job) {
+				job.image = burn(job.image, job.annotations, glyphs.get());
+				job.annotations = null;
+				return true;
+			}
+		};
+		Stage encode = new Stage("encode", encodeWorkers, queueCapacity, report.getEncode(), report) {
+			@Override
+			boolean process(Job job) throws IOException {
+				write(job.image, job.output);
+				job.image = null;
+				return true;
+			}
+		};
+	
+		long start = System.nanoTime();
+		encode.start(null);
+		render.start(encode);
+		decode.start(render);
+		Set<String> outputs = new HashSet<String>();
+		for (File file : files) {
+			if (file.isFile() && PhotoLoader.isPhotoFile(file.getName())) {
+				File photoOutput = getOutput(file, output);
+				if (!outputs.add(photoOutput.getName().toLowerCase())) {
+					// Would be written over the output of another photo, e.g. a.gif next to a.gif.png.
+					System.err.println(file + " could not be exported: " + photoOutput + " is the output of another photo");
+					report.addFailed();
+					continue;
+				}
+				decode.put(new Job(file, photoOutput));
+			}
+		}
+		decode.finish();
+		decode.join();
+		render.join();
+		encode.join();
+		report.setElapsedNanos(System.nanoTime() - start);
+		return report;
+	}
+	
+	/**
+	 * Draws annotations over a copy of image, the way they are drawn on the flipped photo.
+	 * @param image BufferedImage the photo.
+	 * @param annotations Annotations the annotations of the photo.
+	 * @param glyphs GlyphCache the cache of shaped text of the calling thread.
+	 * @return BufferedImage an opaque RGB image of the photo with the annotations.
+	 */
+	public static BufferedImage burn(BufferedImage image, Annotations annotations, GlyphCache glyphs) {
+		PhotoModel model = new PhotoModel();
+		model.setImageSize(image.getWidth(), image.getHeight());
+		model.setImage(image);
+		annotations.applyTo(model);
+		return new PhotoRenderer(glyphs).renderAnnotated(model);
+	}
+	
+	/**
+	 * Returns the file the photo is exported to: the same name for a JPEG or PNG photo,
+	 * the name with png added to it for the others, e.g. a.gif.png, so that photos
+	 * that only differ by their extension are not written to the same file.
+	 */
+	private static File getOutput(File photo, File output) {
+		String name = photo.getName();
+		if (!PhotoLoader.isJpegFile(name) && !name.toLowerCase().endsWith(".png")) {
+			name += ".png";
+		}
+		return new File(output, name);
+	}
+	
+	/**
+	 * Encodes image to file, as JPEG or PNG after its extension.
+	 */
+	private static void write(BufferedImage image, File file) throws IOException {
+		if (!PhotoLoader.isJpegFile(file.getName())) {
+			if (!ImageIO.write(image, "png", file)) {
+				throw new IOException("No PNG writer");
+			}
+			return;
+		}
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+		if (!writers.hasNext()) {
+			throw new IOException("No JPEG writer");
+		}
+		ImageWriter writer = writers.next();
+		ImageOutputStream out = ImageIO.createImageOutputStream(file);
+		if (out == null) {
+			throw new IOException("The file " + file + " can not be written");
+		}
+		try {
+			writer.setOutput(out);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(JPEG_QUALITY);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+			out.close();
+		}
+	}
+	
+	/**
+	 * Exports the annotated photos of a folder, and prints the throughput and timings.
+	 * @param args String[] the input folder, the output folder and the number of workers per stage.
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		if (args.length < 2) {
+			System.err.println("Usage: java batch.BatchRenderer input-folder output-folder [workers-per-stage]");
+			System.exit(2);
+		}
+		int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		try {
+			BatchReport report = new BatchRenderer(workers, workers, workers, DEFAULT_QUEUE_CAPACITY)
+					.render(new File(args[0]), new File(args[1]));
+			System.out.println(report);
+			System.exit(report.getFailedCount() == 0 ? 0 : 1);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+		} catch (InterruptedException e) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package batch;
+
+import java.util.Arrays;
+
+/**
+ * Outcome of a batch render: how many photos were rendered, skipped or failed,
+ * the throughput, and the time photos spent in each stage.
+ */
+public class BatchReport {
+	
+	/**
+	 * Time spent by photos in a stage of the pipeline, in nanoseconds: in its work,
+	 * and waiting in its queue before that. Thread safe, updated by the workers of the stage.
+	 */
+	public static class StageStats {
+	
+		private final String name;
+	
+		// Time of each photo in the stage, in the order they were done.
+		private long[] workNanos = new long[256];
+		private long[] waitNanos = new long[256];
+		private int count;
+	
+		StageStats(String name) {
+			this.name = name;
+		}
+	
+		synchronized void add(long waitNanos, long workNanos) {
+			if (count == this.workNanos.length) {
+				this.workNanos = Arrays.copyOf(this.workNanos, 2 * count);
+				this.waitNanos = Arrays.copyOf(this.waitNanos, 2 * count);
+			}
+			this.waitNanos[count] = waitNanos;
+			this.workNanos[count] = workNanos;
+			count++;
+		}
+	
+		public String getName() {
+			return name;
+		}
+	
+		public synchronized int getCount() {
+			return count;
+		}
+	
+		/**
+		 * Returns the mean time of the work on a photo.
+		 */
+		public synchronized long getMeanNanos() {
+			long total = 0;
+			for (int i = 0; i < count; i++) {
+				total += workNanos[i];
+			}
+			return count == 0 ? 0 : total / count;
+		}
+	
+		/**
+		 * Returns the time of the work on a photo that the given fraction of photos took at most.
+		 * @param fraction double between 0 and 1, e.g. 0.95 for the 95th percentile.
+		 */
+		public synchronized long getPercentileNanos(double fraction) {
+			return percentile(workNanos, fraction);
+		}
+	
+		/**
+		 * Returns the time photos waited in the queue of the stage, for the given fraction of them.
+		 * @param fraction double between 0 and 1.
+		 */
+		public synchronized long getWaitPercentileNanos(double fraction) {
+			return percentile(waitNanos, fraction);
+		}
+	
+		/**
+		 * Returns the timings in milliseconds, e.g. "decode: 120 photos, mean 41.2 ms, p50 40.8 ms, ...".
+		 */
+		@Override
+		public synchronized String toString() {
+			return name + ": " + count + " photos, mean " + millis(getMeanNanos())
+					+ ", p50 " + millis(percentile(workNanos, 0.5)) + ", p95 " + millis(percentile(workNanos, 0.95))
+					+ ", max " + millis(percentile(workNanos, 1)) + ", queued p50 " + millis(percentile(waitNanos, 0.5))
+					+ ", p95 " + millis(percentile(waitNanos, 0.95));
+		}
+	
+		private long percentile(long[] nanos, double fraction) {
+			if (count == 0) {
+				return 0;
+			}
+			long[] sorted = Arrays.copyOf(nanos, count);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(fraction * count) - 1;
+			return sorted[Math.max(0, Math.min(count - 1, index))];
+		}
+	}
+	
+	private final StageStats decode = new StageStats("decode");
+	private final StageStats render = new StageStats("render");
+	private final StageStats encode = new StageStats("encode");
+	
+	// Counts, updated by the workers.
+	private int rendered;
+	private int skipped;
+	private int failed;
+	
+	// Wall clock time of the whole batch.
+	private long elapsedNanos;
+	
+	StageStats getDecode() {
+		return decode;
+	}
+	
+	StageStats getRender() {
+		return render;
+	}
+	
+	StageStats getEncode() {
+		return encode;
+	}
+	
+	synchronized void addRendered() {
+		rendered++;
+	}
+	
+	synchronized void addSkipped() {
+		skipped++;
+	}
+	
+	synchronized void addFailed() {
+		failed++;
+	}
+	
+	void setElapsedNanos(long elapsedNanos) {
+		this.elapsedNanos = elapsedNanos;
+	}
+	
+	/**
+	 * Returns the number of photos whose annotations were burnt in and written.
+	 */
+	public synchronized int getRenderedCount() {
+		return rendered;
+	}
+	
+	/**
+	 * Returns the number of photos that have no annotations, and were not written.
+	 */
+	public synchronized int getSkippedCount() {
+		return skipped;
+	}
+	
+	/**
+	 * Returns the number of photos that could not be read, rendered or written.
+	 */
+	public synchronized int getFailedCount() {
+		return failed;
+	}
+	
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+	
+	/**
+	 * Returns the number of photos rendered per second of wall clock time.
+	 */
+	public synchronized double getPhotosPerSecond() {
+		return elapsedNanos == 0 ? 0 : rendered * 1e9 / elapsedNanos;
+	}
+	
+	public StageStats[] getStages() {
+		return new StageStats[] {decode, render, encode};
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		synchronized (this) {
+			sb.append(rendered).append(" rendered, ").append(skipped).append(" without annotations, ")
+					.append(failed).append(" failed in ").append(millis(elapsedNanos))
+					.append(String.format(" (%.1f photos/s)", getPhotosPerSecond()));
+		}
+		for (StageStats stage : getStages()) {
+			sb.append('\n').append(stage);
+		}
+		return sb.toString();
+	}
+	
+	private static String millis(long nanos) {
+		return String.format("%.1f ms", nanos / 1e6);
+	}
+}
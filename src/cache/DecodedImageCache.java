@@ -0,0 +1,127 @@
+package cache;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reference counted cache of fully decoded photos, shared by all views.
+ * A photo that is shown in several places is decoded and held in memory once.
+ * 
+ * Photos are pinned while they are referenced. Once the last reference is released 
+ * they move to a least recently used cache bounded by bytes, so a photo that is 
+ * opened again shortly after, e.g. when switching views, is not decoded again.
+ * 
+ * Every successful acquire or put must be balanced by a release.
+ */
+public class DecodedImageCache {
+	
+	/**
+	 * Photo that is referenced by at least one view.
+	 */
+	private static class Entry {
+		final BufferedImage image;
+		int references;
+		
+		// The file changed after the photo was decoded.
+		boolean stale;
+		
+		Entry(BufferedImage image) {
+			this.image = image;
+		}
+	}
+	
+	// Referenced photos by key.
+	private final Map<String, Entry> pinned = new HashMap<String, Entry>();
+	
+	// Photos that are no longer referenced, evicted when over budget.
+	private final ImageCache<String> released;
+	
+	/**
+	 * Constructor.
+	 * @param releasedBytes long the maximum number of bytes of photos kept after they are released.
+	 */
+	public DecodedImageCache(long releasedBytes) {
+		released = new ImageCache<String>(releasedBytes);
+	}
+	
+	/**
+	 * Returns the photo with key and adds a reference to it, if it is in the cache.
+	 * @param key String the key of the photo, its path.
+	 * @return BufferedImage the photo, or null if it is not in the cache.
+	 */
+	public synchronized BufferedImage acquire(String key) {
+		Entry entry = pinned.get(key);
+		if (entry != null && entry.stale) {
+			return null;
+		}
+		if (entry == null) {
+			BufferedImage image = released.remove(key);
+			if (image == null) {
+				return null;
+			}
+			entry = new Entry(image);
+			pinned.put(key, entry);
+		}
+		entry.references++;
+		return entry.image;
+	}
+	
+	/**
+	 * Adds a freshly decoded photo with one reference to it.
+	 * If another view put the same photo in the meantime, that photo is 
+	 * referenced and returned instead, and image can be dropped.
+	 * @param key String the key of the photo, its path.
+	 * @param image BufferedImage the decoded photo.
+	 * @return BufferedImage the photo that is now in the cache.
+	 */
+	public synchronized BufferedImage put(String key, BufferedImage image) {
+		BufferedImage existing = acquire(key);
+		if (existing != null) {
+			return existing;
+		}
+		// Views that still show a stale photo keep their references to the key.
+		Entry stale = pinned.get(key);
+		Entry entry = new Entry(image);
+		entry.references = stale == null ? 1 : stale.references + 1;
+		pinned.put(key, entry);
+		return image;
+	}
+	
+	/**
+	 * Removes a reference to the photo with key. 
+	 * @param key String the key of the photo, its path.
+	 */
+	public synchronized void release(String key) {
+		Entry entry = pinned.get(key);
+		if (entry == null) {
+			return;
+		}
+		if (--entry.references == 0) {
+			pinned.remove(key);
+			if (!entry.stale) {
+				released.put(key, entry.image);
+			}
+		}
+	}
+	
+	/**
+	 * Drops the photo with key, e.g. when its file changed. A photo that is still 
+	 * referenced is no longer handed out, and dropped once it is released.
+	 * @param key String the key of the photo, its path.
+	 */
+	public synchronized void invalidate(String key) {
+		released.remove(key);
+		Entry entry = pinned.get(key);
+		if (entry != null) {
+			entry.stale = true;
+		}
+	}
+	
+	/**
+	 * Returns the number of photos that are referenced.
+	 */
+	public synchronized int getPinnedCount() {
+		return pinned.size();
+	}
+}
@@ -0,0 +1,122 @@
+package cache;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of shaped text, keyed by font, render context and text.
+ * Shaping a line into glyphs is the expensive part of drawing text, so lines that
+ * are drawn again, at each repaint or in another text block, are shaped only once.
+ * Counts hits and misses, to tell how well the cache is sized.
+ *
+ * Bounded by the number of lines. Not thread safe, each view or thread that shapes text has its own.
+ */
+public class GlyphCache {
+	
+	/**
+	 * Font, render context and text of a line.
+	 */
+	private static final class Key {
+		Font font;
+		FontRenderContext frc;
+		String text;
+		int hash;
+	
+		void set(Font font, FontRenderContext frc, String text) {
+			this.font = font;
+			this.frc = frc;
+			this.text = text;
+			hash = (text.hashCode() * 31 + font.hashCode()) * 31 + frc.hashCode();
+		}
+	
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return hash == other.hash && text.equals(other.text) && font.equals(other.font) && frc.equals(other.frc);
+		}
+	}
+	
+	private final int maxLines;
+	
+	// Shaped lines by key, in access order so the eldest entry is the least recently used.
+	private final LinkedHashMap<Key, TextLayout> layouts;
+	
+	// Key looked up, reused so a hit allocates nothing.
+	private final Key probe = new Key();
+	
+	private long hits;
+	private long misses;
+	
+	/**
+	 * Constructor.
+	 * @param maxLines int the maximum number of lines kept in the cache.
+	 */
+	public GlyphCache(final int maxLines) {
+		this.maxLines = maxLines;
+		layouts = new LinkedHashMap<Key, TextLayout>(64, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+	
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, TextLayout> eldest) {
+				return size() > GlyphCache.this.maxLines;
+			}
+		};
+	}
+	
+	/**
+	 * Returns text shaped in font, shaping it on a miss.
+	 * @param text String the text, a single line that is not empty.
+	 * @param font Font the font.
+	 * @param frc FontRenderContext the context the text is measured and drawn in.
+	 * @return TextLayout the shaped text.
+	 */
+	public TextLayout getLayout(String text, Font font, FontRenderContext frc) {
+		probe.set(font, frc, text);
+		TextLayout layout = layouts.get(probe);
+		if (layout != null) {
+			hits++;
+			return layout;
+		}
+		misses++;
+		layout = new TextLayout(text, font, frc);
+		Key key = new Key();
+		key.set(font, frc, text);
+		layouts.put(key, layout);
+		return layout;
+	}
+	
+	public long getHitCount() {
+		return hits;
+	}
+	
+	public long getMissCount() {
+		return misses;
+	}
+	
+	public int size() {
+		return layouts.size();
+	}
+	
+	/**
+	 * Removes all lines, keeping the counters.
+	 */
+	public void clear() {
+		layouts.clear();
+	}
+	
+	@Override
+	public String toString() {
+		return "GlyphCache[" + layouts.size() + " lines, " + hits + " hits, " + misses + " misses]";
+	}
+}
@@ -0,0 +1,82 @@
+package cache;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of decoded images, bounded by the number of bytes 
+ * their pixels take. Not thread safe, callers synchronize on the cache.
+ * @param <K> type of the keys.
+ */
+public class ImageCache<K> {
+
+	private final long maxBytes;
+	private long bytes;
+	
+	// Images by key, in access order so the eldest entry is the least recently used.
+	private final LinkedHashMap<K, BufferedImage> images = new LinkedHashMap<K, BufferedImage>(64, 0.75f, true);
+	
+	/**
+	 * Constructor.
+	 * @param maxBytes long the maximum number of bytes of pixels kept in the cache.
+	 */
+	public ImageCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+	
+	public BufferedImage get(K key) {
+		return images.get(key);
+	}
+	
+	public boolean contains(K key) {
+		return images.containsKey(key);
+	}
+	
+	public BufferedImage remove(K key) {
+		BufferedImage image = images.remove(key);
+		if (image != null) {
+			bytes -= sizeOf(image);
+		}
+		return image;
+	}
+	
+	/**
+	 * Adds image with key to the cache, evicting the least recently used images when over budget.
+	 */
+	public void put(K key, BufferedImage image) {
+		BufferedImage old = images.put(key, image);
+		if (old != null) {
+			bytes -= sizeOf(old);
+		}
+		bytes += sizeOf(image);
+		
+		Iterator<Map.Entry<K, BufferedImage>> it = images.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			Map.Entry<K, BufferedImage> eldest = it.next();
+			if (eldest.getKey().equals(key)) {
+				continue;
+			}
+			bytes -= sizeOf(eldest.getValue());
+			it.remove();
+		}
+	}
+	
+	public void clear() {
+		images.clear();
+		bytes = 0;
+	}
+	
+	public long getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * Returns an estimate of the number of bytes the pixels of image take.
+	 */
+	public static long sizeOf(BufferedImage image) {
+		int bits = image.getColorModel().getPixelSize();
+		return (long) image.getWidth() * image.getHeight() * Math.max(1, (bits + 7) / 8);
+	}
+}
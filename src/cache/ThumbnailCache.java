@@ -0,0 +1,218 @@
+package cache;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import loader.PhotoLoader;
+
+/**
+ * Two tier cache of thumbnails.
+ * The first tier is a least recently used cache in memory, bounded by bytes.
+ * The second tier is a ThumbnailStore on disk, keyed by path, file size and 
+ * modification time, so it survives restarts and never returns a stale thumbnail.
+ * 
+ * Thumbnails come in a few fixed sizes. When an original has to be decoded, 
+ * the thumbnails of all sizes are made from it at once and written to disk, 
+ * so the original is never decoded again for another size. 
+ * The thumbnail embedded in the EXIF data of a JPEG file is used instead of 
+ * the original for the sizes it is big enough for. Like the opened photo, thumbnails 
+ * show the pixels as they are stored: the EXIF orientation is kept in the catalog only.
+ */
+public class ThumbnailCache {
+	
+	/*
+	 * Sizes of the thumbnails, the length of their longest side.
+	 */
+	public static final int SMALL = 80;
+	public static final int MEDIUM = 160;
+	public static final int LARGE = 320;
+	private static final int[] SIZES = {SMALL, MEDIUM, LARGE};
+	
+	// Quality of the JPEG encoded thumbnails on disk.
+	private static final float QUALITY = 0.85f;
+	
+	// Memory tier, guarded by itself.
+	private final ImageCache<String> memory;
+	
+	// Disk tier, null if it could not be opened.
+	private final ThumbnailStore store;
+	
+	/**
+	 * Creates a cache with its disk tier in directory.
+	 * Without a usable directory, the cache only keeps thumbnails in memory.
+	 * @param directory File the directory of the disk tier.
+	 * @param memoryBytes long the maximum number of bytes of thumbnails kept in memory.
+	 */
+	public ThumbnailCache(File directory, long memoryBytes) {
+		memory = new ImageCache<String>(memoryBytes);
+		
+		ThumbnailStore s = null;
+		try {
+			s = new ThumbnailStore(directory, "thumbnails");
+		} catch (IOException e) {
+			System.err.println("The thumbnail store could not be opened");
+		}
+		store = s;
+	}
+	
+	/**
+	 * Returns the thumbnail if it is in memory. Never touches the disk.
+	 * @param path String the path of the photo.
+	 * @param size int the size of the thumbnail.
+	 * @return BufferedImage the thumbnail, or null.
+	 */
+	public BufferedImage getCached(String path, int size) {
+		synchronized (memory) {
+			return memory.get(key(path, size));
+		}
+	}
+	
+	/**
+	 * Returns the thumbnail from memory, from disk, or by decoding the original, 
+	 * in that order. Does I/O, so it is never called on the Event Dispatch Thread.
+	 * @param path String the path of the photo.
+	 * @param size int the size of the thumbnail, one of SMALL, MEDIUM and LARGE.
+	 * @return BufferedImage the thumbnail.
+	 * @throws IOException if the original can not be decoded.
+	 */
+	public BufferedImage load(String path, int size) throws IOException {
+		BufferedImage thumbnail = getCached(path, size);
+		if (thumbnail != null) {
+			return thumbnail;
+		}
+		
+		File file = new File(path);
+		long fileSize = file.length();
+		long lastModified = file.lastModified();
+		
+		// Disk tier.
+		if (store != null) {
+			byte[] bytes = store.get(path, fileSize, lastModified, size);
+			if (bytes != null) {
+				thumbnail = decode(bytes);
+			}
+		}
+		
+		// Thumbnail embedded in the EXIF data, for the sizes it is big enough for.
+		if (thumbnail == null) {
+			BufferedImage embedded = PhotoLoader.loadEmbeddedThumbnail(file);
+			if (embedded != null && Math.max(embedded.getWidth(), embedded.getHeight()) >= size) {
+				int embeddedSize = Math.max(embedded.getWidth(), embedded.getHeight());
+				for (int s : SIZES) {
+					if (s > embeddedSize) {
+						break;
+					}
+					BufferedImage scaled = PhotoLoader.scaleToFit(embedded, s);
+					if (store != null) {
+						store.put(path, fileSize, lastModified, s, encode(scaled));
+					}
+					if (s == size) {
+						thumbnail = scaled;
+					}
+				}
+			}
+		}
+		
+		// Decode the original, and store the thumbnails of all sizes.
+		if (thumbnail == null) {
+			BufferedImage largest = PhotoLoader.loadThumbnail(file, LARGE);
+			for (int s : SIZES) {
+				BufferedImage scaled = s == LARGE ? largest : PhotoLoader.scaleToFit(largest, s);
+				if (store != null) {
+					store.put(path, fileSize, lastModified, s, encode(scaled));
+				}
+				if (s == size) {
+					thumbnail = scaled;
+				}
+			}
+			if (thumbnail == null) {
+				thumbnail = PhotoLoader.scaleToFit(largest, size);
+			}
+		}
+		
+		put(path, size, thumbnail);
+		return thumbnail;
+	}
+	
+	/**
+	 * Puts thumbnail in the memory tier, e.g. a marker for a photo that could not be decoded.
+	 */
+	public void put(String path, int size, BufferedImage thumbnail) {
+		synchronized (memory) {
+			memory.put(key(path, size), thumbnail);
+		}
+	}
+	
+	/**
+	 * Drops the thumbnails of path from memory. 
+	 * The disk tier needs no invalidation, as its keys include the modification time.
+	 * @param path String the path of the photo.
+	 */
+	public void invalidate(String path) {
+		synchronized (memory) {
+			for (int size : SIZES) {
+				memory.remove(key(path, size));
+			}
+		}
+	}
+	
+	/**
+	 * Saves the index of the disk tier and closes it.
+	 */
+	public void close() {
+		if (store != null) {
+			try {
+				store.close();
+			} catch (IOException e) {
+				System.err.println("The thumbnail store could not be closed");
+			}
+		}
+	}
+	
+	private static String key(String path, int size) {
+		return size + ":" + path;
+	}
+	
+	/**
+	 * Encodes thumbnail as JPEG.
+	 */
+	private static byte[] encode(BufferedImage thumbnail) throws IOException {
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+		ImageWriter writer = writers.next();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+		MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(bytes);
+		try {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(QUALITY);
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(thumbnail, null, null), param);
+		} finally {
+			writer.dispose();
+			out.close();
+		}
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Decodes a JPEG encoded thumbnail into an opaque RGB image.
+	 */
+	private static BufferedImage decode(byte[] bytes) throws IOException {
+		BufferedImage image = ImageIO.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(bytes)));
+		if (image == null) {
+			return null;
+		}
+		return PhotoLoader.scaleToFit(image, Math.max(image.getWidth(), image.getHeight()));
+	}
+}
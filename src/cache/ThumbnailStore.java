@@ -0,0 +1,563 @@
+package cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Persistent store of encoded thumbnails in a single container file.
+ * 
+ * Thumbnails are appended to a data file as records that carry their own key 
+ * (path, file size, modification time and thumbnail size), so a thumbnail of a photo 
+ * that changed on disk is simply never found again. An index of key hashes to record 
+ * positions is kept in memory in primitive arrays, and saved next to the data file 
+ * so it does not have to be rebuilt from the records on every start.
+ * 
+ * Records are never removed while the store is open. When it is opened, the data file 
+ * is compacted if it is over its maximum length, or if less than half of it is held 
+ * by indexed records. Compaction keeps the newest record of each path and thumbnail 
+ * size, which drops the thumbnails of photos that changed since, and when the file 
+ * was over its maximum length, only the newest records that fill half of it.
+ * 
+ * Data file: magic, version, then records of
+ * magic, key hash, path length, path (UTF-8), file size, modification time, 
+ * thumbnail size, data length and data.
+ * 
+ * Index file: magic, version, length of the data file it covers, entry count, 
+ * then entries of key hash, record position and record length.
+ */
+public class ThumbnailStore {
+	
+	private static final int DATA_MAGIC = 0x50544844;	// "PTHD"
+	private static final int INDEX_MAGIC = 0x50544849;	// "PTHI"
+	private static final int RECORD_MAGIC = 0x54484D42;	// "THMB"
+	private static final int VERSION = 1;
+	
+	// Length of a record with an empty path and no data: magic, hash, path length,
+	// file size, modification time, size and data length.
+	private static final int MIN_RECORD_LENGTH = 4 + 8 + 2 + 8 + 8 + 2 + 4;
+	
+	private static final int FILE_HEADER_LENGTH = 8;
+	
+	// Default maximum length of the data file.
+	private static final long DEFAULT_MAX_LENGTH = 512L << 20;
+	
+	// Number of records appended before the index file is saved again.
+	private static final int INDEX_SAVE_INTERVAL = 1000;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final File indexFile;
+	private final File dataFile;
+	private FileChannel data;
+	
+	/*
+	 * Open addressing hash table from key hash to record position and length.
+	 * A key of 0 marks an empty slot. Guarded by this.
+	 */
+	private long[] keys = new long[1024];
+	private long[] positions = new long[1024];
+	private int[] lengths = new int[1024];
+	private int count;
+	
+	// Records appended since the index file was saved.
+	private int unsaved;
+	
+	/**
+	 * Opens or creates the store in directory, with a data file of at most 512 MB when it is opened.
+	 * @param directory File the directory of the store files.
+	 * @param name String the base name of the store files.
+	 * @throws IOException if the store can not be opened.
+	 */
+	public ThumbnailStore(File directory, String name) throws IOException {
+		this(directory, name, DEFAULT_MAX_LENGTH);
+	}
+	
+	/**
+	 * Opens or creates the store in directory.
+	 * @param directory File the directory of the store files.
+	 * @param name String the base name of the store files.
+	 * @param maxLength long the length of the data file above which it is compacted when opened.
+	 * @throws IOException if the store can not be opened.
+	 */
+	public ThumbnailStore(File directory, String name, long maxLength) throws IOException {
+		indexFile = new File(directory, name + ".idx");
+		dataFile = new File(directory, name + ".dat");
+		data = new RandomAccessFile(dataFile, "rw").getChannel();
+		
+		if (data.size() < FILE_HEADER_LENGTH || !checkHeader(data, DATA_MAGIC)) {
+			// New or unreadable store, start over.
+			data.truncate(0);
+			ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+			header.putInt(DATA_MAGIC).putInt(VERSION).flip();
+			writeFully(data, header, 0);
+			indexFile.delete();
+		}
+		
+		long covered = loadIndex();
+		scanRecords(covered);
+		
+		long live = FILE_HEADER_LENGTH;
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != 0) {
+				live += lengths[slot];
+			}
+		}
+		if (data.size() > maxLength || 2 * live < data.size()) {
+			compact(data.size() > maxLength ? maxLength / 2 : Long.MAX_VALUE);
+		}
+	}
+	
+	/**
+	 * Returns the encoded thumbnail for the key, or null if it is not in the store.
+	 * @param path String the path of the photo.
+	 * @param fileSize long the size of the photo file.
+	 * @param lastModified long the modification time of the photo file.
+	 * @param size int the size of the thumbnail.
+	 * @return byte[] the encoded thumbnail, or null.
+	 * @throws IOException if the store can not be read.
+	 */
+	public byte[] get(String path, long fileSize, long lastModified, int size) throws IOException {
+		long hash = hash(path, fileSize, lastModified, size);
+		long position;
+		int length;
+		synchronized (this) {
+			int slot = find(hash);
+			if (keys[slot] == 0) {
+				return null;
+			}
+			position = positions[slot];
+			length = lengths[slot];
+		}
+		
+		ByteBuffer record = ByteBuffer.allocate(length);
+		if (!readFully(data, record, position)) {
+			return null;
+		}
+		record.flip();
+		
+		// Compare the full key, the hash only narrows down the record.
+		if (record.getInt() != RECORD_MAGIC || record.getLong() != hash) {
+			return null;
+		}
+		byte[] pathBytes = new byte[record.getShort() & 0xFFFF];
+		record.get(pathBytes);
+		if (!path.equals(new String(pathBytes, UTF8)) || record.getLong() != fileSize 
+				|| record.getLong() != lastModified || record.getShort() != size) {
+			return null;
+		}
+		int dataLength = record.getInt();
+		if (dataLength < 0 || dataLength > record.remaining()) {
+			return null;
+		}
+		byte[] bytes = new byte[dataLength];
+		record.get(bytes);
+		return bytes;
+	}
+	
+	/**
+	 * Appends an encoded thumbnail for the key to the store.
+	 * @param path String the path of the photo.
+	 * @param fileSize long the size of the photo file.
+	 * @param lastModified long the modification time of the photo file.
+	 * @param size int the size of the thumbnail.
+	 * @param bytes byte[] the encoded thumbnail.
+	 * @throws IOException if the store can not be written.
+	 */
+	public synchronized void put(String path, long fileSize, long lastModified, int size, byte[] bytes) throws IOException {
+		long hash = hash(path, fileSize, lastModified, size);
+		byte[] pathBytes = path.getBytes(UTF8);
+		if (pathBytes.length > 0xFFFF) {
+			return;
+		}
+		
+		ByteBuffer record = ByteBuffer.allocate(4 + 8 + 2 + pathBytes.length + 8 + 8 + 2 + 4 + bytes.length);
+		record.putInt(RECORD_MAGIC).putLong(hash);
+		record.putShort((short) pathBytes.length).put(pathBytes);
+		record.putLong(fileSize).putLong(lastModified).putShort((short) size);
+		record.putInt(bytes.length).put(bytes);
+		record.flip();
+		
+		long position = data.size();
+		writeFully(data, record, position);
+		add(hash, position, record.capacity());
+		
+		if (++unsaved >= INDEX_SAVE_INTERVAL) {
+			saveIndex();
+		}
+	}
+	
+	/**
+	 * Returns the number of thumbnails in the store.
+	 */
+	public synchronized int size() {
+		return count;
+	}
+	
+	/**
+	 * Saves the index and closes the store.
+	 * @throws IOException if the index can not be saved.
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			if (unsaved > 0) {
+				saveIndex();
+			}
+		} finally {
+			data.close();
+		}
+	}
+	
+    /*
+     * ---------------------------------------------------------------------
+     * INDEX
+     * --------------------------------------------------------------------- 
+    */
+	
+	/**
+	 * Loads the saved index.
+	 * @return long the length of the data file covered by the index, 
+	 * records after it still have to be scanned.
+	 */
+	private long loadIndex() throws IOException {
+		if (!indexFile.isFile()) {
+			return FILE_HEADER_LENGTH;
+		}
+		
+		FileChannel index = new RandomAccessFile(indexFile, "r").getChannel();
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(index.size(), Integer.MAX_VALUE));
+			if (!readFully(index, buffer, 0)) {
+				return FILE_HEADER_LENGTH;
+			}
+			buffer.flip();
+			if (buffer.remaining() < 20 || buffer.getInt() != INDEX_MAGIC || buffer.getInt() != VERSION) {
+				return FILE_HEADER_LENGTH;
+			}
+			
+			long covered = buffer.getLong();
+			int entries = buffer.getInt();
+			if (covered > data.size() || entries < 0 || buffer.remaining() < entries * 20L) {
+				return FILE_HEADER_LENGTH;
+			}
+			int entriesStart = buffer.position();
+			for (int i = 0; i < entries; i++) {
+				buffer.getLong();
+				long position = buffer.getLong();
+				int length = buffer.getInt();
+				if (position < FILE_HEADER_LENGTH || length < MIN_RECORD_LENGTH || position + length > covered) {
+					// Corrupt index, the records are scanned instead.
+					return FILE_HEADER_LENGTH;
+				}
+			}
+			buffer.position(entriesStart);
+			for (int i = 0; i < entries; i++) {
+				add(buffer.getLong(), buffer.getLong(), buffer.getInt());
+			}
+			return covered;
+		} finally {
+			index.close();
+		}
+	}
+	
+	/**
+	 * Adds the records from position on to the index, and cuts off 
+	 * a record that was only partly written, e.g. when the program was killed.
+	 */
+	private void scanRecords(long position) throws IOException {
+		long end = data.size();
+		ByteBuffer head = ByteBuffer.allocate(4 + 8 + 2);
+		ByteBuffer tail = ByteBuffer.allocate(8 + 8 + 2 + 4);
+		
+		while (position < end) {
+			head.clear();
+			if (!readFully(data, head, position)) {
+				break;
+			}
+			head.flip();
+			if (head.getInt() != RECORD_MAGIC) {
+				break;
+			}
+			long hash = head.getLong();
+			int pathLength = head.getShort() & 0xFFFF;
+			
+			tail.clear();
+			if (!readFully(data, tail, position + head.capacity() + pathLength)) {
+				break;
+			}
+			tail.flip();
+			tail.position(8 + 8 + 2);
+			int dataLength = tail.getInt();
+			long length = head.capacity() + pathLength + tail.capacity() + (long) dataLength;
+			if (dataLength < 0 || position + length > end || length > Integer.MAX_VALUE) {
+				// Corrupt like a torn record.
+				break;
+			}
+			
+			add(hash, position, (int) length);
+			unsaved++;
+			position += length;
+		}
+		
+		if (position < end) {
+			data.truncate(position);
+		}
+	}
+	
+	/**
+	 * Writes the index to a temporary file that then replaces the index file.
+	 */
+	private void saveIndex() throws IOException {
+		File temp = new File(indexFile.getPath() + ".tmp");
+		FileChannel index = new RandomAccessFile(temp, "rw").getChannel();
+		try {
+			index.truncate(0);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(20 + count * 20);
+			buffer.putInt(INDEX_MAGIC).putInt(VERSION).putLong(data.size()).putInt(count);
+			for (int slot = 0; slot < keys.length; slot++) {
+				if (keys[slot] != 0) {
+					buffer.putLong(keys[slot]).putLong(positions[slot]).putInt(lengths[slot]);
+				}
+			}
+			buffer.flip();
+			writeFully(index, buffer, 0);
+		} finally {
+			index.close();
+		}
+		
+		if (!temp.renameTo(indexFile)) {
+			indexFile.delete();
+			if (!temp.renameTo(indexFile)) {
+				throw new IOException("Could not save " + indexFile);
+			}
+		}
+		unsaved = 0;
+	}
+	
+	/**
+	 * Adds or replaces the position and length of the record with hash.
+	 */
+	private void add(long hash, long position, int length) {
+		if ((count + 1) * 2 > keys.length) {
+			grow();
+		}
+		int slot = find(hash);
+		if (keys[slot] == 0) {
+			keys[slot] = hash;
+			count++;
+		}
+		positions[slot] = position;
+		lengths[slot] = length;
+	}
+	
+	/**
+	 * Returns the slot of hash, or the empty slot where it would go.
+	 */
+	private int find(long hash) {
+		int mask = keys.length - 1;
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+		while (keys[slot] != 0 && keys[slot] != hash) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+	
+	private void grow() {
+		long[] oldKeys = keys;
+		long[] oldPositions = positions;
+		int[] oldLengths = lengths;
+		
+		keys = new long[oldKeys.length * 2];
+		positions = new long[keys.length];
+		lengths = new int[keys.length];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				int slot = find(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				positions[slot] = oldPositions[i];
+				lengths[slot] = oldLengths[i];
+			}
+		}
+	}
+	
+    /*
+     * ---------------------------------------------------------------------
+     * COMPACTION
+     * --------------------------------------------------------------------- 
+    */
+	
+	/**
+	 * Writes the newest record of each path and thumbnail size to a temporary file 
+	 * that then replaces the data file, newest first until the records fill budget bytes, 
+	 * and indexes them.
+	 */
+	private void compact(long budget) throws IOException {
+		// Slots of the records, newest first.
+		Integer[] slots = new Integer[count];
+		int n = 0;
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != 0) {
+				slots[n++] = slot;
+			}
+		}
+		Arrays.sort(slots, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(positions[b], positions[a]);
+			}
+		});
+		
+		// Records kept, by slot, oldest first in the new file.
+		boolean[] kept = new boolean[keys.length];
+		Set<String> seen = new HashSet<String>();
+		long length = FILE_HEADER_LENGTH;
+		for (int slot : slots) {
+			if (length + lengths[slot] > budget) {
+				break;
+			}
+			String key = readKey(positions[slot], lengths[slot]);
+			if (key != null && seen.add(key)) {
+				kept[slot] = true;
+				length += lengths[slot];
+			}
+		}
+		
+		File temp = new File(dataFile.getPath() + ".tmp");
+		long[] newPositions = new long[keys.length];
+		FileChannel compacted = new RandomAccessFile(temp, "rw").getChannel();
+		try {
+			compacted.truncate(0);
+			ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+			header.putInt(DATA_MAGIC).putInt(VERSION).flip();
+			writeFully(compacted, header, 0);
+			long position = FILE_HEADER_LENGTH;
+			for (int i = slots.length - 1; i >= 0; i--) {
+				int slot = slots[i];
+				if (kept[slot]) {
+					ByteBuffer record = ByteBuffer.allocate(lengths[slot]);
+					if (!readFully(data, record, positions[slot])) {
+						throw new IOException("Could not read " + dataFile);
+					}
+					record.flip();
+					writeFully(compacted, record, position);
+					newPositions[slot] = position;
+					position += lengths[slot];
+				}
+			}
+			compacted.force(false);
+		} finally {
+			compacted.close();
+		}
+		
+		data.close();
+		if (!temp.renameTo(dataFile)) {
+			dataFile.delete();
+			if (!temp.renameTo(dataFile)) {
+				throw new IOException("Could not compact " + dataFile);
+			}
+		}
+		data = new RandomAccessFile(dataFile, "rw").getChannel();
+		
+		long[] oldKeys = keys;
+		int[] oldLengths = lengths;
+		keys = new long[oldKeys.length];
+		positions = new long[oldKeys.length];
+		lengths = new int[oldKeys.length];
+		count = 0;
+		for (int slot = 0; slot < oldKeys.length; slot++) {
+			if (kept[slot]) {
+				add(oldKeys[slot], newPositions[slot], oldLengths[slot]);
+			}
+		}
+		saveIndex();
+	}
+	
+	/**
+	 * Returns the path and thumbnail size of the record at position, null if it can not be read.
+	 */
+	private String readKey(long position, int length) throws IOException {
+		ByteBuffer head = ByteBuffer.allocate(4 + 8 + 2);
+		if (!readFully(data, head, position)) {
+			return null;
+		}
+		head.flip();
+		if (head.getInt() != RECORD_MAGIC) {
+			return null;
+		}
+		head.getLong();
+		int pathLength = head.getShort() & 0xFFFF;
+		if (head.capacity() + pathLength + 8 + 8 + 2 > length) {
+			return null;
+		}
+		
+		ByteBuffer key = ByteBuffer.allocate(pathLength + 8 + 8 + 2);
+		if (!readFully(data, key, position + head.capacity())) {
+			return null;
+		}
+		key.flip();
+		byte[] pathBytes = new byte[pathLength];
+		key.get(pathBytes);
+		key.position(key.position() + 8 + 8);
+		return key.getShort() + ":" + new String(pathBytes, UTF8);
+	}
+	
+    /*
+     * ---------------------------------------------------------------------
+     * HELPERS
+     * --------------------------------------------------------------------- 
+    */
+	
+	/**
+	 * Returns a 64-bit FNV-1a hash of the key, never 0.
+	 */
+	static long hash(String path, long fileSize, long lastModified, int size) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < path.length(); i++) {
+			h = (h ^ path.charAt(i)) * 0x100000001b3L;
+		}
+		long[] parts = {fileSize, lastModified, size};
+		for (long part : parts) {
+			for (int shift = 0; shift < 64; shift += 8) {
+				h = (h ^ ((part >>> shift) & 0xFF)) * 0x100000001b3L;
+			}
+		}
+		return h == 0 ? 1 : h;
+	}
+	
+	private static boolean checkHeader(FileChannel channel, int magic) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+		if (!readFully(channel, header, 0)) {
+			return false;
+		}
+		header.flip();
+		return header.getInt() == magic && header.getInt() == VERSION;
+	}
+	
+	/**
+	 * Reads until buffer is full.
+	 * @return boolean false iff the end of the channel was reached first.
+	 */
+	static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				return false;
+			}
+			position += read;
+		}
+		return true;
+	}
+	
+	static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+}
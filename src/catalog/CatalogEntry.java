@@ -0,0 +1,38 @@
+package catalog;
+
+import loader.PhotoHeader;
+
+/**
+ * Photo found while indexing a directory tree, before it is written to a catalog.
+ */
+public class CatalogEntry implements Comparable<CatalogEntry> {
+	
+	private final String path;
+	private final PhotoHeader header;
+	
+	/**
+	 * Constructor.
+	 * @param path String the path of the photo file.
+	 * @param header PhotoHeader the header of the photo.
+	 */
+	public CatalogEntry(String path, PhotoHeader header) {
+		this.path = path;
+		this.header = header;
+	}
+	
+	public String getPath() {
+		return path;
+	}
+	
+	public PhotoHeader getHeader() {
+		return header;
+	}
+
+	/**
+	 * Orders entries by path.
+	 */
+	@Override
+	public int compareTo(CatalogEntry other) {
+		return path.compareTo(other.path);
+	}
+}
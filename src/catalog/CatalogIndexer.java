@@ -0,0 +1,162 @@
+package catalog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import loader.PhotoHeader;
+import loader.PhotoLoader;
+
+/**
+ * Indexes the photos in a directory tree.
+ * 
+ * Directories are walked in parallel on a fork/join pool: every directory is a task 
+ * that forks a task per subdirectory, and large directories are split into batches 
+ * of files. Only the header of each photo is read, which is I/O bound, 
+ * so the pool has more threads than there are cores.
+ */
+public class CatalogIndexer {
+	
+	// Number of files of which a single task reads the headers.
+	private static final int BATCH_SIZE = 64;
+	
+	private final File root;
+	
+	private final ConcurrentLinkedQueue<CatalogEntry> entries = new ConcurrentLinkedQueue<CatalogEntry>();
+	private final AtomicInteger indexedCount = new AtomicInteger();
+	private final AtomicInteger failedCount = new AtomicInteger();
+	
+	/**
+	 * Constructor.
+	 * @param root File the root of the directory tree to index.
+	 */
+	public CatalogIndexer(File root) {
+		this.root = root;
+	}
+	
+	/**
+	 * Indexes the tree under root, blocking until all headers are read.
+	 * Files that are not readable photos are skipped.
+	 * @return List<CatalogEntry> the photos, sorted by path.
+	 */
+	public List<CatalogEntry> index() {
+		ForkJoinPool pool = new ForkJoinPool(2 * Runtime.getRuntime().availableProcessors());
+		try {
+			pool.invoke(new DirectoryTask(root));
+		} finally {
+			pool.shutdown();
+		}
+		
+		List<CatalogEntry> result = new ArrayList<CatalogEntry>(entries);
+		Collections.sort(result);
+		return result;
+	}
+	
+	/**
+	 * Returns the number of photos indexed so far, may be called from any thread.
+	 */
+	public int getIndexedCount() {
+		return indexedCount.get();
+	}
+	
+	/**
+	 * Returns the number of photo files that could not be read so far.
+	 */
+	public int getFailedCount() {
+		return failedCount.get();
+	}
+	
+	/**
+	 * Reads the header of a photo file and adds it to the entries.
+	 * @param file File the photo file.
+	 */
+	private void indexFile(File file) {
+		try {
+			PhotoHeader header = PhotoLoader.readHeader(file);
+			entries.add(new CatalogEntry(file.getAbsolutePath(), header));
+			indexedCount.incrementAndGet();
+		} catch (IOException e) {
+			failedCount.incrementAndGet();
+		} catch (RuntimeException e) {
+			// Some readers fail with runtime exceptions on corrupt files.
+			failedCount.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Indexes a directory: forks a task per subdirectory and per batch of photo files.
+	 * Symbolic links to directories are not followed, so the walk can not loop.
+	 */
+	private class DirectoryTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final File directory;
+		
+		DirectoryTask(File directory) {
+			this.directory = directory;
+		}
+
+		@Override
+		protected void compute() {
+			File[] files = directory.listFiles();
+			if (files == null) {
+				return;
+			}
+			
+			List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+			List<File> photos = new ArrayList<File>();
+			for (File file : files) {
+				if (file.isDirectory()) {
+					if (!Files.isSymbolicLink(file.toPath()) && !file.isHidden()) {
+						tasks.add(new DirectoryTask(file));
+					}
+				} else if (PhotoLoader.isPhotoFile(file.getName())) {
+					photos.add(file);
+				}
+			}
+			if (!photos.isEmpty()) {
+				tasks.add(new FileBatchTask(photos.toArray(new File[photos.size()]), 0, photos.size()));
+			}
+			invokeAll(tasks);
+		}
+	}
+	
+	/**
+	 * Reads the headers of files from index start to end, 
+	 * split in halves until there are at most BATCH_SIZE files.
+	 */
+	private class FileBatchTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final File[] files;
+		private final int start;
+		private final int end;
+		
+		FileBatchTask(File[] files, int start, int end) {
+			this.files = files;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= BATCH_SIZE) {
+				for (int i = start; i < end; i++) {
+					indexFile(files[i]);
+				}
+			} else {
+				int middle = (start + end) >>> 1;
+				invokeAll(new FileBatchTask(files, start, middle), new FileBatchTask(files, middle, end));
+			}
+		}
+	}
+}
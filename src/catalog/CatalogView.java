@@ -0,0 +1,75 @@
+package catalog;
+
+import java.util.Arrays;
+
+import model.PhotoList;
+
+/**
+ * The live photos of a catalog, as a list for the browser.
+ * Records of deleted photos are skipped, so the index of a photo in the list 
+ * is not its ordinal in the catalog.
+ */
+public class CatalogView implements PhotoList {
+	
+	private final PhotoCatalog catalog;
+	private final int[] ordinals;
+	
+	/**
+	 * Constructor for the view of all live photos of catalog.
+	 * @param catalog PhotoCatalog the catalog.
+	 */
+	public CatalogView(PhotoCatalog catalog) {
+		this.catalog = catalog;
+		int[] live = new int[catalog.size()];
+		int count = 0;
+		for (int ordinal = 0; ordinal < live.length; ordinal++) {
+			if (!catalog.isDeleted(ordinal)) {
+				live[count++] = ordinal;
+			}
+		}
+		this.ordinals = count == live.length ? live : Arrays.copyOf(live, count);
+	}
+	
+	/**
+	 * Constructor for the view of the live photos of catalog whose ordinals are in filter.
+	 * @param catalog PhotoCatalog the catalog.
+	 * @param filter RoaringBitmap the ordinals of the photos to show.
+	 */
+	public CatalogView(PhotoCatalog catalog, RoaringBitmap filter) {
+		this.catalog = catalog;
+		int[] selected = filter.toArray();
+		int count = 0;
+		for (int ordinal : selected) {
+			if (ordinal < catalog.size() && !catalog.isDeleted(ordinal)) {
+				selected[count++] = ordinal;
+			}
+		}
+		this.ordinals = count == selected.length ? selected : Arrays.copyOf(selected, count);
+	}
+	
+	public PhotoCatalog getCatalog() {
+		return catalog;
+	}
+	
+	/**
+	 * Returns the ordinal in the catalog of the photo at index.
+	 */
+	public int getOrdinal(int index) {
+		return ordinals[index];
+	}
+
+	@Override
+	public int size() {
+		return ordinals.length;
+	}
+
+	@Override
+	public String getPath(int index) {
+		return catalog.getPath(ordinals[index]);
+	}
+
+	@Override
+	public String getName(int index) {
+		return catalog.getName(ordinals[index]);
+	}
+}
@@ -0,0 +1,407 @@
+package catalog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import loader.PhotoLoader;
+
+/**
+ * Keeps a catalog up to date with changes made to its directory tree outside the program.
+ *
+ * Every directory of the tree is registered with a WatchService. Events are debounced:
+ * they are collected until the tree is quiet for DEBOUNCE_MILLIS, or for at most
+ * MAX_DELAY_MILLIS, so a copy of many files is a single batch. The headers of the changed
+ * photos are read on the watcher thread, and the batch is applied to the catalog
+ * on the Event Dispatch Thread, the single writer of the catalog.
+ *
+ * When events were lost because the watch queue overflowed, only the directory whose
+ * events were lost is scanned again: its photos, and the subdirectories that appeared
+ * or disappeared meanwhile. Some systems, Linux among them, report an overflow on every
+ * directory at once, which amounts to scanning the whole tree again: at most
+ * MAX_RESCANS directories are scanned per batch, the others in the batches after it.
+ */
+public class CatalogWatcher {
+	
+	// Time without events after which a batch is applied.
+	private static final long DEBOUNCE_MILLIS = 300;
+	
+	// Maximum time a batch waits for the tree to be quiet.
+	private static final long MAX_DELAY_MILLIS = 2000;
+	
+	// Number of changed paths after which a batch is applied without waiting.
+	private static final int MAX_BATCH = 4096;
+	
+	// Number of directories scanned again per batch after events were lost.
+	private static final int MAX_RESCANS = 64;
+	
+	/**
+	 * Listener notified on the Event Dispatch Thread after a batch is applied to the catalog.
+	 */
+	public interface CatalogListener {
+		/**
+		 * @param changedPaths List<String> the paths of the photos that were added, changed or deleted.
+		 */
+		void catalogChanged(List<String> changedPaths);
+	}
+	
+	private final PhotoCatalog catalog;
+	private final CatalogListener listener;
+	private final Path root;
+	
+	private WatchService watchService;
+	private Thread thread;
+	private volatile boolean stopped;
+	
+	// Directory of each registered key, and the registered directories, only used on the watcher thread.
+	private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+	private final Set<Path> watched = new HashSet<Path>();
+	
+	/*
+	 * Events collected for the next batch, only used on the watcher thread.
+	 */
+	private final Set<Path> changedPaths = new LinkedHashSet<Path>();
+	private final Set<Path> removedDirectories = new LinkedHashSet<Path>();
+	private final Set<Path> rescanDirectories = new LinkedHashSet<Path>();
+	
+	/**
+	 * Constructor.
+	 * @param catalog PhotoCatalog the catalog to keep up to date.
+	 * @param listener CatalogListener the listener notified of applied batches.
+	 */
+	public CatalogWatcher(PhotoCatalog catalog, CatalogListener listener) {
+		this.catalog = catalog;
+		this.listener = listener;
+		this.root = new File(catalog.getRoot()).toPath();
+	}
+	
+	/**
+	 * Starts watching the tree on a background thread.
+	 * @throws IOException if the file system can not be watched.
+	 */
+	public void start() throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+		thread = new Thread(new Runnable() {
+			public void run() {
+				watch();
+			}
+		}, "catalog-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Stops watching. A batch that is not applied yet is dropped.
+	 * Must be called on the Event Dispatch Thread before the catalog is closed.
+	 */
+	public void stop() {
+		stopped = true;
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				// Nothing left to release.
+			}
+		}
+	}
+	
+    /*
+     * ---------------------------------------------------------------------
+     * WATCHER THREAD
+     * ---------------------------------------------------------------------
+    */
+	
+	private void watch() {
+		try {
+			register(root, false);
+			while (!stopped) {
+				if (rescanDirectories.isEmpty()) {
+					collect(watchService.take());
+				} else {
+					// Directories left to scan again by the last batch, which do not wait for an event.
+					WatchKey key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+					if (key != null) {
+						collect(key);
+					}
+				}
+	
+				// Wait for the tree to be quiet.
+				long first = System.currentTimeMillis();
+				long last = first;
+				while (changedPaths.size() + rescanDirectories.size() < MAX_BATCH) {
+					long wait = Math.min(last + DEBOUNCE_MILLIS, first + MAX_DELAY_MILLIS) - System.currentTimeMillis();
+					if (wait <= 0) {
+						break;
+					}
+					WatchKey key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+					if (key != null) {
+						collect(key);
+						last = System.currentTimeMillis();
+					}
+				}
+				deliver(readBatch());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// Stopped.
+		} catch (IOException e) {
+			System.err.println("Could not watch " + root + ": " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Registers directory and the directories below it.
+	 * Symbolic links and hidden directories are skipped, as when indexing.
+	 * @param directory Path the directory.
+	 * @param rescan boolean true to scan the registered directories again,
+	 * for a directory that appeared after the tree was indexed.
+	 */
+	private void register(Path directory, final boolean rescan) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!dir.equals(root) && Files.isHidden(dir)) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				directories.put(key, dir);
+				watched.add(dir);
+				if (rescan) {
+					rescanDirectories.add(dir);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+	
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	/**
+	 * Adds the events of key to the next batch.
+	 */
+	private void collect(WatchKey key) throws IOException {
+		Path directory = directories.get(key);
+		if (directory == null) {
+			key.cancel();
+			return;
+		}
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				rescanDirectories.add(directory);
+				continue;
+			}
+			Path path = directory.resolve((Path) event.context());
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+					&& Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+				try {
+					register(path, true);
+				} catch (IOException e) {
+					// Removed again in the meantime.
+				}
+			} else {
+				changedPaths.add(path);
+			}
+		}
+		if (!key.reset()) {
+			// The directory itself is gone.
+			directories.remove(key);
+			watched.remove(directory);
+			removedDirectories.add(directory);
+		}
+	}
+	
+	/**
+	 * Turns the collected events into a batch, reading the headers of the changed photos.
+	 */
+	private Batch readBatch() {
+		Batch batch = new Batch();
+		for (Path path : changedPaths) {
+			String name = path.getFileName().toString();
+			if (Files.isRegularFile(path)) {
+				if (PhotoLoader.isPhotoFile(name)) {
+					readHeader(batch, path.toFile());
+				}
+			} else if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+				if (PhotoLoader.isPhotoFile(name)) {
+					batch.removedPaths.add(path.toString());
+				} else {
+					// Possibly a directory that was removed.
+					batch.removedDirectories.add(path.toString());
+				}
+			}
+		}
+		for (Path directory : removedDirectories) {
+			batch.removedDirectories.add(directory.toString());
+		}
+		List<Path> appeared = new ArrayList<Path>();
+		Iterator<Path> rescans = rescanDirectories.iterator();
+		for (int i = 0; i < MAX_RESCANS && rescans.hasNext(); i++) {
+			Path directory = rescans.next();
+			rescans.remove();
+			rescan(batch, directory, appeared);
+		}
+		for (Path directory : appeared) {
+			try {
+				// Scanned in turn.
+				register(directory, true);
+			} catch (IOException e) {
+				// Removed again in the meantime.
+			}
+		}
+		changedPaths.clear();
+		removedDirectories.clear();
+		return batch;
+	}
+	
+	/**
+	 * Adds the photos of a single directory to batch, not those of its subdirectories.
+	 * Subdirectories that are not watched yet are added to appeared, those that are 
+	 * watched but gone are removed.
+	 */
+	private void rescan(Batch batch, Path directory, List<Path> appeared) {
+		File[] files = directory.toFile().listFiles();
+		if (files == null) {
+			batch.removedDirectories.add(directory.toString());
+			return;
+		}
+		Set<String> present = new HashSet<String>();
+		Set<Path> subdirectories = new HashSet<Path>();
+		for (File file : files) {
+			Path path = file.toPath();
+			if (file.isFile() && PhotoLoader.isPhotoFile(file.getName())) {
+				present.add(file.getPath());
+				readHeader(batch, file);
+			} else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+				subdirectories.add(path);
+				if (!watched.contains(path)) {
+					appeared.add(path);
+				}
+			}
+		}
+		List<Path> gone = new ArrayList<Path>();
+		for (Path path : watched) {
+			if (directory.equals(path.getParent()) && !subdirectories.contains(path)) {
+				gone.add(path);
+				batch.removedDirectories.add(path.toString());
+			}
+		}
+		watched.removeAll(gone);
+		batch.rescans.put(directory.toString(), present);
+	}
+	
+	private void readHeader(Batch batch, File file) {
+		try {
+			batch.updates.add(new CatalogEntry(file.getAbsolutePath(), PhotoLoader.readHeader(file)));
+		} catch (IOException e) {
+			// Still being written, a later event will bring it in.
+		} catch (RuntimeException e) {
+			// Some readers fail with runtime exceptions on corrupt files.
+		}
+	}
+	
+	private void deliver(final Batch batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (stopped) {
+					return;
+				}
+				List<String> changed;
+				try {
+					changed = batch.applyTo(catalog);
+				} catch (IOException e) {
+					System.err.println("Could not update the catalog of " + root + ": " + e.getMessage());
+					return;
+				}
+				if (!changed.isEmpty()) {
+					listener.catalogChanged(changed);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Changes to apply to the catalog at once.
+	 */
+	private static class Batch {
+	
+		final List<CatalogEntry> updates = new ArrayList<CatalogEntry>();
+		final List<String> removedPaths = new ArrayList<String>();
+		final List<String> removedDirectories = new ArrayList<String>();
+	
+		// Photos found by scanning a directory again, by directory.
+		final Map<String, Set<String>> rescans = new HashMap<String, Set<String>>();
+	
+		boolean isEmpty() {
+			return updates.isEmpty() && removedPaths.isEmpty() && removedDirectories.isEmpty() && rescans.isEmpty();
+		}
+	
+		/**
+		 * Applies this batch to catalog, on the Event Dispatch Thread.
+		 * Photos whose record already matches their header are left alone.
+		 * @return List<String> the paths of the photos that were added, changed or deleted.
+		 */
+		List<String> applyTo(PhotoCatalog catalog) throws IOException {
+			List<String> changed = new ArrayList<String>();
+			for (CatalogEntry entry : updates) {
+				int ordinal = catalog.indexOf(entry.getPath());
+				if (ordinal < 0 || catalog.isStale(ordinal, entry.getHeader())) {
+					catalog.put(entry.getPath(), entry.getHeader());
+					changed.add(entry.getPath());
+				}
+			}
+			for (String path : removedPaths) {
+				int ordinal = catalog.indexOf(path);
+				if (ordinal >= 0 && !catalog.isDeleted(ordinal)) {
+					catalog.markDeleted(ordinal);
+					changed.add(path);
+				}
+			}
+			for (String directory : removedDirectories) {
+				for (int ordinal : catalog.findInDirectory(directory, true)) {
+					catalog.markDeleted(ordinal);
+					changed.add(catalog.getPath(ordinal));
+				}
+			}
+			for (Map.Entry<String, Set<String>> rescan : rescans.entrySet()) {
+				for (int ordinal : catalog.findInDirectory(rescan.getKey(), false)) {
+					String path = catalog.getPath(ordinal);
+					if (!rescan.getValue().contains(path)) {
+						catalog.markDeleted(ordinal);
+						changed.add(path);
+					}
+				}
+			}
+			return changed;
+		}
+	}
+}
@@ -0,0 +1,644 @@
+package catalog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import loader.PhotoHeader;
+
+/**
+ * Persistent catalog of the photos in a directory tree.
+ * 
+ * Every photo is a fixed size record in a records file, addressed by its ordinal. 
+ * Paths are stored as UTF-8 in a separate strings file. Both files are memory mapped, 
+ * so opening a catalog only maps the files, and reading a field of a photo is a 
+ * read from the mapping: no objects are created per photo, whatever their number.
+ * 
+ * Records file: a header of magic, version, record size, record count and 
+ * the length of the strings file, then the records.
+ * Record: path offset, path length, file size, modification time, width, height, 
+ * format, flags, EXIF orientation and capture time in seconds, padded to RECORD_SIZE. 
+ * The last two were added in what was padding, 0 in catalogs written before, and mean unknown.
+ * Strings file: the path of the root directory, then the paths of the photos.
+ * 
+ * The catalog is updated in place: a changed photo has its record rewritten, 
+ * a deleted photo keeps its record with the DELETED flag, and a new photo is appended. 
+ * Records are never moved, so an ordinal stays valid for the life of the catalog.
+ * A catalog has a single writer, the Event Dispatch Thread.
+ */
+public class PhotoCatalog {
+	
+	private static final int MAGIC = 0x50434154;	// "PCAT"
+	private static final int VERSION = 1;
+	
+	private static final int HEADER_SIZE = 32;
+	private static final int RECORD_SIZE = 40;
+	
+	/*
+	 * Offsets of the fields in the header.
+	 */
+	private static final int H_MAGIC = 0;
+	private static final int H_VERSION = 4;
+	private static final int H_RECORD_SIZE = 8;
+	private static final int H_COUNT = 12;
+	private static final int H_STRINGS_LENGTH = 16;
+	
+	/*
+	 * Offsets of the fields in a record.
+	 */
+	private static final int R_PATH_OFFSET = 0;
+	private static final int R_PATH_LENGTH = 4;
+	private static final int R_FILE_SIZE = 8;
+	private static final int R_LAST_MODIFIED = 16;
+	private static final int R_WIDTH = 24;
+	private static final int R_HEIGHT = 28;
+	private static final int R_FORMAT = 32;
+	private static final int R_FLAGS = 33;
+	private static final int R_ORIENTATION = 34;
+	private static final int R_CAPTURE_TIME = 36;
+	
+	/*
+	 * Formats of the photos.
+	 */
+	public static final int FORMAT_UNKNOWN = 0;
+	public static final int FORMAT_JPEG = 1;
+	public static final int FORMAT_PNG = 2;
+	public static final int FORMAT_GIF = 3;
+	public static final int FORMAT_BMP = 4;
+	
+	// Flag of a record whose photo was deleted.
+	private static final int FLAG_DELETED = 1;
+	
+	// Minimum number of records by which the records file grows.
+	private static final int GROWTH = 256;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final File recordsFile;
+	private final File stringsFile;
+	private final FileChannel recordsChannel;
+	private final FileChannel stringsChannel;
+	
+	// Mappings of the files, remapped when they grow.
+	private MappedByteBuffer records;
+	private MappedByteBuffer strings;
+	
+	private final String root;
+	
+	/*
+	 * Index from path to ordinal, built the first time a path is looked up.
+	 * Open addressing on the hash of the UTF-8 bytes of the path, 
+	 * a slot holds the ordinal plus one, 0 if it is empty.
+	 */
+	private int[] pathIndex;
+	private int pathIndexCount;
+	
+	private PhotoCatalog(File directory) throws IOException {
+		recordsFile = new File(directory, "catalog.rec");
+		stringsFile = new File(directory, "catalog.str");
+		recordsChannel = new RandomAccessFile(recordsFile, "rw").getChannel();
+		stringsChannel = new RandomAccessFile(stringsFile, "rw").getChannel();
+		
+		records = recordsChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(HEADER_SIZE, recordsChannel.size()));
+		strings = stringsChannel.map(FileChannel.MapMode.READ_WRITE, 0, stringsChannel.size());
+		
+		if (recordsChannel.size() < HEADER_SIZE || records.getInt(H_MAGIC) != MAGIC 
+				|| records.getInt(H_VERSION) != VERSION || records.getInt(H_RECORD_SIZE) != RECORD_SIZE 
+				|| HEADER_SIZE + (long) records.getInt(H_COUNT) * RECORD_SIZE > recordsChannel.size()
+				|| records.getInt(H_STRINGS_LENGTH) > stringsChannel.size()
+				|| records.getInt(H_STRINGS_LENGTH) < 4) {
+			close();
+			throw new IOException("Invalid catalog in " + directory);
+		}
+		root = readString(0);
+	}
+	
+	/**
+	 * Returns true iff directory holds a catalog.
+	 * @param directory File the directory of the catalog files.
+	 * @return boolean true iff the catalog files exist.
+	 */
+	public static boolean exists(File directory) {
+		return new File(directory, "catalog.rec").isFile() && new File(directory, "catalog.str").isFile();
+	}
+	
+	/**
+	 * Opens the catalog in directory by mapping its files.
+	 * @param directory File the directory of the catalog files.
+	 * @return PhotoCatalog the opened catalog.
+	 * @throws IOException if the catalog can not be opened or is invalid.
+	 */
+	public static PhotoCatalog open(File directory) throws IOException {
+		return new PhotoCatalog(directory);
+	}
+	
+	/**
+	 * Writes a new catalog with entries to directory and opens it.
+	 * @param directory File the directory of the catalog files.
+	 * @param root File the root of the indexed directory tree.
+	 * @param entries List<CatalogEntry> the photos, in the order of their ordinals.
+	 * @return PhotoCatalog the opened catalog.
+	 * @throws IOException if the catalog can not be written.
+	 */
+	public static PhotoCatalog create(File directory, File root, List<CatalogEntry> entries) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		
+		// Written next to the catalog and moved over it once complete.
+		File recordsTemp = new File(directory, "catalog.rec.tmp");
+		File stringsTemp = new File(directory, "catalog.str.tmp");
+		FileChannel recordsOut = new RandomAccessFile(recordsTemp, "rw").getChannel();
+		FileChannel stringsOut = new RandomAccessFile(stringsTemp, "rw").getChannel();
+		try {
+			recordsOut.truncate(0);
+			stringsOut.truncate(0);
+			
+			// Strings, starting with the root.
+			ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+			long stringsLength = putString(stringsOut, buffer, 0, root.getAbsolutePath());
+			int[] offsets = new int[entries.size()];
+			int[] lengths = new int[entries.size()];
+			for (int i = 0; i < entries.size(); i++) {
+				offsets[i] = (int) stringsLength;
+				byte[] path = entries.get(i).getPath().getBytes(UTF8);
+				lengths[i] = path.length;
+				stringsLength = putBytes(stringsOut, buffer, stringsLength, path);
+			}
+			flush(stringsOut, buffer, stringsLength);
+			if (stringsLength > Integer.MAX_VALUE) {
+				throw new IOException("Too many photos for one catalog");
+			}
+			
+			// Header and records, through a mapping of the final size.
+			MappedByteBuffer out = recordsOut.map(FileChannel.MapMode.READ_WRITE, 0, 
+					HEADER_SIZE + (long) entries.size() * RECORD_SIZE);
+			for (int i = 0; i < entries.size(); i++) {
+				writeRecord(out, HEADER_SIZE + i * RECORD_SIZE, offsets[i], lengths[i], entries.get(i).getHeader());
+			}
+			out.putInt(H_MAGIC, MAGIC);
+			out.putInt(H_VERSION, VERSION);
+			out.putInt(H_RECORD_SIZE, RECORD_SIZE);
+			out.putInt(H_COUNT, entries.size());
+			out.putInt(H_STRINGS_LENGTH, (int) stringsLength);
+			out.force();
+			stringsOut.force(true);
+		} finally {
+			recordsOut.close();
+			stringsOut.close();
+		}
+		Files.move(stringsTemp.toPath(), new File(directory, "catalog.str").toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(recordsTemp.toPath(), new File(directory, "catalog.rec").toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return open(directory);
+	}
+	
+	/**
+	 * Returns the directory where the catalog of the tree under root is kept.
+	 * @param dataDirectory File the data directory of the program.
+	 * @param root File the root of the directory tree.
+	 * @return File the directory of the catalog files.
+	 */
+	public static File getDirectory(File dataDirectory, File root) {
+		String path = root.getAbsolutePath();
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < path.length(); i++) {
+			h = (h ^ path.charAt(i)) * 0x100000001b3L;
+		}
+		return new File(new File(dataDirectory, "catalogs"), Long.toHexString(h));
+	}
+	
+    /*
+     * ---------------------------------------------------------------------
+     * READING RECORDS
+     * --------------------------------------------------------------------- 
+    */
+	
+	public String getRoot() {
+		return root;
+	}
+	
+	/**
+	 * Returns the number of records, including records of deleted photos.
+	 */
+	public int size() {
+		return records.getInt(H_COUNT);
+	}
+
+	public String getPath(int ordinal) {
+		int record = recordPosition(ordinal);
+		return readString(records.getInt(record + R_PATH_OFFSET), records.getInt(record + R_PATH_LENGTH));
+	}
+
+	public String getName(int ordinal) {
+		String path = getPath(ordinal);
+		return path.substring(path.lastIndexOf(File.separatorChar) + 1);
+	}
+	
+	public long getFileSize(int ordinal) {
+		return records.getLong(recordPosition(ordinal) + R_FILE_SIZE);
+	}
+	
+	public long getLastModified(int ordinal) {
+		return records.getLong(recordPosition(ordinal) + R_LAST_MODIFIED);
+	}
+	
+	public int getWidth(int ordinal) {
+		return records.getInt(recordPosition(ordinal) + R_WIDTH);
+	}
+	
+	public int getHeight(int ordinal) {
+		return records.getInt(recordPosition(ordinal) + R_HEIGHT);
+	}
+	
+	/**
+	 * Returns the format of the photo, one of the FORMAT constants.
+	 */
+	public int getFormat(int ordinal) {
+		return records.get(recordPosition(ordinal) + R_FORMAT);
+	}
+	
+	/**
+	 * Returns the EXIF orientation of the photo, 1 if it is upright or unknown.
+	 */
+	public int getOrientation(int ordinal) {
+		return Math.max(1, records.get(recordPosition(ordinal) + R_ORIENTATION));
+	}
+	
+	/**
+	 * Returns the capture time of the photo in milliseconds since the epoch, -1 if it is unknown.
+	 */
+	public long getCaptureTime(int ordinal) {
+		long seconds = records.getInt(recordPosition(ordinal) + R_CAPTURE_TIME) & 0xFFFFFFFFL;
+		return seconds == 0 ? -1 : seconds * 1000;
+	}
+	
+	public boolean isDeleted(int ordinal) {
+		return (records.get(recordPosition(ordinal) + R_FLAGS) & FLAG_DELETED) != 0;
+	}
+	
+	/**
+	 * Returns the ordinal of the photo with path, -1 if it has no record.
+	 * The ordinal of a deleted photo is returned too.
+	 * @param path String the path of the photo.
+	 * @return int the ordinal of the photo.
+	 */
+	public int indexOf(String path) {
+		if (pathIndex == null) {
+			buildPathIndex();
+		}
+		byte[] bytes = path.getBytes(UTF8);
+		int mask = pathIndex.length - 1;
+		for (int slot = hash(bytes) & mask; pathIndex[slot] != 0; slot = (slot + 1) & mask) {
+			if (pathEquals(pathIndex[slot] - 1, bytes)) {
+				return pathIndex[slot] - 1;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the ordinals of the live photos in directory, in the order of their records.
+	 * @param directory String the path of the directory.
+	 * @param recursive boolean true to include photos in subdirectories.
+	 * @return int[] the ordinals.
+	 */
+	public int[] findInDirectory(String directory, boolean recursive) {
+		byte[] prefix = (directory + File.separatorChar).getBytes(UTF8);
+		int[] found = new int[16];
+		int count = 0;
+		for (int ordinal = 0; ordinal < size(); ordinal++) {
+			if (!isDeleted(ordinal) && isInDirectory(ordinal, prefix, recursive)) {
+				if (count == found.length) {
+					found = Arrays.copyOf(found, 2 * count);
+				}
+				found[count++] = ordinal;
+			}
+		}
+		return Arrays.copyOf(found, count);
+	}
+	
+    /*
+     * ---------------------------------------------------------------------
+     * UPDATING RECORDS
+     * --------------------------------------------------------------------- 
+    */
+	
+	/**
+	 * Adds or updates the record of the photo with path.
+	 * A deleted photo that reappears gets its old ordinal back.
+	 * @param path String the path of the photo.
+	 * @param header PhotoHeader the header of the photo.
+	 * @return int the ordinal of the photo.
+	 * @throws IOException if the catalog files can not grow.
+	 */
+	public int put(String path, PhotoHeader header) throws IOException {
+		int ordinal = indexOf(path);
+		if (ordinal >= 0) {
+			int record = recordPosition(ordinal);
+			writeRecord(records, record, records.getInt(record + R_PATH_OFFSET), 
+					records.getInt(record + R_PATH_LENGTH), header);
+			return ordinal;
+		}
+		return append(path, header);
+	}
+	
+	/**
+	 * Brings the catalog in line with entries, the photos found by indexing its tree again.
+	 * Photos keep their ordinals: changed and new photos are put, 
+	 * and photos that were not found are marked as deleted.
+	 * @param entries List<CatalogEntry> all photos in the tree.
+	 * @return List<String> the paths of the photos that were added, changed or deleted.
+	 * @throws IOException if the catalog files can not grow.
+	 */
+	public List<String> reconcile(List<CatalogEntry> entries) throws IOException {
+		List<String> changed = new ArrayList<String>();
+		boolean[] found = new boolean[size() + entries.size()];
+		for (CatalogEntry entry : entries) {
+			int ordinal = indexOf(entry.getPath());
+			if (ordinal < 0 || isStale(ordinal, entry.getHeader())) {
+				ordinal = put(entry.getPath(), entry.getHeader());
+				changed.add(entry.getPath());
+			}
+			found[ordinal] = true;
+		}
+		for (int ordinal = 0; ordinal < size(); ordinal++) {
+			if (!found[ordinal] && !isDeleted(ordinal)) {
+				markDeleted(ordinal);
+				changed.add(getPath(ordinal));
+			}
+		}
+		return changed;
+	}
+	
+	/**
+	 * Returns true iff the record of ordinal no longer matches header, 
+	 * or the photo was deleted.
+	 */
+	public boolean isStale(int ordinal, PhotoHeader header) {
+		return isDeleted(ordinal) || getFileSize(ordinal) != header.getFileSize() 
+				|| getLastModified(ordinal) != header.getLastModified();
+	}
+	
+	/**
+	 * Marks the photo at ordinal as deleted. Its record is kept, so ordinals do not move.
+	 * @param ordinal int the ordinal of the photo.
+	 */
+	public void markDeleted(int ordinal) {
+		int position = recordPosition(ordinal) + R_FLAGS;
+		records.put(position, (byte) (records.get(position) | FLAG_DELETED));
+	}
+	
+	/**
+	 * Appends a record for a photo that is not in the catalog yet.
+	 * The path and the record are written before the count, 
+	 * so a crash in between leaves the catalog as it was.
+	 */
+	private int append(String path, PhotoHeader header) throws IOException {
+		byte[] bytes = path.getBytes(UTF8);
+		int stringsLength = records.getInt(H_STRINGS_LENGTH);
+		if ((long) stringsLength + bytes.length > Integer.MAX_VALUE) {
+			throw new IOException("Too many photos for one catalog");
+		}
+		if (stringsLength + bytes.length > strings.capacity()) {
+			long capacity = Math.max(stringsLength + bytes.length, stringsLength + stringsLength / 2L);
+			strings = stringsChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(capacity, Integer.MAX_VALUE));
+		}
+		for (int i = 0; i < bytes.length; i++) {
+			strings.put(stringsLength + i, bytes[i]);
+		}
+		
+		int ordinal = size();
+		long end = HEADER_SIZE + (ordinal + 1L) * RECORD_SIZE;
+		if (end > records.capacity()) {
+			long capacity = Math.max(end + (long) GROWTH * RECORD_SIZE, records.capacity() + records.capacity() / 2L);
+			records = recordsChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		}
+		writeRecord(records, (int) end - RECORD_SIZE, stringsLength, bytes.length, header);
+		records.putInt(H_STRINGS_LENGTH, stringsLength + bytes.length);
+		records.putInt(H_COUNT, ordinal + 1);
+		
+		addToPathIndex(ordinal, hash(bytes));
+		return ordinal;
+	}
+	
+	/**
+	 * Forces changes to disk and closes the catalog files.
+	 */
+	public void close() throws IOException {
+		try {
+			records.force();
+			strings.force();
+		} finally {
+			recordsChannel.close();
+			stringsChannel.close();
+		}
+	}
+	
+    /*
+     * ---------------------------------------------------------------------
+     * HELPERS
+     * --------------------------------------------------------------------- 
+    */
+	
+	private void buildPathIndex() {
+		int count = size();
+		pathIndex = new int[Integer.highestOneBit(Math.max(16, count) * 2) * 2];
+		pathIndexCount = 0;
+		for (int ordinal = 0; ordinal < count; ordinal++) {
+			int record = recordPosition(ordinal);
+			int offset = records.getInt(record + R_PATH_OFFSET);
+			int length = records.getInt(record + R_PATH_LENGTH);
+			int h = 0x811c9dc5;
+			for (int i = 0; i < length; i++) {
+				h = (h ^ (strings.get(offset + i) & 0xff)) * 0x01000193;
+			}
+			addToPathIndex(ordinal, h);
+		}
+	}
+	
+	private void addToPathIndex(int ordinal, int hash) {
+		if (pathIndex == null) {
+			return;
+		}
+		if (2 * (pathIndexCount + 1) > pathIndex.length) {
+			// Rebuilt at twice the size, which also covers the new record.
+			pathIndex = null;
+			buildPathIndex();
+			return;
+		}
+		int mask = pathIndex.length - 1;
+		int slot = hash & mask;
+		while (pathIndex[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		pathIndex[slot] = ordinal + 1;
+		pathIndexCount++;
+	}
+	
+	/**
+	 * FNV-1a hash of bytes, the same as computed over the mapping in buildPathIndex.
+	 */
+	private static int hash(byte[] bytes) {
+		int h = 0x811c9dc5;
+		for (byte b : bytes) {
+			h = (h ^ (b & 0xff)) * 0x01000193;
+		}
+		return h;
+	}
+	
+	/**
+	 * Compares the path of ordinal with bytes without decoding it.
+	 */
+	private boolean pathEquals(int ordinal, byte[] bytes) {
+		int record = recordPosition(ordinal);
+		if (records.getInt(record + R_PATH_LENGTH) != bytes.length) {
+			return false;
+		}
+		int offset = records.getInt(record + R_PATH_OFFSET);
+		for (int i = 0; i < bytes.length; i++) {
+			if (strings.get(offset + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns true iff the path of ordinal starts with prefix, 
+	 * and has no separator after it unless recursive is true.
+	 */
+	private boolean isInDirectory(int ordinal, byte[] prefix, boolean recursive) {
+		int record = recordPosition(ordinal);
+		int length = records.getInt(record + R_PATH_LENGTH);
+		if (length <= prefix.length) {
+			return false;
+		}
+		int offset = records.getInt(record + R_PATH_OFFSET);
+		for (int i = 0; i < prefix.length; i++) {
+			if (strings.get(offset + i) != prefix[i]) {
+				return false;
+			}
+		}
+		if (!recursive) {
+			for (int i = prefix.length; i < length; i++) {
+				if (strings.get(offset + i) == (byte) File.separatorChar) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	private int recordPosition(int ordinal) {
+		if (ordinal < 0 || ordinal >= size()) {
+			throw new IndexOutOfBoundsException("No photo " + ordinal);
+		}
+		return HEADER_SIZE + ordinal * RECORD_SIZE;
+	}
+	
+	/**
+	 * Reads the length prefixed string at offset in the strings file.
+	 */
+	private String readString(int offset) {
+		return readString(offset + 4, strings.getInt(offset));
+	}
+	
+	private String readString(int offset, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = strings.get(offset + i);
+		}
+		return new String(bytes, UTF8);
+	}
+	
+	/**
+	 * Writes the fields of a record at position.
+	 */
+	static void writeRecord(ByteBuffer out, int position, int pathOffset, int pathLength, PhotoHeader header) {
+		out.putInt(position + R_PATH_OFFSET, pathOffset);
+		out.putInt(position + R_PATH_LENGTH, pathLength);
+		out.putLong(position + R_FILE_SIZE, header.getFileSize());
+		out.putLong(position + R_LAST_MODIFIED, header.getLastModified());
+		out.putInt(position + R_WIDTH, header.getWidth());
+		out.putInt(position + R_HEIGHT, header.getHeight());
+		out.put(position + R_FORMAT, (byte) toFormat(header.getFormatName()));
+		out.put(position + R_FLAGS, (byte) 0);
+		out.put(position + R_ORIENTATION, (byte) header.getOrientation());
+		// Seconds as an unsigned int, until 2106.
+		long captureTime = header.getCaptureTime();
+		out.putInt(position + R_CAPTURE_TIME, captureTime > 0 && captureTime / 1000 <= 0xFFFFFFFFL 
+				? (int) (captureTime / 1000) : 0);
+	}
+	
+	/**
+	 * Returns the FORMAT constant for the format name of an image reader.
+	 */
+	static int toFormat(String formatName) {
+		if (formatName == null) {
+			return FORMAT_UNKNOWN;
+		}
+		String name = formatName.toLowerCase();
+		if (name.equals("jpeg") || name.equals("jpg")) {
+			return FORMAT_JPEG;
+		} else if (name.equals("png")) {
+			return FORMAT_PNG;
+		} else if (name.equals("gif")) {
+			return FORMAT_GIF;
+		} else if (name.equals("bmp")) {
+			return FORMAT_BMP;
+		}
+		return FORMAT_UNKNOWN;
+	}
+	
+	/**
+	 * Writes a length prefixed string through buffer.
+	 * @return long the position after the string.
+	 */
+	private static long putString(FileChannel out, ByteBuffer buffer, long position, String s) throws IOException {
+		byte[] bytes = s.getBytes(UTF8);
+		if (buffer.remaining() < 4) {
+			position = flush(out, buffer, position);
+		}
+		buffer.putInt(bytes.length);
+		return putBytes(out, buffer, position + 4, bytes);
+	}
+	
+	/**
+	 * Writes bytes through buffer, which is flushed to out when full.
+	 * @return long the position after the bytes.
+	 */
+	private static long putBytes(FileChannel out, ByteBuffer buffer, long position, byte[] bytes) throws IOException {
+		int written = 0;
+		while (written < bytes.length) {
+			if (!buffer.hasRemaining()) {
+				flush(out, buffer, position);
+			}
+			int n = Math.min(buffer.remaining(), bytes.length - written);
+			buffer.put(bytes, written, n);
+			written += n;
+		}
+		return position + bytes.length;
+	}
+	
+	/**
+	 * Writes what is in buffer to the end of out and clears buffer.
+	 */
+	private static long flush(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+		buffer.flip();
+		long at = out.size();
+		while (buffer.hasRemaining()) {
+			at += out.write(buffer, at);
+		}
+		buffer.clear();
+		return position;
+	}
+}
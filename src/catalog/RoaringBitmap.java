@@ -0,0 +1,466 @@
+package catalog;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compressed set of non negative ints, such as catalog ordinals, in the style of Roaring bitmaps.
+ *
+ * Ints are split by their high 16 bits into chunks of 65536. Each chunk that holds
+ * ints is a container: a sorted array of the low 16 bits while it holds at most
+ * ARRAY_MAX ints, and a bitmap of 65536 bits when it holds more.
+ * Sparse sets stay small, dense sets are united a word at a time.
+ *
+ * Not thread safe.
+ */
+public class RoaringBitmap {
+	
+	// Maximum number of ints of an array container, a bitmap container is smaller above it.
+	private static final int ARRAY_MAX = 4096;
+	
+	// Number of longs of a bitmap container.
+	private static final int WORDS = 1024;
+	
+	// High 16 bits of the chunks, sorted, with their containers.
+	private char[] keys = new char[4];
+	private Container[] containers = new Container[4];
+	private int size;
+	
+	/**
+	 * Adds x to the set.
+	 * @param x int a non negative int.
+	 */
+	public void add(int x) {
+		char key = (char) (x >>> 16);
+		int i = find(key);
+		if (i >= 0) {
+			containers[i] = containers[i].add((char) x);
+		} else {
+			insert(-i - 1, key, new ArrayContainer().add((char) x));
+		}
+	}
+	
+	/**
+	 * Removes x from the set.
+	 * @param x int a non negative int.
+	 */
+	public void remove(int x) {
+		int i = find((char) (x >>> 16));
+		if (i >= 0) {
+			containers[i] = containers[i].remove((char) x);
+			if (containers[i].cardinality() == 0) {
+				System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+				System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+				containers[--size] = null;
+			}
+		}
+	}
+	
+	public boolean contains(int x) {
+		int i = find((char) (x >>> 16));
+		return i >= 0 && containers[i].contains((char) x);
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Returns the number of ints in the set.
+	 */
+	public int getCardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < size; i++) {
+			cardinality += containers[i].cardinality();
+		}
+		return cardinality;
+	}
+	
+	/**
+	 * Returns the ints in the set, in increasing order.
+	 */
+	public int[] toArray() {
+		int[] values = new int[getCardinality()];
+		int position = 0;
+		for (int i = 0; i < size; i++) {
+			position = containers[i].fill(keys[i] << 16, values, position);
+		}
+		return values;
+	}
+	
+	/**
+	 * Returns the union of a and b, leaving both unchanged.
+	 */
+	public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+		RoaringBitmap result = new RoaringBitmap();
+		int i = 0;
+		int j = 0;
+		while (i < a.size || j < b.size) {
+			if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+				result.append(a.keys[i], a.containers[i].copy());
+				i++;
+			} else if (i == a.size || b.keys[j] < a.keys[i]) {
+				result.append(b.keys[j], b.containers[j].copy());
+				j++;
+			} else {
+				result.append(a.keys[i], or(a.containers[i], b.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+	
+    /*
+     * ---------------------------------------------------------------------
+     * SERIALIZATION
+     * ---------------------------------------------------------------------
+    */
+	
+	/**
+	 * Writes the set to out.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeChar(keys[i]);
+			containers[i].write(out);
+		}
+	}
+	
+	/**
+	 * Reads a set written by write.
+	 * @throws IOException if in can not be read or does not hold a set.
+	 */
+	public static RoaringBitmap read(DataInput in) throws IOException {
+		RoaringBitmap bitmap = new RoaringBitmap();
+		int count = in.readInt();
+		if (count < 0 || count > 65536) {
+			throw new IOException("Invalid bitmap");
+		}
+		for (int i = 0; i < count; i++) {
+			char key = in.readChar();
+			if (i > 0 && key <= bitmap.keys[i - 1]) {
+				throw new IOException("Invalid bitmap");
+			}
+			bitmap.append(key, Container.read(in));
+		}
+		return bitmap;
+	}
+	
+    /*
+     * ---------------------------------------------------------------------
+     * HELPERS
+     * ---------------------------------------------------------------------
+    */
+	
+	/**
+	 * Returns the index of key, or -(insertion point) - 1 if it has no container.
+	 */
+	private int find(char key) {
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+	
+	private void insert(int i, char key, Container container) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, 2 * size);
+			containers = Arrays.copyOf(containers, 2 * size);
+		}
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(containers, i, containers, i + 1, size - i);
+		keys[i] = key;
+		containers[i] = container;
+		size++;
+	}
+	
+	/**
+	 * Adds a container with a key greater than all keys.
+	 */
+	private void append(char key, Container container) {
+		insert(size, key, container);
+	}
+	
+	private static Container or(Container a, Container b) {
+		if (a instanceof BitmapContainer) {
+			return ((BitmapContainer) a.copy()).orInPlace(b);
+		} else if (b instanceof BitmapContainer) {
+			return ((BitmapContainer) b.copy()).orInPlace(a);
+		}
+	
+		// Merge of two sorted arrays.
+		ArrayContainer x = (ArrayContainer) a;
+		ArrayContainer y = (ArrayContainer) b;
+		if (x.size + y.size > ARRAY_MAX) {
+			// The arrays may overlap, so the union may still fit an array.
+			return new BitmapContainer(x).orInPlace(y).shrink();
+		}
+		ArrayContainer result = new ArrayContainer(x.size + y.size);
+		int i = 0;
+		int j = 0;
+		while (i < x.size || j < y.size) {
+			if (j == y.size || (i < x.size && x.values[i] < y.values[j])) {
+				result.values[result.size++] = x.values[i++];
+			} else if (i == x.size || y.values[j] < x.values[i]) {
+				result.values[result.size++] = y.values[j++];
+			} else {
+				result.values[result.size++] = x.values[i++];
+				j++;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Low 16 bits of the ints of a chunk.
+	 */
+	private abstract static class Container {
+	
+		/**
+		 * Adds x, returns the container that holds the result.
+		 */
+		abstract Container add(char x);
+	
+		/**
+		 * Removes x, returns the container that holds the result.
+		 */
+		abstract Container remove(char x);
+	
+		abstract boolean contains(char x);
+	
+		abstract int cardinality();
+	
+		abstract Container copy();
+	
+		/**
+		 * Puts the ints of this container, with high bits high, in values from position.
+		 * @return int the position after the last int.
+		 */
+		abstract int fill(int high, int[] values, int position);
+	
+		abstract void write(DataOutput out) throws IOException;
+	
+		static Container read(DataInput in) throws IOException {
+			if (in.readByte() == 0) {
+				int size = in.readInt();
+				if (size <= 0 || size > ARRAY_MAX) {
+					throw new IOException("Invalid bitmap");
+				}
+				ArrayContainer array = new ArrayContainer(size);
+				for (int i = 0; i < size; i++) {
+					array.values[i] = in.readChar();
+				}
+				array.size = size;
+				return array;
+			}
+			BitmapContainer bitmap = new BitmapContainer();
+			for (int i = 0; i < WORDS; i++) {
+				bitmap.words[i] = in.readLong();
+				bitmap.cardinality += Long.bitCount(bitmap.words[i]);
+			}
+			return bitmap;
+		}
+	}
+	
+	/**
+	 * Container of at most ARRAY_MAX values in a sorted array.
+	 */
+	private static class ArrayContainer extends Container {
+	
+		char[] values;
+		int size;
+	
+		ArrayContainer() {
+			this(4);
+		}
+	
+		ArrayContainer(int capacity) {
+			values = new char[Math.max(4, capacity)];
+		}
+	
+		@Override
+		Container add(char x) {
+			int i = Arrays.binarySearch(values, 0, size, x);
+			if (i >= 0) {
+				return this;
+			}
+			if (size == ARRAY_MAX) {
+				return new BitmapContainer(this).add(x);
+			}
+			i = -i - 1;
+			if (size == values.length) {
+				values = Arrays.copyOf(values, Math.min(ARRAY_MAX, 2 * size));
+			}
+			System.arraycopy(values, i, values, i + 1, size - i);
+			values[i] = x;
+			size++;
+			return this;
+		}
+	
+		@Override
+		Container remove(char x) {
+			int i = Arrays.binarySearch(values, 0, size, x);
+			if (i >= 0) {
+				System.arraycopy(values, i + 1, values, i, size - i - 1);
+				size--;
+			}
+			return this;
+		}
+	
+		@Override
+		boolean contains(char x) {
+			return Arrays.binarySearch(values, 0, size, x) >= 0;
+		}
+	
+		@Override
+		int cardinality() {
+			return size;
+		}
+	
+		@Override
+		Container copy() {
+			ArrayContainer copy = new ArrayContainer(size);
+			System.arraycopy(values, 0, copy.values, 0, size);
+			copy.size = size;
+			return copy;
+		}
+	
+		@Override
+		int fill(int high, int[] out, int position) {
+			for (int i = 0; i < size; i++) {
+				out[position++] = high | values[i];
+			}
+			return position;
+		}
+	
+		@Override
+		void write(DataOutput out) throws IOException {
+			out.writeByte(0);
+			out.writeInt(size);
+			for (int i = 0; i < size; i++) {
+				out.writeChar(values[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Container of more than ARRAY_MAX values, one bit per value.
+	 */
+	private static class BitmapContainer extends Container {
+	
+		final long[] words = new long[WORDS];
+		int cardinality;
+	
+		BitmapContainer() {
+		}
+	
+		BitmapContainer(ArrayContainer array) {
+			orInPlace(array);
+		}
+	
+		/**
+		 * Adds the values of other to this container.
+		 */
+		BitmapContainer orInPlace(Container other) {
+			if (other instanceof BitmapContainer) {
+				long[] otherWords = ((BitmapContainer) other).words;
+				cardinality = 0;
+				for (int i = 0; i < WORDS; i++) {
+					words[i] |= otherWords[i];
+					cardinality += Long.bitCount(words[i]);
+				}
+			} else {
+				ArrayContainer array = (ArrayContainer) other;
+				for (int i = 0; i < array.size; i++) {
+					add(array.values[i]);
+				}
+			}
+			return this;
+		}
+	
+		@Override
+		Container add(char x) {
+			long bit = 1L << x;
+			if ((words[x >>> 6] & bit) == 0) {
+				words[x >>> 6] |= bit;
+				cardinality++;
+			}
+			return this;
+		}
+	
+		@Override
+		Container remove(char x) {
+			long bit = 1L << x;
+			if ((words[x >>> 6] & bit) != 0) {
+				words[x >>> 6] &= ~bit;
+				cardinality--;
+			}
+			return shrink();
+		}
+	
+		/**
+		 * Returns this container, or an array container of its values if it holds at most ARRAY_MAX.
+		 */
+		Container shrink() {
+			if (cardinality > ARRAY_MAX) {
+				return this;
+			}
+			ArrayContainer array = new ArrayContainer(cardinality);
+			fillChars(array);
+			return array;
+		}
+	
+		/**
+		 * Puts the values of this container in array, which is large enough.
+		 */
+		private void fillChars(ArrayContainer array) {
+			for (int i = 0; i < WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					array.values[array.size++] = (char) (i * 64 + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		}
+	
+		@Override
+		boolean contains(char x) {
+			return (words[x >>> 6] & (1L << x)) != 0;
+		}
+	
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+	
+		@Override
+		Container copy() {
+			BitmapContainer copy = new BitmapContainer();
+			System.arraycopy(words, 0, copy.words, 0, WORDS);
+			copy.cardinality = cardinality;
+			return copy;
+		}
+	
+		@Override
+		int fill(int high, int[] out, int position) {
+			for (int i = 0; i < WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					out[position++] = high | (i * 64 + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return position;
+		}
+	
+		@Override
+		void write(DataOutput out) throws IOException {
+			out.writeByte(1);
+			for (int i = 0; i < WORDS; i++) {
+				out.writeLong(words[i]);
+			}
+		}
+	}
+}
+	
\ No newline at end of file
@@ -0,0 +1,124 @@
+package catalog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tags of the photos of a catalog, one bitmap of catalog ordinals per tag.
+ * Ordinals never move when the catalog is updated, so tags stay with their photos,
+ * and the tags of a deleted photo come back with it.
+ *
+ * The index is kept in a file next to the catalog: a magic number, a version,
+ * the number of tags, and for each tag its name and its bitmap.
+ */
+public class TagIndex {
+	
+	private static final int MAGIC = 0x54414753;	// "TAGS"
+	private static final int VERSION = 1;
+	
+	private final File file;
+	private final Map<String, RoaringBitmap> tags = new LinkedHashMap<String, RoaringBitmap>();
+	
+	private TagIndex(File file) {
+		this.file = file;
+	}
+	
+	/**
+	 * Loads the tag index kept in directory, an empty index if there is none yet.
+	 * @param directory File the directory of the catalog files.
+	 * @return TagIndex the index.
+	 * @throws IOException if the index exists but can not be read.
+	 */
+	public static TagIndex load(File directory) throws IOException {
+		TagIndex index = new TagIndex(new File(directory, "tags.idx"));
+		if (!index.file.isFile()) {
+			return index;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index.file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Invalid tag index " + index.file);
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String tag = in.readUTF();
+				index.tags.put(tag, RoaringBitmap.read(in));
+			}
+		} finally {
+			in.close();
+		}
+		return index;
+	}
+	
+	/**
+	 * Writes the index next to its file, and moves it over the file once complete.
+	 * @throws IOException if the index can not be written.
+	 */
+	public void save() throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(tags.size());
+			for (Map.Entry<String, RoaringBitmap> tag : tags.entrySet()) {
+				out.writeUTF(tag.getKey());
+				tag.getValue().write(out);
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	public boolean isTagged(String tag, int ordinal) {
+		RoaringBitmap photos = tags.get(tag);
+		return photos != null && photos.contains(ordinal);
+	}
+	
+	/**
+	 * Adds the photo at ordinal to tag, or removes it.
+	 * @param tag String the name of the tag.
+	 * @param ordinal int the ordinal of the photo in the catalog.
+	 * @param tagged boolean true to add the photo, false to remove it.
+	 */
+	public void setTagged(String tag, int ordinal, boolean tagged) {
+		RoaringBitmap photos = tags.get(tag);
+		if (photos == null) {
+			photos = new RoaringBitmap();
+			tags.put(tag, photos);
+		}
+		if (tagged) {
+			photos.add(ordinal);
+		} else {
+			photos.remove(ordinal);
+		}
+	}
+	
+	/**
+	 * Returns the ordinals of the photos that have at least one of selectedTags.
+	 * @param selectedTags Collection<String> the names of the tags.
+	 * @return RoaringBitmap a new bitmap of the ordinals.
+	 */
+	public RoaringBitmap getTagged(Collection<String> selectedTags) {
+		RoaringBitmap result = new RoaringBitmap();
+		for (String tag : selectedTags) {
+			RoaringBitmap photos = tags.get(tag);
+			if (photos != null) {
+				result = RoaringBitmap.or(result, photos);
+			}
+		}
+		return result;
+	}
+}
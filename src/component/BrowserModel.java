@@ -0,0 +1,102 @@
+package component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import model.PhotoList;
+
+/**
+ * Model for the ThumbnailGrid.
+ * Holds the list of photos that is browsed and the selected photo.
+ */
+public class BrowserModel {
+	
+	// Photos shown in the browser.
+	private PhotoList photos;
+	
+	// Index of the selected photo, -1 if there is none.
+	private int selectedIndex;
+	
+	// Listeners that will fire change events to the component.
+	private List<ChangeListener> changeListeners;
+	
+	/**
+	 * Constructor.
+	 */
+	public BrowserModel() {
+		changeListeners = new ArrayList<ChangeListener>();
+		selectedIndex = -1;
+	}
+	
+	/**
+	 * Adds listener listener to listeners list.
+	 * @param listener ChangeListener the listener you add.
+	 */
+	public void addChangeListener (ChangeListener listener) {
+		changeListeners.add(listener);
+	}
+
+	/**
+	 * Remove listener listener to listeners list.
+	 * @param listener ChangeListener the listener you remove.
+	 */
+	public void removeChangeListener (ChangeListener listener) {
+		changeListeners.remove(listener);
+	}
+	
+	/**
+	 * Fires a change event so that the component will know 
+	 * that something has changed in its state.
+	 */
+	private void fireChange () {
+		for (ChangeListener listener : changeListeners) {
+			ChangeEvent e = new ChangeEvent(listener);
+			listener.stateChanged(e);
+		}
+	}
+	
+    /*
+     * ---------------------------------------------------------------------
+     * GETTERS AND SETTERS FOR IN MODEL
+     * --------------------------------------------------------------------- 
+    */
+	
+	public PhotoList getPhotos() {
+		return photos;
+	}
+	
+	public void setPhotos(PhotoList photos) {
+		this.photos = photos;
+		this.selectedIndex = -1;
+		fireChange();
+	}
+	
+	/**
+	 * Returns the number of photos, 0 if there is no list.
+	 */
+	public int getPhotoCount() {
+		return photos == null ? 0 : photos.size();
+	}
+	
+	public int getSelectedIndex() {
+		return selectedIndex;
+	}
+	
+	public void setSelectedIndex(int selectedIndex) {
+		this.selectedIndex = selectedIndex;
+		fireChange();
+	}
+	
+	/**
+	 * Returns the path of the selected photo, or null if there is none.
+	 */
+	public String getSelectedPath() {
+		if (selectedIndex < 0 || selectedIndex >= getPhotoCount()) {
+			return null;
+		}
+		return photos.getPath(selectedIndex);
+	}
+}
@@ -2,19 +2,25 @@ package component;
 
 import java.awt.Color;
 import java.awt.Font;
-import java.awt.Image;
 import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.List;
 
-import javax.imageio.ImageIO;
-import javax.swing.ImageIcon;
 import javax.swing.JComponent;
-import javax.swing.event.ChangeEvent;
-import javax.swing.event.ChangeListener;
 
+import cache.DecodedImageCache;
+import loader.PhotoHeader;
+import loader.PhotoLoader;
+import loader.TiledImage;
+import model.PhotoChangeEvent;
+import model.PhotoChangeListener;
 import model.PhotoModel;
+import model.StrokeStore;
+import model.TextBlock;
+import UI.AbstractPhotoUI;
 import UI.PhotoUI;
 
 /**
@@ -22,20 +28,37 @@ import UI.PhotoUI;
  * Listens for changes in the model.
  * Handles user input.
  */
-public class PhotoComponent extends JComponent implements ChangeListener {
+public class PhotoComponent extends JComponent implements PhotoChangeListener, TiledImage.TileListener {
 
 	private static final long serialVersionUID = 1L;
 	
+	// Number of changed text blocks over which the whole component is repainted.
+	private static final int MAX_TEXT_BLOCK_REPAINTS = 16;
+	
 	// Model used for saving internal state information.
-	private static PhotoModel model;
+	private PhotoModel model;
+	
+	// Tiles of a photo too big to be decoded as a whole, null for other photos.
+	// Kept out of the model, which does not depend on how the pixels are loaded.
+	private TiledImage tiledImage;
+	
+	// Cache that holds a reference to the shown photo under imageKey, null if the photo is not cached.
+	private DecodedImageCache imageCache;
+	private String imageKey;
 
     public PhotoComponent(String imagePath) { 	
     	try {
     		setModel(new PhotoModel());
     		
-    		// Set image in the model.
-    		setImage(ImageIO.read(new File(imagePath))); 
-    		setImageIcon(new ImageIcon(imagePath));
+    		// Set image in the model, decoded once.
+    		BufferedImage image = PhotoLoader.load(new File(imagePath));
+    		model.beginUpdate();
+    		try {
+    			setImageSize(image.getWidth(), image.getHeight());
+    			setImage(image); 
+    		} finally {
+    			model.endUpdate();
+    		}
     		
     		setUI(new PhotoUI());
     		invalidate();    		
@@ -46,6 +69,20 @@ public class PhotoComponent extends JComponent implements ChangeListener {
     	}
     }
     
+    /**
+     * Creates a component for a photo that is still being loaded.
+     * The component gets its final size right away; the image is set 
+     * once it is decoded, possibly after a low resolution placeholder.
+     * @param header PhotoHeader the header of the photo.
+     */
+    public PhotoComponent(PhotoHeader header) {
+    	setModel(new PhotoModel());
+    	setImageSize(header.getWidth(), header.getHeight());
+    	
+    	setUI(new PhotoUI());
+    	invalidate();
+    }
+    
     public String getUIClassID() { 
     	return PhotoUI.UI_CLASS_ID; 
     }
@@ -72,15 +109,82 @@ public class PhotoComponent extends JComponent implements ChangeListener {
     	super.setUI(ui); 
     }
     
+    public PhotoUI getUI() {
+    	return (PhotoUI) ui;
+    }
+    
+    /**
+     * Shows the photo with tiles that are decoded on demand, 
+     * repainting the region of each tile once it is decoded.
+     * @param tiledImage TiledImage the opened photo.
+     */
+    public void setTiledImage(TiledImage tiledImage) {
+    	tiledImage.setTileListener(this);
+    	this.tiledImage = tiledImage;
+    	repaint();
+    }
+    
+    /**
+     * Shows a photo from the cache of decoded photos. 
+     * The reference it holds there is released together with this component.
+     * @param image BufferedImage the decoded photo.
+     * @param cache DecodedImageCache the cache that holds a reference to it.
+     * @param key String the key of the photo in the cache.
+     */
+    public void setCachedImage(BufferedImage image, DecodedImageCache cache, String key) {
+    	releaseCachedImage();
+    	imageCache = cache;
+    	imageKey = key;
+    	model.setImage(image);
+    }
+    
+    private void releaseCachedImage() {
+    	if (imageCache != null) {
+    		imageCache.release(imageKey);
+    		imageCache = null;
+    		imageKey = null;
+    	}
+    }
+    
+    /**
+     * Releases the resources held for the photo, like its reference 
+     * in the cache of decoded photos or the file of a tiled image.
+     */
+    public void release() {
+    	releaseCachedImage();
+    	if (tiledImage != null) {
+    		tiledImage.close();
+    		tiledImage = null;
+    		repaint();
+    	}
+    }
+    
+    /**
+     * Repaints the region of a tile once it is decoded.
+     */
+    @Override
+	public void tileLoaded(Rectangle bounds) {
+		repaint(bounds);
+	}
+    
     /**
      * Listener for change events in the model.
-     * Repaint whenever change event is sent.
+     * Repaints only the region that changed, if the event tells it.
      */
 	@Override
-	public void stateChanged(ChangeEvent e) {
-		// Request for focus whenever repainting is necessary.
-		this.setFocusable(true);
-		this.requestFocusInWindow();
+	public void photoChanged(PhotoChangeEvent e) {
+		Rectangle dirty = e.getDirtyBounds();
+		int first = e.getFirstTextBlock();
+		int last = e.getLastTextBlock();
+		if (dirty != null && (first < 0 || (last - first < MAX_TEXT_BLOCK_REPAINTS && ui instanceof AbstractPhotoUI))) {
+			if (!dirty.isEmpty()) {
+				repaint(dirty);
+			}
+			for (int block = first; block >= 0 && block <= last; block++) {
+				repaint(((AbstractPhotoUI) ui).getTextBounds(this, block));
+			}
+			return;
+		}
 		repaint();	
 	}
 	
@@ -90,85 +194,97 @@ public class PhotoComponent extends JComponent implements ChangeListener {
      * --------------------------------------------------------------------- 
     */
 	
-	public static int getIconWidth() {
-		return model.getImageIcon().getIconWidth();
+	public int getImageWidth() {
+		return model.getImageWidth();
+	}
+	
+	public int getImageHeight() {
+		return model.getImageHeight();
 	}
 	
-	public static int getIconHeight() {
-		return model.getImageIcon().getIconHeight();
+	public void setImageSize(int imageWidth, int imageHeight) {
+		model.setImageSize(imageWidth, imageHeight);
 	}
 	
 	
-	public static Image getImage() {
+	public TiledImage getTiledImage() {
+		return tiledImage;
+	}
+	
+	public BufferedImage getImage() {
 		return model.getImage();
 	}
 
-	public static void setImage(Image image) {
+	public void setImage(BufferedImage image) {
 		model.setImage(image);
 	}
 
-	public static ImageIcon getImageIcon() {
-		return model.getImageIcon();
-	}
-
-	public static void setImageIcon(ImageIcon imageIcon) {
-		model.setImageIcon(imageIcon);
-	}
-
-	public static boolean isImageFlipped() {
+	public boolean isImageFlipped() {
 		return model.isImageFlipped();
 	}
 
-	public static void setImageFlipped(boolean imageFlipped) {
+	public void setImageFlipped(boolean imageFlipped) {
 		model.setImageFlipped(imageFlipped);
 	}
 
 	
-	public static ArrayList<Point> getDrawnPoints() {
-		return model.getDrawnPoints();
+	public StrokeStore getStrokes() {
+		return model.getStrokes();
 	}
 
-	public static void addDrawnPoint(Point point) {
-		model.addDrawnPoint(point);
+	public void addDrawnPoint(int x, int y) {
+		model.addDrawnPoint(x, y);
 	}
 	
-	public static void setDrawnPoints(ArrayList<Point> drawnPoints) {
-		model.setDrawnPoints(drawnPoints);
+	public void endStroke() {
+		model.endStroke();
 	}
 
-	public static ArrayList<Point> getTextPoints() {
-		return model.getTextPoints();
+	public List<TextBlock> getTextBlocks() {
+		return model.getTextBlocks();
 	}
 	
-	public static void addTextPoint(Point point) {
-		model.addTextPoint(point);
+	public int getCurrentTextBlock() {
+		return model.getCurrentTextBlock();
 	}
 	
-	public static void setTextPoints(ArrayList<Point> textPoints) {
-		model.setTextPoints(textPoints);
+	public void startTextBlock(Point anchor) {
+		model.startTextBlock(anchor);
 	}
-
-	public static String getTextValue() {
-		return model.getTextValue();
+	
+	public void endTextBlock() {
+		model.endTextBlock();
+	}
+	
+	public void insertText(char c) {
+		model.insertText(c);
+	}
+	
+	public void deleteTextBackward() {
+		model.deleteTextBackward();
+	}
+	
+	public void deleteTextForward() {
+		model.deleteTextForward();
+	}
+	
+	public void setTextCaret(int caret) {
+		model.setTextCaret(caret);
 	}
 
-	public static void setTextValue(String textValue) {
-		model.setTextValue(textValue);
-	}	
-
-	public static Color getDrawColor() {
+	public Color getDrawColor() {
 		return model.getDrawColor();
 	}
 
-	public static void setDrawColor(Color drawColor) {
+	public void setDrawColor(Color drawColor) {
 		model.setDrawColor(drawColor);;
 	}
 
-	public static Font getTextFont() {
+	public Font getTextFont() {
 		return model.getTextFont();
 	}
 
-	public static void setTextFont(Font textFont) {
+	public void setTextFont(Font textFont) {
 		model.setTextFont(textFont);
 	}	
 }
\ No newline at end of file
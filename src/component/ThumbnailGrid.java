@@ -0,0 +1,180 @@
+package component;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JComponent;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import loader.ThumbnailLoader;
+import model.PhotoList;
+import UI.ThumbnailGridUI;
+
+/**
+ * Component that shows a grid of photo thumbnails.
+ * Only the cells in view are painted, and their thumbnails are 
+ * decoded in the background, so the grid scales to folders with any number of photos.
+ * Listens for changes in the model and notifies action listeners when a photo is opened.
+ */
+public class ThumbnailGrid extends JComponent implements ChangeListener, Scrollable, ThumbnailLoader.ThumbnailListener {
+
+	private static final long serialVersionUID = 1L;
+	
+	// Model used for saving internal state information.
+	private BrowserModel model;
+	
+	// Decodes the thumbnails of the cells in view.
+	private final ThumbnailLoader thumbnailLoader;
+	
+	/**
+	 * Constructor.
+	 * @param thumbnailLoader ThumbnailLoader the loader of the thumbnails.
+	 */
+	public ThumbnailGrid(ThumbnailLoader thumbnailLoader) {
+		this.thumbnailLoader = thumbnailLoader;
+		thumbnailLoader.setThumbnailListener(this);
+		
+		setModel(new BrowserModel());
+		setUI(new ThumbnailGridUI());
+		setFocusable(true);
+	}
+	
+	public String getUIClassID() { 
+    	return ThumbnailGridUI.UI_CLASS_ID; 
+    }
+	
+	public void setUI(ThumbnailGridUI ui) { 
+    	super.setUI(ui); 
+    }
+	
+	public ThumbnailGridUI getUI() {
+		return (ThumbnailGridUI) ui;
+	}
+	
+	/**
+     * Sets model of this component to m and adds component as change listener.
+     * @param m BrowserModel new model of this component.
+     */
+	public void setModel(BrowserModel m) {
+		if (model != null) {
+			model.removeChangeListener(this);
+		}
+		model = m;
+		
+		// Add the component as listener for the change of model properties.
+		model.addChangeListener(this);
+	}
+	
+	public BrowserModel getModel() {
+		return model;
+	}
+	
+	public ThumbnailLoader getThumbnailLoader() {
+		return thumbnailLoader;
+	}
+	
+	/**
+	 * Shows the photos in photos, dropping thumbnail requests for the previous list.
+	 * @param photos PhotoList the photos to show.
+	 */
+	public void setPhotos(PhotoList photos) {
+		thumbnailLoader.clearRequests();
+		model.setPhotos(photos);
+		scrollRectToVisible(new Rectangle(0, 0, 1, 1));
+	}
+	
+	/**
+	 * Shows photos, an updated version of the list that is shown, 
+	 * keeping the scroll position.
+	 * @param photos PhotoList the photos to show.
+	 */
+	public void updatePhotos(PhotoList photos) {
+		thumbnailLoader.clearRequests();
+		model.setPhotos(photos);
+	}
+	
+	/**
+	 * Adds listener that is notified when a photo is opened by double clicking it.
+	 * The action command of the event is the path of the photo.
+	 * @param listener ActionListener the listener you add.
+	 */
+	public void addActionListener(ActionListener listener) {
+		listenerList.add(ActionListener.class, listener);
+	}
+	
+	/**
+	 * Removes listener from the listeners of opened photos.
+	 * @param listener ActionListener the listener you remove.
+	 */
+	public void removeActionListener(ActionListener listener) {
+		listenerList.remove(ActionListener.class, listener);
+	}
+	
+	/**
+	 * Tells action listeners that the photo at index is opened.
+	 * @param index int the index of the photo.
+	 */
+	public void fireOpen(int index) {
+		ActionEvent e = new ActionEvent(this, ActionEvent.ACTION_PERFORMED, model.getPhotos().getPath(index));
+		for (ActionListener listener : listenerList.getListeners(ActionListener.class)) {
+			listener.actionPerformed(e);
+		}
+	}
+	
+	/**
+     * Listener for change events in the model.
+     * The number of rows may have changed, so the layout is updated too.
+     */
+	@Override
+	public void stateChanged(ChangeEvent e) {
+		revalidate();
+		repaint();
+	}
+	
+	/**
+	 * Repaints only the cell whose thumbnail was decoded.
+	 */
+	@Override
+	public void thumbnailLoaded(int index) {
+		if (index < model.getPhotoCount()) {
+			repaint(getUI().getCellBounds(this, index));
+		}
+	}
+	
+    /*
+     * ---------------------------------------------------------------------
+     * SCROLLING
+     * --------------------------------------------------------------------- 
+    */
+
+	@Override
+	public Dimension getPreferredScrollableViewportSize() {
+		return getPreferredSize();
+	}
+
+	@Override
+	public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+		return orientation == SwingConstants.VERTICAL ? getUI().getCellHeight() / 4 : 10;
+	}
+
+	@Override
+	public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+		return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportWidth() {
+		// The number of columns follows the width of the viewport.
+		return true;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportHeight() {
+		return false;
+	}
+}
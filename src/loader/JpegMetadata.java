@@ -0,0 +1,77 @@
+package loader;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Metadata of a JPEG file that is read from its markers, 
+ * without decoding the main image.
+ */
+public class JpegMetadata {
+
+	// Dimensions of the main image, 0 if no frame header was found.
+	int width;
+	int height;
+	
+	// EXIF orientation, 1 is the normal orientation.
+	int orientation = 1;
+	
+	// Capture time in milliseconds since the epoch, -1 if unknown.
+	long captureTime = -1;
+	
+	// Embedded JPEG encoded thumbnail, null if there is none.
+	byte[] thumbnail;
+	
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getOrientation() {
+		return orientation;
+	}
+
+	public long getCaptureTime() {
+		return captureTime;
+	}
+	
+	/**
+	 * Decodes the embedded thumbnail. Black bars that some cameras add to fit 
+	 * the thumbnail in a fixed size are cut off, using the dimensions of the main image.
+	 * @return BufferedImage the thumbnail, or null if there is none or it can not be decoded.
+	 */
+	public BufferedImage decodeThumbnail() {
+		if (thumbnail == null) {
+			return null;
+		}
+		
+		BufferedImage image;
+		try {
+			image = ImageIO.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(thumbnail)));
+		} catch (IOException e) {
+			return null;
+		}
+		if (image == null || width <= 0 || height <= 0) {
+			return image;
+		}
+		
+		// Crop to the aspect ratio of the main image, keeping the center.
+		int w = image.getWidth();
+		int h = image.getHeight();
+		int expectedHeight = (int) Math.round((double) w * height / width);
+		int expectedWidth = (int) Math.round((double) h * width / height);
+		if (expectedHeight < h - 1) {
+			return image.getSubimage(0, (h - expectedHeight) / 2, w, expectedHeight);
+		} else if (expectedWidth < w - 1) {
+			return image.getSubimage((w - expectedWidth) / 2, 0, expectedWidth, h);
+		}
+		return image;
+	}
+}
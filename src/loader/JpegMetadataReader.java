@@ -0,0 +1,278 @@
+package loader;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+/**
+ * Streaming parser of the markers of a JPEG file.
+ * Reads the frame header for the dimensions and the EXIF APP1 segment for the 
+ * orientation, capture date and embedded thumbnail, and stops at the start of the 
+ * compressed scan, so the main image is never read, let alone decoded.
+ */
+public class JpegMetadataReader {
+	
+	/*
+	 * Markers.
+	 */
+	private static final int SOI = 0xD8;
+	private static final int EOI = 0xD9;
+	private static final int SOS = 0xDA;
+	private static final int APP1 = 0xE1;
+	
+	/*
+	 * TIFF tags used in EXIF.
+	 */
+	private static final int TAG_ORIENTATION = 0x0112;
+	private static final int TAG_DATE_TIME = 0x0132;
+	private static final int TAG_EXIF_IFD = 0x8769;
+	private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+	private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+	private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+	
+	private JpegMetadataReader() {}
+	
+	/**
+	 * Reads the metadata of the JPEG file.
+	 * @param file File the JPEG file.
+	 * @return JpegMetadata the metadata that was found.
+	 * @throws IOException if the file can not be read or is not a JPEG file.
+	 */
+	public static JpegMetadata read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 8192));
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+	
+	private static JpegMetadata read(DataInputStream in) throws IOException {
+		if (in.readUnsignedByte() != 0xFF || in.readUnsignedByte() != SOI) {
+			throw new IOException("Not a JPEG file");
+		}
+		
+		JpegMetadata metadata = new JpegMetadata();
+		try {
+			while (true) {
+				// Markers may be preceded by any number of 0xFF fill bytes.
+				if (in.readUnsignedByte() != 0xFF) {
+					throw new IOException("Invalid JPEG marker");
+				}
+				int marker = in.readUnsignedByte();
+				while (marker == 0xFF) {
+					marker = in.readUnsignedByte();
+				}
+				
+				if (marker == SOS || marker == EOI) {
+					break;
+				}
+				if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+					// Markers without a segment.
+					continue;
+				}
+				
+				int length = in.readUnsignedShort() - 2;
+				if (length < 0) {
+					throw new IOException("Invalid JPEG segment length");
+				}
+				
+				if (marker == APP1) {
+					byte[] segment = new byte[length];
+					in.readFully(segment);
+					readExif(segment, metadata);
+				} else if (isFrameHeader(marker) && length >= 5) {
+					in.readUnsignedByte();	// Sample precision.
+					metadata.height = in.readUnsignedShort();
+					metadata.width = in.readUnsignedShort();
+					skipFully(in, length - 5);
+				} else {
+					skipFully(in, length);
+				}
+			}
+		} catch (EOFException e) {
+			// Truncated file, keep what was found.
+		}
+		return metadata;
+	}
+	
+	/**
+	 * Returns true iff marker starts a frame header, SOF0 to SOF15 except DHT, JPG and DAC.
+	 */
+	private static boolean isFrameHeader(int marker) {
+		return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+	}
+	
+	private static void skipFully(DataInputStream in, int n) throws IOException {
+		while (n > 0) {
+			int skipped = in.skipBytes(n);
+			if (skipped <= 0) {
+				throw new EOFException();
+			}
+			n -= skipped;
+		}
+	}
+	
+    /*
+     * ---------------------------------------------------------------------
+     * EXIF
+     * --------------------------------------------------------------------- 
+    */
+	
+	/**
+	 * Reads the orientation, capture date and thumbnail from an APP1 segment, if it is an EXIF segment.
+	 */
+	private static void readExif(byte[] segment, JpegMetadata metadata) {
+		// "Exif\0\0" followed by a TIFF structure.
+		if (segment.length < 14 || segment[0] != 'E' || segment[1] != 'x' || segment[2] != 'i' 
+				|| segment[3] != 'f' || segment[4] != 0 || segment[5] != 0) {
+			return;
+		}
+		Tiff tiff = new Tiff(segment, 6);
+		if (!tiff.isValid()) {
+			return;
+		}
+		
+		try {
+			// IFD0 holds the orientation and points to the EXIF IFD and IFD1.
+			int ifd0 = tiff.getInt(4);
+			int exifIfd = -1;
+			String dateTime = null;
+			
+			int entries = tiff.getShort(ifd0);
+			for (int i = 0; i < entries; i++) {
+				int entry = ifd0 + 2 + i * 12;
+				int tag = tiff.getShort(entry);
+				if (tag == TAG_ORIENTATION) {
+					int orientation = tiff.getShort(entry + 8);
+					if (orientation >= 1 && orientation <= 8) {
+						metadata.orientation = orientation;
+					}
+				} else if (tag == TAG_EXIF_IFD) {
+					exifIfd = tiff.getInt(entry + 8);
+				} else if (tag == TAG_DATE_TIME) {
+					dateTime = tiff.getAscii(entry);
+				}
+			}
+			int ifd1 = tiff.getInt(ifd0 + 2 + entries * 12);
+			
+			// The EXIF IFD holds the original capture date.
+			if (exifIfd > 0) {
+				entries = tiff.getShort(exifIfd);
+				for (int i = 0; i < entries; i++) {
+					int entry = exifIfd + 2 + i * 12;
+					if (tiff.getShort(entry) == TAG_DATE_TIME_ORIGINAL) {
+						dateTime = tiff.getAscii(entry);
+					}
+				}
+			}
+			metadata.captureTime = parseDate(dateTime);
+			
+			// IFD1 describes the embedded thumbnail.
+			if (ifd1 > 0) {
+				int offset = -1;
+				int length = -1;
+				entries = tiff.getShort(ifd1);
+				for (int i = 0; i < entries; i++) {
+					int entry = ifd1 + 2 + i * 12;
+					int tag = tiff.getShort(entry);
+					if (tag == TAG_THUMBNAIL_OFFSET) {
+						offset = tiff.getInt(entry + 8);
+					} else if (tag == TAG_THUMBNAIL_LENGTH) {
+						length = tiff.getInt(entry + 8);
+					}
+				}
+				metadata.thumbnail = tiff.getBytes(offset, length);
+			}
+		} catch (IndexOutOfBoundsException e) {
+			// Corrupt EXIF data, keep what was found.
+		}
+	}
+	
+	/**
+	 * Parses an EXIF date, "yyyy:MM:dd HH:mm:ss" in local time.
+	 * @return long the time in milliseconds, -1 if date is null or invalid.
+	 */
+	private static long parseDate(String date) {
+		if (date == null) {
+			return -1;
+		}
+		try {
+			return new SimpleDateFormat("yyyy:MM:dd HH:mm:ss").parse(date).getTime();
+		} catch (ParseException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * TIFF structure inside a byte array, in either byte order.
+	 * Offsets are relative to the TIFF header.
+	 */
+	private static class Tiff {
+		
+		private final byte[] data;
+		private final int start;
+		private final boolean littleEndian;
+		
+		Tiff(byte[] data, int start) {
+			this.data = data;
+			this.start = start;
+			this.littleEndian = data[start] == 'I' && data[start + 1] == 'I';
+		}
+		
+		boolean isValid() {
+			boolean bigEndian = data[start] == 'M' && data[start + 1] == 'M';
+			return (littleEndian || bigEndian) && getShort(2) == 42;
+		}
+		
+		int getShort(int offset) {
+			if (offset < 0) {
+				throw new IndexOutOfBoundsException("Negative offset " + offset);
+			}
+			int b0 = data[start + offset] & 0xFF;
+			int b1 = data[start + offset + 1] & 0xFF;
+			return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+		}
+		
+		int getInt(int offset) {
+			int s0 = getShort(offset);
+			int s1 = getShort(offset + 2);
+			return littleEndian ? (s1 << 16) | s0 : (s0 << 16) | s1;
+		}
+		
+		/**
+		 * Returns the ASCII value of the IFD entry at offset, without its terminating 0.
+		 * The count and offset come from the file, so they are kept within the data.
+		 */
+		String getAscii(int entry) {
+			int count = getInt(entry + 4);
+			int offset = count >= 0 && count <= 4 ? entry + 8 : getInt(entry + 8);
+			if (count < 0 || offset < 0 || offset >= data.length - start) {
+				throw new IndexOutOfBoundsException("Invalid ASCII value at " + offset);
+			}
+			count = Math.min(count, data.length - start - offset);
+			StringBuilder sb = new StringBuilder(count);
+			for (int i = 0; i < count && data[start + offset + i] != 0; i++) {
+				sb.append((char) data[start + offset + i]);
+			}
+			return sb.toString();
+		}
+		
+		/**
+		 * Returns a copy of length bytes at offset, or null if they are not all in the data.
+		 */
+		byte[] getBytes(int offset, int length) {
+			if (offset <= 0 || length <= 0 || start + (long) offset + length > data.length) {
+				return null;
+			}
+			byte[] bytes = new byte[length];
+			System.arraycopy(data, start + offset, bytes, 0, length);
+			return bytes;
+		}
+	}
+}
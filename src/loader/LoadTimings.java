@@ -0,0 +1,41 @@
+package loader;
+
+/**
+ * Time spent in each stage of a photo load, in nanoseconds.
+ */
+public class LoadTimings {
+
+	long headerNanos;
+	long placeholderNanos;
+	long decodeNanos;
+	
+	public long getHeaderNanos() {
+		return headerNanos;
+	}
+
+	public long getPlaceholderNanos() {
+		return placeholderNanos;
+	}
+
+	public long getDecodeNanos() {
+		return decodeNanos;
+	}
+	
+	public long getTotalNanos() {
+		return headerNanos + placeholderNanos + decodeNanos;
+	}
+	
+	/**
+	 * Returns the timings in milliseconds, e.g. "header 2 ms, preview 85 ms, decode 640 ms".
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("header ").append(headerNanos / 1000000).append(" ms");
+		if (placeholderNanos > 0) {
+			sb.append(", preview ").append(placeholderNanos / 1000000).append(" ms");
+		}
+		sb.append(", decode ").append(decodeNanos / 1000000).append(" ms");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,86 @@
+package loader;
+
+/**
+ * Information on a photo file that can be read from its header, 
+ * without decoding any pixels.
+ */
+public class PhotoHeader {
+
+	// Dimensions of the photo in pixels.
+	private final int width;
+	private final int height;
+	
+	// Name of the format, as reported by the image reader (e.g. "JPEG").
+	private final String formatName;
+	
+	// Size of the file in bytes and its last modification time.
+	private final long fileSize;
+	private final long lastModified;
+	
+	// EXIF orientation, 1 if the photo is stored upright or does not tell.
+	private final int orientation;
+	
+	// Capture time in milliseconds since the epoch, -1 if unknown.
+	private final long captureTime;
+	
+	/**
+	 * Constructor, for a photo without EXIF data.
+	 */
+	public PhotoHeader(int width, int height, String formatName, long fileSize, long lastModified) {
+		this(width, height, formatName, fileSize, lastModified, 1, -1);
+	}
+	
+	/**
+	 * Constructor.
+	 */
+	public PhotoHeader(int width, int height, String formatName, long fileSize, long lastModified, 
+			int orientation, long captureTime) {
+		this.width = width;
+		this.height = height;
+		this.formatName = formatName;
+		this.fileSize = fileSize;
+		this.lastModified = lastModified;
+		this.orientation = orientation;
+		this.captureTime = captureTime;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public String getFormatName() {
+		return formatName;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+	
+	/**
+	 * Returns the EXIF orientation, 1 to 8, which tells how the stored pixels 
+	 * are turned to show the photo upright.
+	 */
+	public int getOrientation() {
+		return orientation;
+	}
+	
+	public long getCaptureTime() {
+		return captureTime;
+	}
+	
+	/**
+	 * Returns the number of pixels in the photo.
+	 * @return long width times height.
+	 */
+	public long getPixelCount() {
+		return (long) width * height;
+	}
+}
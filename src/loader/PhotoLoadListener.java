@@ -0,0 +1,48 @@
+package loader;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Listener for the stages of an asynchronous photo load.
+ * All methods are called on the Event Dispatch Thread, 
+ * and never after the load was cancelled.
+ */
+public interface PhotoLoadListener {
+	
+	/**
+	 * The header was read, so the dimensions of the photo are known.
+	 * @param header PhotoHeader the header of the photo.
+	 */
+	void headerRead(PhotoHeader header);
+	
+	/**
+	 * A low resolution version of the photo is ready to be shown.
+	 * Not called for photos that are small enough to decode right away.
+	 * @param placeholder BufferedImage the subsampled photo.
+	 */
+	void placeholderLoaded(BufferedImage placeholder);
+	
+	/**
+	 * The full photo was decoded, or found decoded in the cache of the pipeline.
+	 * The listener holds a reference to it in that cache, which it releases 
+	 * once it no longer shows the photo.
+	 * @param image BufferedImage the photo.
+	 * @param timings LoadTimings time spent in each stage.
+	 */
+	void imageLoaded(BufferedImage image, LoadTimings timings);
+	
+	/**
+	 * The photo is too big to be decoded as a whole, 
+	 * and is shown with tiles that are decoded on demand instead.
+	 * @param tiles TiledImage the opened photo.
+	 * @param timings LoadTimings time spent in each stage.
+	 */
+	void tiledImageLoaded(TiledImage tiles, LoadTimings timings);
+	
+	/**
+	 * The photo could not be loaded.
+	 * @param e IOException the cause.
+	 */
+	void loadFailed(IOException e);
+}
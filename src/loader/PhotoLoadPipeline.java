@@ -0,0 +1,305 @@
+package loader;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.SwingUtilities;
+
+import cache.DecodedImageCache;
+import util.NamedThreadFactory;
+
+/**
+ * Opens photos off the Event Dispatch Thread.
+ * File I/O and decoding run on a small bounded pool of workers. 
+ * A load goes through three stages: the header, a subsampled placeholder 
+ * and the full image. Each stage is reported to a PhotoLoadListener on the EDT.
+ * Photos that are too big to decode as a whole end in a TiledImage instead.
+ * 
+ * Only one load is current at a time: opening another photo 
+ * cancels the load that is still running.
+ * 
+ * Decoded photos are shared through a DecodedImageCache, so a photo that is 
+ * already decoded for another view is not decoded again. A delivered image holds 
+ * a reference in that cache under getCacheKey(file), which the listener releases 
+ * once it no longer shows the image.
+ */
+public class PhotoLoadPipeline {
+	
+	// Longest side of the placeholder image.
+	private static final int PLACEHOLDER_SIZE = 512;
+	
+	// Photos up to this many pixels are decoded right away, without placeholder.
+	private static final long PLACEHOLDER_THRESHOLD = 4L * PLACEHOLDER_SIZE * PLACEHOLDER_SIZE;
+	
+	// Photos over this many pixels are never decoded as a whole, but shown with tiles.
+	private static final long TILED_THRESHOLD = 100L * 1000 * 1000;
+	
+	// Longest side of the placeholder of a tiled photo, shown where tiles are still missing.
+	private static final int TILED_PLACEHOLDER_SIZE = 2048;
+	
+	// Bounded pool of workers, older waiting loads are dropped when it is full.
+	private final ThreadPoolExecutor executor;
+	
+	// The load that is currently running, if any.
+	private LoadTask current;
+	
+	// Decoded photos shared with other views.
+	private final DecodedImageCache imageCache;
+	
+	/**
+	 * Constructor.
+	 * @param imageCache DecodedImageCache the cache of decoded photos.
+	 */
+	public PhotoLoadPipeline(DecodedImageCache imageCache) {
+		this.imageCache = imageCache;
+		executor = new ThreadPoolExecutor(1, 2, 30, TimeUnit.SECONDS, 
+				new ArrayBlockingQueue<Runnable>(4), 
+				new NamedThreadFactory("photo-loader"), 
+				new ThreadPoolExecutor.DiscardOldestPolicy());
+		executor.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * Starts loading the photo in file, and cancels the load that is still running.
+	 * Must be called on the Event Dispatch Thread.
+	 * @param file File the photo file.
+	 * @param listener PhotoLoadListener the listener notified of each stage.
+	 */
+	public void open(File file, PhotoLoadListener listener) {
+		cancel();
+		current = new LoadTask(file, listener, imageCache);
+		executor.execute(current);
+	}
+	
+	/**
+	 * Returns the key of the photo in file in the cache of decoded photos.
+	 * @param file File the photo file.
+	 * @return String the key.
+	 */
+	public static String getCacheKey(File file) {
+		return file.getAbsolutePath();
+	}
+	
+	/**
+	 * Cancels the load that is still running, if any.
+	 * Its listener will not be notified anymore.
+	 */
+	public void cancel() {
+		if (current != null) {
+			current.cancel();
+			current = null;
+		}
+	}
+	
+	/**
+	 * Loads a single photo, checking for cancellation between stages.
+	 */
+	private static class LoadTask implements Runnable {
+		
+		private final File file;
+		private final PhotoLoadListener listener;
+		private final DecodedImageCache imageCache;
+		private final LoadTimings timings = new LoadTimings();
+		
+		private volatile boolean cancelled;
+		
+		// Reader that is decoding, guarded by this so it is never aborted after it is disposed.
+		private ImageReader activeReader;
+		
+		LoadTask(File file, PhotoLoadListener listener, DecodedImageCache imageCache) {
+			this.file = file;
+			this.listener = listener;
+			this.imageCache = imageCache;
+		}
+		
+		/**
+		 * Cancels this load, aborting a decode that is in progress.
+		 */
+		void cancel() {
+			cancelled = true;
+			synchronized (this) {
+				if (activeReader != null) {
+					activeReader.abort();
+				}
+			}
+		}
+		
+		@Override
+		public void run() {
+			if (cancelled) {
+				return;
+			}
+			try {
+				// Already decoded for another view.
+				BufferedImage cached = imageCache.acquire(getCacheKey(file));
+				if (cached != null) {
+					loadCached(cached);
+					return;
+				}
+				
+				ImageInputStream in = PhotoLoader.openStream(file);
+				try {
+					ImageReader reader = PhotoLoader.createReader(in, file, false);
+					synchronized (this) {
+						activeReader = reader;
+					}
+					try {
+						load(reader);
+					} finally {
+						synchronized (this) {
+							activeReader = null;
+						}
+						reader.dispose();
+					}
+				} finally {
+					in.close();
+				}
+			} catch (final IOException e) {
+				deliverFailure(e);
+			} catch (RuntimeException e) {
+				deliverFailure(new IOException("The image could not be read", e));
+			}
+		}
+		
+		/**
+		 * Delivers a photo that was already decoded, only reading its header.
+		 */
+		private void loadCached(BufferedImage cached) throws IOException {
+			long start = System.nanoTime();
+			final PhotoHeader header;
+			try {
+				header = PhotoLoader.readHeader(file);
+			} catch (IOException e) {
+				imageCache.release(getCacheKey(file));
+				throw e;
+			}
+			timings.headerNanos = System.nanoTime() - start;
+			deliver(new Runnable() {
+				public void run() {
+					listener.headerRead(header);
+				}
+			});
+			deliverImage(cached);
+		}
+		
+		private void load(ImageReader reader) throws IOException {
+			// Header stage.
+			long start = System.nanoTime();
+			final PhotoHeader header = PhotoLoader.readHeader(reader, file);
+			timings.headerNanos = System.nanoTime() - start;
+			deliver(new Runnable() {
+				public void run() {
+					listener.headerRead(header);
+				}
+			});
+			
+			// Placeholder stage, only for photos big enough to make it worthwhile.
+			boolean tiled = header.getPixelCount() > TILED_THRESHOLD;
+			if (header.getPixelCount() > PLACEHOLDER_THRESHOLD) {
+				start = System.nanoTime();
+				
+				// The thumbnail embedded in a JPEG file is there right away.
+				final BufferedImage embedded = PhotoLoader.loadEmbeddedThumbnail(file);
+				if (embedded != null) {
+					deliver(new Runnable() {
+						public void run() {
+							listener.placeholderLoaded(embedded);
+						}
+					});
+				}
+				
+				final BufferedImage placeholder = PhotoLoader.readSubsampled(reader, header, 
+						tiled ? TILED_PLACEHOLDER_SIZE : PLACEHOLDER_SIZE);
+				timings.placeholderNanos = System.nanoTime() - start;
+				if (cancelled) {
+					return;
+				}
+				deliver(new Runnable() {
+					public void run() {
+						listener.placeholderLoaded(placeholder);
+					}
+				});
+			}
+			
+			// Tiled photos are decoded region by region once they are on screen.
+			if (tiled) {
+				start = System.nanoTime();
+				final TiledImage tiles = new TiledImage(file, header);
+				timings.decodeNanos = System.nanoTime() - start;
+				if (cancelled) {
+					tiles.close();
+					return;
+				}
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						if (cancelled) {
+							tiles.close();
+						} else {
+							listener.tiledImageLoaded(tiles, timings);
+						}
+					}
+				});
+				return;
+			}
+			
+			// Full decode stage.
+			start = System.nanoTime();
+			BufferedImage image = reader.read(0, reader.getDefaultReadParam());
+			timings.decodeNanos = System.nanoTime() - start;
+			if (cancelled) {
+				return;
+			}
+			deliverImage(imageCache.put(getCacheKey(file), image));
+		}
+		
+		/**
+		 * Delivers image, which holds a reference in the cache. 
+		 * The reference is released again if this load is cancelled before delivery.
+		 */
+		private void deliverImage(final BufferedImage image) {
+			if (cancelled) {
+				imageCache.release(getCacheKey(file));
+				return;
+			}
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					if (cancelled) {
+						imageCache.release(getCacheKey(file));
+					} else {
+						listener.imageLoaded(image, timings);
+					}
+				}
+			});
+		}
+		
+		private void deliverFailure(final IOException e) {
+			deliver(new Runnable() {
+				public void run() {
+					listener.loadFailed(e);
+				}
+			});
+		}
+		
+		/**
+		 * Runs r on the Event Dispatch Thread, unless this load was cancelled by then.
+		 */
+		private void deliver(final Runnable r) {
+			if (cancelled) {
+				return;
+			}
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					if (!cancelled) {
+						r.run();
+					}
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package loader;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Loads photos from disk.
+ * The header of a photo is read before its pixels, so the dimensions 
+ * are known up front, and the pixels are decoded exactly once.
+ */
+public class PhotoLoader {
+	
+	// Extensions of the photo files that can be opened.
+	public static final String[] EXTENSIONS = {"jpg", "jpeg", "png", "gif", "bmp"};
+	
+	private PhotoLoader() {}
+	
+	/**
+	 * Returns true iff name has the extension of a photo file that can be opened.
+	 * @param name String the file name.
+	 * @return boolean true iff the file is a photo.
+	 */
+	public static boolean isPhotoFile(String name) {
+		int dot = name.lastIndexOf('.');
+		if (dot < 0) {
+			return false;
+		}
+		String extension = name.substring(dot + 1);
+		for (String e : EXTENSIONS) {
+			if (e.equalsIgnoreCase(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Reads the header of the photo in file, without decoding any pixels.
+	 * JPEG files are read with the marker parser, which stops before the compressed data.
+	 * @param file File the photo file.
+	 * @return PhotoHeader the header of the photo.
+	 * @throws IOException if the file can not be read or has no known image format.
+	 */
+	public static PhotoHeader readHeader(File file) throws IOException {
+		if (isJpegFile(file.getName())) {
+			try {
+				JpegMetadata metadata = JpegMetadataReader.read(file);
+				if (metadata.getWidth() > 0 && metadata.getHeight() > 0) {
+					return new PhotoHeader(metadata.getWidth(), metadata.getHeight(), "JPEG", 
+							file.length(), file.lastModified(), metadata.getOrientation(), metadata.getCaptureTime());
+				}
+			} catch (IOException e) {
+				// Not a JPEG file after all, let ImageIO find out.
+			}
+		}
+		
+		ImageInputStream in = openStream(file);
+		try {
+			ImageReader reader = createReader(in, file, true);
+			try {
+				return readHeader(reader, file);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Returns true iff name has the extension of a JPEG file.
+	 * @param name String the file name.
+	 * @return boolean true iff the file is a JPEG file.
+	 */
+	public static boolean isJpegFile(String name) {
+		String lower = name.toLowerCase();
+		return lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+	}
+	
+	/**
+	 * Returns the thumbnail that is embedded in the EXIF data of a JPEG file, 
+	 * found without decoding the main image. It is stored as the main image is, not turned upright.
+	 * @param file File the photo file.
+	 * @return BufferedImage the embedded thumbnail, or null if the file has none.
+	 */
+	public static BufferedImage loadEmbeddedThumbnail(File file) {
+		if (!isJpegFile(file.getName())) {
+			return null;
+		}
+		try {
+			return JpegMetadataReader.read(file).decodeThumbnail();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Decodes the photo in file. 
+	 * @param file File the photo file.
+	 * @return BufferedImage the decoded photo.
+	 * @throws IOException if the file can not be read or has no known image format.
+	 */
+	public static BufferedImage load(File file) throws IOException {
+		ImageInputStream in = openStream(file);
+		try {
+			ImageReader reader = createReader(in, file, true);
+			try {
+				// Dimensions come from the header, before any pixels are decoded.
+				PhotoHeader header = readHeader(reader, file);
+				if (header.getWidth() <= 0 || header.getHeight() <= 0) {
+					throw new IOException("Invalid dimensions in " + file);
+				}
+				return reader.read(0, reader.getDefaultReadParam());
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Decodes a thumbnail of the photo in file, that fits in a size by size square.
+	 * Only every n-th pixel is decoded, so the full photo is never held in memory.
+	 * @param file File the photo file.
+	 * @param size int the maximum length of the longest side of the thumbnail.
+	 * @return BufferedImage the thumbnail, an opaque RGB image.
+	 * @throws IOException if the file can not be read or has no known image format.
+	 */
+	public static BufferedImage loadThumbnail(File file, int size) throws IOException {
+		ImageInputStream in = openStream(file);
+		try {
+			ImageReader reader = createReader(in, file, true);
+			try {
+				PhotoHeader header = readHeader(reader, file);
+				return scaleToFit(readSubsampled(reader, header, size), size);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Scales image down so that it fits in a size by size square, keeping its aspect ratio.
+	 * The result is always an opaque RGB image, which is the fastest to draw.
+	 * @param image BufferedImage the image to scale.
+	 * @param size int the maximum length of the longest side.
+	 * @return BufferedImage the scaled image.
+	 */
+	public static BufferedImage scaleToFit(BufferedImage image, int size) {
+		double scale = Math.min(1.0, (double) size / Math.max(image.getWidth(), image.getHeight()));
+		int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+		int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+		if (scale == 1.0 && image.getType() == BufferedImage.TYPE_INT_RGB) {
+			return image;
+		}
+		
+		BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2 = scaled.createGraphics();
+		// Transparent parts of the image become white.
+		g2.setColor(Color.white);
+		g2.fillRect(0, 0, width, height);
+		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2.drawImage(image, 0, 0, width, height, null);
+		g2.dispose();
+		return scaled;
+	}
+	
+	/**
+	 * Opens an image input stream on file.
+	 * @param file File the photo file.
+	 * @return ImageInputStream the opened stream.
+	 * @throws IOException if the file can not be opened.
+	 */
+	static ImageInputStream openStream(File file) throws IOException {
+		ImageInputStream in = ImageIO.createImageInputStream(file);
+		if (in == null) {
+			throw new IOException("Could not open " + file);
+		}
+		return in;
+	}
+	
+	/**
+	 * Creates an image reader for stream in that ignores metadata.
+	 * @param in ImageInputStream the stream of the photo.
+	 * @param file File the photo file, used in error messages.
+	 * @param seekForwardOnly boolean true iff the image will be read only once.
+	 * @return ImageReader the reader with in as input.
+	 * @throws IOException if no reader supports the format of the file.
+	 */
+	static ImageReader createReader(ImageInputStream in, File file, boolean seekForwardOnly) throws IOException {
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+		if (!readers.hasNext()) {
+			throw new IOException("Unknown image format of " + file);
+		}
+		ImageReader reader = readers.next();
+		reader.setInput(in, seekForwardOnly, true);
+		return reader;
+	}
+	
+	/**
+	 * Decodes the first image of reader, subsampled so that 
+	 * its longest side is about maxSize pixels.
+	 * @param reader ImageReader the reader of the photo.
+	 * @param header PhotoHeader the header of the photo.
+	 * @param maxSize int the maximum length of the longest side.
+	 * @return BufferedImage the subsampled photo.
+	 * @throws IOException if the photo can not be decoded.
+	 */
+	static BufferedImage readSubsampled(ImageReader reader, PhotoHeader header, int maxSize) throws IOException {
+		ImageReadParam param = reader.getDefaultReadParam();
+		int period = getSubsamplingPeriod(header.getWidth(), header.getHeight(), maxSize);
+		if (period > 1) {
+			param.setSourceSubsampling(period, period, 0, 0);
+		}
+		return reader.read(0, param);
+	}
+	
+	/**
+	 * Returns the largest subsampling period that keeps the 
+	 * longest side of a width by height image at least maxSize.
+	 */
+	static int getSubsamplingPeriod(int width, int height, int maxSize) {
+		int longest = Math.max(width, height);
+		return Math.max(1, longest / Math.max(1, maxSize));
+	}
+	
+	/**
+	 * Reads the header of the first image of reader.
+	 */
+	static PhotoHeader readHeader(ImageReader reader, File file) throws IOException {
+		return new PhotoHeader(reader.getWidth(0), reader.getHeight(0), reader.getFormatName(), 
+				file.length(), file.lastModified());
+	}
+}
@@ -0,0 +1,182 @@
+package loader;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import cache.ThumbnailCache;
+import util.NamedThreadFactory;
+
+/**
+ * Decodes thumbnails in the background for a list of photos.
+ * Thumbnails are requested by the index of the photo in the list while painting. 
+ * The most recent requests are served first and old requests are dropped, 
+ * so scrolling quickly never builds up a backlog of photos that are off screen.
+ * Thumbnails come from a ThumbnailCache, so originals are only decoded 
+ * when no thumbnail of them is in memory or on disk.
+ */
+public class ThumbnailLoader {
+	
+	// Image kept for photos whose thumbnail could not be decoded, so they are not retried.
+	public static final BufferedImage FAILED = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+	
+	// Maximum number of thumbnails waiting to be decoded, older requests are dropped first.
+	private static final int MAX_PENDING = 256;
+	
+	/**
+	 * Listener that is told on the EDT when a thumbnail was decoded.
+	 */
+	public interface ThumbnailListener {
+		/**
+		 * @param index int the index of the photo whose thumbnail is ready.
+		 */
+		void thumbnailLoaded(int index);
+	}
+	
+	/**
+	 * Thumbnail that is waiting to be decoded.
+	 */
+	private static class Request {
+		final int index;
+		final String path;
+		final int generation;
+		
+		Request(int index, String path, int generation) {
+			this.index = index;
+			this.path = path;
+			this.generation = generation;
+		}
+	}
+	
+	// Length of the longest side of the thumbnails.
+	private final int size;
+	
+	// Thumbnails in memory and on disk.
+	private final ThumbnailCache cache;
+	
+	// Requested thumbnails that are not decoded yet, newest first. Guarded by lock.
+	private final Object lock = new Object();
+	private final LinkedBlockingDeque<Request> pending = new LinkedBlockingDeque<Request>();
+	private final Set<String> pendingPaths = new HashSet<String>();
+	
+	private final ThreadPoolExecutor decoders;
+	
+	// Incremented whenever the list of photos changes, so indices of old requests are ignored.
+	private volatile int generation;
+	
+	private volatile ThumbnailListener listener;
+	
+	/**
+	 * Constructor.
+	 * @param cache ThumbnailCache the cache of the thumbnails.
+	 * @param size int the size of the thumbnails, one of the sizes of ThumbnailCache.
+	 */
+	public ThumbnailLoader(ThumbnailCache cache, int size) {
+		this.cache = cache;
+		this.size = size;
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		decoders = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, 
+				new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("thumbnail-loader"));
+		decoders.allowCoreThreadTimeOut(true);
+	}
+	
+	public int getSize() {
+		return size;
+	}
+	
+	public void setThumbnailListener(ThumbnailListener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * Returns the thumbnail of the photo at index, or null if it is not decoded yet.
+	 * A missing thumbnail is requested, and the listener is told once it is decoded.
+	 * @param index int the index of the photo in the list.
+	 * @param path String the path of the photo.
+	 * @return BufferedImage the thumbnail, FAILED, or null.
+	 */
+	public BufferedImage getThumbnail(int index, String path) {
+		BufferedImage thumbnail = cache.getCached(path, size);
+		if (thumbnail == null) {
+			synchronized (lock) {
+				request(new Request(index, path, generation));
+			}
+		}
+		return thumbnail;
+	}
+	
+	/**
+	 * Drops all requests, to be called when the list of photos changes.
+	 * Thumbnails that were decoded stay in the cache.
+	 */
+	public void clearRequests() {
+		synchronized (lock) {
+			generation++;
+			pending.clear();
+			pendingPaths.clear();
+		}
+	}
+	
+	/**
+	 * Queues r for decoding, most recent requests first. Called with the lock held.
+	 */
+	private void request(Request r) {
+		if (!pendingPaths.add(r.path)) {
+			return;
+		}
+		pending.addFirst(r);
+		while (pending.size() > MAX_PENDING) {
+			pendingPaths.remove(pending.removeLast().path);
+		}
+		decoders.execute(new Runnable() {
+			public void run() {
+				decodeNext();
+			}
+		});
+	}
+	
+	/**
+	 * Decodes the most recently requested thumbnail, on a decoder thread.
+	 */
+	private void decodeNext() {
+		final Request r;
+		synchronized (lock) {
+			r = pending.pollFirst();
+			if (r == null) {
+				return;
+			}
+		}
+		
+		BufferedImage thumbnail = null;
+		try {
+			thumbnail = cache.load(r.path, size);
+		} catch (IOException e) {
+			// Marked as failed below.
+		} catch (RuntimeException e) {
+			// Marked as failed below.
+		}
+		if (thumbnail == null) {
+			cache.put(r.path, size, FAILED);
+		}
+		
+		synchronized (lock) {
+			pendingPaths.remove(r.path);
+		}
+		
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				ThumbnailListener l = listener;
+				if (l != null && r.generation == generation) {
+					l.thumbnailLoaded(r.index);
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,251 @@
+package loader;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.SwingUtilities;
+
+import cache.ImageCache;
+import util.NamedThreadFactory;
+
+/**
+ * Photo that is too big to be decoded as a whole.
+ * The photo is divided in square tiles that are decoded on demand, 
+ * with a source region and subsampling, and kept in a least recently used cache.
+ * Memory use thus follows the number of tiles on screen, not the size of the file.
+ * 
+ * Tiles exist per level: at level n every 2^n-th pixel is decoded, 
+ * so a tile at level n covers TILE_SIZE * 2^n pixels of the photo.
+ */
+public class TiledImage {
+	
+	// Length of the side of a tile, in decoded pixels.
+	public static final int TILE_SIZE = 512;
+	
+	// Highest level, so one tile covers a 2^MAX_LEVEL times larger region.
+	public static final int MAX_LEVEL = 6;
+	
+	// Maximum number of bytes of decoded tiles kept in memory.
+	private static final long CACHE_BYTES = 96L * 1024 * 1024;
+	
+	// Maximum number of tiles waiting to be decoded, older requests are dropped first.
+	private static final int MAX_PENDING = 64;
+	
+	/**
+	 * Listener that is told on the EDT when a tile was decoded.
+	 */
+	public interface TileListener {
+		/**
+		 * @param bounds Rectangle the region of the photo, in photo pixels, covered by the tile.
+		 */
+		void tileLoaded(Rectangle bounds);
+	}
+	
+	private final File file;
+	private final PhotoHeader header;
+	
+	// Stream and reader stay open for the lifetime of this image, only used by the decoder thread.
+	private final ImageInputStream in;
+	private final ImageReader reader;
+	
+	// Decoded tiles, guarded by itself.
+	private final ImageCache<Long> cache = new ImageCache<Long>(CACHE_BYTES);
+	
+	// Requested tiles that are not decoded yet, newest first. Guarded by cache.
+	private final LinkedBlockingDeque<Long> pending = new LinkedBlockingDeque<Long>();
+	private final Set<Long> pendingKeys = new HashSet<Long>();
+	
+	// Single decoder thread, as image readers are not thread safe.
+	private final ThreadPoolExecutor decoder;
+	
+	private volatile TileListener listener;
+	private volatile boolean closed;
+	
+	/**
+	 * Opens the photo in file for tiled decoding.
+	 * @param file File the photo file.
+	 * @param header PhotoHeader the header of the photo.
+	 * @throws IOException if the file can not be opened.
+	 */
+	public TiledImage(File file, PhotoHeader header) throws IOException {
+		this.file = file;
+		this.header = header;
+		in = PhotoLoader.openStream(file);
+		try {
+			reader = PhotoLoader.createReader(in, file, false);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		decoder = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, 
+				new LinkedBlockingDeque<Runnable>(), new NamedThreadFactory("tile-decoder"));
+		decoder.allowCoreThreadTimeOut(true);
+	}
+	
+	public PhotoHeader getHeader() {
+		return header;
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	public void setTileListener(TileListener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * Returns the level at which tiles should be drawn when the photo is 
+	 * shown at scale, so that no more pixels are decoded than are painted.
+	 * @param scale double the number of screen pixels per photo pixel.
+	 * @return int the level.
+	 */
+	public static int getLevel(double scale) {
+		int level = 0;
+		while (level < MAX_LEVEL && scale * (1 << (level + 1)) <= 1.0) {
+			level++;
+		}
+		return level;
+	}
+	
+	/**
+	 * Returns the region of the photo, in photo pixels, covered by the tile.
+	 */
+	public Rectangle getTileBounds(int level, int col, int row) {
+		int span = TILE_SIZE << level;
+		Rectangle bounds = new Rectangle(col * span, row * span, span, span);
+		return bounds.intersection(new Rectangle(0, 0, header.getWidth(), header.getHeight()));
+	}
+	
+	/**
+	 * Returns the decoded tile, or null if it is not decoded yet. 
+	 * A missing tile is requested, and the tile listener is told once it is decoded.
+	 * @param level int the level of the tile.
+	 * @param col int the column of the tile.
+	 * @param row int the row of the tile.
+	 * @return BufferedImage the tile, or null.
+	 */
+	public BufferedImage getTile(int level, int col, int row) {
+		long key = key(level, col, row);
+		synchronized (cache) {
+			BufferedImage tile = cache.get(key);
+			if (tile == null && !closed) {
+				request(key);
+			}
+			return tile;
+		}
+	}
+	
+	/**
+	 * Closes the photo file. Tiles that are not decoded yet will never be.
+	 */
+	public void close() {
+		closed = true;
+		synchronized (cache) {
+			pending.clear();
+			pendingKeys.clear();
+			cache.clear();
+		}
+		reader.abort();
+		decoder.execute(new Runnable() {
+			public void run() {
+				reader.dispose();
+				try {
+					in.close();
+				} catch (IOException e) {
+					System.err.println("The image could not be closed");
+				}
+			}
+		});
+		decoder.shutdown();
+	}
+	
+	/**
+	 * Queues key for decoding, most recent requests first. Called with the cache lock held.
+	 */
+	private void request(long key) {
+		if (!pendingKeys.add(key)) {
+			return;
+		}
+		pending.addFirst(key);
+		while (pending.size() > MAX_PENDING) {
+			pendingKeys.remove(pending.removeLast());
+		}
+		try {
+			decoder.execute(new Runnable() {
+				public void run() {
+					decodeNext();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Closed in the meantime.
+		}
+	}
+	
+	/**
+	 * Decodes the most recently requested tile, on the decoder thread.
+	 */
+	private void decodeNext() {
+		Long key;
+		synchronized (cache) {
+			key = pending.pollFirst();
+			if (key == null || closed) {
+				return;
+			}
+		}
+		
+		int level = (int) (key >>> 56);
+		int col = (int) ((key >>> 28) & 0xFFFFFFF);
+		int row = (int) (key & 0xFFFFFFF);
+		final Rectangle bounds = getTileBounds(level, col, row);
+		
+		BufferedImage tile = null;
+		if (!bounds.isEmpty()) {
+			try {
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(bounds);
+				param.setSourceSubsampling(1 << level, 1 << level, 0, 0);
+				tile = reader.read(0, param);
+			} catch (IOException e) {
+				System.err.println("A tile of the image could not be read");
+			} catch (RuntimeException e) {
+				System.err.println("A tile of the image could not be read");
+			}
+		}
+		
+		synchronized (cache) {
+			pendingKeys.remove(key);
+			if (tile == null || closed) {
+				return;
+			}
+			cache.put(key, tile);
+		}
+		
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				TileListener l = listener;
+				if (l != null && !closed) {
+					l.tileLoaded(bounds);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Packs level, col and row of a tile in a single key.
+	 */
+	private static long key(int level, int col, int row) {
+		return ((long) level << 56) | ((long) col << 28) | row;
+	}
+}
@@ -22,6 +22,8 @@ import javax.swing.ImageIcon;
 import javax.swing.JComponent;
 
 import model.AnnotationModel;
+import model.StrokeStore;
+import model.TextBlock;
 
 /**
  * Component that stores and shows a photo, 
@@ -102,7 +104,7 @@ public class PhotoComponent extends JComponent implements MouseListener, MouseMo
     		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
     		
         	drawStrokes(g2);
-        	drawText(g2, model.getTextValue());	
+        	drawText(g2);	
         }
     }
     
@@ -129,55 +131,27 @@ public class PhotoComponent extends JComponent implements MouseListener, MouseMo
      * @param g2 Graphics of this component.
      */
     private void drawStrokes(Graphics2D g2) {    	
-    	ArrayList<Point> drawnPoints = model.getDrawnPoints();
-		
-		for (int i = 0; i < drawnPoints.size() - 2; i++){
-	        if (drawnPoints.get(i) != null && drawnPoints.get(i+1) != null) {
-	        	Point p1 = drawnPoints.get(i);
-    	        Point p2 = drawnPoints.get(i + 1);
-    	        
-    	        g2.drawLine(p1.x, p1.y, p2.x, p2.y);
-	        }
-	    }
+    	final Graphics2D g = g2;
+    	model.getStrokes().visitSegments(new StrokeStore.SegmentVisitor() {
+			public void segment(int x1, int y1, int x2, int y2) {
+				g.drawLine(x1, y1, x2, y2);
+			}
+		});
     }
     
     /**
-     * Draws the users text.
+     * Draws the users text blocks.
      * @param g2 Graphics of this component.
      */
-    private void drawText(Graphics2D g2, String recText) {
-    	//Empty string, nothing needs to be done.
-		if (recText.length() == 0 || recText.equals("+")) {} 		
-		//Remove "+" at the end of the string and recursively draw remaining text.
-		else if (recText.contains("+") && recText.charAt(recText.length() - 1) == '+') {
-			drawText(g2, recText.substring(0, recText.length() - 1));
-		} 
-		//Draw last written string and recursively draw remaining text.
-		else if (recText.contains("+")) {			
-			int plusCount = 0;
-			int lastPlusPosition = -1;
-			
-			//Use position of plus to get the correct position of the text.
-			for (int i = 0; i < recText.length(); i++) {
-				if (recText.charAt(i) == '+') {
-					plusCount++;
-					lastPlusPosition = i;
-				}
-			}
-			
-			//Draw string.
-			String text = recText.substring(lastPlusPosition + 1, recText.length());
-			if (text.length() != 0) {
-				prepareForDrawing(g2, text, plusCount);
-			}
-			
-			drawText(g2, recText.substring(0, lastPlusPosition));
-		}
+    private void drawText(Graphics2D g2) {
+    	for (TextBlock block : model.getTextBlocks()) {
+    		if (block.length() != 0) {
+    			prepareForDrawing(g2, block.getText(), block.getAnchor());
+    		}
+    	}
     }
     
-	private void prepareForDrawing(Graphics2D g2, String text, int plusCount) {
-		
-		Point pointToDraw = model.getTextPoints().get(plusCount - 1);
+	private void prepareForDrawing(Graphics2D g2, String text, Point pointToDraw) {
 		
 		if (pointToDraw != null) {
 			// Get position of the text.
@@ -235,8 +209,11 @@ public class PhotoComponent extends JComponent implements MouseListener, MouseMo
     private void resetTextVariables() {
 		lines = 0;
 		
-		// Put a "+" sign to show separation of words.
-		model.setTextValue(model.getTextValue() + "+");
+		// Drop the last text block if nothing was typed in it.
+		ArrayList<TextBlock> blocks = model.getTextBlocks();
+		if (!blocks.isEmpty() && blocks.get(blocks.size() - 1).length() == 0) {
+			blocks.remove(blocks.size() - 1);
+		}
     }
     
     @Override
@@ -252,8 +229,8 @@ public class PhotoComponent extends JComponent implements MouseListener, MouseMo
         	if (imageFlipped) {
         		resetTextVariables();
         		
-        		// Update location of the first character of the current text.
-        		model.getTextPoints().add(e.getPoint());
+        		// Start a text block at the location of its first character.
+        		model.getTextBlocks().add(new TextBlock(e.getPoint()));
         	}       	
         }
 	}
@@ -261,8 +238,8 @@ public class PhotoComponent extends JComponent implements MouseListener, MouseMo
 	@Override
 	public void mouseReleased(MouseEvent e) {
         if (imageFlipped) {
-        	// Add a null value to prevent connecting all points.
-        	model.getDrawnPoints().add(null);
+        	// End the stroke to prevent connecting it to the next one.
+        	model.getStrokes().endStroke();
         }
 	}
 	
@@ -270,7 +247,7 @@ public class PhotoComponent extends JComponent implements MouseListener, MouseMo
 	public void mouseDragged(MouseEvent e) {
 		if (imageFlipped) {
 			//Add all drawn points to the array.
-			model.getDrawnPoints().add(e.getPoint());
+			model.getStrokes().addPoint(e.getX(), e.getY());
 		    repaint();
 		}
 	}
@@ -284,13 +261,19 @@ public class PhotoComponent extends JComponent implements MouseListener, MouseMo
 				keyCode == KeyEvent.CTRL_DOWN_MASK ||
 				keyCode == KeyEvent.ALT_GRAPH_DOWN_MASK ||
 				keyCode == KeyEvent.ALT_DOWN_MASK ||
-				keyCode == KeyEvent.VK_BACK_SPACE ||
-				keyCode == KeyEvent.VK_DELETE ||
-				keyCode == KeyEvent.VK_CAPS_LOCK) { 
+				keyCode == KeyEvent.VK_CAPS_LOCK || 
+				model.getTextBlocks().isEmpty()) { 
 			// Do nothing
-		} else if (keyCode != KeyEvent.CHAR_UNDEFINED) {
-			// Update the current text and put on the string that represents a stack
-			model.setTextValue(model.getTextValue() + keyChar);	
+		} else {
+			// Edit the last text block.
+			TextBlock block = model.getTextBlocks().get(model.getTextBlocks().size() - 1);
+			if (keyCode == KeyEvent.VK_BACK_SPACE) {
+				block.deleteBackward();
+			} else if (keyCode == KeyEvent.VK_DELETE) {
+				block.deleteForward();
+			} else if (keyChar != KeyEvent.CHAR_UNDEFINED) {
+				block.insert(keyChar);
+			}
 			
 			repaint();
 		}		
@@ -10,11 +10,22 @@ import java.awt.Font;
 import java.awt.GridBagLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.AbstractButton;
 import javax.swing.ButtonGroup;
 import javax.swing.ImageIcon;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JColorChooser;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -23,19 +34,44 @@ import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
 import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
 import javax.swing.JToggleButton;
 import javax.swing.JToolBar;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.UIManager;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
+import cache.DecodedImageCache;
+import catalog.CatalogEntry;
+import catalog.CatalogIndexer;
+import catalog.CatalogView;
+import catalog.CatalogWatcher;
+import catalog.PhotoCatalog;
+import catalog.TagIndex;
+import cache.ThumbnailCache;
+import loader.LoadTimings;
+import loader.PhotoHeader;
+import loader.PhotoLoadListener;
+import loader.PhotoLoadPipeline;
+import loader.PhotoLoader;
+import loader.ThumbnailLoader;
+import loader.TiledImage;
 import resources.JFontChooser;
+import storage.AnnotationJournal;
+import storage.LazyAnnotations;
 import UI.AbstractPhotoUI;
 
 import component.PhotoComponent;
+import component.ThumbnailGrid;
+import util.DataDirectory;
 
 /**
  * Interactive photo browser, or Photothque. 
@@ -56,8 +92,57 @@ public class Phototheque extends JFrame implements ActionListener, ChangeListene
 	private PhotoComponent photoComponent;
 	private JLabel status;
 	
+	/*
+	 * Views shown in the center of the contentPane, one at a time.
+	 */
+	private JScrollPane photoPane;
+	private JScrollPane browserPane;
+	private ThumbnailGrid thumbnailGrid;
+	private JSplitPane splitPane;
+	private ThumbnailGrid filmstrip;
+	
+	// Path of the photo that is opened, null if there is none.
+	private String openedPath;
+	
+	// Journal of the annotations of the opened photo, null if there is none.
+	private LazyAnnotations annotations;
+	
+	// Folder shown in the browser, the folder of the last opened photo by default.
+	private File browsedFolder;
+	
+	// Catalog of the photos under the browsed folder, null until it is opened.
+	private PhotoCatalog catalog;
+	
+	// Tags of the photos of the catalog, null if there is no catalog.
+	private TagIndex tagIndex;
+	
+	// Tags of the photos, one toggle button in the tool bar each.
+	private static final String[] TAGS = {"Family", "Friends", "Fools"};
+	private List<JToggleButton> tagButtons = new ArrayList<JToggleButton>();
+	
+	// Applies changes made outside the program to the catalog, null if there is no catalog.
+	private CatalogWatcher catalogWatcher;
+	
+	// Thumbnails in memory and on disk, shared by the views that show them.
+	private ThumbnailCache thumbnailCache;
+	
+	// Maximum number of bytes of thumbnails kept in memory.
+	private static final long THUMBNAIL_MEMORY = 64L * 1024 * 1024;
+	
+	// Decoded photos, shared by all views so a photo is never held in memory twice.
+	private DecodedImageCache imageCache = new DecodedImageCache(DECODED_MEMORY);
+	
+	// Maximum number of bytes of decoded photos kept after no view shows them anymore.
+	private static final long DECODED_MEMORY = 256L * 1024 * 1024;
+	
 	// Radio button group that holds operations in view menu.
     private ButtonGroup viewRadioButtons = new ButtonGroup();
+    private JRadioButtonMenuItem photoViewerItem;
+    private JRadioButtonMenuItem browserItem;
+    private JRadioButtonMenuItem splitItem;
+    
+    // Loads photos in the background, so the UI never waits for decoding.
+    private PhotoLoadPipeline loadPipeline = new PhotoLoadPipeline(imageCache);
     
 	public static void main(String[] args) {
         javax.swing.SwingUtilities.invokeLater(new Runnable() {
@@ -82,7 +167,13 @@ public class Phototheque extends JFrame implements ActionListener, ChangeListene
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
         //Create and set up the content pane.
-        Phototheque phototheque = new Phototheque();
+        final Phototheque phototheque = new Phototheque();
+        frame.addWindowListener(new WindowAdapter() {
+        	@Override
+        	public void windowClosing(WindowEvent e) {
+        		phototheque.saveAnnotations();
+        	}
+        });
         frame.setJMenuBar(phototheque.createMenuBar());
         frame.setContentPane(phototheque.createContentPane());
         
@@ -102,20 +193,29 @@ public class Phototheque extends JFrame implements ActionListener, ChangeListene
     public JMenuBar createMenuBar() {
         JMenuBar menuBar = new JMenuBar();
         
-        // Add the file and view menu to the bar.
+        // Add the file, edit, view and draw menus to the bar.
         JMenu fileMenu = addMenuToBar("File", "All operations dealing with photo files", menuBar);
+        JMenu editMenu = addMenuToBar("Edit", "Undo and redo annotations", menuBar);
         JMenu viewMenu = addMenuToBar("View", "All operations dealing with the view", menuBar);
         JMenu drawMenu = addMenuToBar("Draw", "All operations dealing with drawing on photo", menuBar);
 
         // Add the open, delete and quit operation items to the file menu.
         addItemToMenu("Open", "/images/openIcon.png", fileMenu);
+        addItemToMenu("Open folder", "/images/openIcon.png", fileMenu);
+        addItemToMenu("Reindex folder", "/images/openIcon.png", fileMenu);
         addItemToMenu("Delete", "/images/deleteIcon.png", fileMenu);
         addItemToMenu("Quit", "/images/quitIcon.png", fileMenu);
         
+        // Add undo and redo of the annotations to the edit menu.
+        addItemToMenu("Undo", "/images/openIcon.png", editMenu)
+        		.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, ActionEvent.CTRL_MASK));
+        addItemToMenu("Redo", "/images/openIcon.png", editMenu)
+        		.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, ActionEvent.CTRL_MASK));
+        
         // Add the radio menu items to the view menu.
-        addRadioItemToMenu("Photo viewer", true, viewMenu);
-        addRadioItemToMenu("Browser", false, viewMenu);
-        addRadioItemToMenu("Split mode", false, viewMenu);
+        photoViewerItem = addRadioItemToMenu("Photo viewer", true, viewMenu);
+        browserItem = addRadioItemToMenu("Browser", false, viewMenu);
+        splitItem = addRadioItemToMenu("Split mode", false, viewMenu);
         
         // Add customization operations to draw menu.
         addItemToMenu("Set color", "/images/openIcon.png", drawMenu);
@@ -143,8 +243,9 @@ public class Phototheque extends JFrame implements ActionListener, ChangeListene
      * @param item Operation item to be added to menu.
      * @param iconPath Path to icon of this operation.
      * @param menu Menu where the item is added.
+     * @return JMenuItem the added item.
      */
-	private void addItemToMenu(String item, String iconPath, JMenu menu) {
+	private JMenuItem addItemToMenu(String item, String iconPath, JMenu menu) {
     	ImageIcon icon = createImageIcon(iconPath);
         
     	JMenuItem menuItem = new JMenuItem(item, icon);       
@@ -152,6 +253,7 @@ public class Phototheque extends JFrame implements ActionListener, ChangeListene
         menuItem.setName(item);
         
         menu.add(menuItem);	
+        return menuItem;
 	}
 
     /**
@@ -159,16 +261,19 @@ public class Phototheque extends JFrame implements ActionListener, ChangeListene
      * @param item Operation radio button item to be added to menu.
      * @param selected Boolean defining if this radio button item should be selected.
      * @param menu Menu where the item is added.
+     * @return JRadioButtonMenuItem the added item.
      */
-    private void addRadioItemToMenu(String item, Boolean selected, JMenu menu) {
+    private JRadioButtonMenuItem addRadioItemToMenu(String item, Boolean selected, JMenu menu) {
     	JRadioButtonMenuItem rbMenuItem = new JRadioButtonMenuItem(item);
     	if (selected) {
     		rbMenuItem.setSelected(true); 
     	}
         rbMenuItem.addActionListener(this);
+        rbMenuItem.setName(item);
         
         viewRadioButtons.add(rbMenuItem);
         menu.add(rbMenuItem);
+        return rbMenuItem;
 	}
     
 	/**
@@ -197,21 +302,16 @@ public class Phototheque extends JFrame implements ActionListener, ChangeListene
     
     /**
      * Adds categories to tool bar toolBar.
+     * Selecting categories shows only the photos tagged with one of them.
      * @param toolBar the tool bar to whom categories are added.
      */
     public void addButtons(JToolBar toolBar) {
-    	JToggleButton tb1 = new JToggleButton("Family");
-    	tb1.addActionListener(this);
-    	
-    	JToggleButton tb2 = new JToggleButton("Friends");
-    	tb2.addActionListener(this);
-    	
-    	JToggleButton tb3 = new JToggleButton("Fools");
-    	tb3.addActionListener(this);
-
-    	toolBar.add(tb1);
-    	toolBar.add(tb2);
-    	toolBar.add(tb3);
+    	for (String tag : TAGS) {
+    		JToggleButton button = new JToggleButton(tag);
+    		button.addActionListener(this);
+    		tagButtons.add(button);
+    		toolBar.add(button);
+    	}
     }
     
     /**
@@ -232,17 +332,91 @@ public class Phototheque extends JFrame implements ActionListener, ChangeListene
     
     /**
      * Opens image with name imageName and path imagePath.
+     * The image is loaded in the background: the component is shown as soon as 
+     * the size of the image is known, first with a low resolution placeholder.
      * @param imagePath String path to the image.
      * @param imageName String name of the image.
      */
-    public void openPhoto(String imagePath, String imageName) {  	
-    	//Remove existing photo if there.
+    public void openPhoto(String imagePath, final String imageName) {  	
+    	//Remove existing photo if there, cancelling it if it is still loading.
     	removePhoto();
+    	openedPath = imagePath;
+    	final File file = new File(imagePath);
+    	status.setText("File '" + imageName + "' is being opened...");
+    	if (browsedFolder == null) {
+    		browsedFolder = new File(imagePath).getParentFile();
+    	}
     	
+    	loadPipeline.open(file, new PhotoLoadListener() {
+			@Override
+			public void headerRead(PhotoHeader header) {
+				showPhoto(new PhotoComponent(header));
+				loadAnnotations(file);
+			}
+
+			@Override
+			public void placeholderLoaded(BufferedImage placeholder) {
+				photoComponent.setImage(placeholder);
+			}
+
+			@Override
+			public void imageLoaded(BufferedImage image, LoadTimings timings) {
+				photoComponent.setCachedImage(image, imageCache, PhotoLoadPipeline.getCacheKey(file));
+				status.setText("File '" + imageName + "' was opened (" + timings + ")");
+			}
+
+			@Override
+			public void tiledImageLoaded(TiledImage tiles, LoadTimings timings) {
+				photoComponent.setTiledImage(tiles);
+				status.setText("File '" + imageName + "' was opened in tiles (" + timings + ")");
+			}
+
+			@Override
+			public void loadFailed(IOException e) {
+				removePhoto();
+				status.setText("File '" + imageName + "' could not be opened");
+			}
+		});
+    }
+    
+    /**
+     * Reads the header of the annotations of photo, if it has them. The annotations 
+     * themselves are read once the photo is flipped, and their changes journaled.
+     * @param photo File the photo.
+     */
+    private void loadAnnotations(File photo) {
+    	try {
+    		annotations = LazyAnnotations.open(photo, photoComponent.getModel(), AnnotationJournal.SyncPolicy.PERIODIC);
+    	} catch (IOException e) {
+    		System.err.println("Annotations of " + photo + " could not be read: " + e);
+    	}
+    }
+    
+    /**
+     * Closes the annotations of the opened photo, which saves them if they were loaded.
+     */
+    private void saveAnnotations() {
+    	if (annotations == null) {
+    		return;
+    	}
+    	try {
+    		annotations.close();
+    	} catch (IOException e) {
+    		status.setText("The annotations could not be saved: " + e.getMessage());
+    	}
+    	annotations = null;
+    }
+    
+    /**
+     * Shows the photo component pc in a scroll pane in the contentPane.
+     * @param pc PhotoComponent the component to show.
+     */
+    private void showPhoto(PhotoComponent pc) {
     	JScrollPane scrollPane = new JScrollPane();
+    	photoPane = scrollPane;
         
-    	//Instantiate photo component in a new JPanel with centered GridBagLayout.
-        photoComponent = new PhotoComponent(imagePath);
+    	//Put photo component in a new JPanel with centered GridBagLayout.
+        photoComponent = pc;
         photoComponent.setFocusable(true); 
         photoComponent.requestFocus();
         
@@ -257,23 +431,471 @@ public class Phototheque extends JFrame implements ActionListener, ChangeListene
         scrollPane.getVerticalScrollBar().setUnitIncrement(10);
         scrollPane.setName("photo");
         
-        //Add to contentPane.
-        contentPane.add(scrollPane, BorderLayout.CENTER);
-        status.setText("File '" + imageName + "' was opened");
+        //Show next to the filmstrip in split mode, otherwise in the photo viewer.
+        if (splitItem.isSelected()) {
+        	splitPane.setRightComponent(scrollPane);
+        } else {
+        	photoViewerItem.setSelected(true);
+        	setCenterView(scrollPane);
+        }
+    }
+    
+    /**
+     * Shows view in the center of the contentPane, replacing the photo or browser view.
+     * @param view Component the view to show, or null to show nothing.
+     */
+    private void setCenterView(Component view) {
+    	for (Component c : contentPane.getComponents()) {
+    		if (c != view && c.getName() != null && (c.getName().equals("photo") 
+    				|| c.getName().equals("browser") || c.getName().equals("split"))) {
+    			contentPane.remove(c);
+    		}
+    	}
+    	if (view != null && view.getParent() != contentPane) {
+    		contentPane.add(view, BorderLayout.CENTER);
+    	}
+    	contentPane.revalidate();
+    	contentPane.repaint();
+    }
+    
+    /**
+     * Shows the photo viewer with the photo that was opened last, if any.
+     */
+    private void showPhotoViewer() {
+    	setCenterView(photoPane);
+    	status.setText(photoPane == null ? "There is no photo opened" : "Photo viewer");
+    }
+    
+    /**
+     * Shows the browser with the photos of the browsed folder.
+     * A folder is chosen first if no folder was browsed or opened yet.
+     */
+    private void showBrowser() {
+    	if (thumbnailGrid == null) {
+    		createBrowser();
+    	}
+    	setCenterView(browserPane);
+    	
+    	if (thumbnailGrid.getModel().getPhotos() == null) {
+    		if (catalog != null) {
+    			thumbnailGrid.setPhotos(createCatalogView());
+    		} else if (browsedFolder == null) {
+    			openFolderChooser();
+    		} else {
+    			browseFolder(browsedFolder);
+    		}
+    	}
+    }
+    
+    /**
+     * Shows the split mode: a filmstrip of the browsed folder next to the photo viewer.
+     * Clicking a photo in the filmstrip opens it next to it.
+     */
+    private void showSplitMode() {
+    	if (splitPane == null) {
+    		createSplitMode();
+    	}
+    	splitPane.setRightComponent(photoPane != null ? photoPane : createEmptyPane());
+    	setCenterView(splitPane);
+    	
+    	if (filmstrip.getModel().getPhotos() == null && browsedFolder != null) {
+    		browseFolder(browsedFolder);
+    	}
+    	status.setText("Split mode");
+    }
+    
+    /**
+     * Creates the split mode: a filmstrip and room for the photo viewer in a split pane.
+     * The filmstrip shares the thumbnail cache with the browser, and the photo 
+     * viewer shares the cache of decoded photos with the other views.
+     */
+    private void createSplitMode() {
+    	filmstrip = new ThumbnailGrid(new ThumbnailLoader(getThumbnailCache(), ThumbnailCache.SMALL));
+    	if (catalog != null) {
+    		filmstrip.setPhotos(createCatalogView());
+    	}
+    	
+    	// Open the photo that is selected in the filmstrip.
+    	filmstrip.getModel().addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				String path = filmstrip.getModel().getSelectedPath();
+				if (path != null && !path.equals(openedPath)) {
+					File file = new File(path);
+					openPhoto(file.getPath(), file.getName());
+				}
+			}
+		});
+    	
+    	JScrollPane filmstripPane = new JScrollPane(filmstrip);
+    	filmstripPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+    	filmstripPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+    	filmstripPane.getVerticalScrollBar().setUnitIncrement(filmstrip.getUI().getCellHeight() / 4);
+    	filmstripPane.setMinimumSize(new Dimension(filmstrip.getUI().getCellWidth(), 0));
+    	
+    	splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, filmstripPane, createEmptyPane());
+    	splitPane.setDividerLocation(filmstrip.getUI().getCellWidth() + 20);
+    	splitPane.setContinuousLayout(true);
+    	splitPane.setName("split");
+    }
+    
+    /**
+     * Creates an empty gray panel, shown where there is no photo opened.
+     */
+    private JPanel createEmptyPane() {
+    	JPanel empty = new JPanel();
+    	empty.setBackground(Color.gray);
+    	return empty;
+    }
+    
+    /**
+     * Creates the browser: a thumbnail grid in a scroll pane.
+     * Double clicking a thumbnail opens its photo in the photo viewer.
+     */
+    private void createBrowser() {
+    	thumbnailGrid = new ThumbnailGrid(new ThumbnailLoader(getThumbnailCache(), ThumbnailCache.MEDIUM));
+    	thumbnailGrid.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				File file = new File(e.getActionCommand());
+				openPhoto(file.getPath(), file.getName());
+			}
+		});
+    	
+    	addTagMenu(thumbnailGrid);
+    	
+    	browserPane = new JScrollPane(thumbnailGrid);
+    	browserPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+    	browserPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+    	browserPane.getVerticalScrollBar().setUnitIncrement(thumbnailGrid.getUI().getCellHeight() / 4);
+    	browserPane.setName("browser");
+    }
+    
+    /**
+     * Returns the thumbnail cache, opening it the first time.
+     * Its index is saved when the program exits.
+     * @return ThumbnailCache the thumbnail cache.
+     */
+    private ThumbnailCache getThumbnailCache() {
+    	if (thumbnailCache == null) {
+    		thumbnailCache = new ThumbnailCache(DataDirectory.get(), THUMBNAIL_MEMORY);
+    		
+    		final ThumbnailCache cache = thumbnailCache;
+    		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					cache.close();
+				}
+			}));
+    	}
+    	return thumbnailCache;
+    }
+    
+    /**
+     * Opens the catalog of the photos in the tree under folder in the background, 
+     * and shows them in the browser. The tree is indexed first if it has no catalog yet.
+     * @param folder File the root of the tree.
+     */
+    private void browseFolder(final File folder) {
+    	browsedFolder = folder;
+    	status.setText("Folder '" + folder.getName() + "' is being read...");
+    	
+    	final File catalogDirectory = PhotoCatalog.getDirectory(DataDirectory.get(), folder);
+    	final CatalogIndexer indexer = new CatalogIndexer(folder);
+    	final Timer progress = createIndexingProgress(folder, indexer);
+    	
+    	new SwingWorker<PhotoCatalog, Void>() {
+			@Override
+			protected PhotoCatalog doInBackground() throws IOException {
+				if (PhotoCatalog.exists(catalogDirectory)) {
+					try {
+						return PhotoCatalog.open(catalogDirectory);
+					} catch (IOException e) {
+						// Invalid catalog, index the tree again.
+					}
+				}
+				
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						progress.start();
+					}
+				});
+				List<CatalogEntry> entries = indexer.index();
+				return PhotoCatalog.create(catalogDirectory, folder, entries);
+			}
+			
+			@Override
+			protected void done() {
+				progress.stop();
+				try {
+					PhotoCatalog photos = get();
+					if (!folder.equals(browsedFolder)) {
+						photos.close();
+						return;
+					}
+					setCatalog(photos, TagIndex.load(catalogDirectory));
+					status.setText("Folder '" + folder.getName() + "' has " + createCatalogView().size() + " photos");
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					status.setText("Folder '" + folder.getName() + "' could not be read");
+				} catch (IOException e) {
+					status.setText("Folder '" + folder.getName() + "' could not be read");
+				}
+			}
+		}.execute();
+    }
+    
+    /**
+     * Indexes the tree of the catalog again in the background, for changes made 
+     * while the program was not running. The catalog is updated in place, 
+     * so photos keep their ordinals and their tags.
+     */
+    private void reindexFolder() {
+    	if (catalog == null) {
+    		if (browsedFolder != null) {
+    			browseFolder(browsedFolder);
+    		}
+    		return;
+    	}
+    	final PhotoCatalog indexed = catalog;
+    	final File folder = new File(indexed.getRoot());
+    	final CatalogIndexer indexer = new CatalogIndexer(folder);
+    	final Timer progress = createIndexingProgress(folder, indexer);
+    	progress.start();
+    	
+    	new SwingWorker<List<CatalogEntry>, Void>() {
+			@Override
+			protected List<CatalogEntry> doInBackground() {
+				return indexer.index();
+			}
+			
+			@Override
+			protected void done() {
+				progress.stop();
+				try {
+					List<CatalogEntry> entries = get();
+					if (indexed == catalog) {
+						updateCatalog(catalog.reconcile(entries));
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					status.setText("Folder '" + folder.getName() + "' could not be read");
+				} catch (IOException e) {
+					status.setText("Folder '" + folder.getName() + "' could not be updated");
+				}
+			}
+		}.execute();
+    }
+    
+    /**
+     * Creates a timer that shows the progress of indexer in the status bar.
+     */
+    private Timer createIndexingProgress(final File folder, final CatalogIndexer indexer) {
+    	return new Timer(250, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				status.setText("Folder '" + folder.getName() + "' is being indexed, " 
+						+ indexer.getIndexedCount() + " photos so far...");
+			}
+		});
+    }
+    
+    /**
+     * Shows the photos of newCatalog in the browser and the filmstrip, 
+     * watches its tree for changes, and closes the catalog that was shown before.
+     * @param newCatalog PhotoCatalog the catalog to show.
+     * @param newTags TagIndex the tags of the photos of newCatalog.
+     */
+    private void setCatalog(PhotoCatalog newCatalog, TagIndex newTags) throws IOException {
+    	if (catalogWatcher != null) {
+    		catalogWatcher.stop();
+    		catalogWatcher = null;
+    	}
+    	PhotoCatalog oldCatalog = catalog;
+    	catalog = newCatalog;
+    	tagIndex = newTags;
+    	CatalogView photos = createCatalogView();
+    	if (thumbnailGrid != null) {
+    		thumbnailGrid.setPhotos(photos);
+    	}
+    	if (filmstrip != null) {
+    		filmstrip.setPhotos(photos);
+    	}
+    	if (oldCatalog != null) {
+    		oldCatalog.close();
+    	}
+    	
+    	catalogWatcher = new CatalogWatcher(catalog, new CatalogWatcher.CatalogListener() {
+			public void catalogChanged(List<String> changedPaths) {
+				updateCatalog(changedPaths);
+			}
+		});
+    	try {
+    		catalogWatcher.start();
+    	} catch (IOException e) {
+    		catalogWatcher = null;
+    		status.setText("Folder '" + new File(catalog.getRoot()).getName() + "' can not be watched for changes");
+    	}
+    }
+    
+    /**
+     * Drops the cached images of photos that changed outside the program, 
+     * and shows the updated catalog in the browser and the filmstrip.
+     * @param changedPaths List<String> the paths of the photos that were added, changed or deleted.
+     */
+    private void updateCatalog(List<String> changedPaths) {
+    	for (String path : changedPaths) {
+    		if (thumbnailCache != null) {
+    			thumbnailCache.invalidate(path);
+    		}
+    		imageCache.invalidate(PhotoLoadPipeline.getCacheKey(new File(path)));
+    	}
+    	
+    	CatalogView photos = createCatalogView();
+    	if (thumbnailGrid != null) {
+    		thumbnailGrid.updatePhotos(photos);
+    	}
+    	if (filmstrip != null) {
+    		filmstrip.updatePhotos(photos);
+    	}
+    	status.setText(changedPaths.size() + " photos changed in folder '" 
+    			+ new File(catalog.getRoot()).getName() + "'");
+    }
+    
+    /**
+     * Returns the photos of the catalog that have one of the tags selected in the tool bar, 
+     * all of them if no tag is selected.
+     * @return CatalogView the photos to show.
+     */
+    private CatalogView createCatalogView() {
+    	List<String> selectedTags = getSelectedTags();
+    	if (selectedTags.isEmpty()) {
+    		return new CatalogView(catalog);
+    	}
+    	return new CatalogView(catalog, tagIndex.getTagged(selectedTags));
+    }
+    
+    private List<String> getSelectedTags() {
+    	List<String> selectedTags = new ArrayList<String>();
+    	for (JToggleButton button : tagButtons) {
+    		if (button.isSelected()) {
+    			selectedTags.add(button.getText());
+    		}
+    	}
+    	return selectedTags;
+    }
+    
+    /**
+     * Shows the photos that have one of the selected tags in the browser and the filmstrip.
+     */
+    private void filterByTags() {
+    	if (catalog == null) {
+    		return;
+    	}
+    	long start = System.nanoTime();
+    	CatalogView photos = createCatalogView();
+    	long nanos = System.nanoTime() - start;
+    	if (thumbnailGrid != null) {
+    		thumbnailGrid.setPhotos(photos);
+    	}
+    	if (filmstrip != null) {
+    		filmstrip.setPhotos(photos);
+    	}
+    	status.setText(photos.size() + " photos with tags " + getSelectedTags() 
+    			+ " (" + String.format("%.2f", nanos / 1e6) + " ms)");
+    }
+    
+    /**
+     * Adds a menu to grid to tag the photo that is right clicked.
+     * @param grid ThumbnailGrid the grid of photos of the catalog.
+     */
+    private void addTagMenu(final ThumbnailGrid grid) {
+    	grid.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mousePressed(MouseEvent e) {
+				showTagMenu(e);
+			}
+			
+			@Override
+			public void mouseReleased(MouseEvent e) {
+				showTagMenu(e);
+			}
+			
+			private void showTagMenu(MouseEvent e) {
+				int index = grid.getUI().getIndexAt(grid, e.getPoint());
+				if (!e.isPopupTrigger() || index < 0 || !(grid.getModel().getPhotos() instanceof CatalogView)) {
+					return;
+				}
+				grid.getModel().setSelectedIndex(index);
+				final int ordinal = ((CatalogView) grid.getModel().getPhotos()).getOrdinal(index);
+				
+				JPopupMenu menu = new JPopupMenu();
+				for (final String tag : TAGS) {
+					final JCheckBoxMenuItem item = new JCheckBoxMenuItem(tag, tagIndex.isTagged(tag, ordinal));
+					item.addActionListener(new ActionListener() {
+						public void actionPerformed(ActionEvent e) {
+							setTagged(tag, ordinal, item.isSelected());
+						}
+					});
+					menu.add(item);
+				}
+				menu.show(grid, e.getX(), e.getY());
+			}
+		});
+    }
+    
+    /**
+     * Adds the photo at ordinal to tag or removes it, and saves the tags.
+     */
+    private void setTagged(String tag, int ordinal, boolean tagged) {
+    	tagIndex.setTagged(tag, ordinal, tagged);
+    	try {
+    		tagIndex.save();
+    	} catch (IOException e) {
+    		status.setText("Tags could not be saved");
+    		return;
+    	}
+    	status.setText("'" + catalog.getName(ordinal) + "' was " + (tagged ? "tagged " : "untagged ") + tag);
+    	
+    	// The photo may no longer match the selected tags.
+    	if (!getSelectedTags().isEmpty()) {
+    		CatalogView photos = createCatalogView();
+    		if (thumbnailGrid != null) {
+    			thumbnailGrid.updatePhotos(photos);
+    		}
+    		if (filmstrip != null) {
+    			filmstrip.updatePhotos(photos);
+    		}
+    	}
     }
     
     /**
      * Removes the photo component in the contentPane if it exists.
      */
     private void removePhoto() {
-    	for (Component c : contentPane.getComponents()) {
-    		if (c.getName() != null && c.getName().equals("photo")) {
-    			contentPane.remove(c); 	
-            	status.setText("File was removed");
-    			break;
+    	saveAnnotations();
+    	loadPipeline.cancel();
+    	openedPath = null;
+    	if (photoComponent != null) {
+    		photoComponent.release();
+    		photoComponent = null;
+    	}
+    	
+    	// The photo is either in the photo viewer or next to the filmstrip.
+    	if (photoPane != null) {
+    		Container parent = photoPane.getParent();
+    		if (parent == splitPane) {
+    			splitPane.setRightComponent(createEmptyPane());
+    		} else if (parent != null) {
+    			parent.remove(photoPane);
+    			parent.revalidate();
+    			parent.repaint();
     		}
-    	}	
-    	status.setText("There is no file to be removed!");
+    		photoPane = null;
+    		status.setText("File was removed");
+    	} else {
+    		status.setText("There is no file to be removed!");
+    	}
 	}
     
     /**
@@ -281,12 +903,33 @@ public class Phototheque extends JFrame implements ActionListener, ChangeListene
      */
 	@Override
 	public void actionPerformed(ActionEvent e) {
-        if (e.getSource().toString().contains("[Open")) {
+        if (e.getSource().toString().contains("[Open folder")) {
+        	openFolderChooser();
+        } else if (e.getSource().toString().contains("[Reindex folder")) {
+        	if (browsedFolder != null) {
+        		reindexFolder();
+        	}
+        } else if (e.getSource().toString().contains("[Open")) {
         	openFileChooser();        	
+        } else if (e.getSource().toString().contains("[Photo viewer")) {
+        	showPhotoViewer();
+        } else if (e.getSource().toString().contains("[Browser")) {
+        	showBrowser();
+        } else if (e.getSource().toString().contains("[Split mode")) {
+        	showSplitMode();
         } else if (e.getSource().toString().contains("[Delete")) {
         	removePhoto();
         } else if (e.getSource().toString().contains("[Quit")) {
+        	saveAnnotations();
         	System.exit(getDefaultCloseOperation());
+        } else if(e.getSource().toString().contains("[Undo")) {
+        	if (photoComponent != null) {
+        		photoComponent.getModel().undo();
+        	}
+        } else if(e.getSource().toString().contains("[Redo")) {
+        	if (photoComponent != null) {
+        		photoComponent.getModel().redo();
+        	}
         } else if(e.getSource().toString().contains("[Set color")) {
         	openColorChooser();
         } else if(e.getSource().toString().contains("[Set font")) {
@@ -302,6 +945,10 @@ public class Phototheque extends JFrame implements ActionListener, ChangeListene
             	selected = "deselected"; 
             }
             status.setText("'" + abstractButton.getText() + "' was " + selected);
+            
+            if (tagButtons.contains(abstractButton)) {
+            	filterByTags();
+            }
         }
 	}
 
@@ -319,7 +966,7 @@ public class Phototheque extends JFrame implements ActionListener, ChangeListene
              
              // Pass font to photoComponent.
              if (photoComponent != null) {
-             	PhotoComponent.setTextFont(font);
+             	photoComponent.setTextFont(font);
              	status.setText("Font was set to " + font.getFontName());
              }
         }
@@ -333,8 +980,7 @@ public class Phototheque extends JFrame implements ActionListener, ChangeListene
         status.setText("File is being chosen...");
 		JFileChooser fileChooser = new JFileChooser();
         fileChooser.addChoosableFileFilter(new FileNameExtensionFilter(
-        		"Images (.jpg, .jpeg, .png, .gif, .bmp)", 
-        		"jpg", "jpeg", "png", "gif", "bmp"));
+        		"Images (.jpg, .jpeg, .png, .gif, .bmp)", PhotoLoader.EXTENSIONS));
         fileChooser.setAcceptAllFileFilterUsed(false);
     	
         // Handle file selection input.
@@ -347,6 +993,27 @@ public class Phototheque extends JFrame implements ActionListener, ChangeListene
         }
 	}
 
+	/**
+	 * Opens a file chooser that accepts the choice of 1 folder, which is shown in the browser.
+	 */
+	private void openFolderChooser() {
+		status.setText("Folder is being chosen...");
+		JFileChooser folderChooser = new JFileChooser(browsedFolder);
+		folderChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+		
+		int result = folderChooser.showOpenDialog(Phototheque.this);
+		if (result == JFileChooser.APPROVE_OPTION) {
+			if (thumbnailGrid == null) {
+	    		createBrowser();
+	    	}
+			browserItem.setSelected(true);
+			setCenterView(browserPane);
+			browseFolder(folderChooser.getSelectedFile());
+		} else {
+			status.setText("Open folder was cancelled");
+		}
+	}
+
 	/**
 	 * Opens a color chooser to change the color of the text and strokes.
 	 */
@@ -373,7 +1040,7 @@ public class Phototheque extends JFrame implements ActionListener, ChangeListene
         
 		// Pass color to photoComponent.
 		if (photoComponent != null) {
-        	PhotoComponent.setDrawColor(color);
+        	photoComponent.setDrawColor(color);
         	status.setText("Color was set to R:" + color.getRed() + " G:" + color.getGreen() + " B:" + color.getBlue());
         }
 	}
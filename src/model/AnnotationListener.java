@@ -0,0 +1,69 @@
+package model;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+
+/**
+ * Listener of every change made to the annotations of a PhotoModel, as it is made.
+ *
+ * Unlike the change events, which tell views what to repaint, the calls tell exactly
+ * what changed, so that the annotations can be rebuilt from them: undo and redo
+ * are reported as the changes they make. Text blocks are reported from the moment
+ * text is typed in them, an empty block that was just started is not.
+ */
+public interface AnnotationListener {
+	
+	/**
+	 * A point was added to the stroke that is being drawn.
+	 * @param newStroke boolean true iff the point starts a new stroke.
+	 */
+	void pointAdded(int x, int y, boolean newStroke);
+	
+	/**
+	 * The stroke that was being drawn ended.
+	 */
+	void strokeEnded();
+	
+	/**
+	 * The strokes from stroke on, which start at point, were removed.
+	 */
+	void strokesTruncated(int point, int stroke);
+	
+	/**
+	 * The strokes from stroke on were put back. They can be read from the model.
+	 */
+	void strokesRestored(int stroke);
+	
+	/**
+	 * An empty text block was added at index.
+	 */
+	void textBlockAdded(int index, Point anchor);
+	
+	/**
+	 * The empty text block at index was removed.
+	 */
+	void textBlockRemoved(int index);
+	
+	/**
+	 * Text was inserted at position in the text block at index block.
+	 */
+	void textInserted(int block, int position, CharSequence text);
+	
+	/**
+	 * The characters from start to end were deleted from the text block at index block.
+	 */
+	void textDeleted(int block, int start, int end);
+	
+	/**
+	 * The color of the strokes or the font of the text changed.
+	 * @param color Color the new color, null if it did not change.
+	 * @param font Font the new font, null if it did not change.
+	 */
+	void styleChanged(Color color, Font font);
+	
+	/**
+	 * All annotations were replaced, e.g. by annotations read from a file.
+	 */
+	void annotationsReplaced();
+}
@@ -1,6 +1,5 @@
 package model;
 
-import java.awt.Point;
 import java.util.ArrayList;
 
 /**
@@ -10,42 +9,22 @@ import java.util.ArrayList;
 public class AnnotationModel {
 	
 		// Saves users drawn strokes.
-		private ArrayList<Point> drawnPoints;
+		private StrokeStore strokes;
 		
-		// Positions of text blocks.
-		private ArrayList<Point> textPoints;
-		
-		// Stack of all typed text blocks and "+" character for separation of points.
-		private String textValue;
+		// Typed text blocks, the last one is the one being typed.
+		private ArrayList<TextBlock> textBlocks;
 		
 		public AnnotationModel() {
-			drawnPoints = new ArrayList<Point>();
-			textPoints = new ArrayList<Point>();
-			textValue = "";
-		}
-
-		public ArrayList<Point> getDrawnPoints() {
-			return drawnPoints;
-		}
-
-		public void setDrawnPoints(ArrayList<Point> drawnPoints) {
-			this.drawnPoints = drawnPoints;
-		}
-
-		public ArrayList<Point> getTextPoints() {
-			return textPoints;
-		}
-
-		public void setTextPoints(ArrayList<Point> textPoints) {
-			this.textPoints = textPoints;
+			strokes = new StrokeStore();
+			textBlocks = new ArrayList<TextBlock>();
 		}
 
-		public String getTextValue() {
-			return textValue;
+		public StrokeStore getStrokes() {
+			return strokes;
 		}
 
-		public void setTextValue(String textValue) {
-			this.textValue = textValue;
+		public ArrayList<TextBlock> getTextBlocks() {
+			return textBlocks;
 		}		
 		
 }
@@ -0,0 +1,110 @@
+package model;
+
+import java.awt.Rectangle;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.EventObject;
+import java.util.Set;
+
+/**
+ * Change of a PhotoModel, telling what changed and the region of the photo it affects,
+ * so that views only react to what concerns them and only repaint that region.
+ * Changes made in a single update of the model come as a single event.
+ */
+public class PhotoChangeEvent extends EventObject {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Kinds of changes.
+	 */
+	public enum Change {
+		// The image, its tiles or its size.
+		IMAGE,
+		// The side of the photo that is shown.
+		FLIP,
+		// Points added to or removed from the strokes.
+		STROKES,
+		// Text typed or deleted in text blocks.
+		TEXT,
+		// The color or font annotations are drawn with.
+		STYLE
+	}
+	
+	// What changed.
+	private final Set<Change> changes;
+	
+	// Region of the photo that changed, except for text, null if all of it may have changed.
+	private final Rectangle dirtyBounds;
+	
+	// Range of the text blocks that changed, -1 if no text changed.
+	private final int firstTextBlock;
+	private final int lastTextBlock;
+	
+	// Index of the first stroke point that changed, -1 if no strokes changed.
+	private final int firstStrokePoint;
+	
+	/**
+	 * Constructor.
+	 * @param source Object the model that changed.
+	 * @param changes EnumSet<Change> what changed, copied.
+	 * @param dirtyBounds Rectangle the region that changed except for text, null if all of it may have changed.
+	 * @param firstTextBlock int the index of the first text block that changed, -1 if no text changed.
+	 * @param lastTextBlock int the index of the last text block that changed, -1 if no text changed.
+	 * @param firstStrokePoint int the index of the first stroke point that changed, -1 if no strokes changed.
+	 */
+	public PhotoChangeEvent(Object source, EnumSet<Change> changes, Rectangle dirtyBounds,
+			int firstTextBlock, int lastTextBlock, int firstStrokePoint) {
+		super(source);
+		this.changes = Collections.unmodifiableSet(EnumSet.copyOf(changes));
+		this.dirtyBounds = dirtyBounds;
+		this.firstTextBlock = firstTextBlock;
+		this.lastTextBlock = lastTextBlock;
+		this.firstStrokePoint = firstStrokePoint;
+	}
+	
+	/**
+	 * Returns what changed.
+	 */
+	public Set<Change> getChanges() {
+		return changes;
+	}
+	
+	/**
+	 * Returns true iff change is among the changes.
+	 */
+	public boolean isChanged(Change change) {
+		return changes.contains(change);
+	}
+	
+	/**
+	 * Returns the region of the photo that changed, null if all of it may have changed.
+	 * The region of changed text is not included, it is only known to the view that
+	 * lays out the text: the region is empty when only text changed.
+	 */
+	public Rectangle getDirtyBounds() {
+		return dirtyBounds;
+	}
+	
+	/**
+	 * Returns the index of the first text block that changed, -1 if no text changed.
+	 */
+	public int getFirstTextBlock() {
+		return firstTextBlock;
+	}
+	
+	/**
+	 * Returns the index of the last text block that changed, -1 if no text changed.
+	 */
+	public int getLastTextBlock() {
+		return lastTextBlock;
+	}
+	
+	/**
+	 * Returns the index of the first stroke point that changed, -1 if no strokes changed.
+	 * Points from there on were added or removed.
+	 */
+	public int getFirstStrokePoint() {
+		return firstStrokePoint;
+	}
+}
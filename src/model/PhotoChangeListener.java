@@ -0,0 +1,15 @@
+package model;
+
+/**
+ * Listener of the changes of a PhotoModel, e.g. a view that repaints what changed.
+ * Unlike a Swing ChangeListener, it needs nothing of Swing, so the model can be used
+ * without it, e.g. to render photos on a server.
+ */
+public interface PhotoChangeListener {
+	
+	/**
+	 * Called once for all the changes made in an update of the model.
+	 * @param e PhotoChangeEvent what changed.
+	 */
+	void photoChanged(PhotoChangeEvent e);
+}
@@ -0,0 +1,29 @@
+package model;
+
+/**
+ * Ordered list of photo files shown in the browser.
+ * Implementations only hand out paths on request, 
+ * so the browser never holds an object per photo.
+ */
+public interface PhotoList {
+	
+	/**
+	 * Returns the number of photos in the list.
+	 * @return int the number of photos.
+	 */
+	int size();
+	
+	/**
+	 * Returns the path of the photo at index.
+	 * @param index int the index of the photo, from 0 to size() - 1.
+	 * @return String the path of the photo file.
+	 */
+	String getPath(int index);
+	
+	/**
+	 * Returns the file name of the photo at index, without its directory.
+	 * @param index int the index of the photo, from 0 to size() - 1.
+	 * @return String the name of the photo file.
+	 */
+	String getName(int index);
+}
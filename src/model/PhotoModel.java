@@ -2,14 +2,15 @@ package model;
 
 import java.awt.Color;
 import java.awt.Font;
-import java.awt.Image;
 import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 
-import javax.swing.ImageIcon;
-import javax.swing.event.ChangeEvent;
-import javax.swing.event.ChangeListener;
+import model.PhotoChangeEvent.Change;
 
 /**
  * Model for the PhotoComponent
@@ -17,66 +18,242 @@ import javax.swing.event.ChangeListener;
  */
 public class PhotoModel {
 
-	// Image of the photoComponent
-	private Image image;
+	// Image of the photoComponent, may be a low resolution placeholder while loading.
+	private BufferedImage image;
 	
-	// ImageIcon of the photoComponent
-	private ImageIcon imageIcon;
+	// Dimensions of the photo, known from its header before the pixels are decoded.
+	private int imageWidth;
+	private int imageHeight;
 
 	// True iff image is flipped to the white canvas side.
 	private boolean imageFlipped;
 
 	// The drawn strokes.
-	private ArrayList<Point> drawnPoints;
+	private StrokeStore strokes;
 	
-	// Positions of text blocks.
-	private ArrayList<Point> textPoints;
+	// Pixels around a segment that its line may cover, including antialiasing.
+	private static final int STROKE_MARGIN = 2;
 	
-	// Stack of all typed text blocks and "+" character for separation of points.
-	private String textValue;
+	// Typed text blocks, in the order they were started.
+	private ArrayList<TextBlock> textBlocks;
+	private List<TextBlock> unmodifiableTextBlocks;
+	
+	// Index of the block typed text goes to, -1 if there is none.
+	private int currentTextBlock;
 	
 	private Color drawColor;
 	
 	private Font textFont;
 	
 	// Listeners that will fire change events to the component.
-	private List<ChangeListener> changeListeners;
+	private List<PhotoChangeListener> changeListeners;
+	
+	// Listeners of every change of the annotations.
+	private List<AnnotationListener> annotationListeners = new ArrayList<AnnotationListener>();
+	
+	// Depth of nested updates, changes are fired when the outermost update ends.
+	private int updateDepth;
+	
+	/*
+	 * Changes made since the last event, fired together as one event.
+	 */
+	private final EnumSet<Change> pendingChanges = EnumSet.noneOf(Change.class);
+	
+	// Union of the regions that changed, null if all of it may have changed.
+	private Rectangle pendingBounds;
+	
+	// Range of the text blocks that changed, -1 if none.
+	private int pendingFirstTextBlock = -1;
+	private int pendingLastTextBlock = -1;
+	
+	// First stroke point that changed, -1 if none.
+	private int pendingFirstStrokePoint = -1;
+	
+	// Edits of the annotations, to undo and redo them.
+	private final UndoHistory history = new UndoHistory(UndoHistory.DEFAULT_MEMORY_LIMIT);
+	
+	// Edit of the stroke that is being drawn, added to the history when the stroke ends.
+	private StrokeEdit drawingEdit;
+	
+	// Text block that was started but nothing was typed in yet, so the history does not know it.
+	private TextBlock unrecordedBlock;
+	
+	// False while the annotations are not in memory, not loaded yet or unloaded, and can not be edited.
+	private boolean annotationsLoaded = true;
 	
 	/**
 	 * Constructor.
 	 */
 	public PhotoModel() {
-		changeListeners = new ArrayList<ChangeListener>();
+		changeListeners = new ArrayList<PhotoChangeListener>();
 		imageFlipped = false;
-		drawnPoints = new ArrayList<Point>();
-		textPoints = new ArrayList<Point>();
-		textValue = "";
+		strokes = new StrokeStore();
+		textBlocks = new ArrayList<TextBlock>();
+		unmodifiableTextBlocks = Collections.unmodifiableList(textBlocks);
+		currentTextBlock = -1;
 	}
 	
 	/**
 	 * Adds listener listener to listeners list.
-	 * @param listener ChangeListener the listener you add.
+	 * @param listener PhotoChangeListener the listener you add.
 	 */
-	public void addChangeListener (ChangeListener listener) {
+	public void addChangeListener (PhotoChangeListener listener) {
 		changeListeners.add(listener);
 	}
 
 	/**
 	 * Remove listener listener to listeners list.
-	 * @param listener ChangeListener the listener you remove.
+	 * @param listener PhotoChangeListener the listener you remove.
 	 */
-	public void removeChangeListener (ChangeListener listener) {
+	public void removeChangeListener (PhotoChangeListener listener) {
 		changeListeners.remove(listener);
 	}
 	
 	/**
-	 * Fires a change event so that the photoComponent will know 
+	 * Adds a listener told of every change of the annotations as it is made.
+	 * @param listener AnnotationListener the listener.
+	 */
+	public void addAnnotationListener(AnnotationListener listener) {
+		annotationListeners.add(listener);
+	}
+	
+	/**
+	 * Removes a listener added with addAnnotationListener.
+	 * @param listener AnnotationListener the listener.
+	 */
+	public void removeAnnotationListener(AnnotationListener listener) {
+		annotationListeners.remove(listener);
+	}
+	
+	/**
+	 * Starts an update: the changes made until the matching endUpdate are fired as 
+	 * a single event then. Updates nest, the event comes when the outermost one ends.
+	 */
+	public void beginUpdate() {
+		updateDepth++;
+	}
+	
+	/**
+	 * Ends an update started with beginUpdate, firing its changes once it is the outermost one.
+	 */
+	public void endUpdate() {
+		if (updateDepth == 0) {
+			throw new IllegalStateException("endUpdate without beginUpdate");
+		}
+		if (--updateDepth == 0) {
+			fireChanges();
+		}
+	}
+	
+	/**
+	 * Runs changes in a single update, so they are fired as a single event.
+	 * @param changes Runnable the changes.
+	 */
+	public void batch(Runnable changes) {
+		beginUpdate();
+		try {
+			changes.run();
+		} finally {
+			endUpdate();
+		}
+	}
+	
+	/**
+	 * Returns true iff an update is in progress, and changes are held back.
+	 */
+	public boolean isUpdating() {
+		return updateDepth > 0;
+	}
+	
+	/**
+	 * Records a change that affects region bounds of the photo, null for all of it, 
+	 * and fires it unless an update is in progress.
+	 */
+	private void fireChange(Change change, Rectangle bounds) {
+		boolean first = pendingChanges.isEmpty();
+		pendingChanges.add(change);
+		if (bounds == null) {
+			pendingBounds = null;
+		} else if (first) {
+			pendingBounds = new Rectangle(bounds);
+		} else if (pendingBounds != null && !bounds.isEmpty()) {
+			if (pendingBounds.isEmpty()) {
+				pendingBounds.setBounds(bounds);
+			} else {
+				pendingBounds.add(bounds);
+			}
+		}
+		if (updateDepth == 0) {
+			fireChanges();
+		}
+	}
+	
+	/**
+	 * Records a change of the text of block, and fires it unless an update is in progress.
+	 */
+	private void fireTextChange(int block) {
+		if (pendingFirstTextBlock < 0) {
+			pendingFirstTextBlock = block;
+			pendingLastTextBlock = block;
+		} else {
+			pendingFirstTextBlock = Math.min(pendingFirstTextBlock, block);
+			pendingLastTextBlock = Math.max(pendingLastTextBlock, block);
+		}
+		// Text only adds its blocks, its region is up to the view.
+		fireChange(Change.TEXT, new Rectangle());
+	}
+	
+	/**
+	 * Records a change of the strokes from point firstPoint on, in region bounds, 
+	 * and fires it unless an update is in progress.
+	 */
+	private void fireStrokeChange(int firstPoint, Rectangle bounds) {
+		pendingFirstStrokePoint = pendingFirstStrokePoint < 0 ? firstPoint : Math.min(pendingFirstStrokePoint, firstPoint);
+		fireChange(Change.STROKES, bounds);
+	}
+	
+	private void fireTextBlockAdded(int index) {
+		for (AnnotationListener listener : annotationListeners) {
+			listener.textBlockAdded(index, textBlocks.get(index).getAnchor());
+		}
+	}
+	
+	private void fireTextInserted(int block, int position, CharSequence text) {
+		for (AnnotationListener listener : annotationListeners) {
+			listener.textInserted(block, position, text);
+		}
+	}
+	
+	private void fireTextDeleted(int block, int start, int end) {
+		for (AnnotationListener listener : annotationListeners) {
+			listener.textDeleted(block, start, end);
+		}
+	}
+	
+	private void fireStyleChanged(Color color, Font font) {
+		for (AnnotationListener listener : annotationListeners) {
+			listener.styleChanged(color, font);
+		}
+	}
+	
+	/**
+	 * Fires the recorded changes as one event, so that the photoComponent will know 
 	 * that something has changed in its state.
 	 */
-	private void fireChange () {
-		for (ChangeListener listener : changeListeners) {
-			ChangeEvent e = new ChangeEvent(listener);
-			listener.stateChanged(e);
+	private void fireChanges() {
+		if (pendingChanges.isEmpty()) {
+			return;
+		}
+		PhotoChangeEvent e = new PhotoChangeEvent(this, pendingChanges, pendingBounds, 
+				pendingFirstTextBlock, pendingLastTextBlock, pendingFirstStrokePoint);
+		pendingChanges.clear();
+		pendingBounds = null;
+		pendingFirstTextBlock = -1;
+		pendingLastTextBlock = -1;
+		pendingFirstStrokePoint = -1;
+		
+		for (PhotoChangeListener listener : changeListeners) {
+			listener.photoChanged(e);
 		}
 	}
 	
@@ -86,22 +263,27 @@ public class PhotoModel {
      * --------------------------------------------------------------------- 
     */
 	
-	public Image getImage() {
+	public BufferedImage getImage() {
 		return image;
 	}
 
-	public void setImage(Image image) {
+	public void setImage(BufferedImage image) {
 		this.image = image;
-		fireChange();
+		fireChange(Change.IMAGE, null);
 	}
-
-	public ImageIcon getImageIcon() {
-		return imageIcon;
+	
+	public int getImageWidth() {
+		return imageWidth;
 	}
-
-	public void setImageIcon(ImageIcon imageIcon) {
-		this.imageIcon = imageIcon;
-		fireChange();
+	
+	public int getImageHeight() {
+		return imageHeight;
+	}
+	
+	public void setImageSize(int imageWidth, int imageHeight) {
+		this.imageWidth = imageWidth;
+		this.imageHeight = imageHeight;
+		fireChange(Change.IMAGE, null);
 	}
 
 	public boolean isImageFlipped() {
@@ -110,63 +292,596 @@ public class PhotoModel {
 
 	public void setImageFlipped(boolean imageFlipped) {
 		this.imageFlipped = imageFlipped;
-		fireChange();
+		fireChange(Change.FLIP, null);
 	}
 
 	
-	public ArrayList<Point> getDrawnPoints() {
-		return drawnPoints;
+	public StrokeStore getStrokes() {
+		return strokes;
 	}
 	
-	public void addDrawnPoint(Point point) {
-		drawnPoints.add(point);
-		fireChange();
+	/**
+	 * Adds a point to the stroke that is being drawn.
+	 * Only the bounds of the new segment are reported as changed.
+	 */
+	public void addDrawnPoint(int x, int y) {
+		if (!annotationsLoaded) {
+			return;
+		}
+		Rectangle dirty = new Rectangle(x, y, 0, 0);
+		if (strokes.isStrokeOpen()) {
+			int last = strokes.getPointCount() - 1;
+			dirty.add(strokes.getX(last), strokes.getY(last));
+		}
+		dirty.grow(STROKE_MARGIN, STROKE_MARGIN);
+		
+		boolean newStroke = !strokes.isStrokeOpen();
+		if (newStroke) {
+			drawingEdit = new StrokeEdit(strokes.getPointCount(), strokes.getStrokeCount(), dirty);
+		} else if (drawingEdit != null) {
+			drawingEdit.bounds.add(dirty);
+		}
+		strokes.addPoint(x, y);
+		for (AnnotationListener listener : annotationListeners) {
+			listener.pointAdded(x, y, newStroke);
+		}
+		fireStrokeChange(strokes.getPointCount() - 1, dirty);
 	}
 
-	public void setDrawnPoints(ArrayList<Point> drawnPoints) {
-		this.drawnPoints = drawnPoints;
-		fireChange();
+	/**
+	 * Ends the stroke that is being drawn, the whole stroke is undone at once.
+	 */
+	public void endStroke() {
+		if (strokes.isStrokeOpen()) {
+			strokes.endStroke();
+			for (AnnotationListener listener : annotationListeners) {
+				listener.strokeEnded();
+			}
+		}
+		if (drawingEdit != null) {
+			drawingEdit.end = strokes.getPointCount();
+			history.add(drawingEdit);
+			drawingEdit = null;
+		}
 	}
 
-	public ArrayList<Point> getTextPoints() {
-		return textPoints;
+	/**
+	 * Replaces all strokes and text blocks, e.g. with annotations read from a file.
+	 * The history is cleared, the new annotations can not be undone, but they can be edited.
+	 * @param strokes StrokeStore the strokes, kept by the model.
+	 * @param blocks List<TextBlock> the text blocks, copied.
+	 */
+	public void setAnnotations(StrokeStore strokes, List<TextBlock> blocks) {
+		strokes.endStroke();
+		this.strokes = strokes;
+		drawingEdit = null;
+		unrecordedBlock = null;
+		currentTextBlock = -1;
+		textBlocks.clear();
+		textBlocks.addAll(blocks);
+		history.clear();
+		annotationsLoaded = true;
+		for (AnnotationListener listener : annotationListeners) {
+			listener.annotationsReplaced();
+		}
+		
+		beginUpdate();
+		try {
+			fireStrokeChange(0, null);
+			if (!textBlocks.isEmpty()) {
+				fireTextChange(0);
+				fireTextChange(textBlocks.size() - 1);
+			}
+		} finally {
+			endUpdate();
+		}
 	}
 	
-	public void addTextPoint(Point point) {
-		textPoints.add(point);
-		fireChange();
+	/**
+	 * Adds strokes after the existing ones, e.g. as they are streamed in from a file,
+	 * and reports only the region of the new strokes as changed. Like setAnnotations, 
+	 * this is not recorded in the history. Annotation listeners are told the strokes 
+	 * were restored.
+	 * @param loaded StrokeStore the strokes to add, copied.
+	 */
+	public void addStrokes(StrokeStore loaded) {
+		if (loaded.getStrokeCount() == 0) {
+			return;
+		}
+		strokes.endStroke();
+		int firstPoint = strokes.getPointCount();
+		int firstStroke = strokes.getStrokeCount();
+		Rectangle dirty = null;
+		for (int stroke = 0; stroke < loaded.getStrokeCount(); stroke++) {
+			int end = loaded.getStrokeEnd(stroke);
+			for (int point = loaded.getStrokeStart(stroke); point < end; point++) {
+				int x = loaded.getX(point);
+				int y = loaded.getY(point);
+				strokes.addPoint(x, y);
+				if (dirty == null) {
+					dirty = new Rectangle(x, y, 0, 0);
+				} else {
+					dirty.add(x, y);
+				}
+			}
+			strokes.endStroke();
+		}
+		for (AnnotationListener listener : annotationListeners) {
+			listener.strokesRestored(firstStroke);
+		}
+		if (dirty != null) {
+			dirty.grow(STROKE_MARGIN, STROKE_MARGIN);
+			fireStrokeChange(firstPoint, dirty);
+		}
 	}
-
-	public void setTextPoints(ArrayList<Point> textPoints) {
-		this.textPoints = textPoints;
-		fireChange();
+	
+	/**
+	 * Takes the strokes and text blocks out of the model while they are not shown, so 
+	 * their memory can be reclaimed. They can not be edited, nor undone, until they are
+	 * put back with restoreAnnotations or replaced with setAnnotations. Annotation listeners 
+	 * are not told: the annotations did not change, they are only out of memory.
+	 */
+	public void unloadAnnotations() {
+		endStroke();
+		endTextBlock();
+		strokes = new StrokeStore();
+		textBlocks.clear();
+		annotationsLoaded = false;
+		
+		beginUpdate();
+		try {
+			fireStrokeChange(0, null);
+			fireChange(Change.TEXT, null);
+		} finally {
+			endUpdate();
+		}
 	}
-
-	public String getTextValue() {
-		return textValue;
+	
+	/**
+	 * Puts back the strokes and text blocks taken out by unloadAnnotations, the same
+	 * objects, so the history still applies to them. Annotation listeners are not told.
+	 * @param strokes StrokeStore the strokes the model had before unloading.
+	 * @param blocks List<TextBlock> the text blocks the model had before unloading.
+	 */
+	public void restoreAnnotations(StrokeStore strokes, List<TextBlock> blocks) {
+		this.strokes = strokes;
+		textBlocks.clear();
+		textBlocks.addAll(blocks);
+		annotationsLoaded = true;
+		
+		beginUpdate();
+		try {
+			fireStrokeChange(0, null);
+			fireChange(Change.TEXT, null);
+		} finally {
+			endUpdate();
+		}
 	}
-
-	public void setTextValue(String textValue) {
-		this.textValue = textValue;
-		fireChange();
+	
+	/**
+	 * Marks the annotations as not in memory yet, e.g. while they are loaded in 
+	 * the background: they can not be edited until setAnnotations is called.
+	 */
+	public void setAnnotationsLoading() {
+		annotationsLoaded = false;
+	}
+	
+	/**
+	 * Returns false while the annotations are not in memory, being loaded or unloaded,
+	 * and edits of the annotations are ignored.
+	 */
+	public boolean isAnnotationsLoaded() {
+		return annotationsLoaded;
+	}
+	
+	/**
+	 * Returns the text blocks, which can only be changed through this model.
+	 */
+	public List<TextBlock> getTextBlocks() {
+		return unmodifiableTextBlocks;
+	}
+	
+	/**
+	 * Returns the index of the block typed text goes to, -1 if there is none.
+	 */
+	public int getCurrentTextBlock() {
+		return currentTextBlock;
+	}
+	
+	/**
+	 * Starts a new text block at anchor, typed text goes to it from now on.
+	 * Nothing visible changes until text is typed.
+	 * @param anchor Point the point the text is drawn from.
+	 */
+	public void startTextBlock(Point anchor) {
+		endTextBlock();
+		if (!annotationsLoaded) {
+			return;
+		}
+		unrecordedBlock = new TextBlock(anchor);
+		textBlocks.add(unrecordedBlock);
+		currentTextBlock = textBlocks.size() - 1;
+	}
+	
+	/**
+	 * Ends the current text block, typed text is ignored until a new one is started.
+	 * The block is dropped if nothing was typed in it.
+	 */
+	public void endTextBlock() {
+		if (currentTextBlock >= 0 && textBlocks.get(currentTextBlock) == unrecordedBlock) {
+			textBlocks.remove(currentTextBlock);
+		}
+		unrecordedBlock = null;
+		currentTextBlock = -1;
+		history.endCoalescing();
+	}
+	
+	/**
+	 * Inserts a typed character at the caret of the current text block. 
+	 * Only that text block is reported as changed.
+	 */
+	public void insertText(char c) {
+		if (currentTextBlock >= 0) {
+			TextBlock block = textBlocks.get(currentTextBlock);
+			int position = block.getCaret();
+			boolean createdBlock = block == unrecordedBlock;
+			if (createdBlock) {
+				// The block is known from now on.
+				unrecordedBlock = null;
+				fireTextBlockAdded(currentTextBlock);
+			}
+			block.insert(c);
+			history.add(new TextEdit(currentTextBlock, block, true, position, c, createdBlock));
+			fireTextInserted(currentTextBlock, position, String.valueOf(c));
+			fireTextChange(currentTextBlock);
+		}
+	}
+	
+	/**
+	 * Deletes the character before the caret of the current text block.
+	 */
+	public void deleteTextBackward() {
+		if (currentTextBlock >= 0) {
+			TextBlock block = textBlocks.get(currentTextBlock);
+			int position = block.getCaret() - 1;
+			if (position >= 0) {
+				char c = block.charAt(position);
+				block.deleteBackward();
+				history.add(new TextEdit(currentTextBlock, block, false, position, c, false));
+				fireTextDeleted(currentTextBlock, position, position + 1);
+				fireTextChange(currentTextBlock);
+			}
+		}
+	}
+	
+	/**
+	 * Deletes the character after the caret of the current text block.
+	 */
+	public void deleteTextForward() {
+		if (currentTextBlock >= 0) {
+			TextBlock block = textBlocks.get(currentTextBlock);
+			int position = block.getCaret();
+			if (position < block.length()) {
+				char c = block.charAt(position);
+				block.deleteForward();
+				history.add(new TextEdit(currentTextBlock, block, false, position, c, false));
+				fireTextDeleted(currentTextBlock, position, position + 1);
+				fireTextChange(currentTextBlock);
+			}
+		}
+	}
+	
+	/**
+	 * Moves the caret of the current text block, nothing visible changes.
+	 * Text typed from there on is undone apart from the text typed before.
+	 * @param caret int the new position, kept within the text.
+	 */
+	public void setTextCaret(int caret) {
+		if (currentTextBlock >= 0) {
+			textBlocks.get(currentTextBlock).setCaret(caret);
+			history.endCoalescing();
+		}
 	}
 
 	public Color getDrawColor() {
 		return drawColor;
 	}
 
+	/**
+	 * Sets the color of the strokes. Like the annotations it is saved with, 
+	 * it is not changed while the annotations are not in memory.
+	 */
 	public void setDrawColor(Color drawColor) {
+		if (!annotationsLoaded) {
+			return;
+		}
+		if (this.drawColor != null && !this.drawColor.equals(drawColor)) {
+			history.add(new StyleEdit(this.drawColor, drawColor, null, null));
+		}
 		this.drawColor = drawColor;
-		fireChange();
+		fireStyleChanged(drawColor, null);
+		fireChange(Change.STYLE, null);
 	}
 
 	public Font getTextFont() {
 		return textFont;
 	}
 
+	/**
+	 * Sets the font of the text. Like the annotations it is saved with, 
+	 * it is not changed while the annotations are not in memory.
+	 */
 	public void setTextFont(Font textFont) {
+		if (!annotationsLoaded) {
+			return;
+		}
+		if (this.textFont != null && !this.textFont.equals(textFont)) {
+			history.add(new StyleEdit(null, null, this.textFont, textFont));
+		}
 		this.textFont = textFont;
-		fireChange();
+		fireStyleChanged(null, textFont);
+		fireChange(Change.STYLE, null);
 	}		
 	
+    /*
+     * ---------------------------------------------------------------------
+     * UNDO AND REDO
+     * --------------------------------------------------------------------- 
+    */
+	
+	/**
+	 * Returns the history of the edits of the annotations, e.g. to set its memory limit.
+	 */
+	public UndoHistory getHistory() {
+		return history;
+	}
+	
+	public boolean canUndo() {
+		return annotationsLoaded && (history.canUndo() || drawingEdit != null);
+	}
+	
+	public boolean canRedo() {
+		return annotationsLoaded && history.canRedo();
+	}
+	
+	/**
+	 * Undoes the last edit of the annotations: a stroke, a run of typing or deleting,
+	 * or a change of style. Its changes are fired as a single event.
+	 */
+	public void undo() {
+		if (!annotationsLoaded) {
+			return;
+		}
+		beginUpdate();
+		try {
+			endStroke();
+			endTextBlock();
+			history.undo();
+		} finally {
+			endUpdate();
+		}
+	}
+	
+	/**
+	 * Redoes the last edit undone. Its changes are fired as a single event.
+	 */
+	public void redo() {
+		if (!annotationsLoaded) {
+			return;
+		}
+		beginUpdate();
+		try {
+			endStroke();
+			endTextBlock();
+			history.redo();
+		} finally {
+			endUpdate();
+		}
+	}
+	
+	/**
+	 * A stroke, taken out and put back in constant time: its points stay in the store.
+	 * Only while it is undone are they kept for this edit alone.
+	 */
+	private class StrokeEdit extends UndoHistory.Edit {
+		// The first point and index of the stroke, and the index after its last point.
+		final int start;
+		final int stroke;
+		int end;
+		
+		// Region covered by the stroke.
+		final Rectangle bounds;
+		
+		// True while the stroke is taken out.
+		boolean undone;
+		
+		StrokeEdit(int start, int stroke, Rectangle bounds) {
+			this.start = start;
+			this.stroke = stroke;
+			this.bounds = new Rectangle(bounds);
+		}
+		
+		@Override
+		public void undo() {
+			undone = true;
+			strokes.truncate(start, stroke);
+			for (AnnotationListener listener : annotationListeners) {
+				listener.strokesTruncated(start, stroke);
+			}
+			fireStrokeChange(start, bounds);
+		}
+		
+		@Override
+		public void redo() {
+			undone = false;
+			strokes.restore(end, stroke + 1);
+			for (AnnotationListener listener : annotationListeners) {
+				listener.strokesRestored(stroke);
+			}
+			fireStrokeChange(start, bounds);
+		}
+		
+		@Override
+		public long getMemorySize() {
+			return undone ? 64 + 8L * (end - start) : 64;
+		}
+	}
+	
+	/**
+	 * Characters typed or deleted in a text block. Characters typed one after the other 
+	 * are merged, and so are characters deleted one after the other in either direction.
+	 */
+	private class TextEdit extends UndoHistory.Edit {
+		final int index;
+		final TextBlock block;
+		final boolean inserted;
+		
+		// Position of the first character, and the characters.
+		int position;
+		final StringBuilder text = new StringBuilder(1);
+		
+		// True iff the block was started with this edit, and goes away when it is undone.
+		final boolean createdBlock;
+		
+		TextEdit(int index, TextBlock block, boolean inserted, int position, char c, boolean createdBlock) {
+			this.index = index;
+			this.block = block;
+			this.inserted = inserted;
+			this.position = position;
+			this.createdBlock = createdBlock;
+			text.append(c);
+		}
+		
+		@Override
+		public boolean absorb(UndoHistory.Edit next) {
+			if (!(next instanceof TextEdit)) {
+				return false;
+			}
+			TextEdit edit = (TextEdit) next;
+			if (edit.block != block || edit.inserted != inserted || edit.createdBlock) {
+				return false;
+			}
+			if (inserted ? edit.position == position + text.length() : edit.position == position) {
+				text.append(edit.text);
+				return true;
+			}
+			if (!inserted && edit.position + edit.text.length() == position) {
+				text.insert(0, edit.text);
+				position = edit.position;
+				return true;
+			}
+			return false;
+		}
+		
+		@Override
+		public void undo() {
+			if (inserted) {
+				block.delete(position, position + text.length());
+				fireTextDeleted(index, position, position + text.length());
+				if (createdBlock) {
+					// Blocks are undone in the reverse order they were created, this one is the last.
+					textBlocks.remove(index);
+					for (AnnotationListener listener : annotationListeners) {
+						listener.textBlockRemoved(index);
+					}
+				} else {
+					currentTextBlock = index;
+				}
+			} else {
+				block.insert(position, text);
+				fireTextInserted(index, position, text);
+				currentTextBlock = index;
+			}
+			fireTextEdit();
+		}
+		
+		@Override
+		public void redo() {
+			if (inserted) {
+				if (createdBlock) {
+					textBlocks.add(index, block);
+					fireTextBlockAdded(index);
+				}
+				block.insert(position, text);
+				fireTextInserted(index, position, text);
+			} else {
+				block.delete(position, position + text.length());
+				fireTextDeleted(index, position, position + text.length());
+			}
+			currentTextBlock = index;
+			fireTextEdit();
+		}
+		
+		/**
+		 * Fires the change of the block. Undoing may remove many lines, or the whole block,
+		 * which only the previous layout knows the region of: all of the photo is reported.
+		 */
+		private void fireTextEdit() {
+			fireTextChange(index);
+			fireChange(Change.TEXT, null);
+		}
+		
+		@Override
+		public long getMemorySize() {
+			return 64 + 2L * text.length();
+		}
+	}
+	
+	/**
+	 * Change of the color or the font, those that are not changed are null.
+	 * Changes of the same style one after the other are merged.
+	 */
+	private class StyleEdit extends UndoHistory.Edit {
+		final Color oldColor;
+		Color newColor;
+		final Font oldFont;
+		Font newFont;
+		
+		StyleEdit(Color oldColor, Color newColor, Font oldFont, Font newFont) {
+			this.oldColor = oldColor;
+			this.newColor = newColor;
+			this.oldFont = oldFont;
+			this.newFont = newFont;
+		}
+		
+		@Override
+		public boolean absorb(UndoHistory.Edit next) {
+			if (!(next instanceof StyleEdit)) {
+				return false;
+			}
+			StyleEdit edit = (StyleEdit) next;
+			if ((edit.oldColor == null) != (oldColor == null) || (edit.oldFont == null) != (oldFont == null)) {
+				return false;
+			}
+			newColor = edit.newColor;
+			newFont = edit.newFont;
+			return true;
+		}
+		
+		@Override
+		public void undo() {
+			apply(oldColor, oldFont);
+		}
+		
+		@Override
+		public void redo() {
+			apply(newColor, newFont);
+		}
+		
+		private void apply(Color color, Font font) {
+			if (color != null) {
+				drawColor = color;
+			}
+			if (font != null) {
+				textFont = font;
+			}
+			fireStyleChanged(color, font);
+			fireChange(Change.STYLE, null);
+		}
+		
+		@Override
+		public long getMemorySize() {
+			return 64;
+		}
+	}
 }
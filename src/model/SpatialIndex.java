@@ -0,0 +1,250 @@
+package model;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Index of items by their bounding boxes, answering which items intersect a rectangle
+ * without looking at the others.
+ *
+ * The index is a quadtree whose nodes are squares. An item is kept in the smallest node
+ * that contains it whole, so items that straddle the border of two squares stay higher up.
+ * A leaf is split into four once it holds more than NODE_CAPACITY items.
+ * The root grows by doubling when an item falls outside of it, so the area does
+ * not need to be known in advance. Items are identified by an int chosen by the caller,
+ * queries report them to an ItemVisitor and allocate nothing.
+ *
+ * Not thread safe.
+ */
+public class SpatialIndex {
+	
+	// Number of items in a leaf before it is split.
+	private static final int NODE_CAPACITY = 16;
+	
+	// Nodes this small are never split.
+	private static final int MIN_NODE_SIZE = 8;
+	
+	// Side of the root when the index is created.
+	private static final int INITIAL_SIZE = 1024;
+	
+	// Ints per item in a node: id, minX, minY, maxX, maxY.
+	private static final int STRIDE = 5;
+	
+	/**
+	 * Visitor of the items found by a query.
+	 */
+	public interface ItemVisitor {
+		/**
+		 * Called for each item whose bounds intersect the rectangle of the query.
+		 */
+		void visit(int id);
+	}
+	
+	/**
+	 * Square of the plane, with the items it contains whole but none of its children does.
+	 * Its corner and side are longs, as the root may grow past the range of ints to contain
+	 * items near their limits.
+	 */
+	private static class Node {
+		final long x;
+		final long y;
+		final long size;
+	
+		Node[] children;
+		int[] items = new int[STRIDE * 4];
+		int count;
+	
+		Node(long x, long y, long size) {
+			this.x = x;
+			this.y = y;
+			this.size = size;
+		}
+	
+		boolean contains(int minX, int minY, int maxX, int maxY) {
+			return minX >= x && minY >= y && maxX < x + size && maxY < y + size;
+		}
+	
+		boolean intersects(int minX, int minY, int maxX, int maxY) {
+			return maxX >= x && maxY >= y && minX < x + size && minY < y + size;
+		}
+	
+		void add(int id, int minX, int minY, int maxX, int maxY) {
+			if (STRIDE * (count + 1) > items.length) {
+				items = Arrays.copyOf(items, 2 * items.length);
+			}
+			int i = STRIDE * count++;
+			items[i] = id;
+			items[i + 1] = minX;
+			items[i + 2] = minY;
+			items[i + 3] = maxX;
+			items[i + 4] = maxY;
+		}
+	
+		/**
+		 * Returns the child that contains the box whole, null if there is none.
+		 */
+		Node childContaining(int minX, int minY, int maxX, int maxY) {
+			if (children != null) {
+				for (Node child : children) {
+					if (child.contains(minX, minY, maxX, maxY)) {
+						return child;
+					}
+				}
+			}
+			return null;
+		}
+	}
+	
+	private Node root = new Node(0, 0, INITIAL_SIZE);
+	private int size;
+	
+	/**
+	 * Adds an item.
+	 * @param id int the identifier of the item.
+	 * @param bounds Rectangle the bounding box of the item.
+	 */
+	public void add(int id, Rectangle bounds) {
+		add(id, bounds.x, bounds.y, bounds.x + bounds.width - 1, bounds.y + bounds.height - 1);
+	}
+	
+	/**
+	 * Adds an item with the bounding box from (minX, minY) to (maxX, maxY), inclusive.
+	 * @param id int the identifier of the item.
+	 */
+	public void add(int id, int minX, int minY, int maxX, int maxY) {
+		while (!root.contains(minX, minY, maxX, maxY)) {
+			grow(minX, minY);
+		}
+		Node node = root;
+		while (true) {
+			Node child = node.childContaining(minX, minY, maxX, maxY);
+			if (child != null) {
+				node = child;
+			} else if (node.children == null && node.count >= NODE_CAPACITY && node.size > MIN_NODE_SIZE) {
+				split(node);
+			} else {
+				break;
+			}
+		}
+		node.add(id, minX, minY, maxX, maxY);
+		size++;
+	}
+	
+	/**
+	 * Removes an item, which must be given with the bounds it was added with.
+	 * @param id int the identifier of the item.
+	 * @param bounds Rectangle the bounding box the item was added with.
+	 * @return boolean true iff the item was found.
+	 */
+	public boolean remove(int id, Rectangle bounds) {
+		return remove(id, bounds.x, bounds.y, bounds.x + bounds.width - 1, bounds.y + bounds.height - 1);
+	}
+	
+	/**
+	 * Removes an item, which must be given with the box it was added with, from (minX, minY) to (maxX, maxY).
+	 * @param id int the identifier of the item.
+	 * @return boolean true iff the item was found.
+	 */
+	public boolean remove(int id, int minX, int minY, int maxX, int maxY) {
+		Node node = root.contains(minX, minY, maxX, maxY) ? root : null;
+		while (node != null) {
+			int[] items = node.items;
+			for (int i = 0; i < STRIDE * node.count; i += STRIDE) {
+				if (items[i] == id && items[i + 1] == minX && items[i + 2] == minY
+						&& items[i + 3] == maxX && items[i + 4] == maxY) {
+					// Move the last item in its place.
+					int last = STRIDE * --node.count;
+					System.arraycopy(items, last, items, i, STRIDE);
+					size--;
+					return true;
+				}
+			}
+			node = node.childContaining(minX, minY, maxX, maxY);
+		}
+		return false;
+	}
+	
+	/**
+	 * Calls visitor for every item whose bounds intersect rectangle r, in no particular order.
+	 * @param r Rectangle the rectangle.
+	 * @param visitor ItemVisitor the visitor.
+	 */
+	public void query(Rectangle r, ItemVisitor visitor) {
+		if (r.width > 0 && r.height > 0) {
+			query(root, r.x, r.y, r.x + r.width - 1, r.y + r.height - 1, visitor);
+		}
+	}
+	
+	/**
+	 * Returns the number of items.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Removes all items.
+	 */
+	public void clear() {
+		root = new Node(0, 0, INITIAL_SIZE);
+		size = 0;
+	}
+	
+	private void query(Node node, int minX, int minY, int maxX, int maxY, ItemVisitor visitor) {
+		int[] items = node.items;
+		for (int i = 0; i < STRIDE * node.count; i += STRIDE) {
+			if (items[i + 3] >= minX && items[i + 4] >= minY && items[i + 1] <= maxX && items[i + 2] <= maxY) {
+				visitor.visit(items[i]);
+			}
+		}
+		if (node.children != null) {
+			for (Node child : node.children) {
+				if (child.intersects(minX, minY, maxX, maxY)) {
+					query(child, minX, minY, maxX, maxY, visitor);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Splits a leaf in four, and moves down the items that fit in a child.
+	 */
+	private void split(Node node) {
+		long half = node.size / 2;
+		node.children = new Node[] {
+				new Node(node.x, node.y, half),
+				new Node(node.x + half, node.y, half),
+				new Node(node.x, node.y + half, half),
+				new Node(node.x + half, node.y + half, half)};
+	
+		int[] items = node.items;
+		int kept = 0;
+		for (int i = 0; i < STRIDE * node.count; i += STRIDE) {
+			Node child = node.childContaining(items[i + 1], items[i + 2], items[i + 3], items[i + 4]);
+			if (child != null) {
+				child.add(items[i], items[i + 1], items[i + 2], items[i + 3], items[i + 4]);
+			} else {
+				System.arraycopy(items, i, items, STRIDE * kept++, STRIDE);
+			}
+		}
+		node.count = kept;
+	}
+	
+	/**
+	 * Doubles the root towards (x, y), the old root becomes one of its quarters.
+	 */
+	private void grow(int x, int y) {
+		long size = root.size;
+		long newX = x < root.x ? root.x - size : root.x;
+		long newY = y < root.y ? root.y - size : root.y;
+		Node grown = new Node(newX, newY, 2 * size);
+		grown.children = new Node[4];
+		for (int i = 0; i < 4; i++) {
+			long childX = newX + (i % 2) * size;
+			long childY = newY + (i / 2) * size;
+			grown.children[i] = childX == root.x && childY == root.y
+					? root : new Node(childX, childY, size);
+		}
+		root = grown;
+	}
+}
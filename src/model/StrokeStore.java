@@ -0,0 +1,370 @@
+package model;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Drawn strokes, stored as primitive coordinates.
+ * 
+ * The x and y of every point are kept next to each other in int[] chunks of 
+ * CHUNK_POINTS points, so adding a point never copies the points before it and 
+ * creates no object. Strokes are runs of consecutive points: a table of offsets 
+ * holds the index of the first point of each stroke, there are no separators.
+ * 
+ * Segments are iterated with a SegmentVisitor, which allocates nothing either.
+ * 
+ * Strokes are cut in runs of at most RUN_SEGMENTS segments, and the bounding box of 
+ * every run is kept in a SpatialIndex, so the segments in a region are found without 
+ * looking at the others. The run that is being drawn grows with each point, it is only 
+ * put in the index once it is full or its stroke ends.
+ */
+public class StrokeStore {
+	
+	// Number of points in a chunk, a power of 2.
+	private static final int CHUNK_SHIFT = 12;
+	private static final int CHUNK_POINTS = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_POINTS - 1;
+	
+	// Number of segments in a run of the spatial index.
+	private static final int RUN_SEGMENTS = 32;
+	
+	/**
+	 * Visitor of the line segments of the strokes.
+	 */
+	public interface SegmentVisitor {
+		/**
+		 * Called for each segment, from (x1, y1) to (x2, y2).
+		 */
+		void segment(int x1, int y1, int x2, int y2);
+	}
+	
+	// Coordinates, x at 2 * i and y at 2 * i + 1 for point i of a chunk.
+	private int[][] chunks = new int[4][];
+	private int pointCount;
+	
+	// Index of the first point of each stroke.
+	private int[] strokeStarts = new int[16];
+	private int strokeCount;
+	
+	// True while the last stroke is being drawn, and points are added to it.
+	private boolean strokeOpen;
+	
+	// Changes whenever points are removed, so views know that more than new points changed.
+	private int generation;
+	
+	// Bounding boxes of the full runs, by the index of their first point.
+	private final SpatialIndex runs = new SpatialIndex();
+	
+	// The runs in the index in the order they were added, id, minX, minY, maxX and maxY for each,
+	// so the runs of removed points can be taken out of the index.
+	private int[] runList = new int[5 * 64];
+	private int runListCount;
+	
+	// Points and strokes kept after the last truncate, that restore can bring back.
+	// Their runs stay in the index until a new point overwrites them.
+	private int retainedPoints;
+	private int retainedStrokes;
+	
+	// The run that is being drawn, not in the index yet.
+	private int openRun;
+	private final Rectangle openRunBounds = new Rectangle();
+	
+	// Bounding box of all points, null when there are none.
+	private Rectangle bounds;
+	
+	// Runs found by the last query.
+	private int[] foundRuns = new int[64];
+	private int foundCount;
+	
+	private final SpatialIndex.ItemVisitor runCollector = new SpatialIndex.ItemVisitor() {
+		public void visit(int id) {
+			if (id >= pointCount) {
+				// A run of removed points.
+				return;
+			}
+			if (foundCount == foundRuns.length) {
+				foundRuns = Arrays.copyOf(foundRuns, 2 * foundCount);
+			}
+			foundRuns[foundCount++] = id;
+		}
+	};
+	
+	/**
+	 * Adds a point to the stroke that is being drawn, starting a new stroke if there is none.
+	 * @param x int the x coordinate of the point.
+	 * @param y int the y coordinate of the point.
+	 */
+	public void addPoint(int x, int y) {
+		if (retainedPoints > pointCount) {
+			discardRetained();
+		}
+		if (!strokeOpen) {
+			if (strokeCount == strokeStarts.length) {
+				strokeStarts = Arrays.copyOf(strokeStarts, 2 * strokeCount);
+			}
+			strokeStarts[strokeCount++] = pointCount;
+			strokeOpen = true;
+			openRun = pointCount;
+			openRunBounds.setBounds(x, y, 1, 1);
+		} else {
+			openRunBounds.add(x, y);
+			if (pointCount - openRun == RUN_SEGMENTS) {
+				// This point ends the run and starts the next one.
+				indexOpenRun();
+				openRun = pointCount;
+				openRunBounds.setBounds(x, y, 1, 1);
+			}
+		}
+		
+		if (bounds == null) {
+			bounds = new Rectangle(x, y, 1, 1);
+		} else {
+			bounds.add(x, y);
+		}
+		
+		int chunk = pointCount >>> CHUNK_SHIFT;
+		if (chunk == chunks.length) {
+			chunks = Arrays.copyOf(chunks, 2 * chunks.length);
+		}
+		if (chunks[chunk] == null) {
+			chunks[chunk] = new int[2 * CHUNK_POINTS];
+		}
+		int i = 2 * (pointCount & CHUNK_MASK);
+		chunks[chunk][i] = x;
+		chunks[chunk][i + 1] = y;
+		pointCount++;
+	}
+	
+	/**
+	 * Ends the stroke that is being drawn, the next point starts a new stroke.
+	 */
+	public void endStroke() {
+		if (strokeOpen && pointCount - 1 > openRun) {
+			indexOpenRun();
+		}
+		strokeOpen = false;
+	}
+	
+	/**
+	 * Removes the strokes from stroke on, which start at point, in constant time.
+	 * Their points are kept until new points are added, so restore can bring them back.
+	 * @param point int the index of the first point removed, the start of stroke.
+	 * @param stroke int the index of the first stroke removed.
+	 */
+	public void truncate(int point, int stroke) {
+		if (stroke > strokeCount || (stroke < strokeCount && strokeStarts[stroke] != point)
+				|| (stroke == strokeCount && point != pointCount)) {
+			throw new IllegalArgumentException("Point " + point + " does not start stroke " + stroke);
+		}
+		endStroke();
+		retainedPoints = Math.max(retainedPoints, pointCount);
+		retainedStrokes = Math.max(retainedStrokes, strokeCount);
+		pointCount = point;
+		strokeCount = stroke;
+		generation++;
+	}
+	
+	/**
+	 * Brings back strokes removed by truncate, up to the given counts, in constant time.
+	 * @param points int the number of points after restoring.
+	 * @param strokes int the number of strokes after restoring.
+	 * @throws IllegalStateException if points were added since they were removed.
+	 */
+	public void restore(int points, int strokes) {
+		if (points > retainedPoints || strokes > retainedStrokes || points < pointCount || strokes < strokeCount) {
+			throw new IllegalStateException("Points " + pointCount + " to " + points + " are not retained");
+		}
+		endStroke();
+		pointCount = points;
+		strokeCount = strokes;
+	}
+	
+	/**
+	 * Removes all strokes, keeping the chunks for reuse.
+	 */
+	public void clear() {
+		pointCount = 0;
+		strokeCount = 0;
+		strokeOpen = false;
+		runs.clear();
+		runListCount = 0;
+		retainedPoints = 0;
+		retainedStrokes = 0;
+		bounds = null;
+		generation++;
+	}
+	
+	/**
+	 * Returns a number that changes whenever points are removed. 
+	 * While it does not change, points are only added.
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * Returns true iff the next point is added to the last stroke.
+	 */
+	public boolean isStrokeOpen() {
+		return strokeOpen;
+	}
+	
+	public int getPointCount() {
+		return pointCount;
+	}
+	
+	public int getStrokeCount() {
+		return strokeCount;
+	}
+	
+	/**
+	 * Returns the index of the first point of stroke.
+	 */
+	public int getStrokeStart(int stroke) {
+		return strokeStarts[stroke];
+	}
+	
+	/**
+	 * Returns the index after the last point of stroke.
+	 */
+	public int getStrokeEnd(int stroke) {
+		return stroke + 1 < strokeCount ? strokeStarts[stroke + 1] : pointCount;
+	}
+	
+	public int getX(int point) {
+		return chunks[point >>> CHUNK_SHIFT][2 * (point & CHUNK_MASK)];
+	}
+	
+	public int getY(int point) {
+		return chunks[point >>> CHUNK_SHIFT][2 * (point & CHUNK_MASK) + 1];
+	}
+	
+	/**
+	 * Calls visitor for every segment of every stroke, in the order they were drawn.
+	 * @param visitor SegmentVisitor the visitor.
+	 */
+	public void visitSegments(SegmentVisitor visitor) {
+		for (int stroke = 0; stroke < strokeCount; stroke++) {
+			visitSegments(stroke, visitor);
+		}
+	}
+	
+	/**
+	 * Calls visitor for the segments that end at point firstPoint or after it, 
+	 * i.e. the segments added since there were firstPoint points.
+	 * @param firstPoint int the index of the first point.
+	 * @param visitor SegmentVisitor the visitor.
+	 */
+	public void visitSegmentsFrom(int firstPoint, SegmentVisitor visitor) {
+		if (firstPoint >= pointCount) {
+			return;
+		}
+		for (int stroke = getStroke(firstPoint); stroke < strokeCount; stroke++) {
+			int start = Math.max(getStrokeStart(stroke), firstPoint - 1);
+			visitSegments(start, getStrokeEnd(stroke), visitor);
+		}
+	}
+	
+	/**
+	 * Calls visitor for the segments of the runs whose bounding box intersects r, 
+	 * in the order they were drawn. Segments close to r are visited as well, 
+	 * callers grow r by the width of the strokes and do not need to clip further.
+	 * @param r Rectangle the region.
+	 * @param visitor SegmentVisitor the visitor.
+	 */
+	public void visitSegmentsIn(Rectangle r, SegmentVisitor visitor) {
+		if (bounds == null) {
+			return;
+		}
+		if (r.contains(bounds.x, bounds.y, bounds.width + 1, bounds.height + 1)) {
+			// Everything is in r, a plain scan is faster than a query.
+			visitSegments(visitor);
+			return;
+		}
+		foundCount = 0;
+		runs.query(r, runCollector);
+		if (strokeOpen && pointCount - 1 > openRun && openRunBounds.intersects(r)) {
+			runCollector.visit(openRun);
+		}
+		Arrays.sort(foundRuns, 0, foundCount);
+		for (int i = 0; i < foundCount; i++) {
+			int run = foundRuns[i];
+			int end = Math.min(run + RUN_SEGMENTS + 1, getStrokeEnd(getStroke(run)));
+			visitSegments(run, end, visitor);
+		}
+	}
+	
+	/**
+	 * Adds the run that is being drawn to the index.
+	 */
+	private void indexOpenRun() {
+		int maxX = openRunBounds.x + openRunBounds.width;
+		int maxY = openRunBounds.y + openRunBounds.height;
+		runs.add(openRun, openRunBounds.x, openRunBounds.y, maxX, maxY);
+		if (5 * (runListCount + 1) > runList.length) {
+			runList = Arrays.copyOf(runList, 2 * runList.length);
+		}
+		int i = 5 * runListCount++;
+		runList[i] = openRun;
+		runList[i + 1] = openRunBounds.x;
+		runList[i + 2] = openRunBounds.y;
+		runList[i + 3] = maxX;
+		runList[i + 4] = maxY;
+	}
+	
+	/**
+	 * Forgets the points kept by truncate, which the next point overwrites, 
+	 * and takes their runs out of the index.
+	 */
+	private void discardRetained() {
+		while (runListCount > 0 && runList[5 * (runListCount - 1)] >= pointCount) {
+			int i = 5 * --runListCount;
+			runs.remove(runList[i], runList[i + 1], runList[i + 2], runList[i + 3], runList[i + 4]);
+		}
+		retainedPoints = pointCount;
+		retainedStrokes = strokeCount;
+	}
+	
+	/**
+	 * Returns the index of the stroke that point belongs to.
+	 */
+	public int getStroke(int point) {
+		int stroke = Arrays.binarySearch(strokeStarts, 0, strokeCount, point);
+		return stroke < 0 ? -stroke - 2 : stroke;
+	}
+	
+	/**
+	 * Calls visitor for every segment of stroke.
+	 * @param stroke int the index of the stroke.
+	 * @param visitor SegmentVisitor the visitor.
+	 */
+	public void visitSegments(int stroke, SegmentVisitor visitor) {
+		visitSegments(getStrokeStart(stroke), getStrokeEnd(stroke), visitor);
+	}
+	
+	/**
+	 * Calls visitor for the segments between the points from point to end, 
+	 * which are all in the same stroke.
+	 */
+	private void visitSegments(int point, int end, SegmentVisitor visitor) {
+		if (point >= end) {
+			return;
+		}
+		int[] chunk = chunks[point >>> CHUNK_SHIFT];
+		int i = 2 * (point & CHUNK_MASK);
+		int x1 = chunk[i];
+		int y1 = chunk[i + 1];
+		for (point++; point < end; point++) {
+			i += 2;
+			if (i == chunk.length) {
+				chunk = chunks[point >>> CHUNK_SHIFT];
+				i = 0;
+			}
+			int x2 = chunk[i];
+			int y2 = chunk[i + 1];
+			visitor.segment(x1, y1, x2, y2);
+			x1 = x2;
+			y1 = y2;
+		}
+	}
+}
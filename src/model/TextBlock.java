@@ -0,0 +1,171 @@
+package model;
+
+import java.awt.Point;
+import java.util.Arrays;
+
+/**
+ * Block of text typed on the photo, drawn below and to the right of its anchor point.
+ *
+ * The characters are kept in a growable buffer with a caret, the position where
+ * the next character is inserted. Typing at the end of the block appends to the
+ * buffer in amortized constant time, no String is built for it.
+ */
+public class TextBlock {
+	
+	// Point the text is drawn from.
+	private final Point anchor;
+	
+	// Characters of the text, the first length of them are used.
+	private char[] chars = new char[16];
+	private int length;
+	
+	// Position in the text where characters are inserted and deleted, from 0 to length.
+	private int caret;
+	
+	// Changes whenever the text changes, so views know when to lay it out again.
+	private int version;
+	
+	// The text as a String, built when it is asked for and kept until the text changes.
+	private String text;
+	
+	/**
+	 * Constructor.
+	 * @param anchor Point the point the text is drawn from.
+	 */
+	public TextBlock(Point anchor) {
+		this.anchor = new Point(anchor);
+	}
+	
+	public Point getAnchor() {
+		return anchor;
+	}
+	
+	public int length() {
+		return length;
+	}
+	
+	public char charAt(int index) {
+		return chars[index];
+	}
+	
+	public int getCaret() {
+		return caret;
+	}
+	
+	/**
+	 * Moves the caret, keeping it within the text.
+	 * @param caret int the new position of the caret.
+	 */
+	public void setCaret(int caret) {
+		this.caret = Math.max(0, Math.min(length, caret));
+	}
+	
+	/**
+	 * Inserts c at the caret, and moves the caret after it.
+	 * @param c char the character.
+	 */
+	public void insert(char c) {
+		if (length == chars.length) {
+			chars = Arrays.copyOf(chars, 2 * length);
+		}
+		if (caret < length) {
+			System.arraycopy(chars, caret, chars, caret + 1, length - caret);
+		}
+		chars[caret++] = c;
+		length++;
+		changed();
+	}
+	
+	/**
+	 * Deletes the character before the caret, as the backspace key does.
+	 * @return boolean false if the caret is at the start and nothing was deleted.
+	 */
+	public boolean deleteBackward() {
+		if (caret == 0) {
+			return false;
+		}
+		System.arraycopy(chars, caret, chars, caret - 1, length - caret);
+		caret--;
+		length--;
+		changed();
+		return true;
+	}
+	
+	/**
+	 * Deletes the character after the caret, as the delete key does.
+	 * @return boolean false if the caret is at the end and nothing was deleted.
+	 */
+	public boolean deleteForward() {
+		if (caret == length) {
+			return false;
+		}
+		System.arraycopy(chars, caret + 1, chars, caret, length - caret - 1);
+		length--;
+		changed();
+		return true;
+	}
+	
+	/**
+	 * Inserts text at index, and moves the caret after it.
+	 * @param index int the position of the text, from 0 to length().
+	 * @param text CharSequence the characters.
+	 */
+	public void insert(int index, CharSequence text) {
+		if (index < 0 || index > length) {
+			throw new IndexOutOfBoundsException("Index " + index + ", length " + length);
+		}
+		int count = text.length();
+		if (length + count > chars.length) {
+			chars = Arrays.copyOf(chars, Math.max(2 * chars.length, length + count));
+		}
+		System.arraycopy(chars, index, chars, index + count, length - index);
+		for (int i = 0; i < count; i++) {
+			chars[index + i] = text.charAt(i);
+		}
+		length += count;
+		caret = index + count;
+		changed();
+	}
+	
+	/**
+	 * Deletes the characters from start to end, and moves the caret to start.
+	 * @param start int the index of the first character deleted.
+	 * @param end int the index after the last character deleted.
+	 */
+	public void delete(int start, int end) {
+		if (start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException("Range " + start + " to " + end + ", length " + length);
+		}
+		System.arraycopy(chars, end, chars, start, length - end);
+		length -= end - start;
+		caret = start;
+		changed();
+	}
+	
+	/**
+	 * Returns a number that changes whenever the text changes.
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Returns the text.
+	 */
+	public String getText() {
+		if (text == null) {
+			text = new String(chars, 0, length);
+		}
+		return text;
+	}
+	
+	@Override
+	public String toString() {
+		return getText();
+	}
+	
+	private void changed() {
+		text = null;
+		version++;
+	}
+}
@@ -0,0 +1,198 @@
+package model;
+
+import java.util.ArrayDeque;
+
+/**
+ * Log of the edits made to the annotations, that can be undone and redone.
+ *
+ * An edit records the operation, not the state before and after it: the points of
+ * an undone stroke stay in the StrokeStore and typed text stays in its TextBlock,
+ * edits only keep what it takes to take them out and put them back. Related
+ * operations are coalesced into a single edit, so that a whole drag or a run of
+ * typing is undone at once.
+ *
+ * The history is bounded by an estimate of the memory its edits keep alive, beyond
+ * the annotations themselves, such as the points of undone strokes that are kept
+ * to redo them: the oldest edits are forgotten, and can no longer be undone, once 
+ * it is exceeded.
+ *
+ * Not thread safe, only used on the Event Dispatch Thread.
+ */
+public class UndoHistory {
+	
+	// Memory limit of a new history, in bytes.
+	public static final long DEFAULT_MEMORY_LIMIT = 16L << 20;
+	
+	/**
+	 * Operation that can be undone and redone.
+	 */
+	public abstract static class Edit {
+	
+		/**
+		 * Takes the operation out.
+		 */
+		public abstract void undo();
+	
+		/**
+		 * Puts the operation back, after undo.
+		 */
+		public abstract void redo();
+	
+		/**
+		 * Merges next into this edit if it continues it, so both are undone together.
+		 * @param next Edit the edit made right after this one.
+		 * @return boolean true iff next was merged, and is not kept on its own.
+		 */
+		public boolean absorb(Edit next) {
+			return false;
+		}
+	
+		/**
+		 * Returns an estimate of the memory kept alive by this edit alone, in bytes,
+		 * which may change when it is undone or redone.
+		 */
+		public abstract long getMemorySize();
+	}
+	
+	// Edits that can be undone, the oldest first, and that can be redone, the next one last.
+	private final ArrayDeque<Edit> undoEdits = new ArrayDeque<Edit>();
+	private final ArrayDeque<Edit> redoEdits = new ArrayDeque<Edit>();
+	
+	private long memoryLimit;
+	private long memorySize;
+	
+	// False once the last edit may no longer absorb the next one.
+	private boolean coalescing;
+	
+	/**
+	 * Constructor.
+	 * @param memoryLimit long the estimated memory the edits may keep alive, in bytes.
+	 */
+	public UndoHistory(long memoryLimit) {
+		this.memoryLimit = memoryLimit;
+	}
+	
+	/**
+	 * Adds an edit that was just made, merged into the last one if it continues it.
+	 * The edits that were undone can no longer be redone.
+	 * @param edit Edit the edit.
+	 */
+	public void add(Edit edit) {
+		for (Edit undone : redoEdits) {
+			memorySize -= undone.getMemorySize();
+		}
+		redoEdits.clear();
+	
+		Edit last = undoEdits.peekLast();
+		if (coalescing && last != null) {
+			long size = last.getMemorySize();
+			if (last.absorb(edit)) {
+				memorySize += last.getMemorySize() - size;
+				trim();
+				return;
+			}
+		}
+		undoEdits.addLast(edit);
+		memorySize += edit.getMemorySize();
+		coalescing = true;
+		trim();
+	}
+	
+	/**
+	 * Keeps the next edit from being merged into the last one,
+	 * e.g. when the caret moves between two runs of typing.
+	 */
+	public void endCoalescing() {
+		coalescing = false;
+	}
+	
+	public boolean canUndo() {
+		return !undoEdits.isEmpty();
+	}
+	
+	public boolean canRedo() {
+		return !redoEdits.isEmpty();
+	}
+	
+	/**
+	 * Undoes the last edit, if any.
+	 */
+	public void undo() {
+		Edit edit = undoEdits.pollLast();
+		if (edit != null) {
+			coalescing = false;
+			long size = edit.getMemorySize();
+			edit.undo();
+			redoEdits.addLast(edit);
+			// Not trimmed: what undone edits keep is only let go of once a new edit is added.
+			memorySize += edit.getMemorySize() - size;
+		}
+	}
+	
+	/**
+	 * Redoes the last edit undone, if any.
+	 */
+	public void redo() {
+		Edit edit = redoEdits.pollLast();
+		if (edit != null) {
+			coalescing = false;
+			long size = edit.getMemorySize();
+			edit.redo();
+			undoEdits.addLast(edit);
+			memorySize += edit.getMemorySize() - size;
+		}
+	}
+	
+	/**
+	 * Forgets all edits.
+	 */
+	public void clear() {
+		undoEdits.clear();
+		redoEdits.clear();
+		memorySize = 0;
+		coalescing = false;
+	}
+	
+	public int getUndoCount() {
+		return undoEdits.size();
+	}
+	
+	public int getRedoCount() {
+		return redoEdits.size();
+	}
+	
+	/**
+	 * Returns the estimated memory kept alive by the edits, in bytes.
+	 */
+	public long getMemorySize() {
+		return memorySize;
+	}
+	
+	public long getMemoryLimit() {
+		return memoryLimit;
+	}
+	
+	/**
+	 * Sets the estimated memory the edits may keep alive, forgetting the oldest ones beyond it.
+	 * @param memoryLimit long the limit, in bytes.
+	 */
+	public void setMemoryLimit(long memoryLimit) {
+		this.memoryLimit = memoryLimit;
+		trim();
+	}
+	
+	@Override
+	public String toString() {
+		return "UndoHistory[" + undoEdits.size() + " undo, " + redoEdits.size() + " redo, "
+				+ memorySize + " of " + memoryLimit + " bytes]";
+	}
+	
+	/**
+	 * Forgets the oldest edits until the memory limit is met, but keeps the last one.
+	 */
+	private void trim() {
+		while (memorySize > memoryLimit && undoEdits.size() > 1) {
+			memorySize -= undoEdits.pollFirst().getMemorySize();
+		}
+	}
+}
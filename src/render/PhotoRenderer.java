@@ -0,0 +1,329 @@
+package render;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.WeakHashMap;
+
+import cache.GlyphCache;
+import model.PhotoModel;
+import model.SpatialIndex;
+import model.StrokeStore;
+import model.TextBlock;
+
+/**
+ * Draws a PhotoModel to any Graphics2D: the photo, the white canvas of its flipped side,
+ * and its strokes and text. It needs nothing of Swing, so photos can be rendered to
+ * a BufferedImage in a headless JVM, e.g. on a server. PhotoUI draws through it.
+ *
+ * Only what crosses the clip of the graphics is drawn: the strokes are found through
+ * the spatial index of the StrokeStore, and the text blocks through an index of the
+ * regions they cover, kept between draws along with the lines they were laid out in.
+ * That state is made for one model, a renderer is not shared between models.
+ *
+ * Not thread safe. Its GlyphCache must not be used by another thread either.
+ */
+public class PhotoRenderer {
+	
+	// Color and font annotations are drawn with when the model has none.
+	public static final Color DEFAULT_DRAW_COLOR = Color.black;
+	public static final Font DEFAULT_TEXT_FONT = new Font("Pristina", Font.PLAIN, 16);
+	
+	// Pixels around a segment that its line may cover, including antialiasing.
+	private static final int STROKE_MARGIN = 2;
+	
+	// Pixels kept free between wrapped text and the right border.
+	private static final int TEXT_MARGIN = 10;
+	
+	// Context text is measured in, antialiased as it is drawn.
+	private static final FontRenderContext TEXT_RENDER_CONTEXT = new FontRenderContext(null, true, false);
+	
+	// Shaped lines of text.
+	private final GlyphCache glyphs;
+	
+	// Graphics the strokes are drawn with and its clip, only set while they are drawn.
+	private Graphics2D strokeGraphics;
+	private Rectangle strokeClip;
+	
+	// Draws each segment of the strokes that crosses the clip, one instance for all draws.
+	private final StrokeStore.SegmentVisitor strokeDrawer = new StrokeStore.SegmentVisitor() {
+		public void segment(int x1, int y1, int x2, int y2) {
+			if (strokeClip != null
+					&& (Math.max(x1, x2) + STROKE_MARGIN < strokeClip.x
+					|| Math.min(x1, x2) - STROKE_MARGIN >= strokeClip.x + strokeClip.width
+					|| Math.max(y1, y2) + STROKE_MARGIN < strokeClip.y
+					|| Math.min(y1, y2) - STROKE_MARGIN >= strokeClip.y + strokeClip.height)) {
+				return;
+			}
+			strokeGraphics.drawLine(x1, y1, x2, y2);
+		}
+	};
+	
+	/*
+	 * Text index: the regions covered by the text blocks, so a draw only lays out
+	 * and draws the blocks that cross its clip. Blocks are indexed again when their text
+	 * changes, all of them when the font or the width change.
+	 */
+	private final SpatialIndex textIndex = new SpatialIndex();
+	
+	// Font and width the index was built for.
+	private Font indexedFont;
+	private int indexedWidth;
+	
+	// Block indexed at each position, its version and the region it was indexed with.
+	private final ArrayList<TextBlock> indexedBlocks = new ArrayList<TextBlock>();
+	private int[] indexedVersions = new int[16];
+	private final ArrayList<Rectangle> indexedBounds = new ArrayList<Rectangle>();
+	
+	// Laid out lines of each text block, made again when its text, the font or the width changes.
+	private final WeakHashMap<TextBlock, TextBlockLayout> textLayouts = new WeakHashMap<TextBlock, TextBlockLayout>();
+	
+	// Blocks found by the last query of the index.
+	private int[] foundBlocks = new int[16];
+	private int foundCount;
+	
+	private final SpatialIndex.ItemVisitor blockCollector = new SpatialIndex.ItemVisitor() {
+		public void visit(int id) {
+			if (foundCount == foundBlocks.length) {
+				foundBlocks = Arrays.copyOf(foundBlocks, 2 * foundCount);
+			}
+			foundBlocks[foundCount++] = id;
+		}
+	};
+	
+	/**
+	 * Constructor.
+	 * @param glyphs GlyphCache the cache text is shaped with, only used by the thread of this renderer.
+	 */
+	public PhotoRenderer(GlyphCache glyphs) {
+		this.glyphs = glyphs;
+	}
+	
+	/**
+	 * Returns the photo of model with its annotations drawn over it, as an opaque RGB image.
+	 * @param model PhotoModel the model, with its image set.
+	 * @return BufferedImage the image, the size of the photo.
+	 */
+	public BufferedImage renderAnnotated(PhotoModel model) {
+		BufferedImage rendered = new BufferedImage(model.getImageWidth(), model.getImageHeight(),
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2 = rendered.createGraphics();
+		try {
+			drawImage(g2, model);
+			drawAnnotations(g2, model, model.getImageWidth());
+		} finally {
+			g2.dispose();
+		}
+		return rendered;
+	}
+	
+	/**
+	 * Draws the strokes and then the text of model over what g2 already holds.
+	 * @param g2 Graphics2D the graphics, in the coordinates of the photo.
+	 * @param model PhotoModel the model.
+	 * @param width int the width text is wrapped in, the width of the photo as shown.
+	 */
+	public void drawAnnotations(Graphics2D g2, PhotoModel model, int width) {
+		setUpGraphics(g2, model);
+		drawStrokes(g2, model);
+		drawText(g2, model, width);
+	}
+	
+	/**
+	 * Sets the color, font and rendering hints the strokes and text are drawn with.
+	 * @param g2 Graphics2D the graphics.
+	 * @param model PhotoModel the model.
+	 */
+	public void setUpGraphics(Graphics2D g2, PhotoModel model) {
+		g2.setPaint(getDrawColor(model));
+		g2.setFont(getTextFont(model));
+		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+	}
+	
+	/**
+	 * Draws the photo image of model, scaled up if it is a low resolution placeholder,
+	 * or gray while it is still loading.
+	 * @param g2 Graphics2D the graphics.
+	 * @param model PhotoModel the model.
+	 */
+	public void drawImage(Graphics2D g2, PhotoModel model) {
+		BufferedImage image = model.getImage();
+		int imageWidth = model.getImageWidth();
+		int imageHeight = model.getImageHeight();
+	
+		if (image == null) {
+			// Still loading, nothing to show yet.
+			g2.setColor(Color.gray);
+			g2.fillRect(0, 0, imageWidth, imageHeight);
+		} else if (image.getWidth() != imageWidth || image.getHeight() != imageHeight) {
+			// Low resolution placeholder, scaled up to the size of the photo.
+			g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g2.drawImage(image, 0, 0, imageWidth, imageHeight, null);
+		} else {
+			g2.drawImage(image, 0, 0, null);
+		}
+	}
+	
+	/**
+	 * Draws the white canvas strokes and text are drawn on, in the clip.
+	 * @param g2 Graphics2D the graphics.
+	 * @param model PhotoModel the model.
+	 */
+	public void drawCanvas(Graphics2D g2, PhotoModel model) {
+		Rectangle area = new Rectangle(0, 0, model.getImageWidth(), model.getImageHeight());
+		Rectangle clip = g2.getClipBounds();
+		if (clip != null) {
+			area = area.intersection(clip);
+		}
+		g2.setColor(Color.white);
+		g2.fillRect(area.x, area.y, area.width, area.height);
+	}
+	
+	/**
+	 * Draws the strokes, only the runs of segments that cross the clip.
+	 * @param g2 Graphics2D the graphics, set up with setUpGraphics.
+	 * @param model PhotoModel the model.
+	 */
+	public void drawStrokes(Graphics2D g2, PhotoModel model) {
+		strokeGraphics = g2;
+		strokeClip = g2.getClipBounds();
+		if (strokeClip != null) {
+			Rectangle region = new Rectangle(strokeClip);
+			region.grow(STROKE_MARGIN, STROKE_MARGIN);
+			model.getStrokes().visitSegmentsIn(region, strokeDrawer);
+		} else {
+			model.getStrokes().visitSegments(strokeDrawer);
+		}
+		strokeGraphics = null;
+		strokeClip = null;
+	}
+	
+	/**
+	 * Draws the segments of the strokes from point firstPoint on, e.g. the segments
+	 * added since the last draw onto an image that keeps the others.
+	 * @param g2 Graphics2D the graphics, set up with setUpGraphics.
+	 * @param model PhotoModel the model.
+	 * @param firstPoint int the index of the first point whose segments are drawn.
+	 */
+	public void drawStrokesFrom(Graphics2D g2, PhotoModel model, int firstPoint) {
+		strokeGraphics = g2;
+		model.getStrokes().visitSegmentsFrom(firstPoint, strokeDrawer);
+		strokeGraphics = null;
+	}
+	
+	/**
+	 * Draws the text blocks that cross the clip of g2, in the order they were written.
+	 * @param g2 Graphics2D the graphics, set up with setUpGraphics.
+	 * @param model PhotoModel the model.
+	 * @param width int the width text is wrapped in.
+	 */
+	public void drawText(Graphics2D g2, PhotoModel model, int width) {
+		updateTextIndex(model, width);
+	
+		foundCount = 0;
+		Rectangle clip = g2.getClipBounds();
+		textIndex.query(clip != null ? clip : new Rectangle(0, 0, width, model.getImageHeight()), blockCollector);
+		Arrays.sort(foundBlocks, 0, foundCount);
+		for (int i = 0; i < foundCount; i++) {
+			TextBlock block = indexedBlocks.get(foundBlocks[i]);
+			Point anchor = block.getAnchor();
+			getTextLayout(block, model, width).draw(g2, anchor.x, anchor.y, glyphs);
+		}
+	}
+	
+	/**
+	 * Returns the region covered by a text block: from its point to the right border,
+	 * down to one line below its last line, for a character that wraps or a line that is deleted.
+	 * @param model PhotoModel the model.
+	 * @param width int the width text is wrapped in.
+	 * @param block int the index of the text block, which must exist.
+	 * @return Rectangle the region of the text block.
+	 */
+	public Rectangle getTextBounds(PhotoModel model, int width, int block) {
+		return computeTextBounds(model.getTextBlocks().get(block), model, width);
+	}
+	
+	/**
+	 * Brings the text index up to date with the text blocks of the model.
+	 */
+	private void updateTextIndex(PhotoModel model, int width) {
+		List<TextBlock> blocks = model.getTextBlocks();
+		Font font = getTextFont(model);
+		boolean all = !font.equals(indexedFont) || width != indexedWidth;
+	
+		int count = Math.max(blocks.size(), indexedBlocks.size());
+		if (indexedVersions.length < count) {
+			indexedVersions = Arrays.copyOf(indexedVersions, Math.max(count, 2 * indexedVersions.length));
+		}
+		for (int i = 0; i < count; i++) {
+			TextBlock block = i < blocks.size() ? blocks.get(i) : null;
+			if (i == indexedBlocks.size()) {
+				indexedBlocks.add(null);
+				indexedBounds.add(null);
+			}
+			if (!all && block == indexedBlocks.get(i) && (block == null || block.getVersion() == indexedVersions[i])) {
+				continue;
+			}
+			if (indexedBounds.get(i) != null) {
+				textIndex.remove(i, indexedBounds.get(i));
+			}
+			Rectangle bounds = null;
+			if (block != null && block.length() != 0) {
+				bounds = computeTextBounds(block, model, width);
+				textIndex.add(i, bounds);
+			}
+			indexedBlocks.set(i, block);
+			indexedVersions[i] = block != null ? block.getVersion() : 0;
+			indexedBounds.set(i, bounds);
+		}
+	
+		// Blocks that are gone from the end.
+		while (indexedBlocks.size() > blocks.size()) {
+			indexedBlocks.remove(indexedBlocks.size() - 1);
+			indexedBounds.remove(indexedBounds.size() - 1);
+		}
+		indexedFont = font;
+		indexedWidth = width;
+	}
+	
+	/**
+	 * Returns the lines of block, laid out again only if its text, the font
+	 * or the distance from its point to the border changed.
+	 */
+	private TextBlockLayout getTextLayout(TextBlock block, PhotoModel model, int width) {
+		Font font = getTextFont(model);
+		float lineWidth = Math.max(1, width - block.getAnchor().x - TEXT_MARGIN);
+		TextBlockLayout layout = textLayouts.get(block);
+		if (layout == null || !layout.isValidFor(block, font, lineWidth)) {
+			layout = TextBlockLayout.create(block, font, lineWidth, TEXT_RENDER_CONTEXT, glyphs);
+			textLayouts.put(block, layout);
+		}
+		return layout;
+	}
+	
+	/**
+	 * Returns the region covered by the lines of block and one more line.
+	 */
+	private Rectangle computeTextBounds(TextBlock block, PhotoModel model, int width) {
+		TextBlockLayout layout = getTextLayout(block, model, width);
+		Point point = block.getAnchor();
+		return new Rectangle(point.x, point.y, Math.max(1, width - point.x),
+				(int) Math.ceil(layout.getHeight() + layout.getLineHeight()));
+	}
+	
+	private static Color getDrawColor(PhotoModel model) {
+		return model.getDrawColor() != null ? model.getDrawColor() : DEFAULT_DRAW_COLOR;
+	}
+	
+	private static Font getTextFont(PhotoModel model) {
+		return model.getTextFont() != null ? model.getTextFont() : DEFAULT_TEXT_FONT;
+	}
+}
@@ -0,0 +1,157 @@
+package render;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineBreakMeasurer;
+import java.awt.font.LineMetrics;
+import java.awt.font.TextAttribute;
+import java.awt.font.TextLayout;
+import java.text.AttributedString;
+import java.util.ArrayList;
+import java.util.List;
+
+import cache.GlyphCache;
+import model.TextBlock;
+
+/**
+ * Lines of a text block, wrapped on word boundaries to the width available to it.
+ *
+ * The text is broken into lines once with a LineBreakMeasurer, in time linear in its
+ * length. A layout stays valid as long as the font, the text and the width it was
+ * made for do not change, so it can be kept between paints.
+ * Line breaks typed in the text start a new line as well.
+ *
+ * Only the text of the lines is kept. The lines are shaped through a GlyphCache,
+ * so lines that did not change when the text is laid out again are not shaped again.
+ */
+class TextBlockLayout {
+	
+	// Font, width and version of the text the layout was made for.
+	private final Font font;
+	private final float width;
+	private final int version;
+	
+	// Context the text is measured and drawn in.
+	private final FontRenderContext frc;
+	
+	// Text of the lines, null for an empty line, with their ascent and the height below their baseline.
+	private final String[] lines;
+	private final float[] ascents;
+	private final float[] descents;
+	
+	// Height of all lines, and of a single line of the font.
+	private final float height;
+	private final float lineHeight;
+	
+	private TextBlockLayout(Font font, float width, int version, FontRenderContext frc, 
+			String[] lines, float[] ascents, float[] descents, float lineHeight) {
+		this.font = font;
+		this.width = width;
+		this.version = version;
+		this.frc = frc;
+		this.lines = lines;
+		this.ascents = ascents;
+		this.descents = descents;
+		this.lineHeight = lineHeight;
+		
+		float height = 0;
+		for (int i = 0; i < lines.length; i++) {
+			height += ascents[i] + descents[i];
+		}
+		this.height = height;
+	}
+	
+	/**
+	 * Lays out block.
+	 * @param block TextBlock the text block.
+	 * @param font Font the font of the text.
+	 * @param width float the width lines are wrapped at.
+	 * @param frc FontRenderContext the context the text is measured in.
+	 * @param glyphs GlyphCache the cache the lines are shaped through.
+	 * @return TextBlockLayout the layout.
+	 */
+	static TextBlockLayout create(TextBlock block, Font font, float width, FontRenderContext frc, GlyphCache glyphs) {
+		String text = block.getText();
+		LineMetrics metrics = font.getLineMetrics("", frc);
+		List<String> lines = new ArrayList<String>();
+		
+		// Every typed line break starts a paragraph, wrapped on its own.
+		int start = 0;
+		while (start <= text.length()) {
+			int end = text.indexOf('\n', start);
+			if (end < 0) {
+				end = text.length();
+			}
+			if (end == start) {
+				lines.add(null);
+			} else {
+				AttributedString paragraph = new AttributedString(text.substring(start, end));
+				paragraph.addAttribute(TextAttribute.FONT, font);
+				LineBreakMeasurer measurer = new LineBreakMeasurer(paragraph.getIterator(), frc);
+				while (measurer.getPosition() < end - start) {
+					int lineStart = measurer.getPosition();
+					int lineEnd = measurer.nextOffset(width);
+					measurer.setPosition(lineEnd);
+					lines.add(text.substring(start + lineStart, start + lineEnd));
+				}
+			}
+			start = end + 1;
+		}
+		
+		float[] ascents = new float[lines.size()];
+		float[] descents = new float[lines.size()];
+		for (int i = 0; i < lines.size(); i++) {
+			if (lines.get(i) == null) {
+				ascents[i] = metrics.getAscent();
+				descents[i] = metrics.getDescent() + metrics.getLeading();
+			} else {
+				TextLayout line = glyphs.getLayout(lines.get(i), font, frc);
+				ascents[i] = line.getAscent();
+				descents[i] = line.getDescent() + line.getLeading();
+			}
+		}
+		return new TextBlockLayout(font, width, block.getVersion(), frc, lines.toArray(new String[lines.size()]), 
+				ascents, descents, metrics.getAscent() + metrics.getDescent() + metrics.getLeading());
+	}
+	
+	/**
+	 * Returns true iff this layout is still valid for block in font, wrapped at width.
+	 */
+	boolean isValidFor(TextBlock block, Font font, float width) {
+		return block.getVersion() == version && this.font.equals(font) && this.width == width;
+	}
+	
+	/**
+	 * Draws the lines with their top left corner at (x, y).
+	 * @param g2 Graphics2D the graphics to draw with.
+	 * @param glyphs GlyphCache the cache the lines are shaped through.
+	 */
+	void draw(Graphics2D g2, float x, float y, GlyphCache glyphs) {
+		for (int i = 0; i < lines.length; i++) {
+			y += ascents[i];
+			if (lines[i] != null) {
+				glyphs.getLayout(lines[i], font, frc).draw(g2, x, y);
+			}
+			y += descents[i];
+		}
+	}
+	
+	int getLineCount() {
+		return lines.length;
+	}
+	
+	/**
+	 * Returns the height of all lines.
+	 */
+	float getHeight() {
+		return height;
+	}
+	
+	/**
+	 * Returns the height of a single line of the font.
+	 */
+	float getLineHeight() {
+		return lineHeight;
+	}
+}
@@ -0,0 +1,694 @@
+package storage;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import model.StrokeStore;
+import model.TextBlock;
+
+/**
+ * Binary sidecar file holding the annotations of a photo, next to the photo.
+ *
+ * Strokes are stored as the difference of each point to the one before it,
+ * zigzag encoded so that small negative differences stay small, and written as varints:
+ * a point of a stroke drawn with the mouse mostly takes two bytes.
+ * Font names are interned in a string table and colors and fonts in a style table,
+ * that the header refers to by index.
+ *
+ * File: a header of magic, version, point count, stroke count, text block count,
+ * epoch of the journal the file was compacted from, body length and the bounds of
+ * the points, which readHeader reads alone to know what a photo has, then the body:
+ * the string table (count, then UTF-8 strings),
+ * the style table (count, then a color as ARGB or a font as name, style and size),
+ * the styles of the strokes and of the text (index plus one, 0 if not set),
+ * the strokes (count, then the number of points and the points of each),
+ * and the text blocks (count, then the anchor and the UTF-8 text of each).
+ * All counts and lengths in the body are varints.
+ *
+ * Files are read and written through a FileChannel and a direct buffer, a stroke is never
+ * held as objects. A file is written next to the sidecar and moved over it once complete.
+ * The strokes can be read a few at a time, to show them while the rest is still read.
+ */
+public class AnnotationFile {
+	
+	private static final int MAGIC = 0x50414E4E;	// "PANN"
+	private static final int VERSION = 2;
+	
+	private static final int HEADER_SIZE = 48;
+	
+	/*
+	 * Offsets of the fields in the header.
+	 */
+	private static final int H_MAGIC = 0;
+	private static final int H_VERSION = 4;
+	private static final int H_POINT_COUNT = 8;
+	private static final int H_STROKE_COUNT = 12;
+	private static final int H_TEXT_BLOCK_COUNT = 16;
+	private static final int H_EPOCH = 20;
+	private static final int H_BODY_LENGTH = 24;
+	private static final int H_MIN_X = 32;
+	private static final int H_MIN_Y = 36;
+	private static final int H_MAX_X = 40;
+	private static final int H_MAX_Y = 44;
+	
+	/*
+	 * Kinds of entries of the style table.
+	 */
+	private static final int STYLE_COLOR = 1;
+	private static final int STYLE_FONT = 2;
+	
+	// Extension added to the name of the photo.
+	public static final String EXTENSION = ".ann";
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	// Longest varint, of an int.
+	private static final int MAX_VARINT = 5;
+	
+	// Points and anchors further from the origin than this are taken for corrupt data.
+	static final int MAX_COORDINATE = 1 << 24;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/**
+	 * Receiver of the strokes of a file as they are read, a few at a time.
+	 */
+	public interface StrokeReceiver {
+		/**
+		 * Called on the reading thread with the next strokes read, whole strokes only.
+		 * @param strokes StrokeStore the strokes, in a store of their own.
+		 * @return boolean false to stop reading.
+		 */
+		boolean strokesRead(StrokeStore strokes);
+	}
+	
+	private AnnotationFile() {}
+	
+	/**
+	 * Returns the sidecar file of photo.
+	 * @param photo File the photo.
+	 * @return File the file its annotations are kept in.
+	 */
+	public static File getSidecar(File photo) {
+		return new File(photo.getPath() + EXTENSION);
+	}
+	
+	/**
+	 * Checks that a point read from source is within MAX_COORDINATE of the origin.
+	 * @throws IOException if it is not.
+	 */
+	static void checkCoordinates(int x, int y, Object source) throws IOException {
+		if (Math.abs((long) x) > MAX_COORDINATE || Math.abs((long) y) > MAX_COORDINATE) {
+			throw new IOException("Invalid point (" + x + ", " + y + ") in " + source);
+		}
+	}
+	
+	/**
+	 * Writes annotations to file, replacing it once it is complete.
+	 * @param file File the file.
+	 * @param annotations Annotations the annotations.
+	 * @throws IOException if the file can not be written.
+	 */
+	public static void write(File file, Annotations annotations) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		FileChannel channel = new RandomAccessFile(temp, "rw").getChannel();
+		try {
+			channel.truncate(0);
+			Output out = new Output(channel, HEADER_SIZE);
+			ByteBuffer header = writeBody(out, annotations);
+			header.putLong(H_BODY_LENGTH, out.finish() - HEADER_SIZE);
+			while (header.hasRemaining()) {
+				channel.write(header, header.position());
+			}
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	/**
+	 * Encodes annotations in memory, as they are written to a file. Encoding takes the
+	 * annotations as they are at the time, the bytes can then be written on another thread.
+	 * @param annotations Annotations the annotations.
+	 * @return ByteBuffer the content of the file, from its position to its limit.
+	 */
+	public static ByteBuffer encode(Annotations annotations) {
+		try {
+			Output out = new Output(null, HEADER_SIZE);
+			ByteBuffer header = writeBody(out, annotations);
+			ByteBuffer encoded = out.toBuffer();
+			header.putLong(H_BODY_LENGTH, encoded.limit() - HEADER_SIZE);
+			encoded.put(header);
+			encoded.rewind();
+			return encoded;
+		} catch (IOException e) {
+			// Writing to memory does not fail.
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Writes annotations encoded with encode to file, replacing it once it is complete.
+	 * @param file File the file.
+	 * @param encoded ByteBuffer the encoded annotations, from its position to its limit.
+	 * @throws IOException if the file can not be written.
+	 */
+	public static void write(File file, ByteBuffer encoded) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		FileChannel channel = new RandomAccessFile(temp, "rw").getChannel();
+		try {
+			channel.truncate(0);
+			ByteBuffer content = encoded.duplicate();
+			while (content.hasRemaining()) {
+				channel.write(content);
+			}
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	/**
+	 * Writes the body of the file to out.
+	 * @return ByteBuffer the header, but for the length of the body.
+	 */
+	private static ByteBuffer writeBody(Output out, Annotations annotations) throws IOException {
+		StrokeStore strokes = annotations.getStrokes();
+		// Empty blocks are kept too, so that blocks keep their index.
+		List<TextBlock> blocks = annotations.getTextBlocks();
+	
+		// Strings and styles.
+		List<String> strings = new ArrayList<String>();
+		Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+		int colorStyle = 0;
+		int fontStyle = 0;
+		Font font = annotations.getTextFont();
+		if (font != null) {
+			intern(font.getName(), strings, stringIndex);
+		}
+		out.putVarint(strings.size());
+		for (String s : strings) {
+			out.putString(s);
+		}
+		int styleCount = (annotations.getDrawColor() != null ? 1 : 0) + (font != null ? 1 : 0);
+		out.putVarint(styleCount);
+		if (annotations.getDrawColor() != null) {
+			out.putByte(STYLE_COLOR);
+			out.putInt(annotations.getDrawColor().getRGB());
+			colorStyle = 1;
+		}
+		if (font != null) {
+			out.putByte(STYLE_FONT);
+			out.putVarint(stringIndex.get(font.getName()));
+			out.putVarint(font.getStyle());
+			out.putVarint(font.getSize());
+			fontStyle = colorStyle + 1;
+		}
+		out.putVarint(colorStyle);
+		out.putVarint(fontStyle);
+	
+		// Strokes, each point relative to the one before.
+		out.putVarint(strokes.getStrokeCount());
+		int x = 0;
+		int y = 0;
+		int minX = Integer.MAX_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		for (int stroke = 0; stroke < strokes.getStrokeCount(); stroke++) {
+			int start = strokes.getStrokeStart(stroke);
+			int end = strokes.getStrokeEnd(stroke);
+			out.putVarint(end - start);
+			for (int point = start; point < end; point++) {
+				int px = strokes.getX(point);
+				int py = strokes.getY(point);
+				out.ensure(2 * MAX_VARINT);
+				out.putZigzag(px - x);
+				out.putZigzag(py - y);
+				x = px;
+				y = py;
+				minX = Math.min(minX, px);
+				minY = Math.min(minY, py);
+				maxX = Math.max(maxX, px);
+				maxY = Math.max(maxY, py);
+			}
+		}
+	
+		// Text blocks.
+		out.putVarint(blocks.size());
+		for (TextBlock block : blocks) {
+			Point anchor = block.getAnchor();
+			out.putZigzag(anchor.x);
+			out.putZigzag(anchor.y);
+			out.putString(block.getText());
+		}
+		
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(H_MAGIC, MAGIC);
+		header.putInt(H_VERSION, VERSION);
+		header.putInt(H_POINT_COUNT, strokes.getPointCount());
+		header.putInt(H_STROKE_COUNT, strokes.getStrokeCount());
+		header.putInt(H_TEXT_BLOCK_COUNT, blocks.size());
+		header.putInt(H_EPOCH, annotations.getEpoch());
+		header.putInt(H_MIN_X, minX);
+		header.putInt(H_MIN_Y, minY);
+		header.putInt(H_MAX_X, maxX);
+		header.putInt(H_MAX_Y, maxY);
+		return header;
+	}
+	
+	/**
+	 * Reads the header of file alone, which tells what annotations it has without reading them.
+	 * @param file File the file.
+	 * @return AnnotationHeader the header.
+	 * @throws IOException if the file can not be read or is invalid.
+	 */
+	public static AnnotationHeader readHeader(File file) throws IOException {
+		FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// Until the header is read or the file ends.
+			}
+			buffer.flip();
+			return parseHeader(buffer, channel.size(), file);
+		} finally {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Checks the header at the position of buffer, and returns it.
+	 */
+	private static AnnotationHeader parseHeader(ByteBuffer buffer, long fileLength, File file) throws IOException {
+		int start = buffer.position();
+		if (buffer.remaining() < HEADER_SIZE || buffer.getInt(start + H_MAGIC) != MAGIC 
+				|| buffer.getInt(start + H_VERSION) != VERSION
+				|| HEADER_SIZE + buffer.getLong(start + H_BODY_LENGTH) != fileLength) {
+			throw new IOException("Invalid annotations in " + file);
+		}
+		int pointCount = buffer.getInt(start + H_POINT_COUNT);
+		int strokeCount = buffer.getInt(start + H_STROKE_COUNT);
+		int textBlockCount = buffer.getInt(start + H_TEXT_BLOCK_COUNT);
+		if (pointCount < 0 || strokeCount < 0 || textBlockCount < 0) {
+			throw new IOException("Invalid annotations in " + file);
+		}
+		Rectangle bounds = null;
+		if (pointCount > 0) {
+			int minX = buffer.getInt(start + H_MIN_X);
+			int minY = buffer.getInt(start + H_MIN_Y);
+			bounds = new Rectangle(minX, minY, 
+					buffer.getInt(start + H_MAX_X) - minX + 1, buffer.getInt(start + H_MAX_Y) - minY + 1);
+		}
+		return new AnnotationHeader(pointCount, strokeCount, textBlockCount, 
+				buffer.getInt(start + H_EPOCH), bounds);
+	}
+	
+	/**
+	 * Reads the annotations in file.
+	 * @param file File the file.
+	 * @return Annotations the annotations.
+	 * @throws IOException if the file can not be read or is invalid.
+	 */
+	public static Annotations read(File file) throws IOException {
+		return read(file, 0, null);
+	}
+	
+	/**
+	 * Reads the annotations in file, and hands its strokes to receiver as they are read,
+	 * in stores of whole strokes of about chunkPoints points.
+	 * @param file File the file.
+	 * @param chunkPoints int the number of points handed at once, a stroke is never split.
+	 * @param receiver StrokeReceiver the receiver of the strokes, null to keep them 
+	 * in the annotations read.
+	 * @return Annotations the annotations, without strokes if there is a receiver,
+	 * null if the receiver stopped the reading.
+	 * @throws IOException if the file can not be read or is invalid.
+	 */
+	public static Annotations read(File file, int chunkPoints, StrokeReceiver receiver) throws IOException {
+		FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+		try {
+			Input in = new Input(channel);
+			in.ensureUpTo(HEADER_SIZE);
+			ByteBuffer buffer = in.buffer;
+			int start = buffer.position();
+			AnnotationHeader header = parseHeader(buffer, channel.size(), file);
+			int pointCount = header.getPointCount();
+			int strokeCount = header.getStrokeCount();
+			int textBlockCount = header.getTextBlockCount();
+			buffer.position(start + HEADER_SIZE);
+	
+			// Strings and styles.
+			String[] strings = new String[in.getCount(channel.size())];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = in.getString();
+			}
+			Object[] styles = new Object[in.getCount(channel.size())];
+			for (int i = 0; i < styles.length; i++) {
+				int kind = in.getByte();
+				if (kind == STYLE_COLOR) {
+					styles[i] = new Color(in.getInt(), true);
+				} else if (kind == STYLE_FONT) {
+					int name = in.getVarint();
+					if (name < 0 || name >= strings.length) {
+						throw new IOException("Invalid font name in " + file);
+					}
+					int style = in.getVarint();
+					styles[i] = new Font(strings[name], style, in.getVarint());
+				} else {
+					throw new IOException("Invalid style in " + file);
+				}
+			}
+			Color color = getStyle(styles, in.getVarint(), Color.class, file);
+			Font font = getStyle(styles, in.getVarint(), Font.class, file);
+	
+			// Strokes.
+			if (in.getVarint() != strokeCount) {
+				throw new IOException("Invalid stroke count in " + file);
+			}
+			StrokeStore strokes = new StrokeStore();
+			int x = 0;
+			int y = 0;
+			int read = 0;
+			for (int stroke = 0; stroke < strokeCount; stroke++) {
+				int points = in.getCount(pointCount - read);
+				for (int point = 0; point < points; point++) {
+					in.ensureUpTo(2 * MAX_VARINT);
+					x += in.getZigzag();
+					y += in.getZigzag();
+					checkCoordinates(x, y, file);
+					strokes.addPoint(x, y);
+				}
+				strokes.endStroke();
+				read += points;
+				if (receiver != null && strokes.getPointCount() >= chunkPoints) {
+					if (!receiver.strokesRead(strokes)) {
+						return null;
+					}
+					strokes = new StrokeStore();
+				}
+			}
+			if (read != pointCount) {
+				throw new IOException("Invalid point count in " + file);
+			}
+			if (receiver != null) {
+				if (strokes.getStrokeCount() > 0 && !receiver.strokesRead(strokes)) {
+					return null;
+				}
+				strokes = new StrokeStore();
+			}
+	
+			// Text blocks.
+			if (in.getVarint() != textBlockCount) {
+				throw new IOException("Invalid text block count in " + file);
+			}
+			List<TextBlock> blocks = new ArrayList<TextBlock>(textBlockCount);
+			for (int i = 0; i < textBlockCount; i++) {
+				int anchorX = in.getZigzag();
+				int anchorY = in.getZigzag();
+				checkCoordinates(anchorX, anchorY, file);
+				TextBlock block = new TextBlock(new Point(anchorX, anchorY));
+				block.insert(0, in.getString());
+				blocks.add(block);
+			}
+			return new Annotations(strokes, blocks, color, font, header.getEpoch());
+		} finally {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Adds s to the string table, if it is not in it yet.
+	 */
+	private static void intern(String s, List<String> strings, Map<String, Integer> index) {
+		if (!index.containsKey(s)) {
+			index.put(s, strings.size());
+			strings.add(s);
+		}
+	}
+	
+	/**
+	 * Returns the style at index minus one of the table, null for index 0.
+	 */
+	private static <T> T getStyle(Object[] styles, int index, Class<T> type, File file) throws IOException {
+		if (index == 0) {
+			return null;
+		}
+		if (index < 0 || index > styles.length || !type.isInstance(styles[index - 1])) {
+			throw new IOException("Invalid style reference in " + file);
+		}
+		return type.cast(styles[index - 1]);
+	}
+	
+	/**
+	 * Writes through a direct buffer, flushed to the channel when full,
+	 * or to a heap buffer that grows when there is no channel.
+	 */
+	static class Output {
+		private final FileChannel channel;
+		private ByteBuffer buffer;
+		private long position;
+	
+		/**
+		 * Constructor.
+		 * @param channel FileChannel the channel written to, null to write to memory.
+		 * @param position long the position of the first byte, skipped in memory.
+		 */
+		Output(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+			if (channel != null) {
+				buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			} else {
+				buffer = ByteBuffer.allocate(BUFFER_SIZE);
+				buffer.position((int) position);
+			}
+		}
+	
+		/**
+		 * Makes room for count bytes in the buffer, count is at most BUFFER_SIZE.
+		 */
+		void ensure(int count) throws IOException {
+			if (buffer.remaining() < count) {
+				if (channel != null) {
+					flush();
+				} else {
+					buffer.flip();
+					buffer = ByteBuffer.allocate(2 * buffer.capacity()).put(buffer);
+				}
+			}
+		}
+	
+		/**
+		 * Forgets what was written to memory.
+		 */
+		void clear() {
+			buffer.clear();
+		}
+	
+		/**
+		 * Returns what was written to memory, from 0 to the last byte.
+		 */
+		ByteBuffer toBuffer() {
+			ByteBuffer written = buffer.duplicate();
+			written.flip();
+			return written;
+		}
+	
+		void putByte(int b) throws IOException {
+			ensure(1);
+			buffer.put((byte) b);
+		}
+	
+		void putInt(int i) throws IOException {
+			ensure(4);
+			buffer.putInt(i);
+		}
+	
+		/**
+		 * Writes i, taken as unsigned, 7 bits a byte with the high bit set on all but the last byte.
+		 */
+		void putVarint(int i) throws IOException {
+			ensure(MAX_VARINT);
+			while ((i & ~0x7F) != 0) {
+				buffer.put((byte) ((i & 0x7F) | 0x80));
+				i >>>= 7;
+			}
+			buffer.put((byte) i);
+		}
+	
+		/**
+		 * Writes i so that numbers close to 0 take few bytes whatever their sign.
+		 */
+		void putZigzag(int i) throws IOException {
+			putVarint((i << 1) ^ (i >> 31));
+		}
+	
+		/**
+		 * Writes the length of s in UTF-8, then its bytes.
+		 */
+		void putString(String s) throws IOException {
+			byte[] bytes = s.getBytes(UTF8);
+			putVarint(bytes.length);
+			int written = 0;
+			while (written < bytes.length) {
+				ensure(1);
+				int n = Math.min(buffer.remaining(), bytes.length - written);
+				buffer.put(bytes, written, n);
+				written += n;
+			}
+		}
+	
+		/**
+		 * Writes what is left in the buffer.
+		 * @return long the position after the last byte.
+		 */
+		long finish() throws IOException {
+			flush();
+			return position;
+		}
+	
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			buffer.clear();
+		}
+	}
+	
+	/**
+	 * Reads through a direct buffer, refilled from the channel when empty,
+	 * or from bytes in memory.
+	 */
+	static class Input {
+		private final FileChannel channel;
+		final ByteBuffer buffer;
+		private long position;
+	
+		/**
+		 * Constructor.
+		 * @param channel FileChannel the channel read from its start.
+		 */
+		Input(FileChannel channel) {
+			this.channel = channel;
+			buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			buffer.flip();
+		}
+	
+		/**
+		 * Constructor.
+		 * @param bytes ByteBuffer the bytes read, from its position to its limit.
+		 */
+		Input(ByteBuffer bytes) {
+			channel = null;
+			buffer = bytes;
+		}
+	
+		/**
+		 * Makes count bytes available in the buffer, count is at most its size.
+		 * @throws EOFException if the channel ends before.
+		 */
+		void ensure(int count) throws IOException {
+			if (ensureUpTo(count) < count) {
+				throw new EOFException();
+			}
+		}
+	
+		/**
+		 * Makes up to count bytes available in the buffer, fewer only at the end of the channel.
+		 * @return int the number of bytes available.
+		 */
+		int ensureUpTo(int count) throws IOException {
+			if (buffer.remaining() < count && channel != null) {
+				buffer.compact();
+				while (buffer.position() < count) {
+					int n = channel.read(buffer, position);
+					if (n < 0) {
+						break;
+					}
+					position += n;
+				}
+				buffer.flip();
+			}
+			return buffer.remaining();
+		}
+	
+		int getByte() throws IOException {
+			ensure(1);
+			return buffer.get() & 0xFF;
+		}
+	
+		int getInt() throws IOException {
+			ensure(4);
+			return buffer.getInt();
+		}
+	
+		int getVarint() throws IOException {
+			int i = 0;
+			for (int shift = 0; shift < 7 * MAX_VARINT; shift += 7) {
+				if (!buffer.hasRemaining()) {
+					ensure(1);
+				}
+				int b = buffer.get();
+				i |= (b & 0x7F) << shift;
+				if (b >= 0) {
+					return i;
+				}
+			}
+			throw new IOException("Invalid varint");
+		}
+	
+		int getZigzag() throws IOException {
+			int i = getVarint();
+			return (i >>> 1) ^ -(i & 1);
+		}
+	
+		/**
+		 * Reads a count, which can not be more than max.
+		 */
+		int getCount(long max) throws IOException {
+			int count = getVarint();
+			if (count < 0 || count > max) {
+				throw new IOException("Invalid count " + count);
+			}
+			return count;
+		}
+	
+		/**
+		 * Reads bytes.length bytes into bytes.
+		 */
+		void getBytes(byte[] bytes) throws IOException {
+			int read = 0;
+			while (read < bytes.length) {
+				ensure(1);
+				int n = Math.min(buffer.remaining(), bytes.length - read);
+				buffer.get(bytes, read, n);
+				read += n;
+			}
+		}
+	
+		String getString() throws IOException {
+			byte[] bytes = new byte[getCount(channel != null ? channel.size() : buffer.remaining())];
+			getBytes(bytes);
+			return new String(bytes, UTF8);
+		}
+	}
+}
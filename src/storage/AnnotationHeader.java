@@ -0,0 +1,67 @@
+package storage;
+
+import java.awt.Rectangle;
+
+/**
+ * Information on the annotations of a photo that can be read from the header
+ * of its sidecar AnnotationFile, without reading any stroke or text.
+ */
+public class AnnotationHeader {
+	
+	private final int pointCount;
+	private final int strokeCount;
+	private final int textBlockCount;
+	
+	// Epoch of the journal whose records apply on top of the file.
+	private final int epoch;
+	
+	// Bounding box of the points, null if there are none.
+	private final Rectangle bounds;
+	
+	/**
+	 * Constructor.
+	 */
+	AnnotationHeader(int pointCount, int strokeCount, int textBlockCount, int epoch, Rectangle bounds) {
+		this.pointCount = pointCount;
+		this.strokeCount = strokeCount;
+		this.textBlockCount = textBlockCount;
+		this.epoch = epoch;
+		this.bounds = bounds;
+	}
+	
+	public int getPointCount() {
+		return pointCount;
+	}
+	
+	public int getStrokeCount() {
+		return strokeCount;
+	}
+	
+	public int getTextBlockCount() {
+		return textBlockCount;
+	}
+	
+	public int getEpoch() {
+		return epoch;
+	}
+	
+	/**
+	 * Returns the bounding box of the points, null if there are none.
+	 */
+	public Rectangle getBounds() {
+		return bounds == null ? null : new Rectangle(bounds);
+	}
+	
+	/**
+	 * Returns true iff the file has neither strokes nor text blocks.
+	 */
+	public boolean isEmpty() {
+		return pointCount == 0 && textBlockCount == 0;
+	}
+	
+	@Override
+	public String toString() {
+		return "AnnotationHeader[" + strokeCount + " strokes, " + pointCount + " points, "
+				+ textBlockCount + " text blocks, epoch " + epoch + ", bounds " + bounds + "]";
+	}
+}
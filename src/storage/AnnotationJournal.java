@@ -0,0 +1,918 @@
+package storage;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import model.AnnotationListener;
+import model.PhotoModel;
+import model.StrokeStore;
+import model.TextBlock;
+import util.NamedThreadFactory;
+
+/**
+ * Write-ahead journal of the changes made to the annotations of a photo, so that
+ * a crash loses at most the last moments of work instead of the whole session.
+ *
+ * The journal listens to the model and appends a record for every change: a batch
+ * of points, the end of a stroke, strokes removed by undo, a text block added or removed,
+ * text inserted or deleted, a change of color or font. Records are encoded on the
+ * Event Dispatch Thread and queued, a background thread writes everything queued
+ * in one write, and forces it to the disk as the SyncPolicy says: records queued
+ * while a write is going on are committed together with the next one.
+ *
+ * The journal applies on top of the sidecar AnnotationFile of the photo, its snapshot.
+ * Once the journal has grown larger than the snapshot, the annotations are compacted
+ * into a new snapshot and the journal starts over. Snapshot and journal carry an epoch,
+ * the journal is only replayed on top of the snapshot of the same epoch: a crash
+ * between writing the snapshot and starting the journal over does not replay the
+ * records twice.
+ *
+ * Journal file: a header of magic, version, epoch and a reserved int, then records of
+ * payload length, payload and CRC32 of the payload. A payload is a type and varints.
+ * Replay stops at the first record that is incomplete or fails its checksum, the torn
+ * end of a crash, and the journal is truncated there.
+ */
+public class AnnotationJournal implements AnnotationListener {
+	
+	/**
+	 * When the writes of the journal are forced to the disk.
+	 */
+	public enum SyncPolicy {
+		// After each group commit: a crash of the system loses nothing that was committed.
+		ALWAYS,
+		// At most once every SYNC_INTERVAL: a crash of the system loses up to that much.
+		PERIODIC,
+		// Left to the system: only a crash of the program loses nothing that was committed.
+		NEVER
+	}
+	
+	private static final int MAGIC = 0x504A4E4C;	// "PJNL"
+	private static final int VERSION = 1;
+	
+	private static final int HEADER_SIZE = 16;
+	
+	/*
+	 * Offsets of the fields in the header.
+	 */
+	private static final int H_MAGIC = 0;
+	private static final int H_VERSION = 4;
+	private static final int H_EPOCH = 8;
+	
+	/*
+	 * Types of records.
+	 */
+	private static final int R_POINTS = 1;
+	private static final int R_END_STROKE = 2;
+	private static final int R_TRUNCATE = 3;
+	private static final int R_BLOCK_ADD = 4;
+	private static final int R_BLOCK_REMOVE = 5;
+	private static final int R_TEXT_INSERT = 6;
+	private static final int R_TEXT_DELETE = 7;
+	private static final int R_COLOR = 8;
+	private static final int R_FONT = 9;
+	
+	// Extension added to the name of the sidecar file.
+	public static final String EXTENSION = ".log";
+	
+	// Points of a stroke that are put in a single record, a crash loses the points of the last batch.
+	private static final int MAX_BATCH_POINTS = 64;
+	
+	// Largest record, anything larger is taken as garbage.
+	private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+	
+	// Interval between forced writes with the PERIODIC policy, in milliseconds.
+	public static final long SYNC_INTERVAL = 1000;
+	
+	// The journal is compacted once it is larger than this and than the snapshot.
+	private static final long MIN_COMPACT_LENGTH = 1024 * 1024;
+	
+	private final File sidecar;
+	private final File file;
+	private final PhotoModel model;
+	private final SyncPolicy policy;
+	
+	/*
+	 * State of the Event Dispatch Thread.
+	 */
+	// Epoch of the records that are appended.
+	private int epoch;
+	
+	// Number of text blocks the journal knows of, the first ones of the model.
+	private int blockCount;
+	
+	// Points that are not in a record yet, x and y, and whether the first one starts a stroke.
+	private final int[] batch = new int[2 * MAX_BATCH_POINTS];
+	private int batchCount;
+	private boolean batchNewStroke;
+	
+	// Record that is being encoded.
+	private final AnnotationFile.Output record = new AnnotationFile.Output(null, 0);
+	private final CRC32 crc = new CRC32();
+	
+	// Bytes appended since the last snapshot, and the size of that snapshot.
+	private long appendedLength;
+	private long snapshotLength;
+	
+	// True once close has been called.
+	private boolean closed;
+	
+	/*
+	 * State shared with the writer thread, guarded by lock.
+	 */
+	private final Object lock = new Object();
+	
+	// Records queued for the next group commit.
+	private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+	
+	// Snapshot to write before the queued records, and its epoch, null if none.
+	private ByteBuffer pendingSnapshot;
+	private int pendingEpoch;
+	
+	// Number of records appended, and of records committed.
+	private long appended;
+	private long committed;
+	
+	private boolean closing;
+	
+	// Error that stopped the writer thread, null if none.
+	private IOException failure;
+	
+	/*
+	 * State of the writer thread.
+	 */
+	// The journal file, opened at the first write, and its length.
+	private FileChannel channel;
+	private long length;
+	private int channelEpoch;
+	
+	// Buffer being written, swapped with pending.
+	private ByteBuffer writing = ByteBuffer.allocate(64 * 1024);
+	
+	// Time of the last forced write, and whether writes were made since.
+	private long lastSync;
+	private boolean unsynced;
+	
+	private final Thread writer;
+	
+	private AnnotationJournal(File sidecar, PhotoModel model, SyncPolicy policy,
+			int epoch, long journalLength, long snapshotLength) {
+		this.sidecar = sidecar;
+		this.file = new File(sidecar.getPath() + EXTENSION);
+		this.model = model;
+		this.policy = policy;
+		this.epoch = epoch;
+		this.channelEpoch = epoch;
+		this.length = journalLength;
+		this.snapshotLength = snapshotLength;
+		this.blockCount = model.getTextBlocks().size();
+		this.appendedLength = Math.max(0, journalLength - HEADER_SIZE);
+	
+		writer = new NamedThreadFactory("annotation-journal", Thread.NORM_PRIORITY).newThread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		});
+		writer.start();
+	}
+	
+	/**
+	 * Reads the annotations of photo from its sidecar file and journal, replaces those
+	 * of model with them, and journals the changes of model from then on.
+	 * Must be called on the Event Dispatch Thread.
+	 * @param photo File the photo.
+	 * @param model PhotoModel the model of the photo.
+	 * @param policy SyncPolicy when writes are forced to the disk.
+	 * @return AnnotationJournal the journal, to close when the photo is closed.
+	 * @throws IOException if the sidecar file can not be read.
+	 */
+	public static AnnotationJournal open(File photo, PhotoModel model, SyncPolicy policy) throws IOException {
+		Annotations annotations = recover(photo);
+		annotations.applyTo(model);
+		return attach(photo, model, policy);
+	}
+	
+	/**
+	 * Reads the annotations of photo from its sidecar file and journal, and truncates
+	 * the journal after its last valid record, so that it can be appended to. 
+	 * Can be called on any thread, but not while the journal of photo is open.
+	 * @param photo File the photo.
+	 * @return Annotations the annotations, empty if the photo has none.
+	 * @throws IOException if the sidecar file can not be read.
+	 */
+	public static Annotations recover(File photo) throws IOException {
+		File sidecar = AnnotationFile.getSidecar(photo);
+		Annotations snapshot;
+		if (sidecar.isFile()) {
+			snapshot = AnnotationFile.read(sidecar);
+		} else {
+			snapshot = new Annotations(new StrokeStore(), Collections.<TextBlock>emptyList(), null, null, 0);
+		}
+		Replay replay = new Replay(snapshot);
+		replay.run(new File(sidecar.getPath() + EXTENSION));
+		return replay.getAnnotations();
+	}
+	
+	/**
+	 * Journals the changes of model from now on, whose annotations must be those
+	 * of photo as recover returned them, or as the sidecar file has them when there 
+	 * is no journal. Must be called on the Event Dispatch Thread.
+	 * @param photo File the photo.
+	 * @param model PhotoModel the model of the photo.
+	 * @param policy SyncPolicy when writes are forced to the disk.
+	 * @return AnnotationJournal the journal, to close when the photo is closed.
+	 * @throws IOException if the sidecar file or the journal can not be read.
+	 */
+	public static AnnotationJournal attach(File photo, PhotoModel model, SyncPolicy policy) throws IOException {
+		File sidecar = AnnotationFile.getSidecar(photo);
+		long snapshotLength = 0;
+		int epoch = 0;
+		if (sidecar.isFile()) {
+			snapshotLength = sidecar.length();
+			epoch = AnnotationFile.readHeader(sidecar).getEpoch();
+		}
+		long journalLength = readEpoch(new File(sidecar.getPath() + EXTENSION)) == epoch 
+				? new File(sidecar.getPath() + EXTENSION).length() : 0;
+		AnnotationJournal journal = new AnnotationJournal(sidecar, model, policy, epoch, journalLength, snapshotLength);
+		model.addAnnotationListener(journal);
+		return journal;
+	}
+	
+	/**
+	 * Returns true iff photo has a journal with records in it, left by a session that
+	 * was not closed: its annotations are not all in the sidecar file.
+	 * @param photo File the photo.
+	 */
+	public static boolean hasRecords(File photo) {
+		return new File(AnnotationFile.getSidecar(photo).getPath() + EXTENSION).length() > HEADER_SIZE;
+	}
+	
+	/**
+	 * Returns the epoch in the header of journal, -1 if it has no valid header.
+	 */
+	private static int readEpoch(File journal) throws IOException {
+		if (!journal.isFile()) {
+			return -1;
+		}
+		FileChannel channel = new RandomAccessFile(journal, "r").getChannel();
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+				// Until the header is read or the file ends.
+			}
+			if (header.hasRemaining() || header.getInt(H_MAGIC) != MAGIC || header.getInt(H_VERSION) != VERSION) {
+				return -1;
+			}
+			return header.getInt(H_EPOCH);
+		} finally {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Returns the annotations of photo as the sidecar file and the journal have them,
+	 * without opening the journal for writing.
+	 * @param photo File the photo.
+	 * @return Annotations the annotations, null if the photo has none.
+	 * @throws IOException if the sidecar file can not be read.
+	 */
+	public static Annotations read(File photo) throws IOException {
+		File sidecar = AnnotationFile.getSidecar(photo);
+		File journal = new File(sidecar.getPath() + EXTENSION);
+		if (!sidecar.isFile() && !journal.isFile()) {
+			return null;
+		}
+		Annotations snapshot = sidecar.isFile() ? AnnotationFile.read(sidecar)
+				: new Annotations(new StrokeStore(), Collections.<TextBlock>emptyList(), null, null, 0);
+		Replay replay = new Replay(snapshot);
+		replay.read(journal);
+		return replay.getAnnotations();
+	}
+	
+	/**
+	 * Waits until the changes made so far are committed.
+	 * @throws IOException if the journal could not be written.
+	 */
+	public void flush() throws IOException {
+		endBatch();
+		synchronized (lock) {
+			long target = appended;
+			while (committed < target && failure == null) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while flushing the journal");
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+	
+	/**
+	 * Compacts the annotations into a new snapshot, written in the background,
+	 * and starts the journal over. The snapshot is encoded at once, so the model
+	 * can change while it is written.
+	 */
+	public void compact() {
+		endBatch();
+		int next = epoch + 1;
+		ByteBuffer snapshot = AnnotationFile.encode(new Annotations(model.getStrokes(),
+				model.getTextBlocks().subList(0, blockCount), model.getDrawColor(), model.getTextFont(), next));
+		synchronized (lock) {
+			// The queued records are in the snapshot.
+			pending.clear();
+			pendingSnapshot = snapshot;
+			pendingEpoch = next;
+			// Waited for by flush like a record.
+			appended++;
+			lock.notifyAll();
+		}
+		epoch = next;
+		snapshotLength = snapshot.remaining();
+		appendedLength = 0;
+	}
+	
+	/**
+	 * Stops journaling the model, compacts its annotations into the sidecar file,
+	 * or deletes the files if there are none, and waits until all is written.
+	 * @throws IOException if the journal could not be written.
+	 */
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		model.removeAnnotationListener(this);
+		endBatch();
+		boolean empty = new Annotations(model.getStrokes(), model.getTextBlocks(), null, null).isEmpty();
+		if (!empty && appendedLength > 0) {
+			compact();
+		}
+		synchronized (lock) {
+			closing = true;
+			lock.notifyAll();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		// Everything is in the snapshot by now.
+		Files.deleteIfExists(file.toPath());
+		if (empty) {
+			Files.deleteIfExists(sidecar.toPath());
+		}
+	}
+	
+	public SyncPolicy getSyncPolicy() {
+		return policy;
+	}
+	
+	@Override
+	public String toString() {
+		synchronized (lock) {
+			return "AnnotationJournal[" + file.getName() + ", epoch " + epoch + ", " + appended + " records, "
+					+ committed + " committed]";
+		}
+	}
+	
+    /*
+     * ---------------------------------------------------------------------
+     * RECORDING CHANGES, ON THE EVENT DISPATCH THREAD
+     * ---------------------------------------------------------------------
+    */
+	
+	@Override
+	public void pointAdded(int x, int y, boolean newStroke) {
+		if (newStroke || batchCount == MAX_BATCH_POINTS) {
+			endBatch();
+		}
+		if (batchCount == 0) {
+			// First point of a batch, which other records may have ended in the middle of a stroke.
+			batchNewStroke = newStroke;
+		}
+		batch[2 * batchCount] = x;
+		batch[2 * batchCount + 1] = y;
+		batchCount++;
+	}
+	
+	@Override
+	public void strokeEnded() {
+		endBatch();
+		startRecord(R_END_STROKE);
+		append();
+		compactIfLarge();
+	}
+	
+	@Override
+	public void strokesTruncated(int point, int stroke) {
+		endBatch();
+		startRecord(R_TRUNCATE);
+		put(point);
+		put(stroke);
+		append();
+		compactIfLarge();
+	}
+	
+	@Override
+	public void strokesRestored(int stroke) {
+		// The points may not be in the snapshot anymore, they are written again.
+		endBatch();
+		StrokeStore strokes = model.getStrokes();
+		for (; stroke < strokes.getStrokeCount(); stroke++) {
+			int start = strokes.getStrokeStart(stroke);
+			int end = strokes.getStrokeEnd(stroke);
+			for (int point = start; point < end; point++) {
+				pointAdded(strokes.getX(point), strokes.getY(point), point == start);
+			}
+			endBatch();
+			startRecord(R_END_STROKE);
+			append();
+		}
+		compactIfLarge();
+	}
+	
+	@Override
+	public void textBlockAdded(int index, Point anchor) {
+		endBatch();
+		blockCount++;
+		startRecord(R_BLOCK_ADD);
+		put(index);
+		putSigned(anchor.x);
+		putSigned(anchor.y);
+		append();
+		compactIfLarge();
+	}
+	
+	@Override
+	public void textBlockRemoved(int index) {
+		endBatch();
+		blockCount--;
+		startRecord(R_BLOCK_REMOVE);
+		put(index);
+		append();
+		compactIfLarge();
+	}
+	
+	@Override
+	public void textInserted(int block, int position, CharSequence text) {
+		endBatch();
+		startRecord(R_TEXT_INSERT);
+		put(block);
+		put(position);
+		putString(text.toString());
+		append();
+		compactIfLarge();
+	}
+	
+	@Override
+	public void textDeleted(int block, int start, int end) {
+		endBatch();
+		startRecord(R_TEXT_DELETE);
+		put(block);
+		put(start);
+		put(end);
+		append();
+		compactIfLarge();
+	}
+	
+	@Override
+	public void styleChanged(Color color, Font font) {
+		endBatch();
+		if (color != null) {
+			startRecord(R_COLOR);
+			try {
+				record.putInt(color.getRGB());
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			append();
+		}
+		if (font != null) {
+			startRecord(R_FONT);
+			putString(font.getName());
+			put(font.getStyle());
+			put(font.getSize());
+			append();
+		}
+		compactIfLarge();
+	}
+	
+	@Override
+	public void annotationsReplaced() {
+		batchCount = 0;
+		blockCount = model.getTextBlocks().size();
+		compact();
+	}
+	
+	/**
+	 * Appends the points of the batch as a record.
+	 */
+	private void endBatch() {
+		if (batchCount == 0) {
+			return;
+		}
+		startRecord(R_POINTS);
+		put(batchNewStroke ? 1 : 0);
+		put(batchCount);
+		putSigned(batch[0]);
+		putSigned(batch[1]);
+		for (int i = 1; i < batchCount; i++) {
+			putSigned(batch[2 * i] - batch[2 * i - 2]);
+			putSigned(batch[2 * i + 1] - batch[2 * i - 1]);
+		}
+		batchCount = 0;
+		append();
+	}
+	
+	/*
+	 * Encoding of the record, in memory where it does not fail.
+	 */
+	
+	private void startRecord(int type) {
+		record.clear();
+		put(type);
+	}
+	
+	private void put(int i) {
+		try {
+			record.putVarint(i);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private void putSigned(int i) {
+		try {
+			record.putZigzag(i);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private void putString(String s) {
+		try {
+			record.putString(s);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Queues the record for the writer thread.
+	 */
+	private void append() {
+		ByteBuffer payload = record.toBuffer();
+		int size = payload.remaining();
+		crc.reset();
+		crc.update(payload.array(), payload.arrayOffset(), size);
+		synchronized (lock) {
+			if (failure != null) {
+				// The writer stopped, the error is thrown by flush and close.
+				return;
+			}
+			if (pending.remaining() < size + 8) {
+				ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * pending.capacity(), pending.position() + size + 8));
+				pending.flip();
+				pending = grown.put(pending);
+			}
+			pending.putInt(size);
+			pending.put(payload);
+			pending.putInt((int) crc.getValue());
+			appended++;
+			lock.notifyAll();
+		}
+		appendedLength += size + 8;
+	}
+	
+	/**
+	 * Compacts the journal once it is larger than the snapshot. Only called once a change
+	 * is fully recorded, so the snapshot holds exactly what the records before it did.
+	 */
+	private void compactIfLarge() {
+		if (appendedLength > Math.max(MIN_COMPACT_LENGTH, snapshotLength) && !model.getStrokes().isStrokeOpen()) {
+			// Not in the middle of a stroke, whose next points would start a new one on replay.
+			compact();
+		}
+	}
+	
+    /*
+     * ---------------------------------------------------------------------
+     * WRITING, ON THE WRITER THREAD
+     * ---------------------------------------------------------------------
+    */
+	
+	/**
+	 * Writes what is queued, as a group, until the journal is closed.
+	 */
+	private void writeLoop() {
+		while (true) {
+			ByteBuffer snapshot;
+			int snapshotEpoch;
+			long target;
+			boolean stop;
+			synchronized (lock) {
+				try {
+					while (pending.position() == 0 && pendingSnapshot == null && !closing) {
+						if (!unsynced) {
+							lock.wait();
+						} else {
+							long wait = lastSync + SYNC_INTERVAL - System.currentTimeMillis();
+							if (wait <= 0) {
+								break;
+							}
+							lock.wait(wait);
+						}
+					}
+				} catch (InterruptedException e) {
+					closing = true;
+				}
+				ByteBuffer swap = writing;
+				writing = pending;
+				pending = swap;
+				pending.clear();
+				snapshot = pendingSnapshot;
+				snapshotEpoch = pendingEpoch;
+				pendingSnapshot = null;
+				target = appended;
+				stop = closing;
+			}
+	
+			try {
+				if (snapshot != null) {
+					AnnotationFile.write(sidecar, snapshot);
+					startOver(snapshotEpoch);
+				}
+				writing.flip();
+				if (writing.hasRemaining()) {
+					if (channel == null) {
+						openChannel();
+					}
+					while (writing.hasRemaining()) {
+						length += channel.write(writing, length);
+					}
+					unsynced = true;
+				}
+				writing.clear();
+				if (unsynced && channel != null && (policy == SyncPolicy.ALWAYS || stop
+						|| (policy == SyncPolicy.PERIODIC && System.currentTimeMillis() - lastSync >= SYNC_INTERVAL))) {
+					channel.force(false);
+					lastSync = System.currentTimeMillis();
+					unsynced = false;
+				} else if (policy == SyncPolicy.NEVER) {
+					unsynced = false;
+				}
+				if (stop && channel != null) {
+					channel.close();
+				}
+			} catch (IOException e) {
+				System.err.println("The annotation journal " + file + " could not be written: " + e);
+				synchronized (lock) {
+					failure = e;
+					lock.notifyAll();
+				}
+				closeQuietly();
+				return;
+			}
+	
+			synchronized (lock) {
+				committed = target;
+				lock.notifyAll();
+			}
+			if (stop) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Opens the journal file to append to it, creating it if needed.
+	 */
+	private void openChannel() throws IOException {
+		if (length >= HEADER_SIZE && file.isFile()) {
+			channel = new RandomAccessFile(file, "rw").getChannel();
+		} else {
+			startOver(channelEpoch);
+		}
+	}
+	
+	/**
+	 * Replaces the journal file with an empty one of epoch.
+	 */
+	private void startOver(int epoch) throws IOException {
+		closeQuietly();
+		File temp = new File(file.getPath() + ".tmp");
+		FileChannel out = new RandomAccessFile(temp, "rw").getChannel();
+		try {
+			out.truncate(0);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(H_MAGIC, MAGIC);
+			header.putInt(H_VERSION, VERSION);
+			header.putInt(H_EPOCH, epoch);
+			while (header.hasRemaining()) {
+				out.write(header, header.position());
+			}
+			out.force(true);
+		} finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		channelEpoch = epoch;
+		length = HEADER_SIZE;
+		lastSync = System.currentTimeMillis();
+		unsynced = false;
+	}
+	
+	private void closeQuietly() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Nothing more to do with it.
+			}
+			channel = null;
+		}
+	}
+	
+    /*
+     * ---------------------------------------------------------------------
+     * REPLAY
+     * ---------------------------------------------------------------------
+    */
+	
+	/**
+	 * Annotations of a snapshot with the records of its journal applied.
+	 */
+	private static class Replay {
+		private final Annotations snapshot;
+		private final StrokeStore strokes;
+		private final List<TextBlock> blocks;
+		private Color color;
+		private Font font;
+	
+		Replay(Annotations snapshot) {
+			this.snapshot = snapshot;
+			strokes = snapshot.getStrokes();
+			blocks = new ArrayList<TextBlock>(snapshot.getTextBlocks());
+			color = snapshot.getDrawColor();
+			font = snapshot.getTextFont();
+		}
+	
+		Annotations getAnnotations() {
+			return new Annotations(strokes, blocks, color, font, snapshot.getEpoch());
+		}
+	
+		/**
+		 * Applies the records of journal, and truncates it after the last valid record.
+		 * @return long the length of the journal, 0 if it does not apply to the snapshot.
+		 */
+		long run(File journal) throws IOException {
+			long length = read(journal);
+			if (length > 0 && length < journal.length()) {
+				RandomAccessFile out = new RandomAccessFile(journal, "rw");
+				try {
+					out.setLength(length);
+				} finally {
+					out.close();
+				}
+			}
+			return length;
+		}
+	
+		/**
+		 * Applies the records of journal.
+		 * @return long the end of the last valid record, 0 if the journal does not apply to the snapshot.
+		 */
+		long read(File journal) throws IOException {
+			if (!journal.isFile()) {
+				return 0;
+			}
+			FileChannel channel = new RandomAccessFile(journal, "r").getChannel();
+			try {
+				AnnotationFile.Input in = new AnnotationFile.Input(channel);
+				if (in.ensureUpTo(HEADER_SIZE) < HEADER_SIZE) {
+					return 0;
+				}
+				ByteBuffer buffer = in.buffer;
+				int start = buffer.position();
+				if (buffer.getInt(start + H_MAGIC) != MAGIC || buffer.getInt(start + H_VERSION) != VERSION
+						|| buffer.getInt(start + H_EPOCH) != snapshot.getEpoch()) {
+					// Another format, or records that are already in the snapshot.
+					return 0;
+				}
+				buffer.position(start + HEADER_SIZE);
+	
+				long end = HEADER_SIZE;
+				CRC32 crc = new CRC32();
+				while (true) {
+					byte[] payload;
+					try {
+						int size = in.getInt();
+						if (size <= 0 || size > MAX_RECORD_SIZE || end + size + 8 > channel.size()) {
+							break;
+						}
+						payload = new byte[size];
+						in.getBytes(payload);
+						crc.reset();
+						crc.update(payload, 0, size);
+						if (in.getInt() != (int) crc.getValue()) {
+							break;
+						}
+					} catch (EOFException e) {
+						break;
+					}
+					try {
+						apply(new AnnotationFile.Input(ByteBuffer.wrap(payload)));
+					} catch (IOException | RuntimeException e) {
+						// Kept as far as it goes, like a torn record.
+						System.err.println("Invalid record at " + end + " of " + journal + ": " + e);
+						break;
+					}
+					end += payload.length + 8;
+				}
+				return end;
+			} finally {
+				channel.close();
+			}
+		}
+	
+		private void apply(AnnotationFile.Input in) throws IOException {
+			switch (in.getVarint()) {
+			case R_POINTS:
+				boolean newStroke = in.getVarint() != 0;
+				int count = in.getVarint();
+				if (newStroke) {
+					strokes.endStroke();
+				}
+				int x = in.getZigzag();
+				int y = in.getZigzag();
+				AnnotationFile.checkCoordinates(x, y, "a record");
+				strokes.addPoint(x, y);
+				for (int i = 1; i < count; i++) {
+					x += in.getZigzag();
+					y += in.getZigzag();
+					AnnotationFile.checkCoordinates(x, y, "a record");
+					strokes.addPoint(x, y);
+				}
+				break;
+			case R_END_STROKE:
+				strokes.endStroke();
+				break;
+			case R_TRUNCATE:
+				int point = in.getVarint();
+				strokes.truncate(point, in.getVarint());
+				break;
+			case R_BLOCK_ADD:
+				int index = in.getVarint();
+				int anchorX = in.getZigzag();
+				int anchorY = in.getZigzag();
+				AnnotationFile.checkCoordinates(anchorX, anchorY, "a record");
+				blocks.add(index, new TextBlock(new Point(anchorX, anchorY)));
+				break;
+			case R_BLOCK_REMOVE:
+				blocks.remove(in.getVarint());
+				break;
+			case R_TEXT_INSERT:
+				TextBlock block = blocks.get(in.getVarint());
+				int position = in.getVarint();
+				block.insert(position, in.getString());
+				break;
+			case R_TEXT_DELETE:
+				block = blocks.get(in.getVarint());
+				int start = in.getVarint();
+				block.delete(start, in.getVarint());
+				break;
+			case R_COLOR:
+				color = new Color(in.getInt(), true);
+				break;
+			case R_FONT:
+				String name = in.getString();
+				int style = in.getVarint();
+				font = new Font(name, style, in.getVarint());
+				break;
+			default:
+				throw new IOException("Unknown record type");
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package storage;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import model.PhotoModel;
+import model.StrokeStore;
+import model.TextBlock;
+
+/**
+ * Annotations of a photo as they are stored: its strokes, its text blocks,
+ * and the color and font they are drawn with.
+ *
+ * Annotations taken from a model share its strokes and text blocks, nothing is copied,
+ * so they must be written before the model changes again.
+ */
+public class Annotations {
+	
+	private final StrokeStore strokes;
+	private final List<TextBlock> textBlocks;
+	
+	// Color of the strokes and font of the text, null if not set.
+	private final Color drawColor;
+	private final Font textFont;
+	
+	// Epoch of the AnnotationJournal whose records apply on top of these annotations.
+	private final int epoch;
+	
+	/**
+	 * Constructor.
+	 * @param strokes StrokeStore the strokes.
+	 * @param textBlocks List<TextBlock> the text blocks.
+	 * @param drawColor Color the color of the strokes, null if not set.
+	 * @param textFont Font the font of the text, null if not set.
+	 */
+	public Annotations(StrokeStore strokes, List<TextBlock> textBlocks, Color drawColor, Font textFont) {
+		this(strokes, textBlocks, drawColor, textFont, 0);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param strokes StrokeStore the strokes.
+	 * @param textBlocks List<TextBlock> the text blocks.
+	 * @param drawColor Color the color of the strokes, null if not set.
+	 * @param textFont Font the font of the text, null if not set.
+	 * @param epoch int the epoch of the journal whose records apply on top of these annotations.
+	 */
+	public Annotations(StrokeStore strokes, List<TextBlock> textBlocks, Color drawColor, Font textFont, int epoch) {
+		this.strokes = strokes;
+		this.textBlocks = Collections.unmodifiableList(new ArrayList<TextBlock>(textBlocks));
+		this.drawColor = drawColor;
+		this.textFont = textFont;
+		this.epoch = epoch;
+	}
+	
+	/**
+	 * Returns the current annotations of model, sharing its strokes and text blocks.
+	 * @param model PhotoModel the model.
+	 * @return Annotations the annotations.
+	 */
+	public static Annotations of(PhotoModel model) {
+		return new Annotations(model.getStrokes(), model.getTextBlocks(), model.getDrawColor(), model.getTextFont());
+	}
+	
+	/**
+	 * Replaces the annotations of model with these, in a single update.
+	 * The strokes are handed over to the model, these annotations must not be applied twice.
+	 * @param model PhotoModel the model.
+	 */
+	public void applyTo(PhotoModel model) {
+		model.beginUpdate();
+		try {
+			// The style can only be set once the annotations are in, and is not an edit to undo.
+			model.setAnnotations(strokes, textBlocks);
+			if (drawColor != null) {
+				model.setDrawColor(drawColor);
+			}
+			if (textFont != null) {
+				model.setTextFont(textFont);
+			}
+			model.getHistory().clear();
+		} finally {
+			model.endUpdate();
+		}
+	}
+	
+	public StrokeStore getStrokes() {
+		return strokes;
+	}
+	
+	public List<TextBlock> getTextBlocks() {
+		return textBlocks;
+	}
+	
+	public Color getDrawColor() {
+		return drawColor;
+	}
+	
+	public Font getTextFont() {
+		return textFont;
+	}
+	
+	public int getEpoch() {
+		return epoch;
+	}
+	
+	/**
+	 * Returns true iff there are neither strokes nor text.
+	 */
+	public boolean isEmpty() {
+		if (strokes.getPointCount() > 0) {
+			return false;
+		}
+		for (TextBlock block : textBlocks) {
+			if (block.length() > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	@Override
+	public String toString() {
+		return "Annotations[" + strokes.getStrokeCount() + " strokes, " + strokes.getPointCount() + " points, "
+				+ textBlocks.size() + " text blocks]";
+	}
+}
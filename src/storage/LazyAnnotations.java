@@ -0,0 +1,358 @@
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import model.PhotoChangeEvent;
+import model.PhotoChangeEvent.Change;
+import model.PhotoChangeListener;
+import model.PhotoModel;
+import model.StrokeStore;
+import model.TextBlock;
+import util.NamedThreadFactory;
+
+/**
+ * Annotations of a photo that are only in memory while they can be seen, on the
+ * flipped side of the photo.
+ *
+ * Opening a photo reads the header of its sidecar file alone. The annotations are read
+ * the first time the photo is flipped, in the background: the strokes are handed to
+ * the model a chunk at a time as they are read, so the first ones are drawn while the
+ * others are still read, and the text and styles come last. Edits of the annotations
+ * are ignored until then. From then on, their changes are journaled.
+ *
+ * When the photo is flipped back, the journal is closed, which saves the annotations
+ * to the sidecar file, and the model lets go of them. They are then only held through
+ * a SoftReference, which the garbage collector clears when memory runs low: flipping
+ * again puts the same annotations back at once, with their undo history, unless they
+ * were collected, and are read again.
+ *
+ * Used on the Event Dispatch Thread, but for the reading.
+ */
+public class LazyAnnotations {
+	
+	// Number of points handed to the model at once while the strokes are read.
+	private static final int CHUNK_POINTS = 16 * 1024;
+	
+	// Reads the annotations of all photos, one at a time.
+	private static final ThreadPoolExecutor LOADER = createLoader();
+	
+	private final File photo;
+	private final PhotoModel model;
+	private final AnnotationJournal.SyncPolicy policy;
+	
+	// Header of the sidecar file as last read, null if the photo had none.
+	private AnnotationHeader header;
+	
+	// The read that is running, null if none.
+	private LoadTask loading;
+	
+	// Journal of the annotations while they are in the model, null otherwise.
+	private AnnotationJournal journal;
+	
+	// Annotations the model let go of, until they are collected.
+	private SoftReference<Annotations> unloaded;
+	
+	// Error that kept the annotations from being read or saved, null if none.
+	private IOException failure;
+	
+	// True while the annotations in the model could not be saved, and are to be saved again.
+	private boolean saveFailed;
+	
+	// Loads the annotations when the photo is flipped, and unloads them when it is flipped back.
+	private final PhotoChangeListener flipListener = new PhotoChangeListener() {
+		@Override
+		public void photoChanged(PhotoChangeEvent e) {
+			if (e.isChanged(Change.FLIP)) {
+				if (model.isImageFlipped()) {
+					load();
+				} else {
+					unload();
+				}
+			}
+		}
+	};
+	
+	private LazyAnnotations(File photo, PhotoModel model, AnnotationJournal.SyncPolicy policy, AnnotationHeader header) {
+		this.photo = photo;
+		this.model = model;
+		this.policy = policy;
+		this.header = header;
+	}
+	
+	/**
+	 * Reads the header of the annotations of photo, and loads them into model
+	 * once it is flipped. Must be called on the Event Dispatch Thread.
+	 * @param photo File the photo.
+	 * @param model PhotoModel the model of the photo, whose annotations are replaced.
+	 * @param policy SyncPolicy when writes of the journal are forced to the disk.
+	 * @return LazyAnnotations the annotations, to close when the photo is closed.
+	 * @throws IOException if the header of the sidecar file can not be read.
+	 */
+	public static LazyAnnotations open(File photo, PhotoModel model, AnnotationJournal.SyncPolicy policy)
+			throws IOException {
+		File sidecar = AnnotationFile.getSidecar(photo);
+		AnnotationHeader header = sidecar.isFile() ? AnnotationFile.readHeader(sidecar) : null;
+		LazyAnnotations annotations = new LazyAnnotations(photo, model, policy, header);
+		model.setAnnotationsLoading();
+		model.addChangeListener(annotations.flipListener);
+		if (model.isImageFlipped()) {
+			annotations.load();
+		}
+		return annotations;
+	}
+	
+	/**
+	 * Returns the header of the sidecar file as it was when the annotations were last
+	 * read, or when the photo was opened, null if the photo had none.
+	 */
+	public AnnotationHeader getHeader() {
+		return header;
+	}
+	
+	/**
+	 * Returns true iff the annotations are in the model.
+	 */
+	public boolean isLoaded() {
+		return model.isAnnotationsLoaded();
+	}
+	
+	/**
+	 * Stops loading the annotations, or saves them if they are loaded.
+	 * @throws IOException if they could not be read or saved.
+	 */
+	public void close() throws IOException {
+		model.removeChangeListener(flipListener);
+		if (loading != null) {
+			loading.cancelled = true;
+			loading = null;
+		}
+		unloaded = null;
+		if (journal == null && saveFailed) {
+			retryJournal();
+		}
+		if (journal != null) {
+			AnnotationJournal closing = journal;
+			journal = null;
+			closing.close();
+			if (saveFailed) {
+				// Saved at last.
+				saveFailed = false;
+				failure = null;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+	
+	@Override
+	public String toString() {
+		String state = loading != null ? "loading" : journal != null ? "loaded" : saveFailed ? "not saved"
+				: unloaded != null && unloaded.get() != null ? "unloaded" : "not loaded";
+		return "LazyAnnotations[" + photo.getName() + ", " + state + ", " + header + "]";
+	}
+	
+	/**
+	 * Puts the annotations in the model: those it let go of if they were not collected,
+	 * or those read in the background.
+	 */
+	private void load() {
+		if (loading != null || model.isAnnotationsLoaded()) {
+			return;
+		}
+		Annotations kept = unloaded != null ? unloaded.get() : null;
+		unloaded = null;
+		if (kept != null) {
+			model.restoreAnnotations(kept.getStrokes(), kept.getTextBlocks());
+			attachJournal();
+			return;
+		}
+		
+		// The files changed since the photo was opened if the annotations were saved or erased since.
+		File sidecar = AnnotationFile.getSidecar(photo);
+		try {
+			header = sidecar.isFile() ? AnnotationFile.readHeader(sidecar) : null;
+		} catch (IOException e) {
+			loadFailed(e);
+			return;
+		}
+		if ((header == null || header.isEmpty()) && !AnnotationJournal.hasRecords(photo)) {
+			// Nothing to read.
+			model.setAnnotations(new StrokeStore(), Collections.<TextBlock>emptyList());
+			attachJournal();
+		} else {
+			loading = new LoadTask();
+			LOADER.execute(loading);
+		}
+	}
+	
+	/**
+	 * Saves the annotations and lets the model go of them, once they are hidden.
+	 */
+	private void unload() {
+		if (journal == null && !(saveFailed && retryJournal())) {
+			// Not loaded yet, or not saved.
+			return;
+		}
+		model.endStroke();
+		model.endTextBlock();
+		try {
+			journal.close();
+		} catch (IOException e) {
+			// Kept in memory, as they are not on the disk, and journaled again so that edits are not lost.
+			System.err.println("Annotations of " + photo + " could not be saved: " + e);
+			failure = e;
+			journal = null;
+			saveFailed = true;
+			retryJournal();
+			return;
+		}
+		journal = null;
+		saveFailed = false;
+		failure = null;
+		unloaded = new SoftReference<Annotations>(Annotations.of(model));
+		model.unloadAnnotations();
+	}
+	
+	/**
+	 * Puts the annotations that were read in the model, on the Event Dispatch Thread.
+	 * @param annotations Annotations the annotations read.
+	 * @param streamed boolean true iff the strokes were already handed to the model.
+	 */
+	private void loaded(Annotations annotations, boolean streamed) {
+		loading = null;
+		if (streamed) {
+			annotations = new Annotations(model.getStrokes(), annotations.getTextBlocks(),
+					annotations.getDrawColor(), annotations.getTextFont());
+		}
+		annotations.applyTo(model);
+		attachJournal();
+		if (!model.isImageFlipped()) {
+			// Flipped back while they were read.
+			unload();
+		}
+	}
+	
+	/**
+	 * Leaves the annotations that could not be read alone: the model starts
+	 * from none, whose changes are not saved so the files are not overwritten.
+	 */
+	private void loadFailed(IOException e) {
+		loading = null;
+		failure = e;
+		System.err.println("Annotations of " + photo + " could not be read: " + e);
+		model.setAnnotations(new StrokeStore(), Collections.<TextBlock>emptyList());
+	}
+	
+	private void attachJournal() {
+		try {
+			journal = AnnotationJournal.attach(photo, model, policy);
+		} catch (IOException e) {
+			failure = e;
+			System.err.println("Annotations of " + photo + " can not be saved: " + e);
+		}
+	}
+	
+	/**
+	 * Journals the annotations of the model again after they could not be saved,
+	 * from a snapshot of them all, as what the files hold is not known. The snapshot
+	 * is written at once, so a journal that can not be written is not kept.
+	 * @return boolean true iff they are journaled.
+	 */
+	private boolean retryJournal() {
+		attachJournal();
+		if (journal == null) {
+			return false;
+		}
+		journal.compact();
+		try {
+			journal.flush();
+		} catch (IOException e) {
+			failure = e;
+			try {
+				journal.close();
+			} catch (IOException closed) {
+				// The same error, the model keeps the annotations.
+			}
+			journal = null;
+			return false;
+		}
+		return true;
+	}
+	
+	private static ThreadPoolExecutor createLoader() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("annotation-loader"));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/**
+	 * Reads the annotations, handing the strokes to the model as they are read.
+	 */
+	private class LoadTask implements Runnable {
+	
+		volatile boolean cancelled;
+	
+		@Override
+		public void run() {
+			if (cancelled) {
+				return;
+			}
+			try {
+				final Annotations annotations;
+				final boolean streamed;
+				if (AnnotationJournal.hasRecords(photo)) {
+					// Left by a session that was not closed: its records apply to all strokes, read at once.
+					annotations = AnnotationJournal.recover(photo);
+					streamed = false;
+				} else {
+					annotations = AnnotationFile.read(AnnotationFile.getSidecar(photo), CHUNK_POINTS,
+							new AnnotationFile.StrokeReceiver() {
+						@Override
+						public boolean strokesRead(final StrokeStore strokes) {
+							SwingUtilities.invokeLater(new Runnable() {
+								@Override
+								public void run() {
+									if (!cancelled) {
+										model.addStrokes(strokes);
+									}
+								}
+							});
+							return !cancelled;
+						}
+					});
+					streamed = true;
+				}
+				if (annotations == null) {
+					return;
+				}
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (!cancelled) {
+							loaded(annotations, streamed);
+						}
+					}
+				});
+			} catch (final IOException e) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (!cancelled) {
+							loadFailed(e);
+						}
+					}
+				});
+			}
+		}
+	}
+}
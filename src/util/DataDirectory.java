@@ -0,0 +1,24 @@
+package util;
+
+import java.io.File;
+
+/**
+ * Directory where the program keeps its caches and indexes, 
+ * ".phototheque" in the home directory of the user.
+ */
+public class DataDirectory {
+	
+	private DataDirectory() {}
+	
+	/**
+	 * Returns the data directory, creating it if it does not exist yet.
+	 * @return File the data directory.
+	 */
+	public static File get() {
+		File directory = new File(System.getProperty("user.home"), ".phototheque");
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			System.err.println("The data directory could not be created");
+		}
+		return directory;
+	}
+}
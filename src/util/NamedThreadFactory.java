@@ -0,0 +1,42 @@
+package util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory for background workers.
+ * Threads are named after their pool and are daemons, 
+ * so they never keep the program alive.
+ */
+public class NamedThreadFactory implements ThreadFactory {
+
+	private final String name;
+	private final int priority;
+	private final AtomicInteger count = new AtomicInteger();
+	
+	/**
+	 * Constructor.
+	 * @param name String name of the pool, used as prefix of the thread names.
+	 */
+	public NamedThreadFactory(String name) {
+		this(name, Thread.NORM_PRIORITY - 1);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param name String name of the pool, used as prefix of the thread names.
+	 * @param priority int priority of the created threads.
+	 */
+	public NamedThreadFactory(String name, int priority) {
+		this.name = name;
+		this.priority = priority;
+	}
+	
+	@Override
+	public Thread newThread(Runnable r) {
+		Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+		thread.setDaemon(true);
+		thread.setPriority(priority);
+		return thread;
+	}
+}
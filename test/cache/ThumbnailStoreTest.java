@@ -0,0 +1,169 @@
+package cache;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Checks that a store whose files were corrupted still opens, keeping the records
+ * before the corrupt one, and that the data file is compacted when it is opened.
+ *
+ * Usage: java cache.ThumbnailStoreTest
+ */
+public class ThumbnailStoreTest {
+	
+	private static final String[] PATHS = {"/photos/a.jpg", "/photos/b.jpg", "/photos/c.jpg"};
+	
+	public static void main(String[] args) throws Exception {
+		File folder = Files.createTempDirectory("thumbnail-store").toFile();
+		try {
+			for (int dataLength : new int[] {-100, Integer.MIN_VALUE, Integer.MAX_VALUE - 8, 1 << 20}) {
+				corruptDataLength(folder, dataLength);
+			}
+			corruptIndex(folder);
+			compactDeadRecords(folder);
+			compactOverMaxLength(folder);
+			System.out.println("ThumbnailStoreTest passed");
+		} finally {
+			for (File file : folder.listFiles()) {
+				file.delete();
+			}
+			folder.delete();
+		}
+	}
+	
+	/**
+	 * A data length of the second record that does not fit, which is scanned as a torn record.
+	 */
+	private static void corruptDataLength(File folder, int dataLength) throws Exception {
+		String name = "length" + dataLength;
+		write(folder, name);
+		new File(folder, name + ".idx").delete();
+		try (RandomAccessFile file = new RandomAccessFile(new File(folder, name + ".dat"), "rw")) {
+			file.seek(8 + recordLength(PATHS[0]) + 4 + 8 + 2 + PATHS[1].length() + 8 + 8 + 2);
+			file.writeInt(dataLength);
+		}
+		
+		ThumbnailStore store = new ThumbnailStore(folder, name);
+		check(store.size() == 1, "the record before the corrupt one with data length " + dataLength + ", not "
+				+ store.size() + " records");
+		check(store.get(PATHS[0], 1000, 2000, 128) != null, "the first thumbnail with data length " + dataLength);
+		check(new File(folder, name + ".dat").length() == 8 + recordLength(PATHS[0]), "the store truncated at the corrupt record");
+		store.put(PATHS[1], 1000, 2000, 128, bytes(PATHS[1]));
+		store.close();
+		
+		store = new ThumbnailStore(folder, name);
+		check(store.size() == 2, "a thumbnail added after the corrupt record was dropped");
+		store.close();
+	}
+	
+	/**
+	 * A saved index with an entry of negative length, which is ignored for a scan of the records.
+	 */
+	private static void corruptIndex(File folder) throws Exception {
+		write(folder, "index");
+		try (RandomAccessFile file = new RandomAccessFile(new File(folder, "index.idx"), "rw")) {
+			// Header, covered length and count, then the length of the first entry.
+			file.seek(8 + 8 + 4 + 8 + 8);
+			file.writeInt(-1);
+		}
+		
+		ThumbnailStore store = new ThumbnailStore(folder, "index");
+		check(store.size() == PATHS.length, "all the records scanned, not " + store.size());
+		for (String path : PATHS) {
+			check(new String(store.get(path, 1000, 2000, 128), "UTF-8").equals(path), "the thumbnail of " + path);
+		}
+		store.close();
+	}
+	
+	/**
+	 * Records replaced by a later one of the same key or of a changed photo, 
+	 * which are dropped when they take more than half of the data file.
+	 */
+	private static void compactDeadRecords(File folder) throws Exception {
+		ThumbnailStore store = new ThumbnailStore(folder, "dead");
+		for (int i = 0; i < 3; i++) {
+			for (String path : PATHS) {
+				store.put(path, 1000, 2000, 128, data(path, 1000));
+			}
+		}
+		// The first photo changed, its old thumbnail is never asked for again.
+		store.put(PATHS[0], 1000, 3000, 128, data(PATHS[0], 1000));
+		store.close();
+		File dataFile = new File(folder, "dead.dat");
+		long before = dataFile.length();
+		
+		store = new ThumbnailStore(folder, "dead");
+		long after = 8 + PATHS.length * (recordLength(PATHS[0]) - PATHS[0].length() + 1000);
+		check(dataFile.length() == after, "a data file of " + after + " bytes, not " + dataFile.length() 
+				+ " of " + before);
+		check(store.size() == PATHS.length, "one thumbnail per photo, not " + store.size());
+		check(store.get(PATHS[0], 1000, 2000, 128) == null, "no thumbnail of the photo before it changed");
+		check(store.get(PATHS[0], 1000, 3000, 128) != null, "the thumbnail of the changed photo");
+		store.put(PATHS[0], 1000, 4000, 128, data(PATHS[0], 10));
+		store.close();
+		
+		// The index saved by the compaction, and the record added after it.
+		store = new ThumbnailStore(folder, "dead");
+		check(store.size() == PATHS.length + 1, "the thumbnails after a reopen");
+		for (int i = 1; i < PATHS.length; i++) {
+			check(Arrays.equals(store.get(PATHS[i], 1000, 2000, 128), data(PATHS[i], 1000)), "the thumbnail of " + PATHS[i]);
+		}
+		check(Arrays.equals(store.get(PATHS[0], 1000, 4000, 128), data(PATHS[0], 10)), "the thumbnail added after the compaction");
+		store.close();
+	}
+	
+	/**
+	 * A data file over its maximum length, which keeps the newest records that fill half of it.
+	 */
+	private static void compactOverMaxLength(File folder) throws Exception {
+		ThumbnailStore store = new ThumbnailStore(folder, "max");
+		for (int i = 0; i < 100; i++) {
+			store.put("/photos/" + i + ".jpg", 1000, 2000, 128, data("/photos/" + i + ".jpg", 1000));
+		}
+		store.close();
+		
+		store = new ThumbnailStore(folder, "max", 50000);
+		File dataFile = new File(folder, "max.dat");
+		check(dataFile.length() <= 25000, "at most half of the maximum length, not " + dataFile.length());
+		check(store.size() > 20, "the records that fill half of the maximum length, not " + store.size());
+		for (int i = 0; i < 100; i++) {
+			boolean kept = i >= 100 - store.size();
+			String path = "/photos/" + i + ".jpg";
+			check((store.get(path, 1000, 2000, 128) != null) == kept, (kept ? "" : "no ") + "thumbnail of " + path);
+		}
+		store.close();
+	}
+	
+	private static void write(File folder, String name) throws Exception {
+		ThumbnailStore store = new ThumbnailStore(folder, name);
+		for (String path : PATHS) {
+			store.put(path, 1000, 2000, 128, bytes(path));
+		}
+		store.close();
+	}
+	
+	private static byte[] bytes(String path) throws Exception {
+		return path.getBytes("UTF-8");
+	}
+	
+	/**
+	 * Returns length bytes that differ from path to path.
+	 */
+	private static byte[] data(String path, int length) {
+		byte[] bytes = new byte[length];
+		Arrays.fill(bytes, (byte) path.hashCode());
+		return bytes;
+	}
+	
+	private static int recordLength(String path) {
+		return 4 + 8 + 2 + path.length() + 8 + 8 + 2 + 4 + path.length();
+	}
+	
+	private static void check(boolean condition, String expected) {
+		if (!condition) {
+			throw new AssertionError("Expected: " + expected);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package catalog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Checks the bitmap against a BitSet holding the same ints, across the change of
+ * containers at 4096 ints, unions and a round trip through write and read.
+ * The kind of container is told by the number of bytes written: 2 per int for
+ * an array, 8192 for a bitmap.
+ *
+ * Usage: java catalog.RoaringBitmapTest
+ */
+public class RoaringBitmapTest {
+	
+	// Bytes written for the number of containers, and for the key and kind of one.
+	private static final int HEADER = 4;
+	private static final int CONTAINER_HEADER = 2 + 1;
+	
+	private static final int ARRAY_MAX = 4096;
+	
+	public static void main(String[] args) throws IOException {
+		conversion();
+		union();
+		random();
+		System.out.println("RoaringBitmapTest passed");
+	}
+	
+	/**
+	 * An array container turns into a bitmap above 4096 ints, and back as ints are removed.
+	 */
+	private static void conversion() throws IOException {
+		RoaringBitmap bitmap = new RoaringBitmap();
+		BitSet expected = new BitSet();
+		for (int i = 0; i < ARRAY_MAX; i++) {
+			bitmap.add(3 * i);
+			expected.set(3 * i);
+		}
+		bitmap.add(0);
+		check(same(bitmap, expected), "4096 ints");
+		check(length(bitmap) == arrayLength(ARRAY_MAX), "an array of 4096 ints");
+	
+		bitmap.add(1);
+		expected.set(1);
+		check(same(bitmap, expected), "4097 ints");
+		check(length(bitmap) == bitmapLength(), "a bitmap above 4096 ints");
+		check(same(roundTrip(bitmap), expected), "the bitmap read back");
+	
+		bitmap.remove(2);
+		check(length(bitmap) == bitmapLength(), "removing an absent int keeps the bitmap");
+		bitmap.remove(1);
+		expected.clear(1);
+		check(same(bitmap, expected), "4096 ints after a removal");
+		check(length(bitmap) == arrayLength(ARRAY_MAX), "an array again at 4096 ints");
+		bitmap.add(1);
+		expected.set(1);
+		check(length(bitmap) == bitmapLength(), "a bitmap again at 4097 ints");
+	
+		for (int i = 0; i < ARRAY_MAX; i++) {
+			bitmap.remove(3 * i);
+			expected.clear(3 * i);
+		}
+		check(same(bitmap, expected), "1 int left");
+		bitmap.remove(1);
+		check(bitmap.isEmpty() && length(bitmap) == HEADER, "an empty set without containers");
+		check(same(roundTrip(bitmap), new BitSet()), "the empty set read back");
+	}
+	
+	/**
+	 * The union of two arrays that hold more than 4096 ints together is a bitmap.
+	 */
+	private static void union() throws IOException {
+		RoaringBitmap a = new RoaringBitmap();
+		RoaringBitmap b = new RoaringBitmap();
+		BitSet expected = new BitSet();
+		for (int i = 0; i < 3000; i++) {
+			a.add(2 * i);
+			b.add(2 * i + 1);
+			expected.set(2 * i);
+			expected.set(2 * i + 1);
+		}
+		RoaringBitmap union = RoaringBitmap.or(a, b);
+		check(same(union, expected), "the union of two arrays");
+		check(length(union) == bitmapLength(), "a bitmap for 6000 ints");
+		check(a.getCardinality() == 3000 && b.getCardinality() == 3000, "the operands unchanged");
+	
+		// Overlapping arrays whose union still fits an array.
+		RoaringBitmap c = new RoaringBitmap();
+		BitSet cExpected = new BitSet();
+		for (int i = 0; i < 3000; i++) {
+			c.add(2 * i);
+			cExpected.set(2 * i);
+		}
+		union = RoaringBitmap.or(a, c);
+		check(same(union, cExpected), "the union of two equal arrays");
+		check(length(union) == arrayLength(3000), "an array for 3000 ints");
+	
+		// A union that adds into a copy of a bitmap leaves the bitmap unchanged.
+		union = RoaringBitmap.or(RoaringBitmap.or(a, b), c);
+		check(same(union, expected), "the union of a bitmap and an array");
+		check(same(a, cExpected), "the array operand unchanged");
+	}
+	
+	/**
+	 * Random ints over a few chunks, sparse and dense, added, removed and united.
+	 */
+	private static void random() throws IOException {
+		Random random = new Random(42);
+		for (int round = 0; round < 20; round++) {
+			RoaringBitmap a = new RoaringBitmap();
+			RoaringBitmap b = new RoaringBitmap();
+			BitSet aExpected = new BitSet();
+			BitSet bExpected = new BitSet();
+			fill(random, a, aExpected);
+			fill(random, b, bExpected);
+			check(same(a, aExpected) && same(b, bExpected), "the random sets, round " + round);
+			check(same(roundTrip(a), aExpected), "the random set read back, round " + round);
+	
+			BitSet union = (BitSet) aExpected.clone();
+			union.or(bExpected);
+			check(same(RoaringBitmap.or(a, b), union), "the union of the random sets, round " + round);
+		}
+	}
+	
+	private static void fill(Random random, RoaringBitmap bitmap, BitSet expected) {
+		for (int chunk = 0; chunk < 4; chunk++) {
+			// Up to twice the ints of an array container, in a chunk or spread over several.
+			int count = random.nextInt(2 * ARRAY_MAX);
+			int range = random.nextBoolean() ? 65536 : 4 * 65536;
+			int base = random.nextInt(8) * 65536;
+			for (int i = 0; i < count; i++) {
+				int x = base + random.nextInt(range);
+				if (random.nextInt(4) == 0) {
+					bitmap.remove(x);
+					expected.clear(x);
+				} else {
+					bitmap.add(x);
+					expected.set(x);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns true iff bitmap holds the ints of expected, whichever way it is asked.
+	 */
+	private static boolean same(RoaringBitmap bitmap, BitSet expected) {
+		int[] values = bitmap.toArray();
+		if (values.length != expected.cardinality() || bitmap.getCardinality() != values.length
+				|| bitmap.isEmpty() != expected.isEmpty()) {
+			return false;
+		}
+		int x = expected.nextSetBit(0);
+		for (int value : values) {
+			if (value != x || !bitmap.contains(value)) {
+				return false;
+			}
+			x = expected.nextSetBit(x + 1);
+			// An int between two that are in the set.
+			if (x > value + 1 && bitmap.contains(value + 1)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static RoaringBitmap roundTrip(RoaringBitmap bitmap) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bitmap.write(new DataOutputStream(bytes));
+		return RoaringBitmap.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+	
+	/**
+	 * Returns the number of bytes written for bitmap.
+	 */
+	private static int length(RoaringBitmap bitmap) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bitmap.write(new DataOutputStream(bytes));
+		return bytes.size();
+	}
+	
+	private static int arrayLength(int size) {
+		return HEADER + CONTAINER_HEADER + 4 + 2 * size;
+	}
+	
+	private static int bitmapLength() {
+		return HEADER + CONTAINER_HEADER + 8192;
+	}
+	
+	private static void check(boolean condition, String expected) {
+		if (!condition) {
+			throw new AssertionError("Expected: " + expected);
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package component;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+import javax.swing.RepaintManager;
+import javax.swing.SwingUtilities;
+
+import loader.PhotoHeader;
+import loader.PhotoLoader;
+import model.PhotoModel;
+
+/**
+ * Checks that many components, each with its own model, load and paint their photos
+ * and annotations in parallel without showing those of another component.
+ * The photos are loaded and the components painted from one thread each, 
+ * 1, 2, 4 up to N at a time, and the time of each round is printed. Each component
+ * has a stroke and a line of text of its own, and paints the same in parallel as alone.
+ *
+ * Usage: java -Djava.awt.headless=true component.PhotoComponentScalingTest [N]
+ */
+public class PhotoComponentScalingTest {
+	
+	private static final int WIDTH = 320;
+	
+	// Vertical distance between the strokes of two components.
+	private static final int STROKE_SPACING = 6;
+	
+	// Height of the line of text below the strokes.
+	private static final int TEXT_HEIGHT = 40;
+	
+	public static void main(String[] args) throws Exception {
+		int components = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		File folder = Files.createTempDirectory("photo-components").toFile();
+		ExecutorService executor = Executors.newFixedThreadPool(components);
+		try {
+			// Not shown, so painted into images without the shared buffer of the repaint manager.
+			SwingUtilities.invokeAndWait(new Runnable() {
+				@Override
+				public void run() {
+					RepaintManager.currentManager(null).setDoubleBufferingEnabled(false);
+				}
+			});
+			
+			File[] photos = new File[components];
+			for (int i = 0; i < components; i++) {
+				photos[i] = new File(folder, "photo" + i + ".jpg");
+				BufferedImage image = new BufferedImage(WIDTH, getHeight(components), BufferedImage.TYPE_INT_RGB);
+				Graphics2D g2 = image.createGraphics();
+				g2.setColor(getColor(i, components));
+				g2.fillRect(0, 0, image.getWidth(), image.getHeight());
+				g2.dispose();
+				ImageIO.write(image, "jpg", photos[i]);
+			}
+			
+			for (int n = 1; ; n = Math.min(n * 2, components)) {
+				round(executor, photos, n, components);
+				if (n == components) {
+					break;
+				}
+			}
+			System.out.println("PhotoComponentScalingTest passed");
+		} finally {
+			executor.shutdown();
+			for (File file : folder.listFiles()) {
+				file.delete();
+			}
+			folder.delete();
+		}
+		System.exit(0);
+	}
+	
+	/**
+	 * Loads and paints the first n photos in parallel, each in its own component
+	 * with a stroke at its own height, and checks what each component painted.
+	 */
+	private static void round(ExecutorService executor, final File[] photos, int n, final int components) throws Exception {
+		final PhotoComponent[] views = new PhotoComponent[n];
+		
+		// Load.
+		long start = System.nanoTime();
+		List<Future<Void>> loads = new ArrayList<Future<Void>>();
+		for (int i = 0; i < n; i++) {
+			final int index = i;
+			loads.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					final PhotoHeader header = PhotoLoader.readHeader(photos[index]);
+					final BufferedImage image = PhotoLoader.load(photos[index]);
+					SwingUtilities.invokeAndWait(new Runnable() {
+						@Override
+						public void run() {
+							PhotoComponent view = new PhotoComponent(header);
+							view.setImage(image);
+							view.getModel().setImageFlipped(true);
+							for (int x = 10; x < WIDTH - 10; x += 20) {
+								view.addDrawnPoint(x, getStrokeY(index));
+							}
+							view.endStroke();
+							view.startTextBlock(new Point(10, getStrokeY(components)));
+							for (char c : ("Photo " + index + " of " + components).toCharArray()) {
+								view.insertText(c);
+							}
+							view.endTextBlock();
+							view.getModel().setImageFlipped(false);
+							views[index] = view;
+						}
+					});
+					return null;
+				}
+			}));
+		}
+		waitFor(loads);
+		long loaded = System.nanoTime();
+		
+		// Paint the photo, then the strokes on the back of it.
+		final BufferedImage[] fronts = paint(executor, views);
+		SwingUtilities.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+				for (PhotoComponent view : views) {
+					view.getModel().setImageFlipped(true);
+				}
+			}
+		});
+		final BufferedImage[] backs = paint(executor, views);
+		long painted = System.nanoTime();
+		
+		// Painted again one at a time.
+		final BufferedImage[] alone = new BufferedImage[n];
+		for (int i = 0; i < n; i++) {
+			alone[i] = paint(executor, new PhotoComponent[] {views[i]})[0];
+		}
+		
+		for (int i = 0; i < n; i++) {
+			PhotoModel model = views[i].getModel();
+			for (int j = 0; j < i; j++) {
+				check(model != views[j].getModel(), "a model of its own for component " + i);
+				check(views[i].getUI().getGlyphCache() != views[j].getUI().getGlyphCache(), 
+						"shaped text of its own for component " + i);
+			}
+			check(model.getStrokes().getStrokeCount() == 1, "one stroke in component " + i + ", not " 
+					+ model.getStrokes().getStrokeCount());
+			check(getClosestColor(fronts[i].getRGB(WIDTH / 2, fronts[i].getHeight() / 2), components) == i, 
+					"the photo of component " + i);
+			check(hasInk(backs[i], getStrokeY(components)), "the text of component " + i);
+			check(isSame(backs[i], alone[i]), "the same annotations on component " + i + " painted alone");
+			for (int j = 0; j < components; j++) {
+				boolean ink = (backs[i].getRGB(WIDTH / 2, getStrokeY(j)) & 0xFFFFFF) != 0xFFFFFF;
+				check(ink == (i == j), (i == j ? "the stroke of component " : "no stroke of component ") + j 
+						+ " on component " + i);
+			}
+		}
+		
+		System.out.printf("%d components: loaded in %.1f ms, painted in %.1f ms%n", 
+				n, (loaded - start) / 1e6, (painted - loaded) / 1e6);
+		for (PhotoComponent view : views) {
+			view.release();
+		}
+	}
+	
+	/**
+	 * Paints each component into an image of its own, from one thread each.
+	 */
+	private static BufferedImage[] paint(ExecutorService executor, final PhotoComponent[] views) throws Exception {
+		final BufferedImage[] images = new BufferedImage[views.length];
+		List<Future<Void>> paints = new ArrayList<Future<Void>>();
+		for (int i = 0; i < views.length; i++) {
+			final int index = i;
+			paints.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					PhotoComponent view = views[index];
+					images[index] = new BufferedImage(view.getWidth(), view.getHeight(), BufferedImage.TYPE_INT_RGB);
+					Graphics2D g2 = images[index].createGraphics();
+					view.paint(g2);
+					g2.dispose();
+					return null;
+				}
+			}));
+		}
+		waitFor(paints);
+		return images;
+	}
+	
+	private static void waitFor(List<Future<Void>> futures) throws Exception {
+		for (Future<Void> future : futures) {
+			future.get();
+		}
+	}
+	
+	private static int getHeight(int components) {
+		return getStrokeY(components) + TEXT_HEIGHT;
+	}
+	
+	private static int getStrokeY(int index) {
+		return 10 + index * STROKE_SPACING;
+	}
+	
+	/**
+	 * Returns true iff image has anything but white from row y down.
+	 */
+	private static boolean hasInk(BufferedImage image, int y) {
+		for (; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				if ((image.getRGB(x, y) & 0xFFFFFF) != 0xFFFFFF) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	private static boolean isSame(BufferedImage image, BufferedImage other) {
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				if (image.getRGB(x, y) != other.getRGB(x, y)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	private static Color getColor(int index, int components) {
+		return Color.getHSBColor((float) index / components, 0.8f, 0.9f);
+	}
+	
+	/**
+	 * Returns the index of the photo whose color is closest to rgb.
+	 */
+	private static int getClosestColor(int rgb, int components) {
+		Color color = new Color(rgb);
+		int closest = -1;
+		int closestDistance = Integer.MAX_VALUE;
+		for (int i = 0; i < components; i++) {
+			Color other = getColor(i, components);
+			int red = color.getRed() - other.getRed();
+			int green = color.getGreen() - other.getGreen();
+			int blue = color.getBlue() - other.getBlue();
+			int distance = red * red + green * green + blue * blue;
+			if (distance < closestDistance) {
+				closest = i;
+				closestDistance = distance;
+			}
+		}
+		return closest;
+	}
+	
+	private static void check(boolean condition, String expected) {
+		if (!condition) {
+			throw new AssertionError("Expected: " + expected);
+		}
+	}
+}
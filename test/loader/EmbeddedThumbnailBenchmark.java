@@ -0,0 +1,159 @@
+package loader;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Times a 160 pixel thumbnail of a JPEG photo taken from its embedded EXIF thumbnail,
+ * against a subsampled decode and a full decode of the photo, and counts the bytes 
+ * allocated by each. Without photo files, a 24 MP photo of noise is written first, 
+ * with a 160 pixel thumbnail in its EXIF data.
+ *
+ * Usage: java loader.EmbeddedThumbnailBenchmark [JPEG files]
+ */
+public class EmbeddedThumbnailBenchmark {
+	
+	private static final int SIZE = 160;
+	private static final int RUNS = 5;
+	
+	/**
+	 * One way of making the thumbnail of a photo.
+	 */
+	private interface Thumbnail {
+		BufferedImage load(File file) throws IOException;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		File[] files = new File[args.length];
+		File written = null;
+		if (args.length == 0) {
+			written = File.createTempFile("benchmark", ".jpg");
+			write(written, 6000, 4000);
+			files = new File[] {written};
+		} else {
+			for (int i = 0; i < args.length; i++) {
+				files[i] = new File(args[i]);
+			}
+		}
+		
+		try {
+			for (File file : files) {
+				PhotoHeader header = PhotoLoader.readHeader(file);
+				System.out.printf("%s, %dx%d, %.1f MB%n", file.getName(), header.getWidth(), header.getHeight(), 
+						file.length() / 1e6);
+				measure("embedded thumbnail", file, new Thumbnail() {
+					@Override
+					public BufferedImage load(File file) {
+						BufferedImage embedded = PhotoLoader.loadEmbeddedThumbnail(file);
+						return embedded != null ? PhotoLoader.scaleToFit(embedded, SIZE) : null;
+					}
+				});
+				measure("subsampled decode", file, new Thumbnail() {
+					@Override
+					public BufferedImage load(File file) throws IOException {
+						return PhotoLoader.loadThumbnail(file, SIZE);
+					}
+				});
+				measure("full decode", file, new Thumbnail() {
+					@Override
+					public BufferedImage load(File file) throws IOException {
+						return PhotoLoader.scaleToFit(PhotoLoader.load(file), SIZE);
+					}
+				});
+			}
+		} finally {
+			if (written != null) {
+				written.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Makes the thumbnail of file once to warm up, then RUNS times, and prints the averages.
+	 */
+	private static void measure(String name, File file, Thumbnail thumbnail) throws IOException {
+		if (thumbnail.load(file) == null) {
+			System.out.printf("  %-20s none%n", name);
+			return;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		long time = 0;
+		long allocated = 0;
+		BufferedImage image = null;
+		for (int run = 0; run < RUNS; run++) {
+			long bytes = threads.getThreadAllocatedBytes(id);
+			long start = System.nanoTime();
+			image = thumbnail.load(file);
+			time += System.nanoTime() - start;
+			allocated += threads.getThreadAllocatedBytes(id) - bytes;
+		}
+		System.out.printf("  %-20s %8.2f ms %9.2f MB allocated, %dx%d%n", 
+				name, time / 1e6 / RUNS, allocated / 1e6 / RUNS, image.getWidth(), image.getHeight());
+	}
+	
+	/**
+	 * Writes a JPEG photo of noise, with an EXIF segment that holds a thumbnail of it.
+	 */
+	private static void write(File file, int width, int height) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(42);
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				row[x] = random.nextInt(0x1000000);
+			}
+			image.setRGB(0, y, width, 1, row, 0, width);
+		}
+		ByteArrayOutputStream photo = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", photo);
+		ByteArrayOutputStream thumbnail = new ByteArrayOutputStream();
+		ImageIO.write(PhotoLoader.scaleToFit(image, SIZE), "jpg", thumbnail);
+		
+		// Big endian TIFF: header, IFD0 with the orientation, IFD1 pointing to the thumbnail.
+		ByteArrayOutputStream tiffBytes = new ByteArrayOutputStream();
+		DataOutputStream tiff = new DataOutputStream(tiffBytes);
+		tiff.writeBytes("MM");
+		tiff.writeShort(42);
+		tiff.writeInt(8);
+		tiff.writeShort(1);
+		tiff.writeShort(0x0112);	// Orientation, SHORT.
+		tiff.writeShort(3);
+		tiff.writeInt(1);
+		tiff.writeShort(1);
+		tiff.writeShort(0);
+		tiff.writeInt(8 + 2 + 12 + 4);
+		tiff.writeShort(2);
+		tiff.writeShort(0x0201);	// Thumbnail offset, LONG.
+		tiff.writeShort(4);
+		tiff.writeInt(1);
+		tiff.writeInt(8 + 2 + 12 + 4 + 2 + 2 * 12 + 4);
+		tiff.writeShort(0x0202);	// Thumbnail length, LONG.
+		tiff.writeShort(4);
+		tiff.writeInt(1);
+		tiff.writeInt(thumbnail.size());
+		tiff.writeInt(0);			// No IFD2.
+		tiff.write(thumbnail.toByteArray());
+		
+		// The segment goes right after the start of image marker of the photo.
+		ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(jpeg);
+		out.writeShort(0xFFD8);
+		out.writeShort(0xFFE1);
+		out.writeShort(2 + 6 + tiffBytes.size());
+		out.writeBytes("Exif");
+		out.writeShort(0);
+		out.write(tiffBytes.toByteArray());
+		byte[] photoBytes = photo.toByteArray();
+		out.write(photoBytes, 2, photoBytes.length - 2);
+		Files.write(file.toPath(), jpeg.toByteArray());
+	}
+}
@@ -0,0 +1,94 @@
+package loader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Checks the JPEG marker parser on files whose EXIF data is valid or corrupt:
+ * corrupt values are skipped, and the dimensions and the rest are still read.
+ *
+ * Usage: java loader.JpegMetadataReaderTest
+ */
+public class JpegMetadataReaderTest {
+	
+	private static final String DATE = "2019:07:14 18:30:05";
+	
+	public static void main(String[] args) throws Exception {
+		File file = File.createTempFile("exif", ".jpg");
+		try {
+			write(file, DATE.length() + 1);
+			JpegMetadata metadata = JpegMetadataReader.read(file);
+			check(metadata.getWidth() == 640 && metadata.getHeight() == 480, "the dimensions of the frame header");
+			check(metadata.getOrientation() == 6, "orientation 6, not " + metadata.getOrientation());
+			check(metadata.getCaptureTime() > 0, "the capture date");
+	
+			// Counts of the date that do not fit in the segment.
+			for (int count : new int[] {-5, Integer.MIN_VALUE, Integer.MAX_VALUE - 8, 1 << 20}) {
+				write(file, count);
+				metadata = JpegMetadataReader.read(file);
+				check(metadata.getWidth() == 640 && metadata.getHeight() == 480, "the dimensions with count " + count);
+				check(metadata.getOrientation() == 6, "the orientation with count " + count);
+				PhotoHeader header = PhotoLoader.readHeader(file);
+				check(header.getWidth() == 640 && header.getOrientation() == 6, "a header with count " + count);
+			}
+			System.out.println("JpegMetadataReaderTest passed");
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Writes the markers of a 640x480 JPEG file, with EXIF orientation 6 and a date
+	 * of count characters, up to the start of its scan.
+	 */
+	private static void write(File file, int count) throws IOException {
+		// Big endian TIFF: header, IFD0 of two entries, then the date.
+		ByteArrayOutputStream tiffBytes = new ByteArrayOutputStream();
+		DataOutputStream tiff = new DataOutputStream(tiffBytes);
+		tiff.writeBytes("MM");
+		tiff.writeShort(42);
+		tiff.writeInt(8);
+		tiff.writeShort(2);
+		tiff.writeShort(0x0112);	// Orientation, SHORT.
+		tiff.writeShort(3);
+		tiff.writeInt(1);
+		tiff.writeShort(6);
+		tiff.writeShort(0);
+		tiff.writeShort(0x0132);	// DateTime, ASCII.
+		tiff.writeShort(2);
+		tiff.writeInt(count);
+		tiff.writeInt(8 + 2 + 2 * 12 + 4);
+		tiff.writeInt(0);			// No IFD1.
+		tiff.writeBytes(DATE);
+		tiff.writeByte(0);
+	
+		ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(jpeg);
+		out.writeShort(0xFFD8);
+		out.writeShort(0xFFE1);
+		out.writeShort(2 + 6 + tiffBytes.size());
+		out.writeBytes("Exif");
+		out.writeShort(0);
+		out.write(tiffBytes.toByteArray());
+		out.writeShort(0xFFC0);		// Frame header, one component.
+		out.writeShort(11);
+		out.writeByte(8);
+		out.writeShort(480);
+		out.writeShort(640);
+		out.writeByte(1);
+		out.writeByte(1);
+		out.writeByte(0x11);
+		out.writeByte(0);
+		out.writeShort(0xFFDA);
+		Files.write(file.toPath(), jpeg.toByteArray());
+	}
+	
+	private static void check(boolean condition, String expected) {
+		if (!condition) {
+			throw new AssertionError("Expected: " + expected);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package loader;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+/**
+ * Times opening a photo and counts the bytes allocated and kept by each open, 
+ * for the loader against the former ImageIO.read followed by an ImageIcon of the
+ * same file, which decoded each photo twice. Without photo files, a 24 MP photo 
+ * of noise is written first.
+ *
+ * Usage: java -Djava.awt.headless=true loader.PhotoLoaderBenchmark [photo files]
+ */
+public class PhotoLoaderBenchmark {
+	
+	private static final int RUNS = 5;
+	
+	/**
+	 * One way of opening a photo, returning what is kept while it is shown.
+	 */
+	private interface Open {
+		Object open(File file) throws IOException;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		File[] files = new File[args.length];
+		File written = null;
+		if (args.length == 0) {
+			written = File.createTempFile("benchmark", ".jpg");
+			ImageIO.write(createNoise(6000, 4000), "jpg", written);
+			files = new File[] {written};
+		} else {
+			for (int i = 0; i < args.length; i++) {
+				files[i] = new File(args[i]);
+			}
+		}
+		
+		try {
+			for (File file : files) {
+				PhotoHeader header = PhotoLoader.readHeader(file);
+				System.out.printf("%s, %dx%d, %.1f MB%n", file.getName(), header.getWidth(), header.getHeight(), 
+						file.length() / 1e6);
+				measure("ImageIO.read + ImageIcon", file, new Open() {
+					@Override
+					public Object open(File file) throws IOException {
+						BufferedImage image = ImageIO.read(file);
+						ImageIcon icon = new ImageIcon(file.getPath());
+						icon.getIconWidth();
+						return new Object[] {image, icon};
+					}
+				});
+				measure("PhotoLoader.load", file, new Open() {
+					@Override
+					public Object open(File file) throws IOException {
+						return PhotoLoader.load(file);
+					}
+				});
+				measure("PhotoLoader.readHeader", file, new Open() {
+					@Override
+					public Object open(File file) throws IOException {
+						return PhotoLoader.readHeader(file);
+					}
+				});
+			}
+		} finally {
+			if (written != null) {
+				written.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Opens file once to warm up, then RUNS times, and prints the averages.
+	 */
+	private static void measure(String name, File file, Open open) throws IOException {
+		release(open.open(file));
+		long time = 0;
+		long allocated = 0;
+		long kept = 0;
+		for (int run = 0; run < RUNS; run++) {
+			long heap = usedHeap();
+			Map<Long, Long> bytes = allocatedBytes();
+			long start = System.nanoTime();
+			Object opened = open.open(file);
+			time += System.nanoTime() - start;
+			allocated += allocatedSince(bytes);
+			kept += usedHeap() - heap;
+			release(opened);
+		}
+		System.out.printf("  %-26s %8.1f ms %9.1f MB allocated %9.1f MB kept%n", 
+				name, time / 1e6 / RUNS, allocated / 1e6 / RUNS, kept / 1e6 / RUNS);
+	}
+	
+	/**
+	 * Drops the pixels of the icons in opened, which the toolkit would otherwise 
+	 * keep for the next icon of the same file.
+	 */
+	private static void release(Object opened) {
+		if (opened instanceof Object[]) {
+			for (Object o : (Object[]) opened) {
+				if (o instanceof ImageIcon) {
+					((ImageIcon) o).getImage().flush();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the bytes allocated so far by each live thread, by thread id, 
+	 * including the threads the toolkit decodes icons on.
+	 */
+	private static Map<Long, Long> allocatedBytes() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long[] ids = threads.getAllThreadIds();
+		long[] bytes = threads.getThreadAllocatedBytes(ids);
+		Map<Long, Long> allocated = new HashMap<Long, Long>();
+		for (int i = 0; i < ids.length; i++) {
+			if (bytes[i] >= 0) {
+				allocated.put(ids[i], bytes[i]);
+			}
+		}
+		return allocated;
+	}
+	
+	/**
+	 * Returns the bytes allocated by the live threads since before was taken.
+	 */
+	private static long allocatedSince(Map<Long, Long> before) {
+		long total = 0;
+		for (Map.Entry<Long, Long> thread : allocatedBytes().entrySet()) {
+			Long bytes = before.get(thread.getKey());
+			total += thread.getValue() - (bytes != null ? bytes : 0);
+		}
+		return total;
+	}
+	
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	private static BufferedImage createNoise(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(42);
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				row[x] = random.nextInt(0x1000000);
+			}
+			image.setRGB(0, y, width, 1, row, 0, width);
+		}
+		return image;
+	}
+}
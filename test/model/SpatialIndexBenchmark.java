@@ -0,0 +1,172 @@
+package model;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.Random;
+
+import cache.GlyphCache;
+import render.PhotoRenderer;
+
+/**
+ * Times the spatial index of the strokes at 1M segments: adding the points, 
+ * finding the segments in small regions against a scan of all segments, 
+ * and painting a small clip against painting every segment.
+ *
+ * Usage: java -Djava.awt.headless=true model.SpatialIndexBenchmark [segments]
+ */
+public class SpatialIndexBenchmark {
+	
+	// Side of the canvas the strokes are drawn on.
+	private static final int CANVAS = 16384;
+	
+	// Segments in each stroke.
+	private static final int STROKE_SEGMENTS = 100;
+	
+	// Side of the regions that are queried and painted, a typical repaint.
+	private static final int REGION = 256;
+	
+	private static final int QUERIES = 1000;
+	private static final int PAINTS = 200;
+	private static final int FULL_PAINTS = 3;
+	
+	public static void main(String[] args) {
+		int segments = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		Random random = new Random(42);
+		
+		// Add.
+		long heap = usedHeap();
+		long start = System.nanoTime();
+		StrokeStore strokes = new StrokeStore();
+		for (int stroke = 0; stroke < segments / STROKE_SEGMENTS; stroke++) {
+			int x = random.nextInt(CANVAS);
+			int y = random.nextInt(CANVAS);
+			for (int point = 0; point <= STROKE_SEGMENTS; point++) {
+				x = Math.max(0, Math.min(CANVAS - 1, x + random.nextInt(9) - 4));
+				y = Math.max(0, Math.min(CANVAS - 1, y + random.nextInt(9) - 4));
+				strokes.addPoint(x, y);
+			}
+			strokes.endStroke();
+		}
+		long added = System.nanoTime() - start;
+		System.out.printf("%d segments in %d strokes: added in %.0f ms, %.1f MB%n", 
+				strokes.getPointCount() - strokes.getStrokeCount(), strokes.getStrokeCount(), 
+				added / 1e6, (usedHeap() - heap) / 1e6);
+		
+		// Query.
+		Rectangle[] regions = new Rectangle[QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			regions[i] = new Rectangle(random.nextInt(CANVAS - REGION), random.nextInt(CANVAS - REGION), REGION, REGION);
+		}
+		for (int round = 0; round < 3; round++) {
+			// The last round is measured, after the JIT compiled both paths.
+			long indexed = 0;
+			long scanned = 0;
+			long foundIndexed = 0;
+			long foundScanned = 0;
+			long visited = 0;
+			for (final Rectangle region : regions) {
+				RegionCounter counter = new RegionCounter(region);
+				start = System.nanoTime();
+				strokes.visitSegmentsIn(region, counter);
+				indexed += System.nanoTime() - start;
+				foundIndexed += counter.found;
+				visited += counter.visited;
+				
+				counter = new RegionCounter(region);
+				start = System.nanoTime();
+				strokes.visitSegments(counter);
+				scanned += System.nanoTime() - start;
+				foundScanned += counter.found;
+			}
+			check(foundIndexed == foundScanned, foundScanned + " segments found by the index, not " + foundIndexed);
+			if (round == 2) {
+				System.out.printf("query of %dx%d: index %.1f us, %d segments visited; scan %.1f us; %d segments found%n", 
+						REGION, REGION, indexed / 1e3 / QUERIES, visited / QUERIES, scanned / 1e3 / QUERIES, 
+						foundIndexed / QUERIES);
+			}
+		}
+		
+		// Paint.
+		PhotoModel model = new PhotoModel();
+		model.setImageSize(CANVAS, CANVAS);
+		model.setAnnotations(strokes, Collections.<TextBlock>emptyList());
+		model.setDrawColor(Color.black);
+		PhotoRenderer renderer = new PhotoRenderer(new GlyphCache(16));
+		BufferedImage image = new BufferedImage(REGION, REGION, BufferedImage.TYPE_INT_RGB);
+		long clipped = 0;
+		for (int round = 0; round < 2; round++) {
+			clipped = 0;
+			for (int i = 0; i < PAINTS; i++) {
+				Rectangle region = regions[i];
+				Graphics2D g2 = image.createGraphics();
+				g2.translate(-region.x, -region.y);
+				g2.clip(region);
+				start = System.nanoTime();
+				renderer.setUpGraphics(g2, model);
+				renderer.drawStrokes(g2, model);
+				clipped += System.nanoTime() - start;
+				g2.dispose();
+			}
+		}
+		long full = 0;
+		for (int i = 0; i < FULL_PAINTS; i++) {
+			Rectangle region = regions[i];
+			final Graphics2D g2 = image.createGraphics();
+			g2.translate(-region.x, -region.y);
+			g2.clip(region);
+			start = System.nanoTime();
+			renderer.setUpGraphics(g2, model);
+			// Every segment, clipped by the graphics as before the index.
+			strokes.visitSegments(new StrokeStore.SegmentVisitor() {
+				@Override
+				public void segment(int x1, int y1, int x2, int y2) {
+					g2.drawLine(x1, y1, x2, y2);
+				}
+			});
+			full += System.nanoTime() - start;
+			g2.dispose();
+		}
+		System.out.printf("paint of a %dx%d clip: index %.2f ms, every segment %.0f ms%n", 
+				REGION, REGION, clipped / 1e6 / PAINTS, full / 1e6 / FULL_PAINTS);
+	}
+	
+	/**
+	 * Counts the segments whose bounding box intersects a region.
+	 */
+	private static class RegionCounter implements StrokeStore.SegmentVisitor {
+		
+		private final Rectangle region;
+		private long visited;
+		private long found;
+		
+		RegionCounter(Rectangle region) {
+			this.region = region;
+		}
+		
+		@Override
+		public void segment(int x1, int y1, int x2, int y2) {
+			visited++;
+			if (Math.max(x1, x2) >= region.x && Math.min(x1, x2) < region.x + region.width
+					&& Math.max(y1, y2) >= region.y && Math.min(y1, y2) < region.y + region.height) {
+				found++;
+			}
+		}
+	}
+	
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	private static void check(boolean condition, String expected) {
+		if (!condition) {
+			throw new AssertionError("Expected: " + expected);
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package model;
+
+import java.awt.Rectangle;
+
+/**
+ * Checks that the index holds items anywhere in the range of ints, and finds them.
+ *
+ * Usage: java model.SpatialIndexTest
+ */
+public class SpatialIndexTest {
+	
+	private static int found;
+	
+	public static void main(String[] args) {
+		SpatialIndex index = new SpatialIndex();
+		index.add(1, Integer.MAX_VALUE - 5, 1500000000, Integer.MAX_VALUE - 5, 1500000000);
+		index.add(2, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE + 3, Integer.MIN_VALUE + 3);
+		index.add(3, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		index.add(4, 10, 10, 20, 20);
+		check(index.size() == 4, "4 items");
+	
+		check(count(index, Integer.MAX_VALUE - 10, 1499999990, Integer.MAX_VALUE, 1500000010) == 2, "item 1 and the whole plane");
+		check(count(index, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE) == 2, "item 2 and the whole plane");
+		check(count(index, 0, 0, 100, 100) == 2, "item 4 and the whole plane");
+		check(index.remove(1, new Rectangle(Integer.MAX_VALUE - 5, 1500000000, 1, 1)), "item 1 removed");
+		check(count(index, Integer.MAX_VALUE - 10, 1499999990, Integer.MAX_VALUE, 1500000010) == 1, "the whole plane alone");
+	
+		// A stroke far away, whose segments are indexed as it ends.
+		StrokeStore strokes = new StrokeStore();
+		strokes.addPoint(Integer.MAX_VALUE - 5, 1500000000);
+		strokes.addPoint(Integer.MAX_VALUE - 4, 1500000001);
+		strokes.endStroke();
+		check(strokes.getStrokeCount() == 1, "the stroke is kept");
+		System.out.println("SpatialIndexTest passed");
+	}
+	
+	private static int count(SpatialIndex index, int minX, int minY, int maxX, int maxY) {
+		found = 0;
+		index.query(new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1), new SpatialIndex.ItemVisitor() {
+			@Override
+			public void visit(int id) {
+				found++;
+			}
+		});
+		return found;
+	}
+	
+	private static void check(boolean condition, String expected) {
+		if (!condition) {
+			throw new AssertionError("Expected: " + expected);
+		}
+	}
+}
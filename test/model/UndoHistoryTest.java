@@ -0,0 +1,55 @@
+package model;
+
+/**
+ * Checks that the history of a model counts the memory its edits keep alive,
+ * not the size of the annotations.
+ *
+ * Usage: java model.UndoHistoryTest
+ */
+public class UndoHistoryTest {
+	
+	private static final int STROKES = 300;
+	private static final int STROKE_POINTS = 10000;
+	
+	public static void main(String[] args) {
+		PhotoModel model = new PhotoModel();
+		UndoHistory history = model.getHistory();
+		
+		// 3M points, far more than the limit at 8 bytes each.
+		for (int stroke = 0; stroke < STROKES; stroke++) {
+			for (int point = 0; point < STROKE_POINTS; point++) {
+				model.addDrawnPoint(point % 1000, stroke);
+			}
+			model.endStroke();
+		}
+		check(history.getUndoCount() == STROKES, "every stroke can be undone, not " + history.getUndoCount());
+		check(history.getMemorySize() < STROKES * 1024, "the edits alone counted, not " + history.getMemorySize());
+		
+		// The points of undone strokes are kept for redo.
+		for (int i = 0; i < 100; i++) {
+			model.undo();
+		}
+		check(history.getMemorySize() >= 100L * STROKE_POINTS * 8, "the undone points counted, not " 
+				+ history.getMemorySize());
+		for (int i = 0; i < 50; i++) {
+			model.redo();
+		}
+		check(history.getMemorySize() < 60L * STROKE_POINTS * 8, "the redone points not counted, not " 
+				+ history.getMemorySize());
+		
+		// A new stroke lets go of them.
+		model.addDrawnPoint(0, 0);
+		model.endStroke();
+		check(history.getRedoCount() == 0 && history.getMemorySize() < STROKES * 1024, 
+				"nothing left to redo, not " + history.getMemorySize() + " bytes");
+		check(history.getUndoCount() == STROKES - 50 + 1, "the strokes left can be undone, not " 
+				+ history.getUndoCount());
+		System.out.println("UndoHistoryTest passed");
+	}
+	
+	private static void check(boolean condition, String expected) {
+		if (!condition) {
+			throw new AssertionError("Expected: " + expected);
+		}
+	}
+}
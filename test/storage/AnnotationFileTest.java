@@ -0,0 +1,53 @@
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import model.StrokeStore;
+import model.TextBlock;
+
+/**
+ * Checks that a sidecar file with points out of any sane range is rejected when read,
+ * instead of being handed to the model.
+ *
+ * Usage: java storage.AnnotationFileTest
+ */
+public class AnnotationFileTest {
+	
+	public static void main(String[] args) throws Exception {
+		File file = File.createTempFile("annotations", AnnotationFile.EXTENSION);
+		try {
+			write(file, 100, 200);
+			check(AnnotationFile.read(file).getStrokes().getPointCount() == 2, "a valid file is read");
+	
+			write(file, Integer.MAX_VALUE - 5, 1500000000);
+			try {
+				AnnotationFile.read(file);
+				throw new AssertionError("Expected: an IOException for a point out of range");
+			} catch (IOException e) {
+				// Rejected.
+			}
+			System.out.println("AnnotationFileTest passed");
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Writes a file with a stroke from the origin to (x, y).
+	 */
+	private static void write(File file, int x, int y) throws IOException {
+		StrokeStore strokes = new StrokeStore();
+		strokes.addPoint(0, 0);
+		strokes.addPoint(x, y);
+		strokes.endStroke();
+		AnnotationFile.write(file, new Annotations(strokes, Collections.<TextBlock>emptyList(), null, null));
+	}
+	
+	private static void check(boolean condition, String expected) {
+		if (!condition) {
+			throw new AssertionError("Expected: " + expected);
+		}
+	}
+}
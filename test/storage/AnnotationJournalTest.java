@@ -0,0 +1,71 @@
+package storage;
+
+import java.awt.Point;
+import java.io.File;
+import java.nio.file.Files;
+
+import model.PhotoModel;
+import model.StrokeStore;
+
+/**
+ * Checks that the journal replays to the annotations of the model it recorded.
+ *
+ * Usage: java storage.AnnotationJournalTest
+ */
+public class AnnotationJournalTest {
+	
+	public static void main(String[] args) throws Exception {
+		File folder = Files.createTempDirectory("annotation-journal").toFile();
+		try {
+			strokeInterruptedByText(new File(folder, "interrupted.jpg"));
+			System.out.println("AnnotationJournalTest passed");
+		} finally {
+			for (File file : folder.listFiles()) {
+				file.delete();
+			}
+			folder.delete();
+		}
+	}
+	
+	/**
+	 * A key typed while dragging, which records text in the middle of a stroke,
+	 * and a stroke undone after it.
+	 */
+	private static void strokeInterruptedByText(File photo) throws Exception {
+		photo.createNewFile();
+		PhotoModel model = new PhotoModel();
+		AnnotationJournal journal = AnnotationJournal.open(photo, model, AnnotationJournal.SyncPolicy.NEVER);
+	
+		model.startTextBlock(new Point(10, 10));
+		model.addDrawnPoint(10, 10);
+		model.addDrawnPoint(11, 12);
+		model.insertText('a');
+		model.addDrawnPoint(12, 14);
+		model.addDrawnPoint(13, 16);
+		model.endStroke();
+		for (int i = 0; i < 3; i++) {
+			model.addDrawnPoint(50, 50 + i);
+		}
+		model.endStroke();
+		model.undo();
+		journal.flush();
+	
+		StrokeStore replayed = AnnotationJournal.read(photo).getStrokes();
+		StrokeStore strokes = model.getStrokes();
+		check(replayed.getStrokeCount() == strokes.getStrokeCount(), strokes.getStrokeCount() + " strokes, not "
+				+ replayed.getStrokeCount());
+		check(replayed.getPointCount() == strokes.getPointCount(), strokes.getPointCount() + " points, not "
+				+ replayed.getPointCount());
+		for (int point = 0; point < strokes.getPointCount(); point++) {
+			check(replayed.getX(point) == strokes.getX(point) && replayed.getY(point) == strokes.getY(point),
+					"the same point " + point);
+		}
+		journal.close();
+	}
+	
+	private static void check(boolean condition, String expected) {
+		if (!condition) {
+			throw new AssertionError("Expected: " + expected);
+		}
+	}
+}
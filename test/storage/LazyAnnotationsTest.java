@@ -0,0 +1,266 @@
+package storage;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import javax.swing.SwingUtilities;
+
+import model.PhotoModel;
+import model.StrokeStore;
+import model.TextBlock;
+
+/**
+ * Checks that annotations survive being unloaded and read again, whatever happened
+ * to the files in between, and that annotations that could not be saved are saved
+ * once the files can be written again.
+ *
+ * Usage: java -Djava.awt.headless=true storage.LazyAnnotationsTest
+ */
+public class LazyAnnotationsTest {
+	
+	private static File folder;
+	private static PhotoModel model;
+	private static LazyAnnotations annotations;
+	
+	public static void main(String[] args) throws Exception {
+		folder = Files.createTempDirectory("lazy-annotations").toFile();
+		try {
+			savedSinceOpened();
+			erasedSinceOpened();
+			saveFailed();
+			styleWhileHidden();
+			System.out.println("LazyAnnotationsTest passed");
+		} finally {
+			for (File file : folder.listFiles()) {
+				file.delete();
+			}
+			folder.delete();
+		}
+		System.exit(0);
+	}
+	
+	/**
+	 * A photo opened without annotations, annotated, then read again once collected.
+	 */
+	private static void savedSinceOpened() throws Exception {
+		final File photo = open("saved.jpg");
+		onEdt(new Runnable() {
+			@Override
+			public void run() {
+				model.setImageFlipped(true);
+				draw(100, 0);
+				model.setImageFlipped(false);
+			}
+		});
+		check(AnnotationFile.getSidecar(photo).isFile(), "the annotations are saved when hidden");
+		collect();
+		flip(true);
+		check(model.getStrokes().getPointCount() == 100, "the saved annotations are read again, not "
+				+ model.getStrokes().getPointCount() + " points");
+		flip(false);
+		check(AnnotationFile.getSidecar(photo).isFile(), "the sidecar file is kept");
+		close();
+	}
+	
+	/**
+	 * A photo opened with annotations, all erased, then annotated again once collected.
+	 */
+	private static void erasedSinceOpened() throws Exception {
+		final File photo = new File(folder, "erased.jpg");
+		photo.createNewFile();
+		AnnotationFile.write(AnnotationFile.getSidecar(photo), annotationsOf(50));
+		open("erased.jpg");
+		flip(true);
+		onEdt(new Runnable() {
+			@Override
+			public void run() {
+				model.setAnnotations(new StrokeStore(), Collections.<TextBlock>emptyList());
+				model.setImageFlipped(false);
+			}
+		});
+		check(!AnnotationFile.getSidecar(photo).isFile(), "the sidecar file of no annotations is deleted");
+		collect();
+		onEdt(new Runnable() {
+			@Override
+			public void run() {
+				model.setImageFlipped(true);
+				draw(2, 0);
+				model.setImageFlipped(false);
+			}
+		});
+		close();
+		check(AnnotationJournal.read(photo).getStrokes().getPointCount() == 2, "the new annotations are saved");
+	}
+	
+	/**
+	 * Annotations that can not be saved stay in the model, and are saved later.
+	 */
+	private static void saveFailed() throws Exception {
+		final File photo = open("failed.jpg");
+		// The temporary file the sidecar file is written to, which can not be written while a folder is there.
+		final File blocker = new File(AnnotationFile.getSidecar(photo).getPath() + ".tmp");
+		onEdt(new Runnable() {
+			@Override
+			public void run() {
+				model.setImageFlipped(true);
+				draw(100, 0);
+				blocker.mkdir();
+				model.setImageFlipped(false);
+			}
+		});
+		check(model.isAnnotationsLoaded(), "annotations that could not be saved are kept");
+		onEdt(new Runnable() {
+			@Override
+			public void run() {
+				model.setImageFlipped(true);
+				draw(50, 200);
+				model.setImageFlipped(false);
+			}
+		});
+		check(model.getStrokes().getPointCount() == 150, "edits are not dropped while they can not be saved");
+		blocker.delete();
+		flip(true);
+		flip(false);
+		check(!model.isAnnotationsLoaded(), "the annotations are unloaded once saved");
+		check(AnnotationJournal.read(photo).getStrokes().getPointCount() == 150, "all the annotations are saved");
+		close();
+	}
+	
+	/**
+	 * A color picked while the annotations are hidden, which is not theirs until they are shown.
+	 */
+	private static void styleWhileHidden() throws Exception {
+		final File photo = open("style.jpg");
+		onEdt(new Runnable() {
+			@Override
+			public void run() {
+				model.setImageFlipped(true);
+				draw(10, 0);
+				model.setDrawColor(Color.red);
+				model.setImageFlipped(false);
+				model.setDrawColor(Color.blue);
+			}
+		});
+		check(Color.red.equals(model.getDrawColor()), "the color of the hidden annotations is kept");
+		flip(true);
+		flip(false);
+		close();
+		check(Color.red.equals(AnnotationJournal.read(photo).getDrawColor()), "the color shown is saved");
+		
+		// Before the annotations were ever read.
+		Annotations saved = annotationsOf(5);
+		AnnotationFile.write(AnnotationFile.getSidecar(photo), new Annotations(saved.getStrokes(), 
+				saved.getTextBlocks(), Color.green, null));
+		open("style.jpg");
+		onEdt(new Runnable() {
+			@Override
+			public void run() {
+				model.setDrawColor(Color.blue);
+			}
+		});
+		flip(true);
+		check(Color.green.equals(model.getDrawColor()), "the saved color, not " + model.getDrawColor());
+		check(!model.canUndo(), "no edit to undo after reading the annotations");
+		flip(false);
+		close();
+		check(Color.green.equals(AnnotationJournal.read(photo).getDrawColor()), "the saved color is kept");
+	}
+	
+	/*
+	 * Helpers.
+	 */
+	
+	private static File open(String name) throws Exception {
+		final File photo = new File(folder, name);
+		photo.createNewFile();
+		model = new PhotoModel();
+		onEdt(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					annotations = LazyAnnotations.open(photo, model, AnnotationJournal.SyncPolicy.NEVER);
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		return photo;
+	}
+	
+	private static void close() throws Exception {
+		onEdt(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					annotations.close();
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Flips the photo, and waits until its annotations are read if they are.
+	 */
+	private static void flip(final boolean flipped) throws Exception {
+		onEdt(new Runnable() {
+			@Override
+			public void run() {
+				model.setImageFlipped(flipped);
+			}
+		});
+		for (int i = 0; i < 500 && flipped && !model.isAnnotationsLoaded(); i++) {
+			Thread.sleep(10);
+			onEdt(new Runnable() {
+				@Override
+				public void run() {
+					// Lets the chunks queued by the loader in.
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Clears the annotations held after they were unloaded, as the garbage collector does when memory runs low.
+	 */
+	private static void collect() throws Exception {
+		Field field = LazyAnnotations.class.getDeclaredField("unloaded");
+		field.setAccessible(true);
+		SoftReference<?> unloaded = (SoftReference<?>) field.get(annotations);
+		if (unloaded != null) {
+			unloaded.clear();
+		}
+	}
+	
+	private static void draw(int points, int y) {
+		for (int i = 0; i < points; i++) {
+			model.addDrawnPoint(i, y + i);
+		}
+		model.endStroke();
+	}
+	
+	private static Annotations annotationsOf(int points) {
+		StrokeStore strokes = new StrokeStore();
+		for (int i = 0; i < points; i++) {
+			strokes.addPoint(i, i);
+		}
+		strokes.endStroke();
+		return new Annotations(strokes, Collections.<TextBlock>emptyList(), null, null);
+	}
+	
+	private static void onEdt(Runnable runnable) throws Exception {
+		SwingUtilities.invokeAndWait(runnable);
+	}
+	
+	private static void check(boolean condition, String expected) {
+		if (!condition) {
+			throw new AssertionError("Expected: " + expected);
+		}
+	}
+}